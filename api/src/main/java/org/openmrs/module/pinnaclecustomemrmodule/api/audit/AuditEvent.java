@@ -0,0 +1,53 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.audit;
+
+/**
+ * One row of emr_access_log: who did what to which patient, and when it happened (not when it
+ * was written).
+ */
+public final class AuditEvent {
+
+    public static final String PDF_EXPORT_FULL = "PDF_EXPORT_FULL";
+    public static final String PDF_EXPORT_BATCH = "PDF_EXPORT_BATCH";
+    public static final String PATIENT_MERGE = "PATIENT_MERGE";
+    public static final String PATIENT_SPLIT = "PATIENT_SPLIT";
+    public static final String PRESCRIPTION = "PRESCRIPTION";
+    public static final String ENCOUNTER_STATUS_CHANGE = "ENCOUNTER_STATUS_CHANGE";
+
+    private final Integer patientId;
+    private final String action;
+    private final Integer userId;
+    private final long timestamp;
+
+    public AuditEvent(Integer patientId, String action, Integer userId, long timestamp) {
+        this.patientId = patientId;
+        this.action = action;
+        this.userId = userId;
+        this.timestamp = timestamp;
+    }
+
+    public Integer getPatientId() { return patientId; }
+
+    public String getAction() { return action; }
+
+    public Integer getUserId() { return userId; }
+
+    public long getTimestamp() { return timestamp; }
+
+    /**
+     * Tab-separated line for the spill file.
+     */
+    String toLine() {
+        return timestamp + "\t" + (patientId != null ? patientId : "") + "\t" + (userId != null ? userId : "") + "\t" + action;
+    }
+
+    static AuditEvent fromLine(String line) {
+        String[] parts = line.split("\t", 4);
+        if (parts.length < 4) return null;
+        try {
+            return new AuditEvent(parts[1].isEmpty() ? null : Integer.valueOf(parts[1]), parts[3],
+                    parts[2].isEmpty() ? null : Integer.valueOf(parts[2]), Long.parseLong(parts[0]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.audit;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.AuditDao;
+import org.openmrs.module.pinnaclecustomemrmodule.constants.PinnacleConstants;
+import org.openmrs.util.OpenmrsUtil;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes emr_access_log rows off the request path.
+ * <p>
+ * Services record events into a fixed-size ring buffer: a producer claims a slot with one
+ * compare-and-set on the tail and publishes the event into it, without taking a lock. A single
+ * writer thread drains the buffer every flush interval (or earlier once it is half full) and
+ * inserts the events with JDBC batches.
+ * <p>
+ * Nothing is dropped. When the database cannot be written, or the buffer is full, events are
+ * appended to a spill file in {@code pinnacle/audit} and forced to disk; the writer replays the
+ * spill file once inserts succeed again, including after a restart. Delivery is at least once: a
+ * crash in the middle of a replay can write part of it twice.
+ */
+@Component("pinnaclecustomemrmodule.AuditLog")
+public class AuditLog implements InitializingBean, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(AuditLog.class);
+
+    private static final int CAPACITY = 16384;
+    private static final int MASK = CAPACITY - 1;
+    private static final int MAX_BATCH = 1000;
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long SETTINGS_REFRESH_MILLIS = 60_000;
+    private static final String SPILL_DIRECTORY = "pinnacle/audit";
+    private static final String SPILL_FILE = "access-log.spill";
+    private static final String REPLAY_FILE = "access-log.replay";
+
+    @Autowired private AuditDao auditDao;
+    @Autowired private PlatformTransactionManager transactionManager;
+
+    private final AtomicReferenceArray<AuditEvent> slots = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private volatile String lastError;
+
+    private final Object spillLock = new Object();
+    private volatile boolean running = true;
+    private volatile long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private long settingsReadAt;
+    private Thread writer;
+
+    @Override
+    public void afterPropertiesSet() {
+        writer = new Thread(this::runWriter, "pinnacle-audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Records that the authenticated user did {@code action} to {@code patientId} just now.
+     */
+    public void record(Integer patientId, String action) {
+        offer(new AuditEvent(patientId, action, currentUserId(), System.currentTimeMillis()));
+    }
+
+    public void recordAll(Collection<Integer> patientIds, String action) {
+        Integer userId = currentUserId();
+        long now = System.currentTimeMillis();
+        for (Integer patientId : patientIds) {
+            offer(new AuditEvent(patientId, action, userId, now));
+        }
+    }
+
+    /**
+     * Like {@link #record}, but only once the current transaction commits; nothing is recorded for
+     * a rolled back change. Records immediately if there is no transaction.
+     */
+    public void recordAfterCommit(Integer patientId, String action) {
+        AuditEvent event = new AuditEvent(patientId, action, currentUserId(), System.currentTimeMillis());
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            offer(event);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+
+            @Override
+            public void afterCommit() {
+                offer(event);
+            }
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("buffered", tail.get() - head);
+        stats.put("capacity", CAPACITY);
+        stats.put("flushIntervalMillis", flushIntervalMillis);
+        stats.put("recorded", recorded.sum());
+        stats.put("written", written.sum());
+        stats.put("spilled", spilled.sum());
+        stats.put("replayed", replayed.sum());
+        stats.put("overflowed", overflowed.sum());
+        stats.put("lost", lost.sum());
+        stats.put("spillPending", Files.exists(spillPath(SPILL_FILE)) || Files.exists(spillPath(REPLAY_FILE)));
+        stats.put("lastError", lastError);
+        return stats;
+    }
+
+    private void offer(AuditEvent event) {
+        recorded.increment();
+        long t;
+        do {
+            t = tail.get();
+            if (t - head >= CAPACITY) {
+                // Writer cannot keep up: go straight to disk rather than block the caller
+                overflowed.increment();
+                spill(Collections.singletonList(event));
+                return;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        slots.set((int) (t & MASK), event);
+
+        if (t - head >= CAPACITY / 2) LockSupport.unpark(writer);
+    }
+
+    /**
+     * Moves up to {@code max} published events into {@code into}. Only the writer thread calls
+     * this, so {@code head} has a single writer.
+     */
+    private void drain(List<AuditEvent> into, int max) {
+        long h = head;
+        long t = tail.get();
+        while (h < t && into.size() < max) {
+            int index = (int) (h & MASK);
+            AuditEvent event = slots.get(index);
+            if (event == null) break; // Claimed but not yet published
+            slots.lazySet(index, null);
+            into.add(event);
+            h++;
+        }
+        head = h;
+    }
+
+    private void runWriter() {
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis));
+            flush();
+        }
+        flush();
+    }
+
+    private void flush() {
+        try {
+            Context.openSession();
+            try {
+                refreshSettings();
+                boolean databaseUp = replaySpill();
+                List<AuditEvent> batch = new ArrayList<>(MAX_BATCH);
+                do {
+                    batch.clear();
+                    drain(batch, MAX_BATCH);
+                    if (batch.isEmpty()) break;
+                    if (databaseUp && insert(batch)) {
+                        written.add(batch.size());
+                    } else {
+                        databaseUp = false;
+                        spill(batch);
+                    }
+                } while (batch.size() == MAX_BATCH);
+            } finally {
+                Context.closeSession();
+            }
+        } catch (RuntimeException e) {
+            // No session at all (e.g. during shutdown): keep what is buffered on disk
+            lastError = e.getMessage();
+            List<AuditEvent> batch = new ArrayList<>();
+            drain(batch, CAPACITY);
+            spill(batch);
+        }
+    }
+
+    private boolean insert(List<AuditEvent> events) {
+        try {
+            new TransactionTemplate(transactionManager).execute(status -> {
+                auditDao.insertAccessLog(events);
+                return null;
+            });
+            return true;
+        } catch (RuntimeException e) {
+            if (lastError == null || !lastError.equals(e.getMessage())) {
+                log.warn("Could not write audit events, spilling to disk: " + e.getMessage());
+            }
+            lastError = e.getMessage();
+            return false;
+        }
+    }
+
+    private void spill(List<AuditEvent> events) {
+        if (events.isEmpty()) return;
+
+        StringBuilder lines = new StringBuilder(events.size() * 48);
+        for (AuditEvent event : events) {
+            lines.append(event.toLine()).append('\n');
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        synchronized (spillLock) {
+            try (FileChannel channel = FileChannel.open(spillPath(SPILL_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(false);
+                spilled.add(events.size());
+            } catch (IOException | RuntimeException e) {
+                lost.add(events.size());
+                log.error("Could not spill " + events.size() + " audit events to disk", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the spilled events to the database. Returns false, keeping what is left on disk, if an
+     * insert fails.
+     */
+    private boolean replaySpill() {
+        Path replay = spillPath(REPLAY_FILE);
+        synchronized (spillLock) {
+            Path spill = spillPath(SPILL_FILE);
+            if (!Files.exists(replay) && Files.exists(spill)) {
+                try {
+                    Files.move(spill, replay, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    lastError = e.getMessage();
+                    return true;
+                }
+            }
+        }
+        if (!Files.exists(replay)) return true;
+
+        long done = 0;
+        try (BufferedReader reader = Files.newBufferedReader(replay, StandardCharsets.UTF_8)) {
+            List<AuditEvent> batch = new ArrayList<>(MAX_BATCH);
+            String line;
+            long lineNumber = 0;
+            while (true) {
+                line = reader.readLine();
+                if (line != null) {
+                    lineNumber++;
+                    AuditEvent event = AuditEvent.fromLine(line);
+                    if (event != null) batch.add(event);
+                }
+                if (batch.size() == MAX_BATCH || (line == null && !batch.isEmpty())) {
+                    if (!insert(batch)) {
+                        keepUnwritten(replay, done);
+                        return false;
+                    }
+                    replayed.add(batch.size());
+                    written.add(batch.size());
+                    batch.clear();
+                    done = lineNumber;
+                }
+                if (line == null) break;
+            }
+        } catch (IOException e) {
+            lastError = e.getMessage();
+            log.error("Could not read audit spill file " + replay, e);
+            return true;
+        }
+
+        try {
+            Files.delete(replay);
+        } catch (IOException e) {
+            log.error("Could not delete replayed audit spill file " + replay, e);
+        }
+        return true;
+    }
+
+    /**
+     * Drops the first {@code lines} lines of the replay file, which are already in the database.
+     */
+    private void keepUnwritten(Path replay, long lines) {
+        if (lines == 0) return;
+
+        Path rest = replay.resolveSibling(REPLAY_FILE + ".tmp");
+        try (BufferedReader reader = Files.newBufferedReader(replay, StandardCharsets.UTF_8);
+             BufferedWriter out = Files.newBufferedWriter(rest, StandardCharsets.UTF_8)) {
+            for (long i = 0; i < lines; i++) {
+                reader.readLine();
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                out.write(line);
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            log.error("Could not trim audit spill file " + replay + "; some events may be written twice", e);
+            return;
+        }
+        try {
+            Files.move(rest, replay, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Could not trim audit spill file " + replay + "; some events may be written twice", e);
+        }
+    }
+
+    private void refreshSettings() {
+        long now = System.currentTimeMillis();
+        if (now - settingsReadAt < SETTINGS_REFRESH_MILLIS) return;
+        settingsReadAt = now;
+
+        String interval = Context.getAdministrationService().getGlobalProperty(PinnacleConstants.GP_AUDIT_FLUSH_INTERVAL_MILLIS);
+        flushIntervalMillis = Math.max(50, NumberUtils.toLong(interval, DEFAULT_FLUSH_INTERVAL_MILLIS));
+    }
+
+    private static Path spillPath(String name) {
+        File directory = OpenmrsUtil.getDirectoryInApplicationDataDirectory(SPILL_DIRECTORY);
+        return directory.toPath().resolve(name);
+    }
+
+    private static Integer currentUserId() {
+        User user = Context.getAuthenticatedUser();
+        return user != null ? user.getUserId() : null;
+    }
+}
@@ -6,7 +6,13 @@ import org.openmrs.api.EncounterService;
 import org.openmrs.api.ObsService;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.pinnaclecustomemrmodule.api.clinical.model.VitalReading;
+import org.openmrs.module.pinnaclecustomemrmodule.api.clinical.model.VitalObservation;
+import org.openmrs.module.pinnaclecustomemrmodule.api.clinical.model.VitalReadingResult;
+import org.openmrs.module.pinnaclecustomemrmodule.api.clinical.model.VitalsPage;
+import org.openmrs.module.pinnaclecustomemrmodule.api.concept.ConceptNameCache;
 import org.openmrs.module.pinnaclecustomemrmodule.api.clinical.service.ClinicalService;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.ClinicalObsDao;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -20,6 +26,8 @@ public class ClinicalServiceImpl extends BaseOpenmrsService implements ClinicalS
     @Autowired private ObsService obsService;
     @Autowired private ConceptService conceptService;
     @Autowired private EncounterService encounterService;
+    @Autowired private ConceptNameCache conceptCache;
+    @Autowired private ClinicalObsDao clinicalObsDao;
 
     // Predefined concept names (will be created in Liquibase)
     private static final String SOAP_GROUP = "SOAP Note";
@@ -36,6 +44,12 @@ public class ClinicalServiceImpl extends BaseOpenmrsService implements ClinicalS
         put("weight", "Weight (kg)");
     }};
 
+    private static final int MAX_VITALS_BATCH = 5000;
+    private static final int DEFAULT_VITALS_PAGE_SIZE = 100;
+    private static final int MAX_VITALS_PAGE_SIZE = 500;
+    // Monitor clocks drift; readings slightly ahead of the server are accepted
+    private static final long CLOCK_SKEW_MILLIS = 5 * 60 * 1000;
+
     @Override
     public Obs saveSoapNote(Integer encounterId, String subjective, String objective, String assessment, String plan) {
         Encounter encounter = getEncounter(encounterId);
@@ -101,7 +115,7 @@ public class ClinicalServiceImpl extends BaseOpenmrsService implements ClinicalS
             throw new IllegalArgumentException("Patient, conceptName, and value are required");
         }
 
-        Concept concept = conceptService.getConceptByName(conceptName);
+        Concept concept = conceptCache.getConceptByName(conceptName);
         if (concept == null) {
             throw new IllegalArgumentException("Concept not found: " + conceptName);
         }
@@ -122,13 +136,162 @@ public class ClinicalServiceImpl extends BaseOpenmrsService implements ClinicalS
 
         List<Concept> vitalConcepts = new ArrayList<>();
         for (String name : VITAL_CONCEPTS.values()) {
-            Concept c = conceptService.getConceptByName(name);
+            Concept c = conceptCache.getConceptByName(name);
             if (c != null) vitalConcepts.add(c);
         }
 
         return obsService.getObservationsByPersonAndConcepts(patient, vitalConcepts);
     }
 
+    /**
+     * Newest-first page of the patient's vitals, filtered and paged in the database. {@code vital}
+     * is optional and may be a vital key (pulse, bp_systolic, ...) or its concept name;
+     * {@code from} is inclusive and {@code to} exclusive. {@code cursor} is the
+     * {@link VitalsPage#getNextCursor()} of the previous page.
+     */
+    @Override
+    public VitalsPage getVitalsPage(Patient patient, String vital, Date from, Date to, String cursor, Integer limit) {
+        if (patient == null) return new VitalsPage(Collections.emptyList(), null);
+
+        Map<Integer, String> conceptNames = new HashMap<>();
+        boolean known = false;
+        for (Map.Entry<String, String> entry : VITAL_CONCEPTS.entrySet()) {
+            if (vital != null && !entry.getKey().equalsIgnoreCase(vital) && !entry.getValue().equalsIgnoreCase(vital)) {
+                continue;
+            }
+            known = true;
+            Concept c = conceptCache.getConceptByName(entry.getValue());
+            if (c != null) conceptNames.put(c.getConceptId(), entry.getValue());
+        }
+        if (!known) throw new IllegalArgumentException("Unknown vital: " + vital);
+        if (conceptNames.isEmpty()) return new VitalsPage(Collections.emptyList(), null);
+
+        Date afterDatetime = null;
+        Integer afterObsId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            int sep = cursor.indexOf(':');
+            try {
+                afterDatetime = new Date(Long.parseLong(cursor.substring(0, sep)));
+                afterObsId = Integer.valueOf(cursor.substring(sep + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+        }
+
+        int pageSize = limit == null || limit <= 0 ? DEFAULT_VITALS_PAGE_SIZE : Math.min(limit, MAX_VITALS_PAGE_SIZE);
+        // One extra row tells us whether another page exists
+        List<Object[]> rows = clinicalObsDao.getNumericObsPage(patient.getPatientId(), conceptNames.keySet(),
+                from, to, afterDatetime, afterObsId, pageSize + 1);
+
+        List<VitalObservation> results = new ArrayList<>(Math.min(rows.size(), pageSize));
+        for (int i = 0; i < rows.size() && i < pageSize; i++) {
+            Object[] row = rows.get(i);
+            results.add(new VitalObservation((Integer) row[0], conceptNames.get(row[3]),
+                    row[4] != null ? row[4] : row[5], (Date) row[2], (String) row[1]));
+        }
+
+        String nextCursor = null;
+        if (rows.size() > pageSize) {
+            VitalObservation last = results.get(results.size() - 1);
+            nextCursor = last.getDate().getTime() + ":" + last.getObsId();
+        }
+        return new VitalsPage(results, nextCursor);
+    }
+
+    /**
+     * Validates every reading up front, then writes the accepted ones in one JDBC batch inside this
+     * transaction. Patients, encounters, concepts and the default location are each resolved once
+     * per batch. Rejected readings do not affect the others; a database failure rolls back the
+     * whole batch. Rows are inserted directly, so ObsService save handlers are not invoked.
+     */
+    @Override
+    public List<VitalReadingResult> saveVitalsBatch(List<VitalReading> readings) {
+        if (readings == null || readings.isEmpty()) {
+            throw new IllegalArgumentException("At least one reading is required");
+        }
+        if (readings.size() > MAX_VITALS_BATCH) {
+            throw new IllegalArgumentException("A vitals batch is limited to " + MAX_VITALS_BATCH + " readings");
+        }
+
+        Set<Integer> patientIds = new HashSet<>();
+        Set<Integer> encounterIds = new HashSet<>();
+        for (VitalReading r : readings) {
+            if (r == null) continue;
+            if (r.getPatientId() != null) patientIds.add(r.getPatientId());
+            if (r.getEncounterId() != null) encounterIds.add(r.getEncounterId());
+        }
+        Set<Integer> activePatients = clinicalObsDao.getActivePatientIds(patientIds);
+        Map<Integer, ClinicalObsDao.EncounterRef> encounters = clinicalObsDao.getEncounterRefs(encounterIds);
+        Map<String, ConceptNumeric> concepts = new HashMap<>();
+        Location defaultLocation = Context.getLocationService().getDefaultLocation();
+        Integer defaultLocationId = defaultLocation != null ? defaultLocation.getLocationId() : null;
+        long latest = System.currentTimeMillis() + CLOCK_SKEW_MILLIS;
+        Date now = new Date();
+
+        List<VitalReadingResult> results = new ArrayList<>(readings.size());
+        List<ClinicalObsDao.NumericObsRow> rows = new ArrayList<>(readings.size());
+        for (int i = 0; i < readings.size(); i++) {
+            VitalReading r = readings.get(i);
+            if (r == null || r.getPatientId() == null || r.getVital() == null || r.getValue() == null) {
+                results.add(VitalReadingResult.rejected(i, "patientId, vital and value are required"));
+                continue;
+            }
+
+            String key = r.getVital().toLowerCase();
+            String conceptName = VITAL_CONCEPTS.get(key);
+            if (conceptName == null) {
+                results.add(VitalReadingResult.rejected(i, "Unknown vital: " + r.getVital()));
+                continue;
+            }
+            ConceptNumeric concept = concepts.computeIfAbsent(key, k -> {
+                Concept c = conceptCache.getConceptByName(conceptName);
+                return c != null ? conceptService.getConceptNumeric(c.getConceptId()) : null;
+            });
+            if (concept == null) {
+                results.add(VitalReadingResult.rejected(i, "Numeric concept not found in dictionary: " + conceptName));
+                continue;
+            }
+
+            double value = r.getValue();
+            if (Double.isNaN(value) || Double.isInfinite(value)
+                    || (concept.getLowAbsolute() != null && value < concept.getLowAbsolute())
+                    || (concept.getHiAbsolute() != null && value > concept.getHiAbsolute())) {
+                results.add(VitalReadingResult.rejected(i, "Value out of range for " + conceptName + ": " + value));
+                continue;
+            }
+
+            if (!activePatients.contains(r.getPatientId())) {
+                results.add(VitalReadingResult.rejected(i, "Patient not found: " + r.getPatientId()));
+                continue;
+            }
+
+            Integer locationId = defaultLocationId;
+            if (r.getEncounterId() != null) {
+                ClinicalObsDao.EncounterRef encounter = encounters.get(r.getEncounterId());
+                if (encounter == null || encounter.patientId != r.getPatientId()) {
+                    results.add(VitalReadingResult.rejected(i, "Encounter " + r.getEncounterId()
+                            + " not found for patient " + r.getPatientId()));
+                    continue;
+                }
+                if (encounter.locationId != null) locationId = encounter.locationId;
+            }
+
+            Date obsDatetime = r.getObsDatetime() != null ? r.getObsDatetime() : now;
+            if (obsDatetime.getTime() > latest) {
+                results.add(VitalReadingResult.rejected(i, "obsDatetime is in the future"));
+                continue;
+            }
+
+            String uuid = UUID.randomUUID().toString();
+            rows.add(new ClinicalObsDao.NumericObsRow(r.getPatientId(), r.getEncounterId(), concept.getConceptId(),
+                    locationId, obsDatetime, value, uuid));
+            results.add(VitalReadingResult.saved(i, uuid));
+        }
+
+        clinicalObsDao.insertNumericObs(rows, Context.getAuthenticatedUser().getUserId());
+        return results;
+    }
+
     @Override
     public Obs addDiagnosis(Patient patient, Integer icdConceptId) {
         if (patient == null || icdConceptId == null) {
@@ -189,7 +352,7 @@ public class ClinicalServiceImpl extends BaseOpenmrsService implements ClinicalS
     }
 
     private Concept getConcept(String name) {
-        Concept c = conceptService.getConceptByName(name);
+        Concept c = conceptCache.getConceptByName(name);
         if (c == null) {
             throw new IllegalStateException("Required concept not found in dictionary: " + name +
                     ". Run Liquibase update or import concept dictionary.");
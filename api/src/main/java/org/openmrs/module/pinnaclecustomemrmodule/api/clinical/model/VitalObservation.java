@@ -0,0 +1,29 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.clinical.model;
+
+import java.util.Date;
+
+/**
+ * Read-only projection of a vital-sign obs: only the columns the vitals API returns.
+ */
+public class VitalObservation {
+
+    private final Integer obsId;
+    private final String concept;
+    private final Object value;
+    private final Date date;
+    private final String uuid;
+
+    public VitalObservation(Integer obsId, String concept, Object value, Date date, String uuid) {
+        this.obsId = obsId;
+        this.concept = concept;
+        this.value = value;
+        this.date = date;
+        this.uuid = uuid;
+    }
+
+    public Integer getObsId() { return obsId; }
+    public String getConcept() { return concept; }
+    public Object getValue() { return value; }
+    public Date getDate() { return date; }
+    public String getUuid() { return uuid; }
+}
@@ -0,0 +1,38 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.clinical.model;
+
+import java.util.Date;
+
+/**
+ * One numeric reading pushed by a bedside monitor. {@code vital} is one of the keys accepted by
+ * {@code POST /encounters/{id}/vitals} (temperature, pulse, bp_systolic, ...).
+ */
+public class VitalReading {
+
+    private Integer patientId;
+    private Integer encounterId;     // Optional
+    private String vital;
+    private Double value;
+    private Date obsDatetime;        // Defaults to the time of ingestion
+
+    public VitalReading() {
+    }
+
+    public VitalReading(Integer patientId, Integer encounterId, String vital, Double value, Date obsDatetime) {
+        this.patientId = patientId;
+        this.encounterId = encounterId;
+        this.vital = vital;
+        this.value = value;
+        this.obsDatetime = obsDatetime;
+    }
+
+    public Integer getPatientId() { return patientId; }
+    public void setPatientId(Integer patientId) { this.patientId = patientId; }
+    public Integer getEncounterId() { return encounterId; }
+    public void setEncounterId(Integer encounterId) { this.encounterId = encounterId; }
+    public String getVital() { return vital; }
+    public void setVital(String vital) { this.vital = vital; }
+    public Double getValue() { return value; }
+    public void setValue(Double value) { this.value = value; }
+    public Date getObsDatetime() { return obsDatetime; }
+    public void setObsDatetime(Date obsDatetime) { this.obsDatetime = obsDatetime; }
+}
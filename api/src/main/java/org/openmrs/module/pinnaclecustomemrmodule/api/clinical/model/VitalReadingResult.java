@@ -0,0 +1,34 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.clinical.model;
+
+/**
+ * Outcome of one {@link VitalReading} in a batch, matched to the request by {@code index}.
+ */
+public class VitalReadingResult {
+
+    public enum Status { SAVED, REJECTED }
+
+    private final int index;
+    private final Status status;
+    private final String obsUuid;
+    private final String error;
+
+    private VitalReadingResult(int index, Status status, String obsUuid, String error) {
+        this.index = index;
+        this.status = status;
+        this.obsUuid = obsUuid;
+        this.error = error;
+    }
+
+    public static VitalReadingResult saved(int index, String obsUuid) {
+        return new VitalReadingResult(index, Status.SAVED, obsUuid, null);
+    }
+
+    public static VitalReadingResult rejected(int index, String error) {
+        return new VitalReadingResult(index, Status.REJECTED, null, error);
+    }
+
+    public int getIndex() { return index; }
+    public Status getStatus() { return status; }
+    public String getObsUuid() { return obsUuid; }
+    public String getError() { return error; }
+}
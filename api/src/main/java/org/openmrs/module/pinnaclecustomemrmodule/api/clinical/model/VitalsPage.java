@@ -0,0 +1,22 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.clinical.model;
+
+import java.util.List;
+
+/**
+ * One page of vitals, newest first. Pass {@link #getNextCursor()} back to fetch the following
+ * page; it is {@code null} on the last page.
+ */
+public class VitalsPage {
+
+    private final List<VitalObservation> results;
+    private final String nextCursor;
+
+    public VitalsPage(List<VitalObservation> results, String nextCursor) {
+        this.results = results;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<VitalObservation> getResults() { return results; }
+
+    public String getNextCursor() { return nextCursor; }
+}
@@ -1,7 +1,13 @@
 package org.openmrs.module.pinnaclecustomemrmodule.api.clinical.service;
 
 import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.module.pinnaclecustomemrmodule.api.clinical.model.VitalReading;
+import org.openmrs.module.pinnaclecustomemrmodule.api.clinical.model.VitalReadingResult;
+import org.openmrs.module.pinnaclecustomemrmodule.api.clinical.model.VitalsPage;
 
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 public interface ClinicalService {
@@ -13,6 +19,10 @@ public interface ClinicalService {
 
     List<Obs> getVitals(Patient patient);
 
+    VitalsPage getVitalsPage(Patient patient, String vital, Date from, Date to, String cursor, Integer limit);
+
+    List<VitalReadingResult> saveVitalsBatch(List<VitalReading> readings);
+
     Obs addDiagnosis(Patient patient, Integer icdConceptId);
 
     List<Obs> getDiagnoses(Patient patient);
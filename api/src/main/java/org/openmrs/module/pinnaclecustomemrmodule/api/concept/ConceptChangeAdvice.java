@@ -0,0 +1,37 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.concept;
+
+import org.openmrs.Concept;
+import org.openmrs.ConceptName;
+import org.openmrs.api.context.Context;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+
+/**
+ * Keeps {@link ConceptNameCache} and {@link ConceptProvisioner} consistent with the concept dictionary. Registered against
+ * {@link org.openmrs.api.ConceptService} in config.xml; runs after every successful save, retire,
+ * unretire or purge of a concept.
+ */
+public class ConceptChangeAdvice implements AfterReturningAdvice {
+
+    @Override
+    public void afterReturning(Object returnValue, Method method, Object[] args, Object target) {
+        String name = method.getName();
+        if (!(name.startsWith("save") || name.startsWith("retire") || name.startsWith("unretire")
+                || name.startsWith("purge"))) {
+            return;
+        }
+
+        ConceptNameCache cache = Context.getRegisteredComponent("pinnaclecustomemrmodule.ConceptNameCache",
+                ConceptNameCache.class);
+        ConceptProvisioner provisioner = Context.getRegisteredComponent("pinnaclecustomemrmodule.ConceptProvisioner",
+                ConceptProvisioner.class);
+        Object subject = args != null && args.length > 0 ? args[0] : null;
+        Concept concept = subject instanceof ConceptName ? ((ConceptName) subject).getConcept()
+                : subject instanceof Concept ? (Concept) subject : null;
+        if (subject instanceof Concept || subject instanceof ConceptName) {
+            cache.invalidate(concept);
+            provisioner.invalidate(concept);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.concept;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.openmrs.Concept;
+import org.openmrs.ConceptName;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.constants.PinnacleConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, expiring map from concept name and locale (or uuid) to concept id, shared by the
+ * clinical, lab, order and export services.
+ * <p>
+ * Resolving a concept by name is a query against concept_name on every call; resolving it by id
+ * is served from the Hibernate session and second-level caches. A name is resolved in the user's
+ * locale, so the same name can map to different concepts per locale. Entries are dropped by
+ * {@link ConceptChangeAdvice} whenever the dictionary changes, both those pointing at the changed
+ * concept and those keyed by its names in any locale (a name moved from another concept), once
+ * when the change is made and again when it commits, since until then other threads still read
+ * the old rows and may cache them. Otherwise entries expire after the configured TTL. Names that
+ * do not resolve are not cached, so a concept created later (for example by Liquibase) is picked
+ * up on the next lookup.
+ */
+@Component("pinnaclecustomemrmodule.ConceptNameCache")
+public class ConceptNameCache {
+
+    private static final int DEFAULT_MAX_SIZE = 2000;
+    private static final long DEFAULT_TTL_SECONDS = 3600;
+    private static final String UUID_PREFIX = "uuid:";
+    private static final char LOCALE_SEPARATOR = '|';
+
+    @Autowired
+    private ConceptService conceptService;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /** Guarded by {@link #entries}, like the map it bounds. */
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private volatile long ttlNanos = TimeUnit.SECONDS.toNanos(DEFAULT_TTL_SECONDS);
+    private volatile boolean configured;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(256, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private static final class Entry {
+
+        final Integer conceptId;
+        final long expiresAt;
+
+        Entry(Integer conceptId, long expiresAt) {
+            this.conceptId = conceptId;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Same contract as {@link ConceptService#getConceptByName(String)}.
+     */
+    public Concept getConceptByName(String name) {
+        if (StringUtils.isBlank(name)) return null;
+        return resolve(nameKey(name, Context.getLocale()), () -> conceptService.getConceptByName(name));
+    }
+
+    /**
+     * Same contract as {@link ConceptService#getConceptByUuid(String)}.
+     */
+    public Concept getConceptByUuid(String uuid) {
+        if (StringUtils.isBlank(uuid)) return null;
+        return resolve(UUID_PREFIX + uuid, () -> conceptService.getConceptByUuid(uuid));
+    }
+
+    /**
+     * Records a concept resolved elsewhere (for example one just created) under {@code name} in the
+     * user's locale.
+     */
+    public void put(String name, Concept concept) {
+        if (StringUtils.isBlank(name) || concept == null || concept.getConceptId() == null) return;
+        store(nameKey(name, Context.getLocale()), concept.getConceptId());
+    }
+
+    /**
+     * Drops every name and uuid that points at {@code concept}, and every one of its names in any
+     * locale whatever it points at: a name just moved to {@code concept} may still resolve to its
+     * old concept. Done now and again once the current transaction commits.
+     */
+    public void invalidate(Concept concept) {
+        if (concept == null || concept.getConceptId() == null) {
+            invalidateAll();
+            return;
+        }
+        Integer conceptId = concept.getConceptId();
+        Set<String> names = names(concept);
+        drop(conceptId, names);
+        afterCommit(() -> drop(conceptId, names));
+    }
+
+    public void invalidateAll() {
+        clear();
+        afterCommit(this::clear);
+    }
+
+    private void drop(Integer conceptId, Set<String> names) {
+        synchronized (entries) {
+            entries.values().removeIf(e -> e.conceptId.equals(conceptId));
+            entries.keySet().removeIf(key -> names.contains(nameOf(key)));
+        }
+        invalidations.increment();
+    }
+
+    private void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        // Pick up changed settings on the next lookup
+        configured = false;
+        invalidations.increment();
+    }
+
+    /**
+     * The lookup key of {@code name} in {@code locale}.
+     */
+    static String nameKey(String name, Locale locale) {
+        return locale + String.valueOf(LOCALE_SEPARATOR) + normalize(name);
+    }
+
+    /**
+     * The normalized name of a key made by {@link #nameKey(String, Locale)}, or null for a uuid key.
+     */
+    static String nameOf(String key) {
+        int separator = key.indexOf(LOCALE_SEPARATOR);
+        return separator < 0 || key.startsWith(UUID_PREFIX) ? null : key.substring(separator + 1);
+    }
+
+    /**
+     * The normalized form of every name of {@code concept} in every locale, voided ones included.
+     */
+    static Set<String> names(Concept concept) {
+        Set<String> names = new HashSet<>();
+        for (ConceptName name : concept.getNames(true)) {
+            if (StringUtils.isNotBlank(name.getName())) names.add(normalize(name.getName()));
+        }
+        return names;
+    }
+
+    private static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+            stats.put("maxSize", maxSize);
+        }
+        stats.put("ttlSeconds", TimeUnit.NANOSECONDS.toSeconds(ttlNanos));
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRatio", h + m == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("evictions", evictions.sum());
+        stats.put("invalidations", invalidations.sum());
+        return stats;
+    }
+
+    private interface Loader {
+
+        Concept load();
+    }
+
+    private Concept resolve(String key, Loader loader) {
+        ensureConfigured();
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+            Concept concept = conceptService.getConcept(entry.conceptId);
+            if (concept != null) {
+                hits.increment();
+                return concept;
+            }
+        }
+
+        misses.increment();
+        Concept concept = loader.load();
+        if (concept != null && concept.getConceptId() != null) {
+            store(key, concept.getConceptId());
+        } else if (entry != null) {
+            synchronized (entries) {
+                entries.remove(key);
+            }
+        }
+        return concept;
+    }
+
+    private void store(String key, Integer conceptId) {
+        ensureConfigured();
+        Entry entry = new Entry(conceptId, System.nanoTime() + ttlNanos);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    private void ensureConfigured() {
+        if (configured) return;
+
+        String size = Context.getAdministrationService().getGlobalProperty(PinnacleConstants.GP_CONCEPT_CACHE_MAX_SIZE);
+        String ttl = Context.getAdministrationService().getGlobalProperty(PinnacleConstants.GP_CONCEPT_CACHE_TTL_SECONDS);
+        ttlNanos = TimeUnit.SECONDS.toNanos(NumberUtils.toLong(ttl, DEFAULT_TTL_SECONDS));
+        int newMaxSize = Math.max(1, NumberUtils.toInt(size, DEFAULT_MAX_SIZE));
+        synchronized (entries) {
+            maxSize = newMaxSize;
+            // A smaller limit takes effect now rather than one eviction per insert
+            Iterator<String> eldest = entries.keySet().iterator();
+            while (entries.size() > maxSize && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+        configured = true;
+    }
+}
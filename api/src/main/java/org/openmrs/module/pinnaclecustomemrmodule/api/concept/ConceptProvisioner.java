@@ -0,0 +1,179 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.concept;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptNameType;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Resolves the handful of concepts the module creates on first use ("Laboratory Test Result",
+ * "Imaging Report", ...), creating each at most once.
+ * <p>
+ * Names already resolved are served from a concurrent map without locking. On a miss the first
+ * caller claims the name and creates the concept in its own transaction, which commits before
+ * anyone else sees it, so a failure of the caller's transaction does not roll the concept back.
+ * Callers racing on the same name wait, for a bounded time, for that creation instead of creating
+ * a second concept; no lock is held while the new transaction waits for its connection.
+ * <p>
+ * The caller's own transaction may have taken its snapshot before the concept was committed
+ * (MySQL REPEATABLE READ) and then cannot read it back. The concept created by the inner
+ * transaction is therefore returned as is in that case, rather than re-read by id.
+ */
+@Component("pinnaclecustomemrmodule.ConceptProvisioner")
+public class ConceptProvisioner {
+
+    private static final Log log = LogFactory.getLog(ConceptProvisioner.class);
+
+    private static final long CREATE_TIMEOUT_SECONDS = 30;
+
+    @Autowired private ConceptService conceptService;
+    @Autowired private ConceptNameCache conceptCache;
+    @Autowired private PlatformTransactionManager transactionManager;
+
+    private final Map<String, Integer> provisioned = new ConcurrentHashMap<>();
+
+    private final Map<String, CompletableFuture<Concept>> creating = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the concept named {@code name}, creating it with the given datatype and class if the
+     * dictionary has none.
+     *
+     * @throws IllegalStateException if the concept must be created and the datatype or class does
+     *             not exist, or another caller's creation of it did not finish in time
+     */
+    public Concept getOrCreate(String name, String datatypeName, String className) {
+        if (StringUtils.isBlank(name)) throw new IllegalArgumentException("Concept name is required");
+        String key = ConceptNameCache.nameKey(name, Context.getLocale());
+
+        Concept concept = fromProvisioned(key);
+        if (concept != null) return concept;
+
+        concept = conceptCache.getConceptByName(name);
+        if (concept != null) {
+            provisioned.put(key, concept.getConceptId());
+            return concept;
+        }
+
+        CompletableFuture<Concept> claim = new CompletableFuture<>();
+        CompletableFuture<Concept> running = creating.putIfAbsent(key, claim);
+        Concept created = running != null ? await(running, name) : create(key, claim, name, datatypeName, className);
+
+        Concept visible = conceptService.getConcept(created.getConceptId());
+        return visible != null ? visible : created;
+    }
+
+    /**
+     * Forgets every name that resolved to {@code concept}, so a retired or purged concept is looked
+     * up again, and every name {@code concept} now has in any locale, in case one was moved from
+     * another concept. Done now and again once the current transaction commits.
+     */
+    public void invalidate(Concept concept) {
+        if (concept == null || concept.getConceptId() == null) {
+            invalidateAll();
+            return;
+        }
+        Integer conceptId = concept.getConceptId();
+        Set<String> names = ConceptNameCache.names(concept);
+        forget(conceptId, names);
+        ConceptNameCache.afterCommit(() -> forget(conceptId, names));
+    }
+
+    public void invalidateAll() {
+        provisioned.clear();
+        ConceptNameCache.afterCommit(provisioned::clear);
+    }
+
+    private void forget(Integer conceptId, Set<String> names) {
+        provisioned.values().removeIf(id -> id.equals(conceptId));
+        provisioned.keySet().removeIf(key -> names.contains(ConceptNameCache.nameOf(key)));
+    }
+
+    private Concept fromProvisioned(String key) {
+        Integer conceptId = provisioned.get(key);
+        if (conceptId == null) return null;
+
+        Concept concept = conceptService.getConcept(conceptId);
+        if (concept == null) provisioned.remove(key, conceptId);
+        return concept;
+    }
+
+    private Concept create(String key, CompletableFuture<Concept> claim, String name, String datatypeName,
+            String className) {
+        try {
+            Concept created = createInOwnTransaction(name, datatypeName, className);
+            provisioned.put(key, created.getConceptId());
+            conceptCache.put(name, created);
+            claim.complete(created);
+            return created;
+        } catch (RuntimeException e) {
+            claim.completeExceptionally(e);
+            throw e;
+        } finally {
+            creating.remove(key, claim);
+        }
+    }
+
+    private static Concept await(CompletableFuture<Concept> running, String name) {
+        try {
+            return running.get(CREATE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for concept '" + name + "' to be created", e);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Timed out waiting for concept '" + name + "' to be created", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("Could not create concept '" + name + "'", e.getCause());
+        }
+    }
+
+    /**
+     * Returns the concept as loaded by the new transaction; detached once it commits, but fully
+     * initialized and safe to reference from the caller's session.
+     */
+    private Concept createInOwnTransaction(String name, String datatypeName, String className) {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return tx.execute(status -> {
+            // Another node may have created it since our lookup
+            Concept existing = conceptService.getConceptByName(name);
+            if (existing != null) return existing;
+
+            ConceptDatatype datatype = conceptService.getConceptDatatypeByName(datatypeName);
+            ConceptClass conceptClass = conceptService.getConceptClassByName(className);
+            if (datatype == null || conceptClass == null) {
+                throw new IllegalStateException("Required datatype or class not found: " + datatypeName + "/" + className);
+            }
+
+            Concept c = new Concept();
+            c.setDatatype(datatype);
+            c.setConceptClass(conceptClass);
+            ConceptName cn = new ConceptName(name, Context.getLocale());
+            cn.setConceptNameType(ConceptNameType.FULLY_SPECIFIED);
+            c.addName(cn);
+
+            Concept saved = conceptService.saveConcept(c);
+            log.info("Created concept '" + name + "' (" + saved.getConceptId() + ")");
+            return saved;
+        });
+    }
+}
@@ -0,0 +1,34 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.dao;
+
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository("pinnaclecustomemrmodule.AllergyDao")
+public class AllergyDao {
+
+    @Autowired
+    DbSessionFactory sessionFactory;
+
+    private DbSession getSession() {
+        return sessionFactory.getCurrentSession();
+    }
+
+    /**
+     * Every non-voided name of every allergen recorded for {@code personId} as a coded obs of
+     * {@code allergyConceptId}. Uses the obs (person_id, concept_id) index; no name matching is
+     * done in SQL.
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getAllergenNames(Integer personId, Integer allergyConceptId) {
+        return getSession()
+                .createSQLQuery("SELECT DISTINCT cn.name FROM obs o JOIN concept_name cn ON cn.concept_id = o.value_coded "
+                        + "WHERE o.person_id = :personId AND o.concept_id = :conceptId AND o.voided = 0 AND cn.voided = 0")
+                .setParameter("personId", personId)
+                .setParameter("conceptId", allergyConceptId)
+                .list();
+    }
+}
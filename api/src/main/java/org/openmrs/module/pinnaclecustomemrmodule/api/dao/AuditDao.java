@@ -0,0 +1,54 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.dao;
+
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.pinnaclecustomemrmodule.api.audit.AuditEvent;
+import org.openmrs.module.pinnaclecustomemrmodule.api.metrics.StatementCounter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+@Repository("pinnaclecustomemrmodule.AuditDao")
+public class AuditDao {
+
+    private static final int JDBC_BATCH_SIZE = 500;
+
+    @Autowired
+    private DbSessionFactory sessionFactory;
+
+    private DbSession getSession() {
+        return sessionFactory.getCurrentSession();
+    }
+
+    /**
+     * Inserts {@code events} into emr_access_log with JDBC statement batching.
+     */
+    public void insertAccessLog(List<AuditEvent> events) {
+        if (events.isEmpty()) return;
+
+        getSession().doWork(StatementCounter.counted(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO emr_access_log (patient_id, action, user_id, timestamp) VALUES (?, ?, ?, ?)")) {
+                int pending = 0;
+                for (AuditEvent event : events) {
+                    if (event.getPatientId() != null) ps.setInt(1, event.getPatientId());
+                    else ps.setNull(1, Types.INTEGER);
+                    ps.setString(2, event.getAction());
+                    if (event.getUserId() != null) ps.setInt(3, event.getUserId());
+                    else ps.setNull(3, Types.INTEGER);
+                    ps.setTimestamp(4, new Timestamp(event.getTimestamp()));
+                    ps.addBatch();
+                    if (++pending == JDBC_BATCH_SIZE) {
+                        ps.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) ps.executeBatch();
+            }
+        }));
+    }
+}
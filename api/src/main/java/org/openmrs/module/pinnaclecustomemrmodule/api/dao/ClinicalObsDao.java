@@ -0,0 +1,184 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.dao;
+
+import org.hibernate.query.Query;
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.pinnaclecustomemrmodule.api.metrics.StatementCounter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * High-volume read and write paths for clinical obs that bypass full {@code Obs} hydration.
+ */
+@Repository("pinnaclecustomemrmodule.ClinicalObsDao")
+public class ClinicalObsDao {
+
+    private static final int JDBC_BATCH_SIZE = 500;
+
+    @Autowired
+    DbSessionFactory sessionFactory;
+
+    private DbSession getSession() {
+        return sessionFactory.getCurrentSession();
+    }
+
+    /**
+     * A numeric obs row ready to insert.
+     */
+    public static class NumericObsRow {
+
+        final int personId;
+        final Integer encounterId;
+        final int conceptId;
+        final Integer locationId;
+        final Date obsDatetime;
+        final double value;
+        final String uuid;
+
+        public NumericObsRow(int personId, Integer encounterId, int conceptId, Integer locationId,
+                             Date obsDatetime, double value, String uuid) {
+            this.personId = personId;
+            this.encounterId = encounterId;
+            this.conceptId = conceptId;
+            this.locationId = locationId;
+            this.obsDatetime = obsDatetime;
+            this.value = value;
+            this.uuid = uuid;
+        }
+    }
+
+    /**
+     * Patient and location of an encounter.
+     */
+    public static class EncounterRef {
+
+        public final int patientId;
+        public final Integer locationId;
+
+        EncounterRef(int patientId, Integer locationId) {
+            this.patientId = patientId;
+            this.locationId = locationId;
+        }
+    }
+
+    /**
+     * Returns the ids among {@code patientIds} that belong to non-voided patients.
+     */
+    @SuppressWarnings("unchecked")
+    public Set<Integer> getActivePatientIds(Collection<Integer> patientIds) {
+        if (patientIds.isEmpty()) return Collections.emptySet();
+
+        List<Number> rows = getSession()
+                .createSQLQuery("SELECT patient_id FROM patient WHERE voided = 0 AND patient_id IN (:ids)")
+                .setParameterList("ids", patientIds)
+                .list();
+        Set<Integer> ids = new HashSet<>(rows.size() * 2);
+        for (Number id : rows) {
+            ids.add(id.intValue());
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the non-voided encounters among {@code encounterIds}, keyed by encounter id.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Integer, EncounterRef> getEncounterRefs(Collection<Integer> encounterIds) {
+        if (encounterIds.isEmpty()) return Collections.emptyMap();
+
+        List<Object[]> rows = getSession()
+                .createSQLQuery("SELECT encounter_id, patient_id, location_id FROM encounter "
+                        + "WHERE voided = 0 AND encounter_id IN (:ids)")
+                .setParameterList("ids", encounterIds)
+                .list();
+        Map<Integer, EncounterRef> encounters = new HashMap<>(rows.size() * 2);
+        for (Object[] row : rows) {
+            encounters.put(((Number) row[0]).intValue(), new EncounterRef(
+                    ((Number) row[1]).intValue(), row[2] != null ? ((Number) row[2]).intValue() : null));
+        }
+        return encounters;
+    }
+
+    /**
+     * Returns {@code {obsId, uuid, obsDatetime, conceptId, valueNumeric, valueText}} for up to
+     * {@code limit} non-voided obs of {@code personId} with one of {@code conceptIds}, ordered by
+     * {@code (obs_datetime, obs_id)} descending. When {@code afterDatetime}/{@code afterObsId} are
+     * given, only rows strictly after that position in the ordering are returned (keyset paging),
+     * so the cost of a page does not depend on how deep it is. The obs index on
+     * {@code (person_id, obs_datetime, obs_id)} returns rows already in that order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object[]> getNumericObsPage(int personId, Collection<Integer> conceptIds, Date from, Date to,
+                                            Date afterDatetime, Integer afterObsId, int limit) {
+        StringBuilder hql = new StringBuilder("select o.obsId, o.uuid, o.obsDatetime, o.concept.conceptId, "
+                + "o.valueNumeric, o.valueText from Obs o where o.person.personId = :personId "
+                + "and o.concept.conceptId in (:conceptIds) and o.voided = false");
+        if (from != null) hql.append(" and o.obsDatetime >= :from");
+        if (to != null) hql.append(" and o.obsDatetime < :to");
+        if (afterDatetime != null && afterObsId != null) {
+            hql.append(" and (o.obsDatetime < :afterDatetime or (o.obsDatetime = :afterDatetime and o.obsId < :afterObsId))");
+        }
+        hql.append(" order by o.obsDatetime desc, o.obsId desc");
+
+        Query<Object[]> query = getSession().createQuery(hql.toString())
+                .setParameter("personId", personId)
+                .setParameterList("conceptIds", conceptIds)
+                .setMaxResults(limit);
+        if (from != null) query.setParameter("from", from);
+        if (to != null) query.setParameter("to", to);
+        if (afterDatetime != null && afterObsId != null) {
+            query.setParameter("afterDatetime", afterDatetime);
+            query.setParameter("afterObsId", afterObsId);
+        }
+        return query.list();
+    }
+
+    /**
+     * Inserts {@code rows} into obs with JDBC statement batching on the current transaction's
+     * connection. Obs ids are database-generated, which stops Hibernate from batching inserts
+     * itself, hence the plain statement. Pending session changes are flushed first so the inserts
+     * see them.
+     */
+    public void insertNumericObs(List<NumericObsRow> rows, int creatorId) {
+        if (rows.isEmpty()) return;
+
+        getSession().flush();
+        getSession().doWork(StatementCounter.counted(connection -> {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO obs (person_id, encounter_id, concept_id, location_id, obs_datetime, value_numeric, "
+                            + "creator, date_created, voided, status, uuid) VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0, 'FINAL', ?)")) {
+                int pending = 0;
+                for (NumericObsRow row : rows) {
+                    ps.setInt(1, row.personId);
+                    if (row.encounterId != null) ps.setInt(2, row.encounterId); else ps.setNull(2, Types.INTEGER);
+                    ps.setInt(3, row.conceptId);
+                    if (row.locationId != null) ps.setInt(4, row.locationId); else ps.setNull(4, Types.INTEGER);
+                    ps.setTimestamp(5, new Timestamp(row.obsDatetime.getTime()));
+                    ps.setDouble(6, row.value);
+                    ps.setInt(7, creatorId);
+                    ps.setTimestamp(8, now);
+                    ps.setString(9, row.uuid);
+                    ps.addBatch();
+                    if (++pending == JDBC_BATCH_SIZE) {
+                        ps.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) ps.executeBatch();
+            }
+        }));
+    }
+}
@@ -0,0 +1,198 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.dao;
+
+import org.hibernate.query.Query;
+import org.openmrs.Encounter;
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.pinnaclecustomemrmodule.api.metrics.StatementCounter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encounter workflow status. {@code emr_encounter_status} keeps the full history;
+ * {@code emr_encounter_current_status} holds one row per encounter with its latest status and is
+ * kept in step by {@link #recordStatus}, so lookups never scan the history.
+ */
+@Repository("pinnaclecustomemrmodule.EncounterStatusDao")
+public class EncounterStatusDao {
+
+    private static final int JDBC_BATCH_SIZE = 500;
+
+    @Autowired
+    DbSessionFactory sessionFactory;
+
+    private DbSession getSession() {
+        return sessionFactory.getCurrentSession();
+    }
+
+    public String getCurrentStatus(Integer encounterId) {
+        return (String) getSession()
+                .createSQLQuery("SELECT status FROM emr_encounter_current_status WHERE encounter_id = :id")
+                .setParameter("id", encounterId)
+                .uniqueResult();
+    }
+
+    /**
+     * Same as {@link #getCurrentStatus} but locks the encounter's row until the transaction ends,
+     * so concurrent transitions of one encounter are applied one after the other.
+     */
+    public String getCurrentStatusForUpdate(Integer encounterId) {
+        return (String) getSession()
+                .createSQLQuery("SELECT status FROM emr_encounter_current_status WHERE encounter_id = :id FOR UPDATE")
+                .setParameter("id", encounterId)
+                .uniqueResult();
+    }
+
+    /**
+     * Current status of each of {@code encounterIds} that has one, locking those rows until the
+     * transaction ends. Rows are locked in encounter id order, so two bulk transitions over
+     * overlapping encounters cannot deadlock each other.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Integer, String> getCurrentStatusesForUpdate(Collection<Integer> encounterIds) {
+        if (encounterIds.isEmpty()) return Collections.emptyMap();
+
+        List<Object[]> rows = getSession()
+                .createSQLQuery("SELECT encounter_id, status FROM emr_encounter_current_status "
+                        + "WHERE encounter_id IN (:ids) ORDER BY encounter_id FOR UPDATE")
+                .setParameterList("ids", encounterIds)
+                .list();
+        Map<Integer, String> statuses = new HashMap<>(rows.size() * 2);
+        for (Object[] row : rows) {
+            statuses.put(((Number) row[0]).intValue(), (String) row[1]);
+        }
+        return statuses;
+    }
+
+    /**
+     * Appends to the history and replaces the encounter's current status.
+     */
+    public void recordStatus(Integer encounterId, String status, Integer changedBy, Date changedOn) {
+        getSession()
+                .createSQLQuery("INSERT INTO emr_encounter_status (encounter_id, status, changed_by, changed_on) "
+                        + "VALUES (:id, :status, :changedBy, :changedOn)")
+                .setParameter("id", encounterId)
+                .setParameter("status", status)
+                .setParameter("changedBy", changedBy)
+                .setParameter("changedOn", changedOn)
+                .executeUpdate();
+        getSession()
+                .createSQLQuery("INSERT INTO emr_encounter_current_status (encounter_id, status, changed_by, changed_on) "
+                        + "VALUES (:id, :status, :changedBy, :changedOn) ON DUPLICATE KEY UPDATE "
+                        + "status = VALUES(status), changed_by = VALUES(changed_by), changed_on = VALUES(changed_on)")
+                .setParameter("id", encounterId)
+                .setParameter("status", status)
+                .setParameter("changedBy", changedBy)
+                .setParameter("changedOn", changedOn)
+                .executeUpdate();
+    }
+
+    /**
+     * {@link #recordStatus} for many encounters at once: both statements are prepared once and
+     * sent in JDBC batches.
+     */
+    public void recordStatuses(Collection<Integer> encounterIds, String status, Integer changedBy, Date changedOn) {
+        if (encounterIds.isEmpty()) return;
+
+        getSession().flush();
+        getSession().doWork(StatementCounter.counted(connection -> {
+            Timestamp timestamp = new Timestamp(changedOn.getTime());
+            try (PreparedStatement history = connection.prepareStatement(
+                    "INSERT INTO emr_encounter_status (encounter_id, status, changed_by, changed_on) VALUES (?, ?, ?, ?)");
+                 PreparedStatement current = connection.prepareStatement(
+                    "INSERT INTO emr_encounter_current_status (encounter_id, status, changed_by, changed_on) "
+                            + "VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE "
+                            + "status = VALUES(status), changed_by = VALUES(changed_by), changed_on = VALUES(changed_on)")) {
+                int pending = 0;
+                for (Integer encounterId : encounterIds) {
+                    addStatusRow(history, encounterId, status, changedBy, timestamp);
+                    addStatusRow(current, encounterId, status, changedBy, timestamp);
+                    if (++pending == JDBC_BATCH_SIZE) {
+                        history.executeBatch();
+                        current.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    history.executeBatch();
+                    current.executeBatch();
+                }
+            }
+        }));
+    }
+
+    private static void addStatusRow(PreparedStatement ps, Integer encounterId, String status, Integer changedBy,
+            Timestamp changedOn) throws SQLException {
+        ps.setInt(1, encounterId);
+        ps.setString(2, status);
+        if (changedBy != null) ps.setInt(3, changedBy);
+        else ps.setNull(3, Types.INTEGER);
+        ps.setTimestamp(4, changedOn);
+        ps.addBatch();
+    }
+
+    /**
+     * Ids of encounters currently in {@code status}, ascending, starting after
+     * {@code afterEncounterId}. Served by the (status, encounter_id) index.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Integer> getEncounterIdsByStatus(String status, Integer afterEncounterId, Integer limit) {
+        Query<Number> query = getSession()
+                .createSQLQuery("SELECT encounter_id FROM emr_encounter_current_status "
+                        + "WHERE status = :status AND encounter_id > :after ORDER BY encounter_id")
+                .setParameter("status", status)
+                .setParameter("after", afterEncounterId != null ? afterEncounterId : 0);
+        if (limit != null) query.setMaxResults(limit);
+
+        List<Integer> ids = new ArrayList<>();
+        for (Number id : query.list()) {
+            ids.add(id.intValue());
+        }
+        return ids;
+    }
+
+    /**
+     * Loads the non-voided encounters among {@code encounterIds} in one query, in the order of
+     * {@code encounterIds}.
+     */
+    public List<Encounter> getEncounters(List<Integer> encounterIds) {
+        return getEncounters(encounterIds, false);
+    }
+
+    /**
+     * Loads the encounters among {@code encounterIds} in one query, in the order of
+     * {@code encounterIds}; voided ones only if {@code includeVoided}.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Encounter> getEncounters(List<Integer> encounterIds, boolean includeVoided) {
+        if (encounterIds.isEmpty()) return Collections.emptyList();
+
+        List<Encounter> loaded = getSession()
+                .createQuery("from Encounter e where e.encounterId in (:ids)" + (includeVoided ? "" : " and e.voided = false"))
+                .setParameterList("ids", encounterIds)
+                .list();
+        Map<Integer, Encounter> byId = new HashMap<>(loaded.size() * 2);
+        for (Encounter e : loaded) {
+            byId.put(e.getEncounterId(), e);
+        }
+
+        List<Encounter> ordered = new ArrayList<>(loaded.size());
+        for (Integer id : encounterIds) {
+            Encounter e = byId.get(id);
+            if (e != null) ordered.add(e);
+        }
+        return ordered;
+    }
+}
@@ -0,0 +1,45 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.dao;
+
+import org.openmrs.Drug;
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+@Repository("pinnaclecustomemrmodule.FormularyDao")
+public class FormularyDao {
+
+    @Autowired
+    DbSessionFactory sessionFactory;
+
+    private DbSession getSession() {
+        return sessionFactory.getCurrentSession();
+    }
+
+    /**
+     * Non-retired drugs whose name matches one of {@code names} (case-insensitive), keyed by
+     * lower-cased name, with their concepts fetched in the same query.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Drug> getDrugsByNames(Collection<String> names) {
+        if (names.isEmpty()) return Collections.emptyMap();
+
+        List<Drug> drugs = getSession()
+                .createQuery("select d from Drug d left join fetch d.concept where lower(d.name) in (:names) "
+                        + "and d.retired = false")
+                .setParameterList("names", names)
+                .list();
+        Map<String, Drug> byName = new HashMap<>(drugs.size() * 2);
+        for (Drug drug : drugs) {
+            byName.putIfAbsent(drug.getName().toLowerCase(Locale.ROOT), drug);
+        }
+        return byName;
+    }
+}
@@ -0,0 +1,489 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.dao;
+
+import org.hibernate.query.NativeQuery;
+import org.openmrs.Obs;
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.model.LabDeadLetter;
+import org.openmrs.module.pinnaclecustomemrmodule.api.metrics.StatementCounter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lab read and write paths that work on many rows at once: pending-test anti-joins, bulk result
+ * inserts for the ingestion pipeline, and the dead-letter table.
+ */
+@Repository("pinnaclecustomemrmodule.LabDao")
+public class LabDao {
+
+    @Autowired
+    DbSessionFactory sessionFactory;
+
+    private static final int JDBC_BATCH_SIZE = 500;
+
+    private DbSession getSession() {
+        return sessionFactory.getCurrentSession();
+    }
+
+    /**
+     * Result statuses, as read from HL7 OBX-11. A corrected result replaces the stored one, and a
+     * final result replaces a preliminary one; a cancelled result is never stored as a value.
+     */
+    public static final String PRELIMINARY = "PRELIMINARY";
+    public static final String FINAL = "FINAL";
+    public static final String CORRECTED = "CORRECTED";
+    public static final String CANCELLED = "CANCELLED";
+
+    /**
+     * One result obs group to insert: a group obs carrying the accession number and status, and
+     * one member obs per test.
+     */
+    public static class ResultGroupRow {
+
+        final int personId;
+        final String accessionNumber;
+        final Date obsDatetime;
+        final String comment;
+        final List<ResultRow> members = new ArrayList<>();
+
+        public ResultGroupRow(int personId, String accessionNumber, Date obsDatetime, String comment) {
+            this.personId = personId;
+            this.accessionNumber = accessionNumber;
+            this.obsDatetime = obsDatetime;
+            this.comment = comment;
+        }
+
+        public void addMember(int conceptId, Double valueNumeric, String valueText, String comment, String status) {
+            members.add(new ResultRow(conceptId, valueNumeric, valueText, comment, status));
+        }
+
+        public int size() {
+            return members.size();
+        }
+    }
+
+    static class ResultRow {
+
+        final int conceptId;
+        final Double valueNumeric;
+        final String valueText;
+        final String comment;
+        final String status;
+
+        ResultRow(int conceptId, Double valueNumeric, String valueText, String comment, String status) {
+            this.conceptId = conceptId;
+            this.valueNumeric = valueNumeric;
+            this.valueText = valueText;
+            this.comment = comment;
+            this.status = status != null ? status : FINAL;
+        }
+
+        /**
+         * The obs status the result is stored with.
+         */
+        String obsStatus() {
+            switch (status) {
+                case PRELIMINARY: return "PRELIMINARY";
+                case CORRECTED: return "AMENDED";
+                default: return "FINAL";
+            }
+        }
+    }
+
+    /**
+     * A non-voided result already stored under an accession number.
+     */
+    static class StoredResult {
+
+        final int obsId;
+        final String obsStatus;
+
+        StoredResult(int obsId, String obsStatus) {
+            this.obsId = obsId;
+            this.obsStatus = obsStatus;
+        }
+    }
+
+    /**
+     * Pending lab work: "Laboratory Test" order obs (value_coded = the ordered test) for which the
+     * patient has no non-voided obs of that test recorded at or after the order. A single
+     * anti-join served by the obs (person_id, concept_id, obs_datetime) index.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Obs> getPendingTestObs(Integer personId, Integer labOrderConceptId) {
+        return getSession()
+                .createQuery("select o from Obs o left join fetch o.valueCoded left join fetch o.order "
+                        + "where o.person.personId = :personId and o.concept.conceptId = :conceptId and o.voided = false "
+                        + "and not exists (select r.obsId from Obs r where r.person = o.person and r.concept = o.valueCoded "
+                        + "and r.voided = false and r.obsDatetime >= o.obsDatetime) "
+                        + "order by o.obsDatetime, o.obsId")
+                .setParameter("personId", personId)
+                .setParameter("conceptId", labOrderConceptId)
+                .list();
+    }
+
+    /**
+     * Lab-wide worklist page, oldest order first: returns
+     * {@code {obsId, uuid, personId, testConceptId, obsDatetime, accessionNumber, orderNumber}}
+     * for up to {@code limit} pending tests with an obs id greater than {@code afterObsId}.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object[]> getPendingTests(Integer labOrderConceptId, Integer afterObsId, int limit) {
+        return getSession()
+                .createSQLQuery("SELECT o.obs_id, o.uuid, o.person_id, o.value_coded, o.obs_datetime, o.accession_number, "
+                        + "ord.order_number FROM obs o LEFT JOIN orders ord ON ord.order_id = o.order_id "
+                        + "WHERE o.concept_id = :conceptId AND o.voided = 0 AND o.obs_id > :after "
+                        + "AND NOT EXISTS (SELECT 1 FROM obs r WHERE r.person_id = o.person_id "
+                        + "AND r.concept_id = o.value_coded AND r.voided = 0 AND r.obs_datetime >= o.obs_datetime) "
+                        + "ORDER BY o.obs_id")
+                .setParameter("conceptId", labOrderConceptId)
+                .setParameter("after", afterObsId != null ? afterObsId : 0)
+                .setMaxResults(limit)
+                .list();
+    }
+
+    /**
+     * Maps each of {@code identifiers} that belongs to a non-voided patient identifier to its
+     * patient id.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Integer> getPatientIdsByIdentifiers(Collection<String> identifiers) {
+        if (identifiers.isEmpty()) return Collections.emptyMap();
+
+        List<Object[]> rows = getSession()
+                .createSQLQuery("SELECT pi.identifier, pi.patient_id FROM patient_identifier pi "
+                        + "JOIN patient p ON p.patient_id = pi.patient_id "
+                        + "WHERE pi.voided = 0 AND p.voided = 0 AND pi.identifier IN (:identifiers)")
+                .setParameterList("identifiers", identifiers)
+                .list();
+        Map<String, Integer> patientIds = new HashMap<>(rows.size() * 2);
+        for (Object[] row : rows) {
+            patientIds.put((String) row[0], ((Number) row[1]).intValue());
+        }
+        return patientIds;
+    }
+
+    /**
+     * Returns the non-voided results already stored under one of {@code accessionNumbers} by
+     * {@link #resultKey}: results carrying the accession number themselves, and members of a group
+     * that carries it, as single results stored before the members had their own.
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, List<StoredResult>> getStoredResults(Collection<String> accessionNumbers) {
+        if (accessionNumbers.isEmpty()) return Collections.emptyMap();
+
+        List<Object[]> rows = getSession()
+                .createSQLQuery("SELECT obs_id, person_id, accession_number, concept_id, status FROM obs "
+                        + "WHERE voided = 0 AND accession_number IN (:accessions) "
+                        + "UNION SELECT m.obs_id, m.person_id, g.accession_number, m.concept_id, m.status FROM obs g "
+                        + "JOIN obs m ON m.obs_group_id = g.obs_id AND m.voided = 0 "
+                        + "WHERE g.voided = 0 AND g.accession_number IN (:accessions)")
+                .setParameterList("accessions", accessionNumbers)
+                .list();
+        Map<String, List<StoredResult>> stored = new HashMap<>(rows.size() * 2);
+        for (Object[] row : rows) {
+            String key = resultKey(((Number) row[1]).intValue(), (String) row[2], ((Number) row[3]).intValue());
+            stored.computeIfAbsent(key, k -> new ArrayList<>()).add(new StoredResult(((Number) row[0]).intValue(), (String) row[4]));
+        }
+        return stored;
+    }
+
+    /**
+     * What makes a lab result a resend of one already stored.
+     */
+    public static String resultKey(int personId, String accessionNumber, int conceptId) {
+        return personId + "|" + accessionNumber + "|" + conceptId;
+    }
+
+    /**
+     * Stores the results of {@code groups} against those already stored under their accession
+     * numbers, like {@link #insertResultGroups}, and returns how many results were inserted:
+     * <ul>
+     * <li>a result not stored yet is inserted;</li>
+     * <li>a corrected result, or a final one where only a preliminary is stored, voids the stored
+     * result and is inserted in its place;</li>
+     * <li>a cancelled result voids the stored result and is not inserted;</li>
+     * <li>anything else is a resend and skipped.</li>
+     * </ul>
+     * Groups left without a non-voided member are voided with them.
+     * <p>
+     * Must run in a transaction. The patients' rows are locked first and the stored results read
+     * after, so two batches carrying the same result for a patient, on this node or another, cannot
+     * both find it missing: the second waits for the first to commit and then sees its rows.
+     */
+    public int insertNewResultGroups(List<ResultGroupRow> groups, int groupConceptId, int creatorId) {
+        if (groups.isEmpty()) return 0;
+
+        Set<Integer> personIds = new HashSet<>();
+        Set<String> accessions = new HashSet<>();
+        for (ResultGroupRow group : groups) {
+            personIds.add(group.personId);
+            if (group.accessionNumber != null) accessions.add(group.accessionNumber);
+        }
+        getSession()
+                .createSQLQuery("SELECT patient_id FROM patient WHERE patient_id IN (:ids) ORDER BY patient_id FOR UPDATE")
+                .setParameterList("ids", personIds)
+                .list();
+
+        Set<Integer> replaced = new HashSet<>();
+        Set<Integer> cancelled = new HashSet<>();
+        List<ResultGroupRow> remaining = reconcile(groups, getStoredResults(accessions), replaced, cancelled);
+        voidResults(replaced, "Replaced by a corrected lab result", creatorId);
+        voidResults(cancelled, "Lab result cancelled", creatorId);
+
+        insertResultGroups(remaining, groupConceptId, creatorId);
+        int inserted = 0;
+        for (ResultGroupRow group : remaining) {
+            inserted += group.size();
+        }
+        return inserted;
+    }
+
+    /**
+     * Drops from {@code groups} the members that are not to be inserted, collects the ids of the
+     * stored results to void into {@code replaced} and {@code cancelled}, and returns the groups
+     * that still have members. See {@link #insertNewResultGroups} for the rules.
+     */
+    static List<ResultGroupRow> reconcile(List<ResultGroupRow> groups, Map<String, List<StoredResult>> stored,
+                                          Set<Integer> replaced, Set<Integer> cancelled) {
+        List<ResultGroupRow> remaining = new ArrayList<>(groups.size());
+        for (ResultGroupRow group : groups) {
+            group.members.removeIf(m -> {
+                List<StoredResult> existing = group.accessionNumber == null ? null
+                        : stored.get(resultKey(group.personId, group.accessionNumber, m.conceptId));
+                if (CANCELLED.equals(m.status)) {
+                    if (existing != null) existing.forEach(r -> cancelled.add(r.obsId));
+                    return true;
+                }
+                if (existing == null) return false;
+                if (!replaces(m, existing)) return true;
+                existing.forEach(r -> replaced.add(r.obsId));
+                return false;
+            });
+            if (!group.members.isEmpty()) remaining.add(group);
+        }
+        return remaining;
+    }
+
+    private static boolean replaces(ResultRow result, List<StoredResult> existing) {
+        if (CORRECTED.equals(result.status)) return true;
+        if (!FINAL.equals(result.status)) return false;
+        for (StoredResult stored : existing) {
+            if (!"PRELIMINARY".equals(stored.obsStatus)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Voids the results {@code obsIds}, and the groups they leave without a non-voided member.
+     */
+    @SuppressWarnings("unchecked")
+    private void voidResults(Set<Integer> obsIds, String reason, int voidedBy) {
+        if (obsIds.isEmpty()) return;
+
+        List<Number> groupIds = getSession()
+                .createSQLQuery("SELECT DISTINCT obs_group_id FROM obs WHERE obs_id IN (:ids) AND obs_group_id IS NOT NULL")
+                .setParameterList("ids", obsIds)
+                .list();
+        voidObs(obsIds, reason, voidedBy);
+        if (groupIds.isEmpty()) return;
+
+        Set<Integer> emptied = new HashSet<>();
+        for (Number groupId : groupIds) {
+            emptied.add(groupId.intValue());
+        }
+        List<Number> live = getSession()
+                .createSQLQuery("SELECT DISTINCT obs_group_id FROM obs WHERE obs_group_id IN (:ids) AND voided = 0")
+                .setParameterList("ids", emptied)
+                .list();
+        for (Number groupId : live) {
+            emptied.remove(groupId.intValue());
+        }
+        voidObs(emptied, reason, voidedBy);
+    }
+
+    private void voidObs(Collection<Integer> obsIds, String reason, int voidedBy) {
+        if (obsIds.isEmpty()) return;
+
+        getSession()
+                .createSQLQuery("UPDATE obs SET voided = 1, voided_by = :voidedBy, date_voided = :now, void_reason = :reason "
+                        + "WHERE obs_id IN (:ids) AND voided = 0")
+                .setParameter("voidedBy", voidedBy)
+                .setParameter("now", new Date())
+                .setParameter("reason", reason)
+                .setParameterList("ids", obsIds)
+                .addSynchronizedEntityClass(Obs.class)
+                .executeUpdate();
+    }
+
+    /**
+     * Inserts the result groups and their members with JDBC statement batching on the current
+     * transaction's connection: one batch for the group obs, whose generated ids are then used by
+     * one batch for the members.
+     */
+    public void insertResultGroups(List<ResultGroupRow> groups, int groupConceptId, int creatorId) {
+        if (groups.isEmpty()) return;
+
+        getSession().flush();
+        getSession().doWork(StatementCounter.counted(connection -> {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            try (PreparedStatement groupInsert = connection.prepareStatement(
+                    "INSERT INTO obs (person_id, concept_id, obs_datetime, accession_number, comments, "
+                            + "creator, date_created, voided, status, uuid) VALUES (?, ?, ?, ?, ?, ?, ?, 0, 'FINAL', UUID())",
+                    Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement memberInsert = connection.prepareStatement(
+                    "INSERT INTO obs (person_id, concept_id, obs_group_id, obs_datetime, accession_number, "
+                            + "value_numeric, value_text, comments, creator, date_created, voided, status, uuid) "
+                            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, ?, UUID())")) {
+
+                for (int from = 0; from < groups.size(); from += JDBC_BATCH_SIZE) {
+                    List<ResultGroupRow> chunk = groups.subList(from, Math.min(from + JDBC_BATCH_SIZE, groups.size()));
+                    for (ResultGroupRow group : chunk) {
+                        groupInsert.setInt(1, group.personId);
+                        groupInsert.setInt(2, groupConceptId);
+                        groupInsert.setTimestamp(3, new Timestamp(group.obsDatetime.getTime()));
+                        groupInsert.setString(4, group.accessionNumber);
+                        groupInsert.setString(5, group.comment);
+                        groupInsert.setInt(6, creatorId);
+                        groupInsert.setTimestamp(7, now);
+                        groupInsert.addBatch();
+                    }
+                    groupInsert.executeBatch();
+
+                    int pending = 0;
+                    try (ResultSet keys = groupInsert.getGeneratedKeys()) {
+                        for (ResultGroupRow group : chunk) {
+                            if (!keys.next()) throw new IllegalStateException("Missing generated id for lab result group");
+                            int groupId = keys.getInt(1);
+                            for (ResultRow member : group.members) {
+                                memberInsert.setInt(1, group.personId);
+                                memberInsert.setInt(2, member.conceptId);
+                                memberInsert.setInt(3, groupId);
+                                memberInsert.setTimestamp(4, new Timestamp(group.obsDatetime.getTime()));
+                                memberInsert.setString(5, group.accessionNumber);
+                                if (member.valueNumeric != null) memberInsert.setDouble(6, member.valueNumeric);
+                                else memberInsert.setNull(6, Types.DOUBLE);
+                                memberInsert.setString(7, member.valueText);
+                                memberInsert.setString(8, member.comment);
+                                memberInsert.setInt(9, creatorId);
+                                memberInsert.setTimestamp(10, now);
+                                memberInsert.setString(11, member.obsStatus());
+                                memberInsert.addBatch();
+                                if (++pending == JDBC_BATCH_SIZE) {
+                                    memberInsert.executeBatch();
+                                    pending = 0;
+                                }
+                            }
+                        }
+                    }
+                    if (pending > 0) memberInsert.executeBatch();
+                }
+            }
+        }));
+    }
+
+    public void insertDeadLetters(List<LabDeadLetter> deadLetters) {
+        if (deadLetters.isEmpty()) return;
+
+        getSession().doWork(StatementCounter.counted(connection -> {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO emr_lab_result_dead_letter (batch_id, patient_id, patient_identifier, test_name, "
+                            + "result_value, units, reference_range, status, accession_number, result_datetime, reason, "
+                            + "date_created, resolved) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0)")) {
+                int pending = 0;
+                for (LabDeadLetter d : deadLetters) {
+                    ps.setString(1, d.getBatchId());
+                    if (d.getPatientId() != null) ps.setInt(2, d.getPatientId());
+                    else ps.setNull(2, Types.INTEGER);
+                    ps.setString(3, d.getPatientIdentifier());
+                    ps.setString(4, d.getTestName());
+                    ps.setString(5, d.getResultValue());
+                    ps.setString(6, d.getUnits());
+                    ps.setString(7, d.getReferenceRange());
+                    ps.setString(8, d.getStatus());
+                    ps.setString(9, d.getAccessionNumber());
+                    ps.setTimestamp(10, d.getResultDatetime() != null ? new Timestamp(d.getResultDatetime().getTime()) : null);
+                    ps.setString(11, d.getReason());
+                    ps.setTimestamp(12, now);
+                    ps.addBatch();
+                    if (++pending == JDBC_BATCH_SIZE) {
+                        ps.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) ps.executeBatch();
+            }
+        }));
+    }
+
+    /**
+     * Unresolved dead letters with an id greater than {@code afterId}, oldest first; or exactly
+     * those in {@code ids} when given.
+     */
+    @SuppressWarnings("unchecked")
+    public List<LabDeadLetter> getDeadLetters(Collection<Integer> ids, Integer afterId, int limit) {
+        String sql = "SELECT id, batch_id, patient_id, patient_identifier, test_name, result_value, units, reference_range, status, "
+                + "accession_number, result_datetime, reason, date_created FROM emr_lab_result_dead_letter "
+                + "WHERE resolved = 0 AND id > :after" + (ids != null ? " AND id IN (:ids)" : "") + " ORDER BY id";
+        NativeQuery<Object[]> query = getSession().createSQLQuery(sql)
+                .setParameter("after", afterId != null ? afterId : 0);
+        if (ids != null) {
+            if (ids.isEmpty()) return Collections.emptyList();
+            query.setParameterList("ids", ids);
+        }
+
+        List<LabDeadLetter> deadLetters = new ArrayList<>();
+        for (Object[] row : query.setMaxResults(limit).list()) {
+            LabDeadLetter d = new LabDeadLetter();
+            d.setId(((Number) row[0]).intValue());
+            d.setBatchId((String) row[1]);
+            d.setPatientId(row[2] != null ? ((Number) row[2]).intValue() : null);
+            d.setPatientIdentifier((String) row[3]);
+            d.setTestName((String) row[4]);
+            d.setResultValue((String) row[5]);
+            d.setUnits((String) row[6]);
+            d.setReferenceRange((String) row[7]);
+            d.setStatus((String) row[8]);
+            d.setAccessionNumber((String) row[9]);
+            d.setResultDatetime((Date) row[10]);
+            d.setReason((String) row[11]);
+            d.setDateCreated((Date) row[12]);
+            deadLetters.add(d);
+        }
+        return deadLetters;
+    }
+
+    public void markDeadLettersResolved(Collection<Integer> ids) {
+        if (ids.isEmpty()) return;
+
+        getSession()
+                .createSQLQuery("UPDATE emr_lab_result_dead_letter SET resolved = 1 WHERE id IN (:ids)")
+                .setParameterList("ids", ids)
+                .executeUpdate();
+    }
+
+    public void markDeadLettersUnresolved(Collection<Integer> ids) {
+        if (ids.isEmpty()) return;
+
+        getSession()
+                .createSQLQuery("UPDATE emr_lab_result_dead_letter SET resolved = 0 WHERE id IN (:ids)")
+                .setParameterList("ids", ids)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,304 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.dao;
+
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.pinnaclecustomemrmodule.api.metrics.StatementCounter;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate.DuplicateCandidate;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate.MatchRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Storage for duplicate detection: the demographics that are compared, the blocking keys of every
+ * patient ({@code emr_patient_block_key}) and the review queue ({@code emr_duplicate_candidate}).
+ */
+@Repository("pinnaclecustomemrmodule.PatientDuplicateDao")
+public class PatientDuplicateDao {
+
+    private static final int JDBC_BATCH_SIZE = 500;
+
+    private static final String CANDIDATE_COLUMNS = "c.id, c.patient_a, c.patient_b, c.score, c.details, c.status, "
+            + "c.date_created, c.date_reviewed";
+
+    @Autowired
+    DbSessionFactory sessionFactory;
+
+    private DbSession getSession() {
+        return sessionFactory.getCurrentSession();
+    }
+
+    /**
+     * Returns up to {@code limit} non-voided patients with an id greater than
+     * {@code afterPatientId}, ordered by id.
+     */
+    @SuppressWarnings("unchecked")
+    public List<MatchRecord> getMatchRecords(Integer afterPatientId, int limit) {
+        List<Number> idRows = getSession()
+                .createSQLQuery("SELECT patient_id FROM patient WHERE voided = 0 AND patient_id > :after ORDER BY patient_id")
+                .setParameter("after", afterPatientId != null ? afterPatientId : 0)
+                .setMaxResults(limit)
+                .list();
+        List<Integer> patientIds = new ArrayList<>(idRows.size());
+        for (Number id : idRows) {
+            patientIds.add(id.intValue());
+        }
+        return getMatchRecords(patientIds);
+    }
+
+    /**
+     * Match records of the non-voided patients among {@code patientIds}, in the given order. The
+     * preferred name and address are used, or the oldest one if none is preferred.
+     */
+    @SuppressWarnings("unchecked")
+    public List<MatchRecord> getMatchRecords(Collection<Integer> patientIds) {
+        if (patientIds.isEmpty()) return Collections.emptyList();
+
+        Map<Integer, String[]> names = new HashMap<>();
+        List<Object[]> nameRows = getSession()
+                .createSQLQuery("SELECT person_id, given_name, family_name FROM person_name WHERE voided = 0 "
+                        + "AND person_id IN (:ids) ORDER BY person_id, preferred DESC, person_name_id")
+                .setParameterList("ids", patientIds)
+                .list();
+        for (Object[] row : nameRows) {
+            names.putIfAbsent(((Number) row[0]).intValue(), new String[] { (String) row[1], (String) row[2] });
+        }
+
+        Map<Integer, String> cities = new HashMap<>();
+        List<Object[]> addressRows = getSession()
+                .createSQLQuery("SELECT person_id, city_village FROM person_address WHERE voided = 0 "
+                        + "AND person_id IN (:ids) ORDER BY person_id, preferred DESC, person_address_id")
+                .setParameterList("ids", patientIds)
+                .list();
+        for (Object[] row : addressRows) {
+            cities.putIfAbsent(((Number) row[0]).intValue(), (String) row[1]);
+        }
+
+        Map<Integer, MatchRecord> records = new HashMap<>();
+        List<Object[]> personRows = getSession()
+                .createSQLQuery("SELECT p.patient_id, pe.gender, pe.birthdate, pe.birthdate_estimated FROM patient p "
+                        + "JOIN person pe ON pe.person_id = p.patient_id WHERE p.voided = 0 AND p.patient_id IN (:ids)")
+                .setParameterList("ids", patientIds)
+                .list();
+        for (Object[] row : personRows) {
+            int id = ((Number) row[0]).intValue();
+            String[] name = names.getOrDefault(id, new String[2]);
+            records.put(id, new MatchRecord(id, name[0], name[1], (String) row[1],
+                    toLocalDate(row[2]),
+                    isTrue(row[3]), cities.get(id)));
+        }
+
+        List<MatchRecord> ordered = new ArrayList<>(records.size());
+        for (Integer id : patientIds) {
+            MatchRecord record = records.get(id);
+            if (record != null) ordered.add(record);
+        }
+        return ordered;
+    }
+
+    /**
+     * Replaces the blocking keys of every patient in {@code keysByPatient}.
+     */
+    public void replaceBlockKeys(Map<Integer, Set<String>> keysByPatient) {
+        if (keysByPatient.isEmpty()) return;
+
+        getSession()
+                .createSQLQuery("DELETE FROM emr_patient_block_key WHERE patient_id IN (:ids)")
+                .setParameterList("ids", keysByPatient.keySet())
+                .executeUpdate();
+
+        getSession().doWork(StatementCounter.counted(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT IGNORE INTO emr_patient_block_key (block_key, patient_id) VALUES (?, ?)")) {
+                int pending = 0;
+                for (Map.Entry<Integer, Set<String>> entry : keysByPatient.entrySet()) {
+                    for (String key : entry.getValue()) {
+                        ps.setString(1, key);
+                        ps.setInt(2, entry.getKey());
+                        ps.addBatch();
+                        if (++pending == JDBC_BATCH_SIZE) {
+                            ps.executeBatch();
+                            pending = 0;
+                        }
+                    }
+                }
+                if (pending > 0) ps.executeBatch();
+            }
+        }));
+    }
+
+    /**
+     * Up to {@code limit} block keys after {@code afterKey}, in key order, shared by at least two
+     * and at most {@code maxBlockSize} patients. Larger blocks are too unspecific to be worth
+     * comparing pairwise.
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getBlocks(String afterKey, int maxBlockSize, int limit) {
+        return getSession()
+                .createSQLQuery("SELECT block_key FROM emr_patient_block_key WHERE block_key > :after "
+                        + "GROUP BY block_key HAVING COUNT(*) BETWEEN 2 AND :max ORDER BY block_key")
+                .setParameter("after", afterKey != null ? afterKey : "")
+                .setParameter("max", maxBlockSize)
+                .setMaxResults(limit)
+                .list();
+    }
+
+    /**
+     * Patient ids in each of {@code blockKeys} that holds at most {@code maxBlockSize} patients.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, List<Integer>> getBlockMembers(Collection<String> blockKeys, int maxBlockSize) {
+        if (blockKeys.isEmpty()) return Collections.emptyMap();
+
+        List<Object[]> rows = getSession()
+                .createSQLQuery("SELECT k.block_key, k.patient_id FROM emr_patient_block_key k WHERE k.block_key IN "
+                        + "(SELECT block_key FROM emr_patient_block_key WHERE block_key IN (:keys) "
+                        + "GROUP BY block_key HAVING COUNT(*) <= :max) ORDER BY k.block_key, k.patient_id")
+                .setParameterList("keys", blockKeys)
+                .setParameter("max", maxBlockSize)
+                .list();
+        Map<String, List<Integer>> members = new LinkedHashMap<>();
+        for (Object[] row : rows) {
+            members.computeIfAbsent((String) row[0], k -> new ArrayList<>()).add(((Number) row[1]).intValue());
+        }
+        return members;
+    }
+
+    /**
+     * Adds scored pairs to the review queue. A pair already queued gets the new score while it is
+     * pending; a reviewed pair keeps its decision.
+     */
+    public void upsertCandidates(List<DuplicateCandidate> candidates) {
+        if (candidates.isEmpty()) return;
+
+        getSession().doWork(StatementCounter.counted(connection -> {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO emr_duplicate_candidate (patient_a, patient_b, score, details, status, date_created) "
+                            + "VALUES (?, ?, ?, ?, 'PENDING', ?) ON DUPLICATE KEY UPDATE "
+                            + "details = IF(status = 'PENDING', VALUES(details), details), "
+                            + "score = IF(status = 'PENDING', VALUES(score), score)")) {
+                int pending = 0;
+                for (DuplicateCandidate c : candidates) {
+                    ps.setInt(1, c.getPatientA());
+                    ps.setInt(2, c.getPatientB());
+                    ps.setDouble(3, c.getScore());
+                    ps.setString(4, c.getDetails());
+                    ps.setTimestamp(5, now);
+                    ps.addBatch();
+                    if (++pending == JDBC_BATCH_SIZE) {
+                        ps.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) ps.executeBatch();
+            }
+        }));
+    }
+
+    /**
+     * Up to {@code limit} candidates with {@code status}, highest score first, following the
+     * candidate {@code afterId} in that order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<DuplicateCandidate> getCandidates(DuplicateCandidate.Status status, Integer afterId, int limit) {
+        List<Object[]> rows = getSession()
+                .createSQLQuery("SELECT " + CANDIDATE_COLUMNS + " FROM emr_duplicate_candidate c "
+                        + "LEFT JOIN emr_duplicate_candidate k ON k.id = :after "
+                        + "WHERE c.status = :status AND (k.id IS NULL OR c.score < k.score OR (c.score = k.score AND c.id > k.id)) "
+                        + "ORDER BY c.score DESC, c.id")
+                .setParameter("after", afterId != null ? afterId : 0)
+                .setParameter("status", status.name())
+                .setMaxResults(limit)
+                .list();
+        List<DuplicateCandidate> candidates = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            candidates.add(toCandidate(row));
+        }
+        return candidates;
+    }
+
+    public DuplicateCandidate getCandidate(int id) {
+        Object[] row = (Object[]) getSession()
+                .createSQLQuery("SELECT " + CANDIDATE_COLUMNS + " FROM emr_duplicate_candidate c WHERE c.id = :id")
+                .setParameter("id", id)
+                .uniqueResult();
+        return row != null ? toCandidate(row) : null;
+    }
+
+    /**
+     * Records the review of a pending candidate. Returns false if it was no longer pending.
+     */
+    public boolean resolveCandidate(int id, DuplicateCandidate.Status status, int userId) {
+        return getSession()
+                .createSQLQuery("UPDATE emr_duplicate_candidate SET status = :status, reviewed_by = :user, "
+                        + "date_reviewed = NOW() WHERE id = :id AND status = 'PENDING'")
+                .setParameter("status", status.name())
+                .setParameter("user", userId)
+                .setParameter("id", id)
+                .executeUpdate() == 1;
+    }
+
+    /**
+     * Drops {@code patientId} from duplicate detection after it was merged away: its blocking keys
+     * are deleted and its pending pairs become obsolete.
+     */
+    public void removePatient(int patientId) {
+        getSession()
+                .createSQLQuery("DELETE FROM emr_patient_block_key WHERE patient_id = :id")
+                .setParameter("id", patientId)
+                .executeUpdate();
+        getSession()
+                .createSQLQuery("UPDATE emr_duplicate_candidate SET status = 'OBSOLETE', date_reviewed = NOW() "
+                        + "WHERE status = 'PENDING' AND (patient_a = :id OR patient_b = :id)")
+                .setParameter("id", patientId)
+                .executeUpdate();
+    }
+
+    /**
+     * Deletes the blocking keys of patients voided since they were keyed.
+     */
+    public void removeVoidedPatients() {
+        getSession()
+                .createSQLQuery("DELETE k FROM emr_patient_block_key k JOIN patient p ON p.patient_id = k.patient_id "
+                        + "WHERE p.voided = 1")
+                .executeUpdate();
+    }
+
+    private static DuplicateCandidate toCandidate(Object[] row) {
+        DuplicateCandidate c = new DuplicateCandidate();
+        c.setId(((Number) row[0]).intValue());
+        c.setPatientA(((Number) row[1]).intValue());
+        c.setPatientB(((Number) row[2]).intValue());
+        c.setScore(((Number) row[3]).doubleValue());
+        c.setDetails((String) row[4]);
+        c.setStatus(DuplicateCandidate.Status.valueOf((String) row[5]));
+        c.setDateCreated((Date) row[6]);
+        c.setDateReviewed((Date) row[7]);
+        return c;
+    }
+
+    private static LocalDate toLocalDate(Object value) {
+        if (value == null) return null;
+        if (value instanceof java.sql.Date) return ((java.sql.Date) value).toLocalDate();
+        return ((Date) value).toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
+    private static boolean isTrue(Object value) {
+        if (value instanceof Boolean) return (Boolean) value;
+        return value instanceof Number && ((Number) value).intValue() != 0;
+    }
+}
@@ -0,0 +1,263 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.dao;
+
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.query.NativeQuery;
+import org.openmrs.Allergy;
+import org.openmrs.CohortMembership;
+import org.openmrs.Condition;
+import org.openmrs.Diagnosis;
+import org.openmrs.Encounter;
+import org.openmrs.MedicationDispense;
+import org.openmrs.Obs;
+import org.openmrs.Order;
+import org.openmrs.OrderGroup;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientProgram;
+import org.openmrs.Person;
+import org.openmrs.Visit;
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.openmrs.module.pinnaclecustomemrmodule.api.metrics.StatementCounter;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Set-based re-parenting of a patient's clinical data onto another patient. Every statement
+ * touches all rows of one table for the source patient at once and bypasses the Hibernate session
+ * and its caches, so callers must flush before and evict the moved rows after (see {@link #evict}).
+ */
+@Repository("pinnaclecustomemrmodule.PatientMergeDao")
+public class PatientMergeDao {
+
+    /**
+     * A table with a patient (or, for obs, person) column that a merge moves: result key, table,
+     * column, primary key, whether the table has changed_by / date_changed, and the entity mapped
+     * to it.
+     */
+    private static final class MovedTable {
+
+        final String key;
+        final String table;
+        final String column;
+        final String idColumn;
+        final boolean changeTracked;
+        final Class<?> entity;
+
+        MovedTable(String key, String table, String column, String idColumn, boolean changeTracked, Class<?> entity) {
+            this.key = key;
+            this.table = table;
+            this.column = column;
+            this.idColumn = idColumn;
+            this.changeTracked = changeTracked;
+            this.entity = entity;
+        }
+    }
+
+    /**
+     * Patient states move with their patient_program and order lines with their orders row. Obs
+     * and orders are immutable in core and cohort_member carries no change tracking.
+     */
+    private static final MovedTable[] MOVED_TABLES = {
+            new MovedTable("visits", "visit", "patient_id", "visit_id", true, Visit.class),
+            new MovedTable("encounters", "encounter", "patient_id", "encounter_id", true, Encounter.class),
+            new MovedTable("obs", "obs", "person_id", "obs_id", false, Obs.class),
+            new MovedTable("orderGroups", "order_group", "patient_id", "order_group_id", true, OrderGroup.class),
+            new MovedTable("orders", "orders", "patient_id", "order_id", false, Order.class),
+            new MovedTable("diagnoses", "encounter_diagnosis", "patient_id", "diagnosis_id", true, Diagnosis.class),
+            new MovedTable("conditions", "conditions", "patient_id", "condition_id", true, Condition.class),
+            new MovedTable("allergies", "allergy", "patient_id", "allergy_id", true, Allergy.class),
+            new MovedTable("programs", "patient_program", "patient_id", "patient_program_id", true, PatientProgram.class),
+            new MovedTable("medicationDispenses", "medication_dispense", "patient_id", "medication_dispense_id", true,
+                    MedicationDispense.class),
+            new MovedTable("cohortMemberships", "cohort_member", "patient_id", "cohort_member_id", false, CohortMembership.class),
+    };
+
+    private static final String SAME_IDENTIFIER_ON_TARGET = "SELECT 1 FROM patient_identifier t WHERE t.patient_id = :target "
+            + "AND t.voided = 0 AND t.identifier = s.identifier AND t.identifier_type = s.identifier_type";
+
+    @Autowired
+    private DbSessionFactory sessionFactory;
+
+    private DbSession getSession() {
+        return sessionFactory.getCurrentSession();
+    }
+
+    /**
+     * Locks both patient rows, lowest id first so two merges of the same pair cannot deadlock.
+     */
+    public void lockPatients(int sourceId, int targetId) {
+        getSession()
+                .createSQLQuery("SELECT patient_id FROM patient WHERE patient_id IN (:ids) ORDER BY patient_id FOR UPDATE")
+                .setParameterList("ids", List.of(Math.min(sourceId, targetId), Math.max(sourceId, targetId)))
+                .list();
+    }
+
+    /**
+     * Rows a merge of {@code sourceId} into {@code targetId} would move, by kind, plus the source
+     * identifiers that duplicate one of the target's and stay behind.
+     */
+    public Map<String, Integer> countMovable(int sourceId, int targetId) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (MovedTable table : MOVED_TABLES) {
+            counts.put(table.key, count("SELECT COUNT(*) FROM " + table.table + " WHERE " + table.column + " = :source", sourceId, null));
+        }
+        counts.put("identifiers", count("SELECT COUNT(*) FROM patient_identifier s WHERE s.patient_id = :source AND s.voided = 0 "
+                + "AND NOT EXISTS (" + SAME_IDENTIFIER_ON_TARGET + ")", sourceId, targetId));
+        counts.put("duplicateIdentifiers", countDuplicateIdentifiers(sourceId, targetId));
+        return counts;
+    }
+
+    /**
+     * The source identifiers that duplicate one of the target's, which a merge leaves behind.
+     */
+    public int countDuplicateIdentifiers(int sourceId, int targetId) {
+        return count("SELECT COUNT(*) FROM patient_identifier s WHERE s.patient_id = :source "
+                + "AND s.voided = 0 AND EXISTS (" + SAME_IDENTIFIER_ON_TARGET + ")", sourceId, targetId);
+    }
+
+    /**
+     * Moves every row of {@link #MOVED_TABLES} and every non-duplicate identifier from
+     * {@code sourceId} to {@code targetId}, with JDBC on the current transaction's connection.
+     * Moved identifiers lose their preferred flag so the target keeps its own. Cohort memberships
+     * of the source in a cohort the target is already in are voided, and moved with the rest, so
+     * the target is not a member twice. Returns the updated row counts, keyed as in
+     * {@link #countMovable}, and adds the ids of every moved or voided row to {@code movedIds} by
+     * entity type.
+     */
+    public Map<String, Integer> moveAll(int sourceId, int targetId, int userId, Map<Class<?>, Set<Integer>> movedIds) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        getSession().doWork(StatementCounter.counted(connection -> {
+            movedIds.computeIfAbsent(CohortMembership.class, k -> new HashSet<>()).addAll(selectIds(connection,
+                    "SELECT s.cohort_member_id FROM cohort_member s JOIN cohort_member t ON t.cohort_id = s.cohort_id "
+                            + "AND t.patient_id = ? AND t.voided = 0 WHERE s.patient_id = ? AND s.voided = 0",
+                    targetId, sourceId));
+            try (PreparedStatement update = connection.prepareStatement(
+                    "UPDATE cohort_member s JOIN cohort_member t ON t.cohort_id = s.cohort_id AND t.patient_id = ? "
+                            + "AND t.voided = 0 SET s.voided = 1, s.voided_by = ?, s.date_voided = NOW(), "
+                            + "s.void_reason = 'Duplicate membership after patient merge' "
+                            + "WHERE s.patient_id = ? AND s.voided = 0")) {
+                update.setInt(1, targetId);
+                update.setInt(2, userId);
+                update.setInt(3, sourceId);
+                update.executeUpdate();
+            }
+
+            for (MovedTable table : MOVED_TABLES) {
+                movedIds.computeIfAbsent(table.entity, k -> new HashSet<>()).addAll(selectIds(connection,
+                        "SELECT " + table.idColumn + " FROM " + table.table + " WHERE " + table.column + " = ?", sourceId));
+                try (PreparedStatement update = connection.prepareStatement("UPDATE " + table.table + " SET "
+                        + table.column + " = ?" + (table.changeTracked ? ", changed_by = ?, date_changed = NOW()" : "")
+                        + " WHERE " + table.column + " = ?")) {
+                    update.setInt(1, targetId);
+                    if (table.changeTracked) update.setInt(2, userId);
+                    update.setInt(table.changeTracked ? 3 : 2, sourceId);
+                    counts.put(table.key, update.executeUpdate());
+                }
+            }
+
+            movedIds.computeIfAbsent(PatientIdentifier.class, k -> new HashSet<>()).addAll(selectIds(connection,
+                    "SELECT s.patient_identifier_id FROM patient_identifier s LEFT JOIN patient_identifier t "
+                            + "ON t.patient_id = ? AND t.voided = 0 AND t.identifier = s.identifier "
+                            + "AND t.identifier_type = s.identifier_type "
+                            + "WHERE s.patient_id = ? AND s.voided = 0 AND t.patient_identifier_id IS NULL",
+                    targetId, sourceId));
+            // Multi-table UPDATE: MySQL does not allow a subquery on the table being updated
+            try (PreparedStatement update = connection.prepareStatement(
+                    "UPDATE patient_identifier s LEFT JOIN patient_identifier t ON t.patient_id = ? "
+                            + "AND t.voided = 0 AND t.identifier = s.identifier AND t.identifier_type = s.identifier_type "
+                            + "SET s.patient_id = ?, s.preferred = 0, s.changed_by = ?, s.date_changed = NOW() "
+                            + "WHERE s.patient_id = ? AND s.voided = 0 AND t.patient_identifier_id IS NULL")) {
+                update.setInt(1, targetId);
+                update.setInt(2, targetId);
+                update.setInt(3, userId);
+                update.setInt(4, sourceId);
+                counts.put("identifiers", update.executeUpdate());
+            }
+        }));
+        return counts;
+    }
+
+    private static List<Integer> selectIds(Connection connection, String sql, int... params) throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                select.setInt(i + 1, params[i]);
+            }
+            List<Integer> ids = new ArrayList<>();
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getInt(1));
+                }
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Evicts both patients and every entity of theirs that the session holds, and drops the
+     * second-level cache entries of the patients and of the rows in {@code movedIds}, so later
+     * reads see the moved rows. Other entities in the caller's session and cache are left alone.
+     */
+    public void evict(int sourceId, int targetId, Map<Class<?>, Set<Integer>> movedIds) {
+        Session session = sessionFactory.getHibernateSessionFactory().getCurrentSession();
+        Set<Integer> patientIds = Set.of(sourceId, targetId);
+        List<Object> stale = new ArrayList<>();
+        for (Map.Entry<Object, EntityEntry> entry : ((SessionImplementor) session).getPersistenceContext()
+                .reentrantSafeEntityEntries()) {
+            if (belongsTo(entry.getKey(), patientIds)) stale.add(entry.getKey());
+        }
+        for (Object entity : stale) {
+            session.evict(entity);
+        }
+
+        Cache cache = session.getSessionFactory().getCache();
+        for (int id : new int[] { sourceId, targetId }) {
+            cache.evictEntityData(Patient.class, id);
+            cache.evictEntityData(Person.class, id);
+            cache.evictCollectionData(Patient.class.getName() + ".identifiers", id);
+        }
+        for (Map.Entry<Class<?>, Set<Integer>> moved : movedIds.entrySet()) {
+            for (Integer id : moved.getValue()) {
+                cache.evictEntityData(moved.getKey(), id);
+            }
+        }
+    }
+
+    private static boolean belongsTo(Object entity, Set<Integer> patientIds) {
+        Person person = null;
+        if (entity instanceof Person) person = (Person) entity;
+        else if (entity instanceof Obs) person = ((Obs) entity).getPerson();
+        else if (entity instanceof PatientIdentifier) person = ((PatientIdentifier) entity).getPatient();
+        else if (entity instanceof Visit) person = ((Visit) entity).getPatient();
+        else if (entity instanceof Encounter) person = ((Encounter) entity).getPatient();
+        else if (entity instanceof OrderGroup) person = ((OrderGroup) entity).getPatient();
+        else if (entity instanceof Order) person = ((Order) entity).getPatient();
+        else if (entity instanceof Diagnosis) person = ((Diagnosis) entity).getPatient();
+        else if (entity instanceof Condition) person = ((Condition) entity).getPatient();
+        else if (entity instanceof Allergy) person = ((Allergy) entity).getPatient();
+        else if (entity instanceof PatientProgram) person = ((PatientProgram) entity).getPatient();
+        else if (entity instanceof MedicationDispense) person = ((MedicationDispense) entity).getPatient();
+        else if (entity instanceof CohortMembership) return patientIds.contains(((CohortMembership) entity).getPatientId());
+        return person != null && patientIds.contains(person.getPersonId());
+    }
+
+    private int count(String sql, int sourceId, Integer targetId) {
+        NativeQuery<?> query = getSession().createSQLQuery(sql).setParameter("source", sourceId);
+        if (targetId != null) query.setParameter("target", targetId);
+        return ((Number) query.uniqueResult()).intValue();
+    }
+}
@@ -0,0 +1,119 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.dao;
+
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.projection.PatientSummary;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.projection.PatientSummary.Field;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads {@link PatientSummary} projections: one query for the person columns plus one per
+ * requested name, identifier or address field, whatever the number of patients.
+ */
+@Repository("pinnaclecustomemrmodule.PatientProjectionDao")
+public class PatientProjectionDao {
+
+    @Autowired
+    DbSessionFactory sessionFactory;
+
+    private DbSession getSession() {
+        return sessionFactory.getCurrentSession();
+    }
+
+    public Integer getPatientId(String uuid) {
+        Number id = (Number) getSession()
+                .createSQLQuery("SELECT p.patient_id FROM patient p JOIN person pe ON pe.person_id = p.patient_id "
+                        + "WHERE pe.uuid = :uuid")
+                .setParameter("uuid", uuid)
+                .uniqueResult();
+        return id != null ? id.intValue() : null;
+    }
+
+    /**
+     * Summaries of the patients in {@code patientIds}, in the given order; ids that are not
+     * patients are skipped. Preferred names, identifiers and addresses are used, or the oldest
+     * non-voided one if none is preferred.
+     */
+    @SuppressWarnings("unchecked")
+    public List<PatientSummary> getSummaries(Collection<Integer> patientIds, Set<Field> fields) {
+        if (patientIds.isEmpty()) return Collections.emptyList();
+
+        Map<Integer, PatientSummary.Builder> builders = new HashMap<>();
+        List<Object[]> personRows = getSession()
+                .createSQLQuery("SELECT p.patient_id, pe.uuid, p.voided, pe.gender, pe.birthdate, pe.birthdate_estimated, "
+                        + "pe.dead, pe.death_date FROM patient p JOIN person pe ON pe.person_id = p.patient_id "
+                        + "WHERE p.patient_id IN (:ids)")
+                .setParameterList("ids", patientIds)
+                .list();
+        for (Object[] row : personRows) {
+            PatientSummary.Builder b = PatientSummary.builder(((Number) row[0]).intValue(), (String) row[1], isTrue(row[2]));
+            if (fields.contains(Field.gender)) b.gender((String) row[3]);
+            if (fields.contains(Field.birthdate)) b.birthdate((Date) row[4], isTrue(row[5]));
+            if (fields.contains(Field.dead)) b.dead(isTrue(row[6]), (Date) row[7]);
+            builders.put(((Number) row[0]).intValue(), b);
+        }
+        if (builders.isEmpty()) return Collections.emptyList();
+
+        if (fields.contains(Field.name)) {
+            for (Object[] row : firstPerPatient("SELECT person_id, given_name, middle_name, family_name FROM person_name "
+                    + "WHERE voided = 0 AND person_id IN (:ids) ORDER BY person_id, preferred DESC, person_name_id", builders.keySet())) {
+                builders.get(((Number) row[0]).intValue()).name((String) row[1], (String) row[2], (String) row[3]);
+            }
+        }
+        if (fields.contains(Field.identifier)) {
+            for (Object[] row : firstPerPatient("SELECT pi.patient_id, pi.identifier, t.name FROM patient_identifier pi "
+                    + "JOIN patient_identifier_type t ON t.patient_identifier_type_id = pi.identifier_type "
+                    + "WHERE pi.voided = 0 AND pi.patient_id IN (:ids) "
+                    + "ORDER BY pi.patient_id, pi.preferred DESC, pi.patient_identifier_id", builders.keySet())) {
+                builders.get(((Number) row[0]).intValue()).identifier((String) row[1], (String) row[2]);
+            }
+        }
+        if (fields.contains(Field.address)) {
+            for (Object[] row : firstPerPatient("SELECT person_id, city_village, state_province, country FROM person_address "
+                    + "WHERE voided = 0 AND person_id IN (:ids) ORDER BY person_id, preferred DESC, person_address_id", builders.keySet())) {
+                builders.get(((Number) row[0]).intValue()).address((String) row[1], (String) row[2], (String) row[3]);
+            }
+        }
+
+        List<PatientSummary> summaries = new ArrayList<>(builders.size());
+        for (Integer id : patientIds) {
+            PatientSummary.Builder b = builders.get(id);
+            if (b != null) summaries.add(b.build());
+        }
+        return summaries;
+    }
+
+    /**
+     * Runs {@code sql}, ordered by patient id first, and keeps the first row of each patient.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object[]> firstPerPatient(String sql, Collection<Integer> patientIds) {
+        List<Object[]> rows = getSession()
+                .createSQLQuery(sql)
+                .setParameterList("ids", patientIds)
+                .list();
+        List<Object[]> first = new ArrayList<>(patientIds.size());
+        Integer last = null;
+        for (Object[] row : rows) {
+            Integer id = ((Number) row[0]).intValue();
+            if (!id.equals(last)) first.add(row);
+            last = id;
+        }
+        return first;
+    }
+
+    private static boolean isTrue(Object value) {
+        if (value instanceof Boolean) return (Boolean) value;
+        return value instanceof Number && ((Number) value).intValue() != 0;
+    }
+}
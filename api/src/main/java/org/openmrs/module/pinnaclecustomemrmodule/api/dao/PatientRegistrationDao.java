@@ -0,0 +1,149 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.dao;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.pinnaclecustomemrmodule.api.metrics.StatementCounter;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.registration.PatientRegistration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Inserts bulk registrations with JDBC batches: person rows first (for the generated ids), then
+ * the patient, preferred name, preferred identifier and, when given, preferred address rows.
+ * Bypasses the Hibernate session, so nothing inserted here is in the session or the second-level
+ * cache.
+ */
+@Repository("pinnaclecustomemrmodule.PatientRegistrationDao")
+public class PatientRegistrationDao {
+
+    private static final int JDBC_BATCH_SIZE = 500;
+
+    @Autowired
+    DbSessionFactory sessionFactory;
+
+    private DbSession getSession() {
+        return sessionFactory.getCurrentSession();
+    }
+
+    /**
+     * A registration to insert with its assigned identifier. {@link #getPatientId()} is set once
+     * the person row is inserted.
+     */
+    public static final class NewPatientRow {
+
+        private final PatientRegistration registration;
+        private final String identifier;
+        private final String uuid = UUID.randomUUID().toString();
+        private Integer patientId;
+
+        public NewPatientRow(PatientRegistration registration, String identifier) {
+            this.registration = registration;
+            this.identifier = identifier;
+        }
+
+        public PatientRegistration getRegistration() { return registration; }
+
+        public String getIdentifier() { return identifier; }
+
+        public String getUuid() { return uuid; }
+
+        public Integer getPatientId() { return patientId; }
+    }
+
+    public void insertPatients(List<NewPatientRow> rows, int identifierTypeId, Integer locationId, int creatorId) {
+        if (rows.isEmpty()) return;
+
+        getSession().flush();
+        getSession().doWork(StatementCounter.counted(connection -> {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            try (PreparedStatement person = connection.prepareStatement(
+                    "INSERT INTO person (gender, birthdate, birthdate_estimated, dead, creator, date_created, voided, uuid) "
+                            + "VALUES (?, ?, ?, 0, ?, ?, 0, ?)", Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement patient = connection.prepareStatement(
+                    "INSERT INTO patient (patient_id, creator, date_created, voided) VALUES (?, ?, ?, 0)");
+                 PreparedStatement name = connection.prepareStatement(
+                    "INSERT INTO person_name (person_id, preferred, given_name, middle_name, family_name, creator, "
+                            + "date_created, voided, uuid) VALUES (?, 1, ?, ?, ?, ?, ?, 0, UUID())");
+                 PreparedStatement identifier = connection.prepareStatement(
+                    "INSERT INTO patient_identifier (patient_id, identifier, identifier_type, preferred, location_id, "
+                            + "creator, date_created, voided, uuid) VALUES (?, ?, ?, 1, ?, ?, ?, 0, UUID())");
+                 PreparedStatement address = connection.prepareStatement(
+                    "INSERT INTO person_address (person_id, preferred, city_village, state_province, country, creator, "
+                            + "date_created, voided, uuid) VALUES (?, 1, ?, ?, ?, ?, ?, 0, UUID())")) {
+
+                for (int from = 0; from < rows.size(); from += JDBC_BATCH_SIZE) {
+                    List<NewPatientRow> chunk = rows.subList(from, Math.min(from + JDBC_BATCH_SIZE, rows.size()));
+                    for (NewPatientRow row : chunk) {
+                        PatientRegistration r = row.registration;
+                        person.setString(1, r.getGender());
+                        if (r.getBirthdate() != null) person.setDate(2, new Date(r.getBirthdate().getTime()));
+                        else person.setNull(2, Types.DATE);
+                        person.setBoolean(3, r.isBirthdateEstimated());
+                        person.setInt(4, creatorId);
+                        person.setTimestamp(5, now);
+                        person.setString(6, row.uuid);
+                        person.addBatch();
+                    }
+                    person.executeBatch();
+
+                    boolean anyAddress = false;
+                    try (ResultSet keys = person.getGeneratedKeys()) {
+                        for (NewPatientRow row : chunk) {
+                            if (!keys.next()) throw new IllegalStateException("Missing generated id for registered person");
+                            row.patientId = keys.getInt(1);
+                            PatientRegistration r = row.registration;
+
+                            patient.setInt(1, row.patientId);
+                            patient.setInt(2, creatorId);
+                            patient.setTimestamp(3, now);
+                            patient.addBatch();
+
+                            name.setInt(1, row.patientId);
+                            name.setString(2, r.getGivenName());
+                            name.setString(3, r.getMiddleName());
+                            name.setString(4, r.getFamilyName());
+                            name.setInt(5, creatorId);
+                            name.setTimestamp(6, now);
+                            name.addBatch();
+
+                            identifier.setInt(1, row.patientId);
+                            identifier.setString(2, row.identifier);
+                            identifier.setInt(3, identifierTypeId);
+                            if (locationId != null) identifier.setInt(4, locationId);
+                            else identifier.setNull(4, Types.INTEGER);
+                            identifier.setInt(5, creatorId);
+                            identifier.setTimestamp(6, now);
+                            identifier.addBatch();
+
+                            if (StringUtils.isNotBlank(r.getCityVillage()) || StringUtils.isNotBlank(r.getStateProvince())
+                                    || StringUtils.isNotBlank(r.getCountry())) {
+                                address.setInt(1, row.patientId);
+                                address.setString(2, r.getCityVillage());
+                                address.setString(3, r.getStateProvince());
+                                address.setString(4, r.getCountry());
+                                address.setInt(5, creatorId);
+                                address.setTimestamp(6, now);
+                                address.addBatch();
+                                anyAddress = true;
+                            }
+                        }
+                    }
+                    patient.executeBatch();
+                    name.executeBatch();
+                    identifier.executeBatch();
+                    if (anyAddress) address.executeBatch();
+                }
+            }
+        }));
+    }
+}
@@ -0,0 +1,136 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.dao;
+
+import org.hibernate.SQLQuery;
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search.PatientSearchDocument;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the name and identifier columns needed to build the patient search index, without
+ * hydrating Patient entities.
+ */
+@Repository("pinnaclecustomemrmodule.PatientSearchDao")
+public class PatientSearchDao {
+
+    @Autowired
+    DbSessionFactory sessionFactory;
+
+    private DbSession getSession() {
+        return sessionFactory.getCurrentSession();
+    }
+
+    /**
+     * Returns up to {@code batchSize} non-voided patients with an id greater than
+     * {@code afterPatientId}, ordered by id.
+     */
+    @SuppressWarnings("unchecked")
+    public List<PatientSearchDocument> getSearchDocuments(Integer afterPatientId, int batchSize) {
+        List<Number> idRows = getSession()
+                .createSQLQuery("SELECT patient_id FROM patient WHERE voided = 0 AND patient_id > :after ORDER BY patient_id")
+                .setParameter("after", afterPatientId != null ? afterPatientId : 0)
+                .setMaxResults(batchSize)
+                .list();
+        if (idRows.isEmpty()) return Collections.emptyList();
+
+        return getSearchDocuments(toIds(idRows));
+    }
+
+    /**
+     * Returns the documents of the given patients, in the given order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<PatientSearchDocument> getSearchDocuments(List<Integer> patientIds) {
+        if (patientIds.isEmpty()) return Collections.emptyList();
+
+        Map<Integer, List<String>> names = new LinkedHashMap<>();
+        Map<Integer, List<String>> identifiers = new LinkedHashMap<>();
+        for (Integer id : patientIds) {
+            names.put(id, new ArrayList<>());
+            identifiers.put(id, new ArrayList<>());
+        }
+
+        List<Object[]> nameRows = getSession()
+                .createSQLQuery("SELECT person_id, given_name, middle_name, family_name FROM person_name "
+                        + "WHERE voided = 0 AND person_id IN (:ids)")
+                .setParameterList("ids", patientIds)
+                .list();
+        for (Object[] row : nameRows) {
+            List<String> parts = names.get(((Number) row[0]).intValue());
+            parts.add((String) row[1]);
+            parts.add((String) row[2]);
+            parts.add((String) row[3]);
+        }
+
+        List<Object[]> identifierRows = getSession()
+                .createSQLQuery("SELECT patient_id, identifier FROM patient_identifier "
+                        + "WHERE voided = 0 AND patient_id IN (:ids)")
+                .setParameterList("ids", patientIds)
+                .list();
+        for (Object[] row : identifierRows) {
+            identifiers.get(((Number) row[0]).intValue()).add((String) row[1]);
+        }
+
+        List<PatientSearchDocument> documents = new ArrayList<>(patientIds.size());
+        for (Integer id : patientIds) {
+            documents.add(new PatientSearchDocument(id, names.get(id), identifiers.get(id)));
+        }
+        return documents;
+    }
+
+    /**
+     * The highest patient id, voided or not, or {@code null} if there are no patients.
+     */
+    public Integer getMaxPatientId() {
+        Number max = (Number) getSession().createSQLQuery("SELECT MAX(patient_id) FROM patient").uniqueResult();
+        return max != null ? max.intValue() : null;
+    }
+
+    /**
+     * Ids of up to {@code limit} non-voided patients greater than {@code afterPatientId}, in
+     * ascending order, where every token is a prefix of a non-voided name part or identifier. Used
+     * while the search index is not built yet or is being rebuilt because it went stale; unlike
+     * the index it does not match by sound.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Integer> searchPatientIds(String[] tokens, Integer afterPatientId, int limit) {
+        if (tokens.length == 0 || limit <= 0) return Collections.emptyList();
+
+        StringBuilder sql = new StringBuilder("SELECT p.patient_id FROM patient p WHERE p.voided = 0 AND p.patient_id > :after");
+        for (int i = 0; i < tokens.length; i++) {
+            sql.append(" AND (EXISTS (SELECT 1 FROM person_name pn WHERE pn.person_id = p.patient_id AND pn.voided = 0")
+                    .append(" AND (pn.given_name LIKE :t").append(i)
+                    .append(" OR pn.middle_name LIKE :t").append(i)
+                    .append(" OR pn.family_name LIKE :t").append(i).append("))")
+                    .append(" OR EXISTS (SELECT 1 FROM patient_identifier pi WHERE pi.patient_id = p.patient_id")
+                    .append(" AND pi.voided = 0 AND pi.identifier LIKE :t").append(i).append("))");
+        }
+        sql.append(" ORDER BY p.patient_id");
+
+        SQLQuery query = getSession().createSQLQuery(sql.toString());
+        query.setParameter("after", afterPatientId != null ? afterPatientId : 0);
+        for (int i = 0; i < tokens.length; i++) {
+            query.setParameter("t" + i, escapeLike(tokens[i]) + "%");
+        }
+        return toIds(query.setMaxResults(limit).list());
+    }
+
+    private static List<Integer> toIds(List<Number> rows) {
+        List<Integer> ids = new ArrayList<>(rows.size());
+        for (Number id : rows) {
+            ids.add(id.intValue());
+        }
+        return ids;
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -0,0 +1,85 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.dao;
+
+import org.hibernate.query.Query;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Read paths for record export that must not materialise a patient's whole history at once.
+ */
+@Repository("pinnaclecustomemrmodule.RecordExportDao")
+public class RecordExportDao {
+
+    private static final int PAGE_SIZE = 200;
+
+    @Autowired
+    DbSessionFactory sessionFactory;
+
+    private DbSession getSession() {
+        return sessionFactory.getCurrentSession();
+    }
+
+    public interface ObsCallback {
+
+        void accept(Obs obs) throws IOException;
+    }
+
+    /**
+     * Passes the patient's non-voided obs of concept {@code conceptId} to the callback, newest first. Each
+     * obs is evicted from the session after the callback returns, so the session does not grow with
+     * the record.
+     * <p>
+     * The obs are read in keyset pages of {@value #PAGE_SIZE} rather than through one scrolled
+     * result: MySQL Connector/J buffers a scrolled result whole unless it streams it, and while it
+     * streams no other statement may run on the connection, which the callback's lazy loads need.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachObs(Patient patient, Integer conceptId, ObsCallback callback) throws IOException {
+        if (patient == null || conceptId == null) return;
+
+        Date lastDatetime = null;
+        Integer lastObsId = null;
+        List<Obs> page;
+        do {
+            Query query = getSession()
+                    .createQuery("from Obs o where o.person.personId = :personId and o.concept.conceptId = :conceptId "
+                            + "and o.voided = false"
+                            + (lastObsId == null ? "" : " and (o.obsDatetime < :lastDatetime "
+                                    + "or (o.obsDatetime = :lastDatetime and o.obsId < :lastObsId))")
+                            + " order by o.obsDatetime desc, o.obsId desc")
+                    .setParameter("personId", patient.getPatientId())
+                    .setParameter("conceptId", conceptId);
+            if (lastObsId != null) {
+                query.setParameter("lastDatetime", lastDatetime).setParameter("lastObsId", lastObsId);
+            }
+            page = query.setMaxResults(PAGE_SIZE).setReadOnly(true).list();
+
+            for (Obs obs : page) {
+                callback.accept(obs);
+                lastDatetime = obs.getObsDatetime();
+                lastObsId = obs.getObsId();
+                getSession().evict(obs);
+            }
+        } while (page.size() == PAGE_SIZE);
+    }
+
+    public Obs getLatestObs(Patient patient, Integer conceptId) {
+        if (patient == null || conceptId == null) return null;
+
+        return (Obs) getSession()
+                .createQuery("from Obs o where o.person.personId = :personId and o.concept.conceptId = :conceptId "
+                        + "and o.voided = false order by o.obsDatetime desc, o.obsId desc")
+                .setParameter("personId", patient.getPatientId())
+                .setParameter("conceptId", conceptId)
+                .setMaxResults(1)
+                .uniqueResult();
+    }
+}
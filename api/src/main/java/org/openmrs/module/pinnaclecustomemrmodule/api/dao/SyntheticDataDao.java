@@ -0,0 +1,364 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.dao;
+
+import org.openmrs.api.db.hibernate.DbSession;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.pinnaclecustomemrmodule.api.metrics.StatementCounter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes generated clinical data with JDBC batches: encounters with their status history, then
+ * orders, then obs (groups before their members). Rows are shaped like the ones the module's
+ * services save, so the read paths see nothing unusual. Bypasses the Hibernate session, like
+ * {@link PatientRegistrationDao}.
+ */
+@Repository("pinnaclecustomemrmodule.SyntheticDataDao")
+public class SyntheticDataDao {
+
+    private static final int JDBC_BATCH_SIZE = 500;
+    private static final String FREE_TEXT_DOSING = "org.openmrs.FreeTextDosingInstructions";
+
+    @Autowired
+    DbSessionFactory sessionFactory;
+
+    private DbSession getSession() {
+        return sessionFactory.getCurrentSession();
+    }
+
+    /**
+     * Ids shared by every row of a run.
+     */
+    public static final class ReferenceData {
+
+        private final int creatorId;
+        private final int encounterTypeId;
+        private final Integer locationId;
+        private final Integer providerId;
+        private final Integer careSettingId;
+        private final Integer drugOrderTypeId;
+        private final Integer testOrderTypeId;
+
+        public ReferenceData(int creatorId, int encounterTypeId, Integer locationId, Integer providerId,
+                             Integer careSettingId, Integer drugOrderTypeId, Integer testOrderTypeId) {
+            this.creatorId = creatorId;
+            this.encounterTypeId = encounterTypeId;
+            this.locationId = locationId;
+            this.providerId = providerId;
+            this.careSettingId = careSettingId;
+            this.drugOrderTypeId = drugOrderTypeId;
+            this.testOrderTypeId = testOrderTypeId;
+        }
+
+        /**
+         * Orders need an orderer, a care setting and the order types; without them none are
+         * generated.
+         */
+        public boolean canOrder() {
+            return providerId != null && careSettingId != null && drugOrderTypeId != null && testOrderTypeId != null;
+        }
+    }
+
+    public static final class EncounterRow {
+
+        private final int patientId;
+        private final Date datetime;
+        private final List<String> statuses = new ArrayList<>();
+        private final List<Date> statusTimes = new ArrayList<>();
+        private Integer encounterId;
+
+        public EncounterRow(int patientId, Date datetime) {
+            this.patientId = patientId;
+            this.datetime = datetime;
+        }
+
+        public void addStatus(String status, Date changedOn) {
+            statuses.add(status);
+            statusTimes.add(changedOn);
+        }
+
+        public int getPatientId() { return patientId; }
+
+        public Date getDatetime() { return datetime; }
+
+        public int getStatusCount() { return statuses.size(); }
+    }
+
+    /**
+     * A drug order when {@code drugId} is set, a test order otherwise.
+     */
+    public static final class OrderRow {
+
+        private final EncounterRow encounter;
+        private final int conceptId;
+        private final Integer drugId;
+        private final String orderNumber;
+        private final String dosingInstructions;
+        private Integer orderId;
+
+        public OrderRow(EncounterRow encounter, int conceptId, Integer drugId, String orderNumber, String dosingInstructions) {
+            this.encounter = encounter;
+            this.conceptId = conceptId;
+            this.drugId = drugId;
+            this.orderNumber = orderNumber;
+            this.dosingInstructions = dosingInstructions;
+        }
+    }
+
+    public static final class ObsRow {
+
+        private final EncounterRow encounter;
+        private final int conceptId;
+        private final Date datetime;
+        private final List<ObsRow> members = new ArrayList<>();
+        private Double valueNumeric;
+        private Integer valueCoded;
+        private String valueText;
+        private String accessionNumber;
+        private String comment;
+        private OrderRow order;
+        private Integer obsId;
+
+        public ObsRow(EncounterRow encounter, int conceptId, Date datetime) {
+            this.encounter = encounter;
+            this.conceptId = conceptId;
+            this.datetime = datetime;
+        }
+
+        /**
+         * Adds a member with the group's encounter and datetime.
+         */
+        public ObsRow addMember(int conceptId) {
+            ObsRow member = new ObsRow(encounter, conceptId, datetime);
+            members.add(member);
+            return member;
+        }
+
+        public List<ObsRow> getMembers() { return members; }
+
+        public ObsRow numeric(double value) { valueNumeric = value; return this; }
+
+        public ObsRow coded(int conceptId) { valueCoded = conceptId; return this; }
+
+        public ObsRow text(String value) { valueText = value; return this; }
+
+        public ObsRow accessionNumber(String value) { accessionNumber = value; return this; }
+
+        public ObsRow comment(String value) { comment = value; return this; }
+
+        public ObsRow order(OrderRow value) { order = value; return this; }
+    }
+
+    /**
+     * Whether any patient identifier starts with {@code prefix}, i.e. a run with the same
+     * identifier prefix and seed has already written patients.
+     */
+    public boolean hasIdentifiersStartingWith(String prefix) {
+        Object hit = getSession()
+                .createSQLQuery("SELECT 1 FROM patient_identifier WHERE identifier LIKE :prefix")
+                .setParameter("prefix", escapeLike(prefix) + "%")
+                .setMaxResults(1)
+                .uniqueResult();
+        return hit != null;
+    }
+
+    public void insert(List<EncounterRow> encounters, List<OrderRow> orders, List<ObsRow> obs, ReferenceData ref) {
+        getSession().flush();
+        getSession().doWork(StatementCounter.counted(connection -> {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            insertEncounters(connection, encounters, ref, now);
+            insertOrders(connection, orders, ref, now);
+            List<ObsRow> members = new ArrayList<>();
+            for (ObsRow o : obs) {
+                members.addAll(o.members);
+            }
+            insertObs(connection, obs, null, ref, now);
+            insertObs(connection, members, obs, ref, now);
+        }));
+    }
+
+    private static void insertEncounters(Connection connection, List<EncounterRow> rows, ReferenceData ref, Timestamp now)
+            throws SQLException {
+        try (PreparedStatement encounter = connection.prepareStatement(
+                "INSERT INTO encounter (encounter_type, patient_id, location_id, encounter_datetime, creator, date_created, "
+                        + "voided, uuid) VALUES (?, ?, ?, ?, ?, ?, 0, UUID())", Statement.RETURN_GENERATED_KEYS);
+             PreparedStatement history = connection.prepareStatement(
+                "INSERT INTO emr_encounter_status (encounter_id, status, changed_by, changed_on) VALUES (?, ?, ?, ?)");
+             PreparedStatement current = connection.prepareStatement(
+                "INSERT INTO emr_encounter_current_status (encounter_id, status, changed_by, changed_on) VALUES (?, ?, ?, ?)")) {
+
+            for (int from = 0; from < rows.size(); from += JDBC_BATCH_SIZE) {
+                List<EncounterRow> chunk = rows.subList(from, Math.min(from + JDBC_BATCH_SIZE, rows.size()));
+                for (EncounterRow row : chunk) {
+                    encounter.setInt(1, ref.encounterTypeId);
+                    encounter.setInt(2, row.patientId);
+                    setInteger(encounter, 3, ref.locationId);
+                    encounter.setTimestamp(4, new Timestamp(row.datetime.getTime()));
+                    encounter.setInt(5, ref.creatorId);
+                    encounter.setTimestamp(6, now);
+                    encounter.addBatch();
+                }
+                encounter.executeBatch();
+
+                boolean anyStatus = false;
+                try (ResultSet keys = encounter.getGeneratedKeys()) {
+                    for (EncounterRow row : chunk) {
+                        if (!keys.next()) throw new IllegalStateException("Missing generated id for encounter");
+                        row.encounterId = keys.getInt(1);
+                        for (int i = 0; i < row.statuses.size(); i++) {
+                            history.setInt(1, row.encounterId);
+                            history.setString(2, row.statuses.get(i));
+                            history.setInt(3, ref.creatorId);
+                            history.setTimestamp(4, new Timestamp(row.statusTimes.get(i).getTime()));
+                            history.addBatch();
+                        }
+                        if (!row.statuses.isEmpty()) {
+                            int last = row.statuses.size() - 1;
+                            current.setInt(1, row.encounterId);
+                            current.setString(2, row.statuses.get(last));
+                            current.setInt(3, ref.creatorId);
+                            current.setTimestamp(4, new Timestamp(row.statusTimes.get(last).getTime()));
+                            current.addBatch();
+                            anyStatus = true;
+                        }
+                    }
+                }
+                if (anyStatus) {
+                    history.executeBatch();
+                    current.executeBatch();
+                }
+            }
+        }
+    }
+
+    private static void insertOrders(Connection connection, List<OrderRow> rows, ReferenceData ref, Timestamp now)
+            throws SQLException {
+        if (rows.isEmpty()) return;
+        try (PreparedStatement order = connection.prepareStatement(
+                "INSERT INTO orders (order_type_id, concept_id, orderer, encounter_id, date_activated, patient_id, "
+                        + "care_setting, order_number, order_action, urgency, creator, date_created, voided, uuid) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, 'NEW', 'ROUTINE', ?, ?, 0, UUID())", Statement.RETURN_GENERATED_KEYS);
+             PreparedStatement drugOrder = connection.prepareStatement(
+                "INSERT INTO drug_order (order_id, drug_inventory_id, dosing_type, dosing_instructions, as_needed, "
+                        + "dispense_as_written) VALUES (?, ?, ?, ?, 0, 0)");
+             PreparedStatement testOrder = connection.prepareStatement(
+                "INSERT INTO test_order (order_id) VALUES (?)")) {
+
+            for (int from = 0; from < rows.size(); from += JDBC_BATCH_SIZE) {
+                List<OrderRow> chunk = rows.subList(from, Math.min(from + JDBC_BATCH_SIZE, rows.size()));
+                for (OrderRow row : chunk) {
+                    order.setInt(1, row.drugId != null ? ref.drugOrderTypeId : ref.testOrderTypeId);
+                    order.setInt(2, row.conceptId);
+                    order.setInt(3, ref.providerId);
+                    order.setInt(4, row.encounter.encounterId);
+                    order.setTimestamp(5, new Timestamp(row.encounter.datetime.getTime()));
+                    order.setInt(6, row.encounter.patientId);
+                    order.setInt(7, ref.careSettingId);
+                    order.setString(8, row.orderNumber);
+                    order.setInt(9, ref.creatorId);
+                    order.setTimestamp(10, now);
+                    order.addBatch();
+                }
+                order.executeBatch();
+
+                boolean anyDrug = false;
+                boolean anyTest = false;
+                try (ResultSet keys = order.getGeneratedKeys()) {
+                    for (OrderRow row : chunk) {
+                        if (!keys.next()) throw new IllegalStateException("Missing generated id for order");
+                        row.orderId = keys.getInt(1);
+                        if (row.drugId != null) {
+                            drugOrder.setInt(1, row.orderId);
+                            drugOrder.setInt(2, row.drugId);
+                            drugOrder.setString(3, FREE_TEXT_DOSING);
+                            drugOrder.setString(4, row.dosingInstructions);
+                            drugOrder.addBatch();
+                            anyDrug = true;
+                        } else {
+                            testOrder.setInt(1, row.orderId);
+                            testOrder.addBatch();
+                            anyTest = true;
+                        }
+                    }
+                }
+                if (anyDrug) drugOrder.executeBatch();
+                if (anyTest) testOrder.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Inserts {@code rows}; when {@code groups} is given, the rows are members of those groups and
+     * get their {@code obs_group_id}.
+     */
+    private static void insertObs(Connection connection, List<ObsRow> rows, List<ObsRow> groups, ReferenceData ref,
+                                  Timestamp now) throws SQLException {
+        if (rows.isEmpty()) return;
+        Map<ObsRow, Integer> groupIds = new IdentityHashMap<>();
+        if (groups != null) {
+            for (ObsRow group : groups) {
+                for (ObsRow member : group.members) {
+                    groupIds.put(member, group.obsId);
+                }
+            }
+        }
+
+        try (PreparedStatement obs = connection.prepareStatement(
+                "INSERT INTO obs (person_id, concept_id, encounter_id, order_id, obs_datetime, location_id, obs_group_id, "
+                        + "value_numeric, value_coded, value_text, accession_number, comments, status, creator, "
+                        + "date_created, voided, uuid) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 'FINAL', ?, ?, 0, UUID())",
+                Statement.RETURN_GENERATED_KEYS)) {
+
+            for (int from = 0; from < rows.size(); from += JDBC_BATCH_SIZE) {
+                List<ObsRow> chunk = rows.subList(from, Math.min(from + JDBC_BATCH_SIZE, rows.size()));
+                for (ObsRow row : chunk) {
+                    obs.setInt(1, row.encounter.patientId);
+                    obs.setInt(2, row.conceptId);
+                    obs.setInt(3, row.encounter.encounterId);
+                    setInteger(obs, 4, row.order != null ? row.order.orderId : null);
+                    obs.setTimestamp(5, new Timestamp(row.datetime.getTime()));
+                    setInteger(obs, 6, ref.locationId);
+                    setInteger(obs, 7, groupIds.get(row));
+                    if (row.valueNumeric != null) obs.setDouble(8, row.valueNumeric);
+                    else obs.setNull(8, Types.DOUBLE);
+                    setInteger(obs, 9, row.valueCoded);
+                    obs.setString(10, row.valueText);
+                    obs.setString(11, row.accessionNumber);
+                    obs.setString(12, row.comment);
+                    obs.setInt(13, ref.creatorId);
+                    obs.setTimestamp(14, now);
+                    obs.addBatch();
+                }
+                obs.executeBatch();
+
+                try (ResultSet keys = obs.getGeneratedKeys()) {
+                    for (ObsRow row : chunk) {
+                        if (!keys.next()) throw new IllegalStateException("Missing generated id for obs");
+                        row.obsId = keys.getInt(1);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void setInteger(PreparedStatement statement, int index, Integer value) throws SQLException {
+        if (value != null) statement.setInt(index, value);
+        else statement.setNull(index, Types.INTEGER);
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
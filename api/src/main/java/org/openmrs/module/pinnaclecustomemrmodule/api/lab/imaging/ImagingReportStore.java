@@ -0,0 +1,158 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.lab.imaging;
+
+import org.openmrs.util.OpenmrsUtil;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed store for imaging report narratives, kept under {@code pinnacle/imaging} in
+ * the application data directory so the obs row only carries a reference.
+ * <p>
+ * A report is stored once under the SHA-256 of its UTF-8 bytes ({@code ab/cd/abcd...}); storing
+ * the same text again returns the existing reference. {@link #put(String)} writes a temp file,
+ * computes the reference and moves the file into place, so readers never see a partial report.
+ * Callers store the report before saving the obs that references it: a report left behind by a
+ * rolled-back save is harmless, as it is only ever found through its hash, whereas an obs
+ * committed without its report would have lost the text. Reads memory-map the file and copy it to
+ * the caller's stream a window at a time, so a report is never held on the heap.
+ */
+@Component("pinnaclecustomemrmodule.ImagingReportStore")
+public class ImagingReportStore {
+
+    public static final String REFERENCE_PREFIX = "sha256:";
+
+    private static final String STORE_DIRECTORY = "pinnacle/imaging";
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+    private static final long MAP_WINDOW = 8L * 1024 * 1024;
+
+    /**
+     * A stored report. Opening it only checks that the file exists; the content is read by
+     * {@link #writeTo(OutputStream)}.
+     */
+    public static class StoredReport {
+
+        private final String reference;
+        private final Path path;
+        private final long size;
+
+        StoredReport(String reference, Path path, long size) {
+            this.reference = reference;
+            this.path = path;
+            this.size = size;
+        }
+
+        public String getReference() { return reference; }
+
+        public long getSize() { return size; }
+
+        public void writeTo(OutputStream out) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(out);
+                for (long position = 0; position < size; position += MAP_WINDOW) {
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MAP_WINDOW, size - position));
+                    while (window.hasRemaining()) {
+                        target.write(window);
+                    }
+                }
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Stores {@code text} and returns its reference ({@code sha256:<hex>}); a no-op if the same text
+     * is already stored.
+     */
+    public String put(String text) throws IOException {
+        Path root = root();
+        Path temp = Files.createTempFile(root, "report-", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new DigestOutputStream(Files.newOutputStream(temp), digest), StandardCharsets.UTF_8))) {
+                writer.write(text);
+            }
+
+            String hash = toHex(digest.digest());
+            Path target = pathOf(root, hash);
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target);
+                } catch (FileAlreadyExistsException e) {
+                    // Stored concurrently by another request; same content
+                }
+            }
+            return REFERENCE_PREFIX + hash;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Returns the stored report for {@code reference}, or null if the reference is not one of
+     * ours or the file is missing.
+     */
+    public StoredReport open(String reference) throws IOException {
+        if (!isReference(reference)) return null;
+
+        String hash = reference.substring(REFERENCE_PREFIX.length());
+        Path path = pathOf(root(), hash);
+        if (!Files.isRegularFile(path)) return null;
+        return new StoredReport(reference, path, Files.size(path));
+    }
+
+    public static boolean isReference(String value) {
+        return value != null && value.startsWith(REFERENCE_PREFIX)
+                && HASH.matcher(value.substring(REFERENCE_PREFIX.length())).matches();
+    }
+
+    private Path root() {
+        File directory = OpenmrsUtil.getDirectoryInApplicationDataDirectory(STORE_DIRECTORY);
+        return directory.toPath();
+    }
+
+    private static Path pathOf(Path root, String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -1,17 +1,38 @@
 package org.openmrs.module.pinnaclecustomemrmodule.api.lab.impl;
 
+import org.apache.commons.lang3.StringUtils;
 import org.openmrs.*;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.ObsService;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.pinnaclecustomemrmodule.api.concept.ConceptNameCache;
+import org.openmrs.module.pinnaclecustomemrmodule.api.concept.ConceptProvisioner;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.LabDao;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.imaging.ImagingReportStore;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.imaging.ImagingReportStore.StoredReport;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.ingest.Hl7OruParser;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.ingest.LabIngestionBatch;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.ingest.LabResultIngestionPipeline;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.ingest.LabResultMessage;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.model.LabDeadLetter;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.model.PendingLabTest;
 import org.openmrs.module.pinnaclecustomemrmodule.api.lab.service.LaboratoryService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 @Service("pinnaclecustomemrmodule.LaboratoryService")
@@ -20,10 +41,21 @@ public class LaboratoryServiceImpl extends BaseOpenmrsService implements Laborat
 
     @Autowired private ObsService obsService;
     @Autowired private ConceptService conceptService;
+    @Autowired private ConceptNameCache conceptCache;
+    @Autowired private ConceptProvisioner conceptProvisioner;
+    @Autowired private LabDao labDao;
+    @Autowired private LabResultIngestionPipeline ingestionPipeline;
+    @Autowired private ImagingReportStore imagingReportStore;
+    @Autowired private PlatformTransactionManager transactionManager;
 
     private static final String LAB_RESULT_CONCEPT = "Laboratory Test Result";
     private static final String LAB_TEST_ORDER_CONCEPT = "Laboratory Test";
     private static final String IMAGING_REPORT_CONCEPT = "Imaging Report";
+    private static final int DEFAULT_WORKLIST_PAGE_SIZE = 100;
+    private static final int MAX_WORKLIST_PAGE_SIZE = 1000;
+    private static final int MAX_INGESTION_BATCH_SIZE = 5000;
+    private static final int DEFAULT_DEAD_LETTER_PAGE_SIZE = 100;
+    private static final int MAX_DEAD_LETTER_PAGE_SIZE = 1000;
 
     @Override
     public Obs receiveLabResult(Integer patientId, String testName, String resultValue, String units,
@@ -32,19 +64,22 @@ public class LaboratoryServiceImpl extends BaseOpenmrsService implements Laborat
         Patient patient = Context.getPatientService().getPatient(patientId);
         if (patient == null) throw new IllegalArgumentException("Patient not found: " + patientId);
 
-        Concept testConcept = conceptService.getConceptByName(testName);
+        Concept testConcept = conceptCache.getConceptByName(testName);
         if (testConcept == null) {
             throw new IllegalArgumentException("Lab test concept not found: " + testName);
         }
 
-        Concept resultGroupConcept = getOrCreateConcept(LAB_RESULT_CONCEPT, "Test", "Misc");
+        Concept resultGroupConcept = conceptProvisioner.getOrCreate(LAB_RESULT_CONCEPT, "Test", "Misc");
 
         Obs resultGroup = new Obs();
         resultGroup.setPerson(patient);
         resultGroup.setObsDatetime(new Date());
         resultGroup.setConcept(resultGroupConcept);
         resultGroup.setAccessionNumber(accessionNumber);
-        resultGroup.setComment("Status: " + status + " | Ref: " + referenceRange);
+        List<String> comment = new ArrayList<>(2);
+        if (StringUtils.isNotBlank(status)) comment.add("Status: " + status);
+        if (StringUtils.isNotBlank(referenceRange)) comment.add("Ref: " + referenceRange);
+        resultGroup.setComment(comment.isEmpty() ? null : String.join(" | ", comment));
 
         // Main result
         Obs valueObs = new Obs();
@@ -58,6 +93,9 @@ public class LaboratoryServiceImpl extends BaseOpenmrsService implements Laborat
             valueObs.setValueText(resultValue + (units != null ? " " + units : ""));
         }
 
+        // Lets the ingestion pipeline recognise a resend of this result as a duplicate
+        valueObs.setAccessionNumber(accessionNumber);
+
         resultGroup.addGroupMember(valueObs);
         return obsService.saveObs(resultGroup, "Lab result received via Pinnacle EMR");
     }
@@ -67,56 +105,185 @@ public class LaboratoryServiceImpl extends BaseOpenmrsService implements Laborat
         Patient patient = Context.getPatientService().getPatient(patientId);
         if (patient == null) return List.of();
 
-        Concept labOrderConcept = getOrCreateConcept(LAB_TEST_ORDER_CONCEPT, "Test", "Procedure");
-
-        return obsService.getObservationsByPersonAndConcept(patient, labOrderConcept).stream()
-                .filter(obs -> !obs.getVoided())
-                .filter(orderObs -> {
-                    // Check if result exists
-                    Concept testConcept = orderObs.getValueCoded();
-                    if (testConcept == null) return true;
-                    return obsService.getObservationsByPersonAndConcept(patient, testConcept).isEmpty();
-                })
-                .collect(Collectors.toList());
+        Concept labOrderConcept = conceptProvisioner.getOrCreate(LAB_TEST_ORDER_CONCEPT, "Test", "Procedure");
+
+        // One anti-join instead of a result lookup per ordered test
+        return labDao.getPendingTestObs(patient.getPatientId(), labOrderConcept.getConceptId());
+    }
+
+    /**
+     * Every pending test across the lab, oldest order first. Pass the last
+     * {@link PendingLabTest#getOrderObsId()} of a page as {@code afterObsId} to get the next one.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<PendingLabTest> getPendingLabWorklist(Integer afterObsId, Integer limit) {
+        Concept labOrderConcept = conceptCache.getConceptByName(LAB_TEST_ORDER_CONCEPT);
+        if (labOrderConcept == null) return List.of();
+
+        int pageSize = limit == null || limit <= 0 ? DEFAULT_WORKLIST_PAGE_SIZE : Math.min(limit, MAX_WORKLIST_PAGE_SIZE);
+        List<Object[]> rows = labDao.getPendingTests(labOrderConcept.getConceptId(), afterObsId, pageSize);
+
+        Map<Integer, String> testNames = new HashMap<>();
+        List<PendingLabTest> worklist = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            Integer testConceptId = row[3] != null ? ((Number) row[3]).intValue() : null;
+            String testName = testConceptId == null ? "Unknown Test" : testNames.computeIfAbsent(testConceptId, id -> {
+                Concept c = conceptService.getConcept(id);
+                return c != null && c.getName() != null ? c.getName().getName() : "Unknown Test";
+            });
+            worklist.add(new PendingLabTest(((Number) row[0]).intValue(), (String) row[1], ((Number) row[2]).intValue(),
+                    testName, (Date) row[4], (String) row[5], (String) row[6]));
+        }
+        return worklist;
+    }
+
+    /**
+     * Queues {@code results} for the ingestion pipeline and returns at once; poll
+     * {@link #getIngestionBatch(String)} for progress.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the pipeline's queue is full
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public LabIngestionBatch submitLabResults(List<LabResultMessage> results, String source) {
+        if (results == null || results.isEmpty()) throw new IllegalArgumentException("No lab results given");
+        if (results.size() > MAX_INGESTION_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_INGESTION_BATCH_SIZE + " results per batch");
+        }
+        return ingestionPipeline.submit(new LabIngestionBatch(new ArrayList<>(results), source));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public LabIngestionBatch submitHl7Results(String content, String source) {
+        List<LabResultMessage> results = new Hl7OruParser().parse(content);
+        if (results.isEmpty()) throw new IllegalArgumentException("No OBX results found in HL7 content");
+        return submitLabResults(results, source);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public LabIngestionBatch getIngestionBatch(String batchId) {
+        return ingestionPipeline.getBatch(batchId);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<LabDeadLetter> getDeadLetters(Integer afterId, Integer limit) {
+        int pageSize = limit == null || limit <= 0 ? DEFAULT_DEAD_LETTER_PAGE_SIZE : Math.min(limit, MAX_DEAD_LETTER_PAGE_SIZE);
+        return labDao.getDeadLetters(null, afterId, pageSize);
+    }
+
+    /**
+     * Marks the given dead letters resolved and, once that has committed, resubmits them as a new
+     * batch; any that still cannot be stored are dead-lettered again under the new batch. Runs
+     * outside the caller's transaction so the batch never starts before the marks are visible.
+     */
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public LabIngestionBatch retryDeadLetters(List<Integer> deadLetterIds) {
+        if (deadLetterIds == null || deadLetterIds.isEmpty()) throw new IllegalArgumentException("No dead letters given");
+        if (deadLetterIds.size() > MAX_INGESTION_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_INGESTION_BATCH_SIZE + " dead letters per retry");
+        }
+
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        List<LabDeadLetter> deadLetters = tx.execute(status -> {
+            List<LabDeadLetter> unresolved = labDao.getDeadLetters(deadLetterIds, null, deadLetterIds.size());
+            labDao.markDeadLettersResolved(unresolved.stream().map(LabDeadLetter::getId).collect(Collectors.toList()));
+            return unresolved;
+        });
+        if (deadLetters.isEmpty()) throw new IllegalArgumentException("No unresolved dead letters found");
+
+        List<LabResultMessage> results = new ArrayList<>(deadLetters.size());
+        List<Integer> ids = new ArrayList<>(deadLetters.size());
+        for (LabDeadLetter d : deadLetters) {
+            LabResultMessage message = new LabResultMessage();
+            message.setPatientId(d.getPatientId());
+            message.setPatientIdentifier(d.getPatientIdentifier());
+            message.setTestName(d.getTestName());
+            message.setResultValue(d.getResultValue());
+            message.setUnits(d.getUnits());
+            message.setReferenceRange(d.getReferenceRange());
+            message.setStatus(d.getStatus());
+            message.setAccessionNumber(d.getAccessionNumber());
+            message.setResultDatetime(d.getResultDatetime());
+            results.add(message);
+            ids.add(d.getId());
+        }
+
+        try {
+            return ingestionPipeline.submit(new LabIngestionBatch(results, "dead-letter-retry"));
+        } catch (RejectedExecutionException e) {
+            // Pipeline full: leave them for the next retry
+            tx.execute(status -> {
+                labDao.markDeadLettersUnresolved(ids);
+                return null;
+            });
+            throw e;
+        }
     }
 
+    /**
+     * The report narrative goes to the {@link ImagingReportStore}; the obs keeps the study type and
+     * PACS link as text and the store reference in value_complex, which core leaves alone on a
+     * non-complex concept. The narrative is stored before the obs is saved, and a failure to store
+     * it fails the save.
+     */
     @Override
     public Obs attachImagingReport(Integer encounterId, String studyType, String pacsUrl, String reportText) {
         Encounter encounter = Context.getEncounterService().getEncounter(encounterId);
         if (encounter == null) throw new IllegalArgumentException("Encounter not found: " + encounterId);
 
-        Concept imagingConcept = getOrCreateConcept(IMAGING_REPORT_CONCEPT, "Finding", "Misc");
+        Concept imagingConcept = conceptProvisioner.getOrCreate(IMAGING_REPORT_CONCEPT, "Text", "Finding");
 
         Obs reportObs = new Obs();
         reportObs.setPerson(encounter.getPatient());
         reportObs.setEncounter(encounter);
         reportObs.setObsDatetime(new Date());
         reportObs.setConcept(imagingConcept);
-        reportObs.setValueText(studyType + " Report\n\nPACS URL: " + pacsUrl + "\n\n" + reportText);
+        reportObs.setValueText(studyType + " Report\n\nPACS URL: " + pacsUrl);
+        if (reportText != null && !reportText.isEmpty()) {
+            try {
+                reportObs.setValueComplex(imagingReportStore.put(reportText));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not store imaging report", e);
+            }
+        }
 
         return obsService.saveObs(reportObs, "Imaging report attached via Pinnacle EMR");
     }
 
-    private Concept getOrCreateConcept(String name, String datatypeName, String className) {
-        Concept c = conceptService.getConceptByName(name);
-        if (c != null) return c;
-
-        c = new Concept();
-        ConceptDatatype datatype = conceptService.getConceptDatatypeByName(datatypeName);
-        ConceptClass conceptClass = conceptService.getConceptClassByName(className);
+    @Override
+    @Transactional(readOnly = true)
+    public boolean isImagingReport(Obs obs) {
+        if (obs == null || obs.getConcept() == null) return false;
+        Concept imagingConcept = conceptCache.getConceptByName(IMAGING_REPORT_CONCEPT);
+        return imagingConcept != null && imagingConcept.getConceptId().equals(obs.getConcept().getConceptId());
+    }
 
-        if (datatype == null || conceptClass == null) {
-            throw new IllegalStateException("Required datatype or class not found: " + datatypeName + "/" + className);
+    /**
+     * Returns the stored narrative of {@code reportObs}, or null if it has none (attached without
+     * report text). Reports attached before the reference moved to value_complex carry it in the
+     * comment.
+     *
+     * @throws IllegalStateException if the obs references a report that is missing from the store
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public StoredReport getImagingReport(Obs reportObs) {
+        if (reportObs == null) return null;
+        String reference = ImagingReportStore.isReference(reportObs.getValueComplex()) ? reportObs.getValueComplex()
+                : ImagingReportStore.isReference(reportObs.getComment()) ? reportObs.getComment() : null;
+        if (reference == null) return null;
+        try {
+            StoredReport report = imagingReportStore.open(reference);
+            if (report == null) throw new IllegalStateException("Imaging report " + reference + " is missing from the store");
+            return report;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open imaging report " + reference, e);
         }
-
-        c.setDatatype(datatype);
-        c.setConceptClass(conceptClass);
-
-        ConceptName cn = new ConceptName(name, Context.getLocale());
-        cn.setConceptNameType(ConceptNameType.FULLY_SPECIFIED);
-        c.addName(cn);
-
-        return conceptService.saveConcept(c);
     }
 
     private boolean isNumeric(String str) {
@@ -0,0 +1,127 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.lab.ingest;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Minimal reader for HL7 v2 ORU^R01 result messages as produced by lab analyzers and LIS
+ * exports. Only the segments needed for ingestion are read:
+ * <ul>
+ * <li>PID-3: patient identifier (first component)</li>
+ * <li>OBR-3 (or OBR-2 if empty): accession number</li>
+ * <li>OBX-3: test (text component, else the code), OBX-5 value, OBX-6 units, OBX-7 reference
+ * range, OBX-11 result status, OBX-14 observation time</li>
+ * </ul>
+ * A file may hold several messages; each MSH starts a new one. Segments may be separated by CR,
+ * LF or CRLF. Delimiters are taken from MSH.
+ */
+public class Hl7OruParser {
+
+    private static final String[] TIMESTAMP_FORMATS = { "yyyyMMddHHmmss", "yyyyMMddHHmm", "yyyyMMdd" };
+
+    public List<LabResultMessage> parse(String content) {
+        List<LabResultMessage> results = new ArrayList<>();
+        if (content == null) return results;
+
+        char field = '|';
+        char component = '^';
+        String patientIdentifier = null;
+        String accession = null;
+        for (String segment : content.split("\r\n|\r|\n")) {
+            if (segment.length() < 3) continue;
+            String type = segment.substring(0, 3);
+
+            if (type.equals("MSH") && segment.length() > 4) {
+                field = segment.charAt(3);
+                component = segment.charAt(4);
+                patientIdentifier = null;
+                accession = null;
+                continue;
+            }
+
+            String[] fields = split(segment, field);
+            switch (type) {
+                case "PID":
+                    patientIdentifier = firstComponent(get(fields, 3), component);
+                    break;
+                case "OBR":
+                    accession = firstComponent(get(fields, 3), component);
+                    if (accession == null) accession = firstComponent(get(fields, 2), component);
+                    break;
+                case "OBX":
+                    results.add(toMessage(fields, component, patientIdentifier, accession));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return results;
+    }
+
+    private LabResultMessage toMessage(String[] fields, char component, String patientIdentifier, String accession) {
+        String[] test = split(get(fields, 3), component);
+        String testName = get(test, 1) != null ? get(test, 1) : get(test, 0);
+
+        LabResultMessage message = new LabResultMessage();
+        message.setPatientIdentifier(patientIdentifier);
+        message.setAccessionNumber(accession);
+        message.setTestName(testName);
+        message.setResultValue(get(fields, 5));
+        message.setUnits(firstComponent(get(fields, 6), component));
+        message.setReferenceRange(get(fields, 7));
+        message.setStatus(statusOf(get(fields, 11)));
+        message.setResultDatetime(parseTimestamp(get(fields, 14)));
+        return message;
+    }
+
+    private static String statusOf(String code) {
+        if (code == null) return "FINAL";
+        switch (code) {
+            case "P": return "PRELIMINARY";
+            case "C": return "CORRECTED";
+            case "X": return "CANCELLED";
+            default: return "FINAL";
+        }
+    }
+
+    static Date parseTimestamp(String value) {
+        if (value == null) return null;
+        String digits = value.replaceAll("[^0-9].*$", "");
+        for (String format : TIMESTAMP_FORMATS) {
+            if (digits.length() < format.length()) continue;
+            try {
+                SimpleDateFormat parser = new SimpleDateFormat(format);
+                parser.setLenient(false);
+                return parser.parse(digits.substring(0, format.length()));
+            } catch (ParseException ignored) {
+            }
+        }
+        return null;
+    }
+
+    private static String firstComponent(String value, char component) {
+        return get(split(value, component), 0);
+    }
+
+    private static String[] split(String value, char separator) {
+        if (value == null) return new String[0];
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= value.length(); i++) {
+            if (i == value.length() || value.charAt(i) == separator) {
+                parts.add(value.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return parts.toArray(new String[0]);
+    }
+
+    private static String get(String[] values, int index) {
+        if (index >= values.length) return null;
+        String value = values[index].trim();
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,92 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.lab.ingest;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of one submitted batch of lab results. Counters are updated by the ingestion workers
+ * and can be polled at any time.
+ */
+public class LabIngestionBatch {
+
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    private final String batchId = UUID.randomUUID().toString();
+    private final List<LabResultMessage> results;
+    private final String source;
+    private final Date createdOn = new Date();
+    private final AtomicInteger saved = new AtomicInteger();
+    private final AtomicInteger duplicates = new AtomicInteger();
+    private final AtomicInteger cancelled = new AtomicInteger();
+    private final AtomicInteger deadLettered = new AtomicInteger();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Date finishedOn;
+    private volatile String message;
+
+    public LabIngestionBatch(List<LabResultMessage> results, String source) {
+        this.results = Collections.unmodifiableList(results);
+        this.source = source;
+    }
+
+    public String getBatchId() { return batchId; }
+
+    public String getSource() { return source; }
+
+    public Status getStatus() { return status; }
+
+    public int getTotal() { return results.size(); }
+
+    public int getSaved() { return saved.get(); }
+
+    public int getDuplicates() { return duplicates.get(); }
+
+    public int getDeadLettered() { return deadLettered.get(); }
+
+    /** Cancelled results, which void the stored result rather than being stored. */
+    public int getCancelled() { return cancelled.get(); }
+
+    public Date getCreatedOn() { return createdOn; }
+
+    public Date getFinishedOn() { return finishedOn; }
+
+    public String getMessage() { return message; }
+
+    List<LabResultMessage> getResults() { return results; }
+
+    void started() {
+        status = Status.RUNNING;
+    }
+
+    void recordSaved(int count) {
+        saved.addAndGet(count);
+    }
+
+    void recordDuplicates(int count) {
+        duplicates.addAndGet(count);
+    }
+
+    void recordCancelled(int count) {
+        cancelled.addAndGet(count);
+    }
+
+    void recordDeadLettered(int count) {
+        deadLettered.addAndGet(count);
+    }
+
+    void finished() {
+        finishedOn = new Date();
+        status = Status.COMPLETED;
+    }
+
+    void aborted(String reason) {
+        message = reason;
+        finishedOn = new Date();
+        status = Status.FAILED;
+    }
+}
@@ -0,0 +1,362 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.lab.ingest;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.pinnaclecustomemrmodule.api.concept.ConceptNameCache;
+import org.openmrs.module.pinnaclecustomemrmodule.api.concept.ConceptProvisioner;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.ClinicalObsDao;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.LabDao;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.LabDao.ResultGroupRow;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.model.LabDeadLetter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores analyzer results in the background. Submitted batches wait in a bounded queue for a
+ * small worker pool; when the queue is full {@link #submit} throws
+ * {@link RejectedExecutionException} so the caller can back off instead of the server buffering
+ * an unbounded backlog.
+ * <p>
+ * A worker resolves the patients and test concepts of its batch with one query each, groups the
+ * results into one obs group per patient and accession number, and writes them with JDBC batches
+ * in a single transaction. A result is a resend, and skipped, when the patient already has a
+ * result of the same test under the same accession number, unless it corrects that result or
+ * finalizes a preliminary one, in which case the stored one is voided; a cancelled result voids
+ * the stored one and is not stored itself. Those checks run inside the insert transaction with the
+ * patients locked ({@link LabDao#insertNewResultGroups}). If that transaction fails the batch
+ * is retried one patient at a time so a single bad row does not hold back the rest. Results that
+ * cannot be stored go to the dead-letter table with the reason; test concepts are never
+ * auto-created.
+ */
+@Component("pinnaclecustomemrmodule.LabResultIngestionPipeline")
+public class LabResultIngestionPipeline implements DisposableBean {
+
+    private static final Log log = LogFactory.getLog(LabResultIngestionPipeline.class);
+
+    private static final String LAB_RESULT_CONCEPT = "Laboratory Test Result";
+    private static final int WORKERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int QUEUED_BATCHES = 32;
+    private static final int RETAINED_BATCHES = 200;
+
+    @Autowired private LabDao labDao;
+    @Autowired private ClinicalObsDao clinicalObsDao;
+    @Autowired private ConceptNameCache conceptCache;
+    @Autowired private ConceptProvisioner conceptProvisioner;
+    @Autowired private PlatformTransactionManager transactionManager;
+
+    private final Map<String, LabIngestionBatch> batches = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor workers = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUED_BATCHES), daemonThreads("pinnacle-lab-ingest-"),
+            new ThreadPoolExecutor.AbortPolicy());
+
+    /**
+     * Queues {@code batch} for ingestion.
+     *
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public LabIngestionBatch submit(LabIngestionBatch batch) {
+        UserContext userContext = Context.getUserContext();
+        evictOldBatches();
+        batches.put(batch.getBatchId(), batch);
+        try {
+            workers.execute(() -> run(batch, userContext));
+        } catch (RejectedExecutionException e) {
+            batches.remove(batch.getBatchId());
+            throw e;
+        }
+        return batch;
+    }
+
+    public LabIngestionBatch getBatch(String batchId) {
+        return batches.get(batchId);
+    }
+
+    public int getQueuedBatches() {
+        return workers.getQueue().size();
+    }
+
+    @Override
+    public void destroy() {
+        workers.shutdownNow();
+    }
+
+    private void run(LabIngestionBatch batch, UserContext userContext) {
+        batch.started();
+        try {
+            inSession(userContext, () -> {
+                ingest(batch);
+                return null;
+            });
+            batch.finished();
+        } catch (Exception e) {
+            log.error("Lab ingestion batch " + batch.getBatchId() + " failed", e);
+            batch.aborted(e.getMessage());
+        }
+    }
+
+    /**
+     * A result that passed validation, with its patient and test resolved.
+     */
+    private static final class ResolvedResult {
+
+        final LabResultMessage message;
+        final int patientId;
+        final int conceptId;
+
+        ResolvedResult(LabResultMessage message, int patientId, int conceptId) {
+            this.message = message;
+            this.patientId = patientId;
+            this.conceptId = conceptId;
+        }
+    }
+
+    private void ingest(LabIngestionBatch batch) {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        List<LabDeadLetter> deadLetters = new ArrayList<>();
+        Date receivedOn = new Date();
+
+        List<LabResultMessage> valid = new ArrayList<>(batch.getTotal());
+        for (LabResultMessage message : batch.getResults()) {
+            String missing = missingField(message);
+            if (missing != null) {
+                deadLetters.add(deadLetter(batch, message, missing + " is required"));
+            } else {
+                valid.add(message);
+            }
+        }
+
+        int invalid = deadLetters.size();
+        List<ResolvedResult> resolved = tx.execute(status -> resolve(batch, valid, deadLetters));
+        batch.recordDuplicates(valid.size() - resolved.size() - (deadLetters.size() - invalid));
+
+        if (!resolved.isEmpty()) {
+            Concept groupConcept = conceptProvisioner.getOrCreate(LAB_RESULT_CONCEPT, "Test", "Misc");
+            int creatorId = Context.getAuthenticatedUser().getUserId();
+            Map<Integer, List<ResultGroupRow>> groupsByPatient = group(resolved, receivedOn);
+
+            try {
+                int inserted = tx.execute(status -> {
+                    List<ResultGroupRow> all = new ArrayList<>();
+                    groupsByPatient.values().forEach(all::addAll);
+                    return labDao.insertNewResultGroups(all, groupConcept.getConceptId(), creatorId);
+                });
+                int cancelled = (int) resolved.stream().filter(LabResultIngestionPipeline::isCancelled).count();
+                batch.recordSaved(inserted);
+                batch.recordCancelled(cancelled);
+                batch.recordDuplicates(resolved.size() - inserted - cancelled);
+            } catch (RuntimeException e) {
+                log.warn("Batched insert of lab ingestion batch " + batch.getBatchId()
+                        + " failed, retrying per patient: " + e.getMessage());
+                insertPerPatient(batch, tx, groupsByPatient, resolved, groupConcept.getConceptId(), creatorId, deadLetters);
+            }
+        }
+
+        if (!deadLetters.isEmpty()) {
+            tx.execute(status -> {
+                labDao.insertDeadLetters(deadLetters);
+                return null;
+            });
+            batch.recordDeadLettered(deadLetters.size());
+        }
+    }
+
+    /**
+     * Resolves patients and tests for {@code messages} and dead-letters those that do not resolve.
+     * Of repeats of the same patient, accession number and test within the batch, the last one wins.
+     */
+    private List<ResolvedResult> resolve(LabIngestionBatch batch, Iterable<LabResultMessage> messages,
+                                         List<LabDeadLetter> deadLetters) {
+        Set<Integer> patientIds = new HashSet<>();
+        Set<String> identifiers = new HashSet<>();
+        Map<String, Concept> tests = new HashMap<>();
+        for (LabResultMessage message : messages) {
+            if (message.getPatientId() != null) patientIds.add(message.getPatientId());
+            else identifiers.add(message.getPatientIdentifier());
+            tests.computeIfAbsent(message.getTestName().trim().toLowerCase(Locale.ROOT),
+                    name -> conceptCache.getConceptByName(message.getTestName()));
+        }
+
+        Set<Integer> activePatients = clinicalObsDao.getActivePatientIds(patientIds);
+        Map<String, Integer> patientsByIdentifier = labDao.getPatientIdsByIdentifiers(identifiers);
+
+        Map<String, ResolvedResult> resolved = new LinkedHashMap<>();
+        int withoutAccession = 0;
+        for (LabResultMessage message : messages) {
+            Integer patientId = message.getPatientId() != null
+                    ? (activePatients.contains(message.getPatientId()) ? message.getPatientId() : null)
+                    : patientsByIdentifier.get(message.getPatientIdentifier());
+            if (patientId == null) {
+                deadLetters.add(deadLetter(batch, message, "Patient not found"));
+                continue;
+            }
+            Concept test = tests.get(message.getTestName().trim().toLowerCase(Locale.ROOT));
+            if (test == null) {
+                deadLetters.add(deadLetter(batch, message, "Lab test concept not found: " + message.getTestName()));
+                continue;
+            }
+            String key = message.getAccessionNumber() != null
+                    ? LabDao.resultKey(patientId, message.getAccessionNumber(), test.getConceptId())
+                    : "#" + withoutAccession++;
+            resolved.remove(key);
+            resolved.put(key, new ResolvedResult(message, patientId, test.getConceptId()));
+        }
+        return new ArrayList<>(resolved.values());
+    }
+
+    /**
+     * One obs group per patient, accession number and result time; results without an accession
+     * number get a group each, as with single results.
+     */
+    private Map<Integer, List<ResultGroupRow>> group(List<ResolvedResult> resolved, Date receivedOn) {
+        Map<Integer, List<ResultGroupRow>> groupsByPatient = new LinkedHashMap<>();
+        Map<String, ResultGroupRow> groupsByKey = new HashMap<>();
+        for (ResolvedResult result : resolved) {
+            LabResultMessage message = result.message;
+            Date obsDatetime = message.getResultDatetime() != null ? message.getResultDatetime() : receivedOn;
+
+            ResultGroupRow group = message.getAccessionNumber() == null ? null
+                    : groupsByKey.get(result.patientId + "|" + message.getAccessionNumber() + "|" + obsDatetime.getTime());
+            if (group == null) {
+                group = new ResultGroupRow(result.patientId, message.getAccessionNumber(), obsDatetime,
+                        StringUtils.isNotBlank(message.getStatus()) ? "Status: " + message.getStatus() : null);
+                groupsByPatient.computeIfAbsent(result.patientId, id -> new ArrayList<>()).add(group);
+                if (message.getAccessionNumber() != null) {
+                    groupsByKey.put(result.patientId + "|" + message.getAccessionNumber() + "|" + obsDatetime.getTime(), group);
+                }
+            }
+
+            String reference = message.getReferenceRange() != null ? "Ref: " + message.getReferenceRange() : null;
+            if (isCancelled(result)) {
+                group.addMember(result.conceptId, null, null, reference, LabDao.CANCELLED);
+                continue;
+            }
+            String value = message.getResultValue().trim();
+            Double numeric = parseNumeric(value);
+            group.addMember(result.conceptId, numeric,
+                    numeric == null ? value + (message.getUnits() != null ? " " + message.getUnits() : "") : null,
+                    reference, message.getStatus());
+        }
+        return groupsByPatient;
+    }
+
+    private void insertPerPatient(LabIngestionBatch batch, TransactionTemplate tx,
+                                  Map<Integer, List<ResultGroupRow>> groupsByPatient, List<ResolvedResult> resolved,
+                                  int groupConceptId, int creatorId, List<LabDeadLetter> deadLetters) {
+        for (Map.Entry<Integer, List<ResultGroupRow>> entry : groupsByPatient.entrySet()) {
+            // Counted from the results: the failed batched attempt may have dropped stored ones from the groups
+            int count = (int) resolved.stream().filter(r -> r.patientId == entry.getKey()).count();
+            int cancelled = (int) resolved.stream().filter(r -> r.patientId == entry.getKey() && isCancelled(r)).count();
+            try {
+                int inserted = tx.execute(status -> labDao.insertNewResultGroups(entry.getValue(), groupConceptId, creatorId));
+                batch.recordSaved(inserted);
+                batch.recordCancelled(cancelled);
+                batch.recordDuplicates(count - inserted - cancelled);
+            } catch (RuntimeException e) {
+                String reason = "Insert failed: " + StringUtils.abbreviate(e.getMessage(), 900);
+                for (ResolvedResult result : resolved) {
+                    if (result.patientId == entry.getKey()) {
+                        deadLetters.add(deadLetter(batch, result.message, reason));
+                    }
+                }
+            }
+        }
+    }
+
+    private static String missingField(LabResultMessage message) {
+        if (message.getPatientId() == null && StringUtils.isBlank(message.getPatientIdentifier())) return "patientId or patientIdentifier";
+        if (StringUtils.isBlank(message.getTestName())) return "testName";
+        if (StringUtils.isBlank(message.getResultValue()) && !LabDao.CANCELLED.equals(message.getStatus())) return "resultValue";
+        return null;
+    }
+
+    private static boolean isCancelled(ResolvedResult result) {
+        return LabDao.CANCELLED.equals(result.message.getStatus());
+    }
+
+    private static LabDeadLetter deadLetter(LabIngestionBatch batch, LabResultMessage message, String reason) {
+        LabDeadLetter d = new LabDeadLetter();
+        d.setBatchId(batch.getBatchId());
+        d.setPatientId(message.getPatientId());
+        d.setPatientIdentifier(message.getPatientIdentifier());
+        d.setTestName(message.getTestName());
+        d.setResultValue(message.getResultValue());
+        d.setUnits(message.getUnits());
+        d.setReferenceRange(message.getReferenceRange());
+        d.setStatus(message.getStatus());
+        d.setAccessionNumber(message.getAccessionNumber());
+        d.setResultDatetime(message.getResultDatetime());
+        d.setReason(reason);
+        return d;
+    }
+
+    /**
+     * Same leniency as single results: "5.4 mmol/L" is stored as 5.4.
+     */
+    private static Double parseNumeric(String value) {
+        String digits = value.replaceAll("[^0-9.-]", "");
+        if (digits.isEmpty()) return null;
+        try {
+            return Double.parseDouble(digits);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static <T> T inSession(UserContext userContext, Callable<T> work) throws Exception {
+        Context.openSession();
+        try {
+            Context.setUserContext(userContext);
+            return work.call();
+        } finally {
+            Context.closeSession();
+        }
+    }
+
+    private void evictOldBatches() {
+        if (batches.size() < RETAINED_BATCHES) return;
+
+        Iterator<LabIngestionBatch> it = batches.values().stream()
+                .filter(b -> b.getFinishedOn() != null)
+                .sorted((a, b) -> a.getFinishedOn().compareTo(b.getFinishedOn()))
+                .iterator();
+        while (batches.size() >= RETAINED_BATCHES && it.hasNext()) {
+            batches.remove(it.next().getBatchId());
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,39 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.lab.ingest;
+
+import java.util.Date;
+
+/**
+ * One analyzer result queued for ingestion. The patient is given either by id or by identifier
+ * (PID-3 in HL7 messages).
+ */
+public class LabResultMessage {
+
+    private Integer patientId;
+    private String patientIdentifier;
+    private String testName;
+    private String resultValue;
+    private String units;
+    private String referenceRange;
+    private String status = "FINAL";
+    private String accessionNumber;
+    private Date resultDatetime;     // Defaults to the time of ingestion
+
+    public Integer getPatientId() { return patientId; }
+    public void setPatientId(Integer patientId) { this.patientId = patientId; }
+    public String getPatientIdentifier() { return patientIdentifier; }
+    public void setPatientIdentifier(String patientIdentifier) { this.patientIdentifier = patientIdentifier; }
+    public String getTestName() { return testName; }
+    public void setTestName(String testName) { this.testName = testName; }
+    public String getResultValue() { return resultValue; }
+    public void setResultValue(String resultValue) { this.resultValue = resultValue; }
+    public String getUnits() { return units; }
+    public void setUnits(String units) { this.units = units; }
+    public String getReferenceRange() { return referenceRange; }
+    public void setReferenceRange(String referenceRange) { this.referenceRange = referenceRange; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public String getAccessionNumber() { return accessionNumber; }
+    public void setAccessionNumber(String accessionNumber) { this.accessionNumber = accessionNumber; }
+    public Date getResultDatetime() { return resultDatetime; }
+    public void setResultDatetime(Date resultDatetime) { this.resultDatetime = resultDatetime; }
+}
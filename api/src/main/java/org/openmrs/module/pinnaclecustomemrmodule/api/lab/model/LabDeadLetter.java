@@ -0,0 +1,51 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.lab.model;
+
+import java.util.Date;
+
+/**
+ * A lab result the ingestion pipeline could not store, kept with the reason so it can be fixed
+ * (e.g. by adding the missing test concept) and retried.
+ */
+public class LabDeadLetter {
+
+    private Integer id;
+    private String batchId;
+    private Integer patientId;
+    private String patientIdentifier;
+    private String testName;
+    private String resultValue;
+    private String units;
+    private String referenceRange;
+    private String status;
+    private String accessionNumber;
+    private Date resultDatetime;
+    private String reason;
+    private Date dateCreated;
+
+    public Integer getId() { return id; }
+    public void setId(Integer id) { this.id = id; }
+    public String getBatchId() { return batchId; }
+    public void setBatchId(String batchId) { this.batchId = batchId; }
+    public Integer getPatientId() { return patientId; }
+    public void setPatientId(Integer patientId) { this.patientId = patientId; }
+    public String getPatientIdentifier() { return patientIdentifier; }
+    public void setPatientIdentifier(String patientIdentifier) { this.patientIdentifier = patientIdentifier; }
+    public String getTestName() { return testName; }
+    public void setTestName(String testName) { this.testName = testName; }
+    public String getResultValue() { return resultValue; }
+    public void setResultValue(String resultValue) { this.resultValue = resultValue; }
+    public String getUnits() { return units; }
+    public void setUnits(String units) { this.units = units; }
+    public String getReferenceRange() { return referenceRange; }
+    public void setReferenceRange(String referenceRange) { this.referenceRange = referenceRange; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public String getAccessionNumber() { return accessionNumber; }
+    public void setAccessionNumber(String accessionNumber) { this.accessionNumber = accessionNumber; }
+    public Date getResultDatetime() { return resultDatetime; }
+    public void setResultDatetime(Date resultDatetime) { this.resultDatetime = resultDatetime; }
+    public String getReason() { return reason; }
+    public void setReason(String reason) { this.reason = reason; }
+    public Date getDateCreated() { return dateCreated; }
+    public void setDateCreated(Date dateCreated) { this.dateCreated = dateCreated; }
+}
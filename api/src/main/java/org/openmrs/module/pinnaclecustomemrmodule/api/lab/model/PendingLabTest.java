@@ -0,0 +1,36 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.lab.model;
+
+import java.util.Date;
+
+/**
+ * One row of the lab worklist: a "Laboratory Test" order obs with no result yet.
+ */
+public class PendingLabTest {
+
+    private final Integer orderObsId;
+    private final String orderObsUuid;
+    private final Integer patientId;
+    private final String testName;
+    private final Date orderedDate;
+    private final String accessionNumber;
+    private final String orderNumber;
+
+    public PendingLabTest(Integer orderObsId, String orderObsUuid, Integer patientId, String testName,
+                          Date orderedDate, String accessionNumber, String orderNumber) {
+        this.orderObsId = orderObsId;
+        this.orderObsUuid = orderObsUuid;
+        this.patientId = patientId;
+        this.testName = testName;
+        this.orderedDate = orderedDate;
+        this.accessionNumber = accessionNumber;
+        this.orderNumber = orderNumber;
+    }
+
+    public Integer getOrderObsId() { return orderObsId; }
+    public String getOrderObsUuid() { return orderObsUuid; }
+    public Integer getPatientId() { return patientId; }
+    public String getTestName() { return testName; }
+    public Date getOrderedDate() { return orderedDate; }
+    public String getAccessionNumber() { return accessionNumber; }
+    public String getOrderNumber() { return orderNumber; }
+}
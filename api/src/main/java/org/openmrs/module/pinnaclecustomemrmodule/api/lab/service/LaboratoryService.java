@@ -1,6 +1,12 @@
 package org.openmrs.module.pinnaclecustomemrmodule.api.lab.service;
 
 import org.openmrs.Obs;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.imaging.ImagingReportStore.StoredReport;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.ingest.LabIngestionBatch;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.ingest.LabResultMessage;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.model.LabDeadLetter;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.model.PendingLabTest;
+
 import java.util.List;
 
 public interface LaboratoryService {
@@ -11,6 +17,22 @@ public interface LaboratoryService {
     
     List<Obs> getPendingLabTests(Integer patientId);
 
+    List<PendingLabTest> getPendingLabWorklist(Integer afterObsId, Integer limit);
+
+    LabIngestionBatch submitLabResults(List<LabResultMessage> results, String source);
+
+    LabIngestionBatch submitHl7Results(String content, String source);
+
+    LabIngestionBatch getIngestionBatch(String batchId);
+
+    List<LabDeadLetter> getDeadLetters(Integer afterId, Integer limit);
+
+    LabIngestionBatch retryDeadLetters(List<Integer> deadLetterIds);
+
     
     Obs attachImagingReport(Integer encounterId, String studyType, String pacsUrl, String reportText);
+
+    boolean isImagingReport(Obs obs);
+
+    StoredReport getImagingReport(Obs reportObs);
 }
\ No newline at end of file
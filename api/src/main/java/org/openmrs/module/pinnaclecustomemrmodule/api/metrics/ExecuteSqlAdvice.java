@@ -0,0 +1,28 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.metrics;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Counts and times {@code AdministrationService.executeSQL}, which runs its statement on the raw
+ * JDBC connection and so is not seen by {@link StatementCounter}. Registered against
+ * {@link org.openmrs.api.AdministrationService} in config.xml.
+ */
+public class ExecuteSqlAdvice implements MethodInterceptor {
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Object[] args = invocation.getArguments();
+        if (!"executeSQL".equals(invocation.getMethod().getName()) || args.length == 0 || !(args[0] instanceof String)) {
+            return invocation.proceed();
+        }
+
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            StatementCounter.count();
+            QueryProfiler.statementExecuted((String) args[0], System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size, log-linear latency histogram in the style of HdrHistogram.
+ * <p>
+ * Values are kept in microseconds: below 32&micro;s every value has its own bucket, above that each
+ * power of two is split into 16 buckets, so any recorded value is known to within 6.25% up to
+ * about 38 hours. All buckets are allocated up front and {@link #record(long)} only increments
+ * counters, so recording never allocates.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+    private static final int MAX_EXPONENT = 36;
+
+    static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(index(nanos / 1000));
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * A consistent-enough copy of the counters for reporting; taken without stopping recorders,
+     * so the count may trail the sum by the calls in flight.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, totalNanos.sum(), maxNanos.get());
+    }
+
+    static int index(long micros) {
+        if (micros < LINEAR_BUCKETS) return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Exclusive upper bound, in microseconds, of the values counted in bucket {@code index}.
+     */
+    static long upperBound(int index) {
+        if (index < LINEAR_BUCKETS) return index + 1;
+        int offset = index - LINEAR_BUCKETS;
+        int shift = offset / SUB_BUCKETS + 1;
+        return (long) (SUB_BUCKETS + offset % SUB_BUCKETS + 1) << shift;
+    }
+
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        Snapshot(long[] counts, long count, long totalNanos, long maxNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() { return count; }
+
+        public long getTotalNanos() { return totalNanos; }
+
+        public long getMaxNanos() { return maxNanos; }
+
+        /**
+         * Number of recorded values below {@code micros}, counting a bucket only if it lies
+         * entirely below the bound.
+         */
+        public long countBelow(long micros) {
+            long below = 0;
+            for (int i = 0; i < counts.length && upperBound(i) <= micros; i++) {
+                below += counts[i];
+            }
+            return below;
+        }
+
+        /**
+         * Value, in nanoseconds, at quantile {@code q} (0..1); the upper bound of the bucket it
+         * falls in, capped at the largest value recorded.
+         */
+        public long quantileNanos(double q) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(upperBound(i) * 1000, maxNanos);
+            }
+            return maxNanos;
+        }
+    }
+}
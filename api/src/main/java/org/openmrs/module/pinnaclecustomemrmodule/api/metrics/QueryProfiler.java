@@ -0,0 +1,158 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.metrics;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.HibernateException;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.pinnaclecustomemrmodule.constants.PinnacleConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-request SQL profile of the module's REST API.
+ * <p>
+ * Between {@link #begin} and {@link #end} every statement the request thread issues is counted
+ * and grouped by shape: Hibernate statements through {@link StatementCounter}, executeSQL through
+ * {@link ExecuteSqlAdvice}. A shape issued more often than the {@code queryProfiler.repeatThreshold}
+ * global property is reported as a suspected N+1.
+ * <p>
+ * Every request is summarized at debug level. Suspected N+1 and slow requests are logged as
+ * warnings and kept in a ring buffer of the last {@value #WORST_REQUESTS}, shown on the query
+ * profile admin page.
+ */
+@Component("pinnaclecustomemrmodule.QueryProfiler")
+public class QueryProfiler {
+
+    private static final Log log = LogFactory.getLog(QueryProfiler.class);
+
+    static final int WORST_REQUESTS = 50;
+
+    private static final int DEFAULT_REPEAT_THRESHOLD = 10;
+    private static final long DEFAULT_SLOW_REQUEST_MILLIS = 2000;
+    private static final long SETTINGS_REFRESH_MILLIS = 60_000;
+
+    private static final ThreadLocal<RequestProfile> CURRENT = new ThreadLocal<>();
+
+    @Autowired
+    private DbSessionFactory sessionFactory;
+
+    private final RequestProfile[] worst = new RequestProfile[WORST_REQUESTS];
+    private int nextSlot;
+
+    private final LongAdder profiled = new LongAdder();
+    private final LongAdder suspected = new LongAdder();
+    private final LongAdder slow = new LongAdder();
+
+    private volatile int repeatThreshold = DEFAULT_REPEAT_THRESHOLD;
+    private volatile long slowRequestMillis = DEFAULT_SLOW_REQUEST_MILLIS;
+    private volatile long settingsReadAt;
+
+    /**
+     * Starts profiling the current thread's request. Returns false, and profiles nothing, if a
+     * request is already being profiled on this thread.
+     */
+    public boolean begin(String method, String path) {
+        if (CURRENT.get() != null) return false;
+        refreshSettings();
+
+        RequestProfile profile = new RequestProfile(method, path);
+        CURRENT.set(profile);
+        try {
+            sessionFactory.getHibernateSessionFactory().getCurrentSession().addEventListeners(profile.timer());
+        } catch (HibernateException e) {
+            // No session bound yet; statements are still counted, just not timed
+        }
+        return true;
+    }
+
+    public RequestProfile end() {
+        RequestProfile profile = CURRENT.get();
+        if (profile == null) return null;
+        CURRENT.remove();
+
+        profile.finish(repeatThreshold);
+        profiled.increment();
+        boolean isSlow = profile.getDurationMillis() >= slowRequestMillis;
+        if (isSlow) slow.increment();
+        if (profile.isSuspectedNPlusOne()) suspected.increment();
+
+        if (isSlow || profile.isSuspectedNPlusOne()) {
+            synchronized (worst) {
+                worst[nextSlot] = profile;
+                nextSlot = (nextSlot + 1) % worst.length;
+            }
+            log.warn(profile.summary());
+        } else if (log.isDebugEnabled()) {
+            log.debug(profile.summary());
+        }
+        return profile;
+    }
+
+    static void statementPrepared(String sql) {
+        RequestProfile profile = CURRENT.get();
+        if (profile != null) profile.prepared(sql);
+    }
+
+    static void statementExecuted(String sql, long nanos) {
+        RequestProfile profile = CURRENT.get();
+        if (profile != null) profile.executed(sql, nanos);
+    }
+
+    /**
+     * The recent suspected N+1 and slow requests, most statements first.
+     */
+    public List<RequestProfile> getWorstRequests() {
+        List<RequestProfile> requests = new ArrayList<>(WORST_REQUESTS);
+        synchronized (worst) {
+            for (RequestProfile profile : worst) {
+                if (profile != null) requests.add(profile);
+            }
+        }
+        requests.sort(Comparator.comparingInt(RequestProfile::getStatements).reversed()
+                .thenComparing(Comparator.comparingLong(RequestProfile::getDurationMillis).reversed()));
+        return requests;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("profiledRequests", profiled.sum());
+        stats.put("suspectedNPlusOne", suspected.sum());
+        stats.put("slowRequests", slow.sum());
+        stats.put("repeatThreshold", repeatThreshold);
+        stats.put("slowRequestMillis", slowRequestMillis);
+        return stats;
+    }
+
+    public void clear() {
+        synchronized (worst) {
+            Arrays.fill(worst, null);
+            nextSlot = 0;
+        }
+    }
+
+    private void refreshSettings() {
+        long now = System.currentTimeMillis();
+        if (now - settingsReadAt < SETTINGS_REFRESH_MILLIS) return;
+        settingsReadAt = now;
+
+        try {
+            String threshold = Context.getAdministrationService().getGlobalProperty(PinnacleConstants.GP_QUERY_PROFILER_REPEAT_THRESHOLD);
+            String slowMillis = Context.getAdministrationService().getGlobalProperty(PinnacleConstants.GP_QUERY_PROFILER_SLOW_REQUEST_MILLIS);
+            repeatThreshold = Math.max(1, NumberUtils.toInt(threshold, DEFAULT_REPEAT_THRESHOLD));
+            slowRequestMillis = Math.max(1, NumberUtils.toLong(slowMillis, DEFAULT_SLOW_REQUEST_MILLIS));
+        } catch (APIException e) {
+            log.debug("Could not read query profiler settings; keeping the current ones", e);
+        }
+    }
+}
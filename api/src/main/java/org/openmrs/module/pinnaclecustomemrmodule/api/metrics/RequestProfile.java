@@ -0,0 +1,190 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.metrics;
+
+import org.hibernate.BaseSessionEventListener;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SQL statements issued while one request was handled, grouped by {@link StatementShapes shape}.
+ * Filled in by {@link QueryProfiler} on the request thread and read-only once finished.
+ */
+public class RequestProfile {
+
+    private static final int TOP_SHAPES = 5;
+    private static final int SUMMARY_SQL_LENGTH = 160;
+
+    private final String method;
+    private final String path;
+    private final Date startedAt = new Date();
+    private final long startNanos = System.nanoTime();
+
+    private final Map<String, StatementStats> shapes = new HashMap<>();
+    private StatementStats lastPrepared;
+    private long executeStartNanos;
+    private int statements;
+    private long sqlNanos;
+    private boolean timed;
+
+    private volatile boolean finished;
+    private long durationNanos;
+    private List<StatementStats> suspects = new ArrayList<>();
+
+    public static class StatementStats {
+
+        private final String sql;
+        private int count;
+        private long nanos;
+
+        StatementStats(String sql) {
+            this.sql = sql;
+        }
+
+        public String getSql() { return sql; }
+
+        public int getCount() { return count; }
+
+        public long getMillis() { return TimeUnit.NANOSECONDS.toMillis(nanos); }
+    }
+
+    /**
+     * Times JDBC executions on the request's Hibernate session and charges them to the statement
+     * prepared last.
+     */
+    final class ExecutionTimer extends BaseSessionEventListener {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void jdbcExecuteStatementStart() {
+            executeStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void jdbcExecuteStatementEnd() {
+            executed();
+        }
+
+        @Override
+        public void jdbcExecuteBatchStart() {
+            executeStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void jdbcExecuteBatchEnd() {
+            executed();
+        }
+
+        private void executed() {
+            if (finished || lastPrepared == null || executeStartNanos == 0) return;
+            long elapsed = System.nanoTime() - executeStartNanos;
+            executeStartNanos = 0;
+            lastPrepared.nanos += elapsed;
+            sqlNanos += elapsed;
+        }
+    }
+
+    RequestProfile(String method, String path) {
+        this.method = method;
+        this.path = path;
+    }
+
+    ExecutionTimer timer() {
+        timed = true;
+        return new ExecutionTimer();
+    }
+
+    void prepared(String sql) {
+        if (finished) return;
+        lastPrepared = shape(sql);
+        lastPrepared.count++;
+        statements++;
+    }
+
+    /**
+     * A statement run outside Hibernate, already timed by the caller.
+     */
+    void executed(String sql, long nanos) {
+        if (finished) return;
+        StatementStats stats = shape(sql);
+        stats.count++;
+        stats.nanos += nanos;
+        statements++;
+        sqlNanos += nanos;
+    }
+
+    private StatementStats shape(String sql) {
+        return shapes.computeIfAbsent(StatementShapes.normalize(sql), StatementStats::new);
+    }
+
+    void finish(int repeatThreshold) {
+        durationNanos = System.nanoTime() - startNanos;
+        List<StatementStats> repeated = new ArrayList<>();
+        for (StatementStats stats : shapes.values()) {
+            if (stats.count > repeatThreshold) repeated.add(stats);
+        }
+        repeated.sort(Comparator.comparingInt(StatementStats::getCount).reversed());
+        suspects = repeated;
+        finished = true;
+    }
+
+    public String getMethod() { return method; }
+
+    public String getPath() { return path; }
+
+    public Date getStartedAt() { return startedAt; }
+
+    public long getDurationMillis() { return TimeUnit.NANOSECONDS.toMillis(durationNanos); }
+
+    public int getStatements() { return statements; }
+
+    public int getDistinctStatements() { return shapes.size(); }
+
+    /**
+     * Time spent executing statements; only statements on the request's own Hibernate session and
+     * those run through executeSQL are timed.
+     */
+    public long getSqlMillis() { return TimeUnit.NANOSECONDS.toMillis(sqlNanos); }
+
+    public boolean isTimed() { return timed; }
+
+    public boolean isSuspectedNPlusOne() { return !suspects.isEmpty(); }
+
+    /**
+     * Shapes issued more often than the repeat threshold, most repeated first.
+     */
+    public List<StatementStats> getSuspects() { return suspects; }
+
+    public List<StatementStats> getTopStatements() {
+        List<StatementStats> top = new ArrayList<>(shapes.values());
+        top.sort(Comparator.comparingInt(StatementStats::getCount).reversed()
+                .thenComparing(Comparator.comparingLong(StatementStats::getMillis).reversed()));
+        return top.size() > TOP_SHAPES ? new ArrayList<>(top.subList(0, TOP_SHAPES)) : top;
+    }
+
+    /**
+     * One-line summary for the log, e.g.
+     * {@code GET /pinnacle/api/v1/labs/pending 812 ms, 403 statements in 4 shapes, 690 ms SQL; suspected N+1: 400x select ...}
+     */
+    public String summary() {
+        StringBuilder s = new StringBuilder(256);
+        s.append(method).append(' ').append(path).append(' ').append(getDurationMillis()).append(" ms, ")
+                .append(statements).append(" statements in ").append(shapes.size()).append(" shapes");
+        if (timed) s.append(", ").append(getSqlMillis()).append(" ms SQL");
+        if (!suspects.isEmpty()) {
+            s.append("; suspected N+1:");
+            for (StatementStats stats : suspects) {
+                String sql = stats.sql.length() > SUMMARY_SQL_LENGTH ? stats.sql.substring(0, SUMMARY_SQL_LENGTH) + "..."
+                        : stats.sql;
+                s.append(' ').append(stats.count).append("x ").append(sql).append(';');
+            }
+            s.setLength(s.length() - 1);
+        }
+        return s.toString();
+    }
+}
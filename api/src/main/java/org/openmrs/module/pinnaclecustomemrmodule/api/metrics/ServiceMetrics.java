@@ -0,0 +1,155 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.metrics;
+
+import org.springframework.aop.support.AopUtils;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-method call metrics of the Pinnacle services, recorded by {@link ServiceMetricsInterceptor}
+ * and rendered in the Prometheus text exposition format.
+ * <p>
+ * Each service method gets its metrics the first time it is called; after that a call only looks
+ * up its {@link Method} and bumps preallocated counters. Overloads of a method share one entry.
+ */
+@Component("pinnaclecustomemrmodule.ServiceMetrics")
+public class ServiceMetrics {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] BUCKET_SECONDS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5,
+            1, 2.5, 5, 10, 30 };
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final Map<Method, MethodMetrics> byMethod = new ConcurrentHashMap<>();
+    private final Map<String, MethodMetrics> byName = new ConcurrentHashMap<>();
+
+    public static final class MethodMetrics {
+
+        private final String service;
+        private final String method;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder statements = new LongAdder();
+        private final LongAccumulator maxStatements = new LongAccumulator(Math::max, 0);
+
+        MethodMetrics(String service, String method) {
+            this.service = service;
+            this.method = method;
+        }
+
+        public void record(long nanos, boolean failed, long statementCount) {
+            latency.record(nanos);
+            if (failed) errors.increment();
+            statements.add(statementCount);
+            maxStatements.accumulate(statementCount);
+        }
+    }
+
+    public MethodMetrics get(Method method, Object target) {
+        MethodMetrics metrics = byMethod.get(method);
+        return metrics != null ? metrics : register(method, target);
+    }
+
+    private MethodMetrics register(Method method, Object target) {
+        String service = serviceName(target != null ? AopUtils.getTargetClass(target) : method.getDeclaringClass());
+        MethodMetrics metrics = byName.computeIfAbsent(service + "." + method.getName(),
+                key -> new MethodMetrics(service, method.getName()));
+        byMethod.put(method, metrics);
+        return metrics;
+    }
+
+    private static String serviceName(Class<?> type) {
+        String name = type.getSimpleName();
+        return name.endsWith("Impl") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset() {
+        byMethod.clear();
+        byName.clear();
+    }
+
+    public String toPrometheusText() {
+        Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+        Map<String, MethodMetrics> sorted = new TreeMap<>(byName);
+        for (Map.Entry<String, MethodMetrics> e : sorted.entrySet()) {
+            snapshots.put(e.getKey(), e.getValue().latency.snapshot());
+        }
+
+        StringBuilder out = new StringBuilder(4096);
+        header(out, "pinnacle_service_duration_seconds", "histogram", "Service method latency");
+        for (Map.Entry<String, MethodMetrics> e : sorted.entrySet()) {
+            String labels = labels(e.getValue());
+            LatencyHistogram.Snapshot s = snapshots.get(e.getKey());
+            for (double le : BUCKET_SECONDS) {
+                sample(out, "pinnacle_service_duration_seconds_bucket", labels + ",le=\"" + le + "\"",
+                        s.countBelow((long) (le * 1_000_000)));
+            }
+            sample(out, "pinnacle_service_duration_seconds_bucket", labels + ",le=\"+Inf\"", s.getCount());
+            sample(out, "pinnacle_service_duration_seconds_sum", labels, seconds(s.getTotalNanos()));
+            sample(out, "pinnacle_service_duration_seconds_count", labels, s.getCount());
+        }
+
+        header(out, "pinnacle_service_duration_quantile_seconds", "gauge",
+                "Service method latency quantiles since the last reset");
+        for (Map.Entry<String, MethodMetrics> e : sorted.entrySet()) {
+            String labels = labels(e.getValue());
+            LatencyHistogram.Snapshot s = snapshots.get(e.getKey());
+            for (double q : QUANTILES) {
+                sample(out, "pinnacle_service_duration_quantile_seconds", labels + ",quantile=\"" + q + "\"",
+                        seconds(s.quantileNanos(q)));
+            }
+        }
+
+        header(out, "pinnacle_service_duration_max_seconds", "gauge", "Slowest service method call since the last reset");
+        for (Map.Entry<String, MethodMetrics> e : sorted.entrySet()) {
+            sample(out, "pinnacle_service_duration_max_seconds", labels(e.getValue()),
+                    seconds(snapshots.get(e.getKey()).getMaxNanos()));
+        }
+
+        header(out, "pinnacle_service_errors_total", "counter", "Service method calls that threw");
+        for (MethodMetrics m : sorted.values()) {
+            sample(out, "pinnacle_service_errors_total", labels(m), m.errors.sum());
+        }
+
+        header(out, "pinnacle_service_db_statements_total", "counter", "SQL statements issued during service method calls");
+        for (MethodMetrics m : sorted.values()) {
+            sample(out, "pinnacle_service_db_statements_total", labels(m), m.statements.sum());
+        }
+
+        header(out, "pinnacle_service_db_statements_max", "gauge", "Most SQL statements issued by one service method call");
+        for (MethodMetrics m : sorted.values()) {
+            sample(out, "pinnacle_service_db_statements_max", labels(m), m.maxStatements.get());
+        }
+        return out.toString();
+    }
+
+    private static String labels(MethodMetrics m) {
+        return "service=\"" + m.service + "\",method=\"" + m.method + "\"";
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+}
@@ -0,0 +1,33 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.metrics;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times every call into a Pinnacle service and counts the SQL statements it issued. Applied to the
+ * service beans by the {@code aop:config} in moduleApplicationContext.xml, outside the transaction
+ * advice, so commit time is part of the latency.
+ */
+@Component("pinnaclecustomemrmodule.ServiceMetricsInterceptor")
+public class ServiceMetricsInterceptor implements MethodInterceptor {
+
+    @Autowired
+    private ServiceMetrics serviceMetrics;
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        ServiceMetrics.MethodMetrics metrics = serviceMetrics.get(invocation.getMethod(), invocation.getThis());
+        long statements = StatementCounter.current();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Object result = invocation.proceed();
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(System.nanoTime() - start, failed, StatementCounter.current() - statements);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.metrics;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.jdbc.Work;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Counts the SQL statements issued on each thread and hands them to the {@link QueryProfiler} of
+ * the request being profiled. Hibernate statements, native queries included, are counted as they
+ * are prepared: this bean is picked up by the OpenMRS session factory like any other
+ * {@link org.hibernate.Interceptor}. {@code AdministrationService.executeSQL} is counted by
+ * {@link ExecuteSqlAdvice}.
+ * <p>
+ * JDBC work done through {@code Session.doWork} bypasses Hibernate; the module's DAOs wrap it in
+ * {@link #counted(Work)}, which counts each execute or executeBatch call, i.e. each round trip.
+ */
+@Component("pinnaclecustomemrmodule.StatementCounter")
+public class StatementCounter extends EmptyInterceptor {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ThreadLocal<long[]> STATEMENTS = ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * Statements prepared by the current thread since it started; callers take the difference of
+     * two readings.
+     */
+    public static long current() {
+        return STATEMENTS.get()[0];
+    }
+
+    static void count() {
+        STATEMENTS.get()[0]++;
+    }
+
+    /**
+     * Wraps {@code work} so the statements it executes on its connection are counted and
+     * profiled, one per execute or executeBatch call.
+     */
+    public static Work counted(Work work) {
+        return connection -> work.execute(counting(connection));
+    }
+
+    static Connection counting(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(StatementCounter.class.getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    Object result = invoke(connection, method, args);
+                    if (!(result instanceof Statement) || !Statement.class.isAssignableFrom(method.getReturnType())) {
+                        return result;
+                    }
+                    String sql = result instanceof PreparedStatement && args != null && args[0] instanceof String
+                            ? (String) args[0] : null;
+                    return counting((Statement) result, method.getReturnType(), sql);
+                });
+    }
+
+    private static Object counting(Statement statement, Class<?> type, String preparedSql) {
+        return Proxy.newProxyInstance(StatementCounter.class.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    if (!method.getName().startsWith("execute")) return invoke(statement, method, args);
+
+                    long start = System.nanoTime();
+                    try {
+                        return invoke(statement, method, args);
+                    } finally {
+                        count();
+                        String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+                        QueryProfiler.statementExecuted(sql != null ? sql : "(statement batch)", System.nanoTime() - start);
+                    }
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public String onPrepareStatement(String sql) {
+        count();
+        QueryProfiler.statementPrepared(sql);
+        return sql;
+    }
+}
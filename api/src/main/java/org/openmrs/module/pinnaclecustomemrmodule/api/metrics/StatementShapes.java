@@ -0,0 +1,53 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.metrics;
+
+import java.util.regex.Pattern;
+
+/**
+ * Reduces SQL to its shape, so statements that differ only in their values are counted together:
+ * string and number literals become {@code ?}, lists of placeholders such as
+ * {@code in (?, ?, ?)} become {@code in (?...)} and runs of whitespace a single space.
+ */
+final class StatementShapes {
+
+    static final int MAX_LENGTH = 1000;
+
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+
+    private StatementShapes() {
+    }
+
+    static String normalize(String sql) {
+        if (sql == null) return "";
+
+        StringBuilder out = new StringBuilder(Math.min(sql.length(), MAX_LENGTH + 16));
+        int n = sql.length();
+        for (int i = 0; i < n && out.length() < MAX_LENGTH; i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                // string literal, with '' as an escaped quote
+                i++;
+                while (i < n && (sql.charAt(i) != '\'' || (i + 1 < n && sql.charAt(i + 1) == '\''))) {
+                    i += sql.charAt(i) == '\'' ? 2 : 1;
+                }
+                out.append('?');
+            } else if (Character.isDigit(c) && !partOfIdentifier(out)) {
+                while (i + 1 < n && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) {
+                    i++;
+                }
+                out.append('?');
+            } else if (Character.isWhitespace(c)) {
+                if (out.length() > 0 && out.charAt(out.length() - 1) != ' ') out.append(' ');
+            } else {
+                out.append(c);
+            }
+        }
+        String shape = PLACEHOLDER_LIST.matcher(out).replaceAll("?...").trim();
+        return shape.length() > MAX_LENGTH ? shape.substring(0, MAX_LENGTH) : shape;
+    }
+
+    private static boolean partOfIdentifier(CharSequence out) {
+        if (out.length() == 0) return false;
+        char previous = out.charAt(out.length() - 1);
+        return Character.isLetterOrDigit(previous) || previous == '_' || previous == '$' || previous == '`';
+    }
+}
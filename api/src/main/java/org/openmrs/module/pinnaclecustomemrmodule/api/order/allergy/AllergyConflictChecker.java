@@ -0,0 +1,328 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.order.allergy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.Concept;
+import org.openmrs.ConceptName;
+import org.openmrs.Drug;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.concept.ConceptNameCache;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.AllergyDao;
+import org.openmrs.module.pinnaclecustomemrmodule.constants.PinnacleConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drug-allergy check against a cached, per-patient set of allergen terms.
+ * <p>
+ * A patient's allergen set holds every name of each coded allergy obs and the significant words of
+ * those names, normalized (lower case, punctuation collapsed) and expanded through the drug classes
+ * configured in the {@code allergy.drugClasses} global property: a class name adds its members
+ * and a member adds its classes and their other members, so an allergy to "Penicillins" or to
+ * "Amoxicillin" also covers "Ampicillin". A prescription is checked by intersecting that set with
+ * the drug's own terms: its name, the words of its name, the names of its concept and the classes
+ * it belongs to.
+ * <p>
+ * Sets are loaded on first use and dropped by {@link AllergyObsAdvice} when an allergy obs of the
+ * patient is saved, voided or purged. Every invalidation is stamped with a generation, and a set is
+ * only cached if its patient was not invalidated after the load started, so a load racing an
+ * allergy commit cannot cache the allergies from before it.
+ */
+@Component("pinnaclecustomemrmodule.AllergyConflictChecker")
+public class AllergyConflictChecker {
+
+    static final String ALLERGY_CONCEPT_UUID = "1427AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+    private static final int MAX_PATIENTS = 10000;
+    private static final int MIN_WORD_LENGTH = 4;
+    private static final Set<String> NON_SPECIFIC_WORDS = new HashSet<>(Arrays.asList("sodium", "potassium",
+            "calcium", "hydrochloride", "sulfate", "sulphate", "acetate", "phosphate", "tablet", "tablets", "capsule",
+            "capsules", "oral", "injection", "syrup", "suspension", "cream", "ointment", "drops", "allergy"));
+
+    @Autowired
+    private AllergyDao allergyDao;
+
+    @Autowired
+    private ConceptNameCache conceptCache;
+
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder checkNanos = new LongAdder();
+    private final LongAccumulator maxCheckNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    private final Map<Integer, Set<String>> allergensByPatient = new LinkedHashMap<Integer, Set<String>>(256, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Set<String>> eldest) {
+            return size() > MAX_PATIENTS;
+        }
+    };
+
+    // Guarded by allergensByPatient: the generation of each patient's last invalidation, oldest
+    // first; patients dropped from it count as invalidated at forgottenGeneration
+    private long generation;
+    private long forgottenGeneration;
+    private final Map<Integer, Long> invalidatedAt = new LinkedHashMap<Integer, Long>(256, 0.75f, false) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+            if (size() <= MAX_PATIENTS) return false;
+            forgottenGeneration = eldest.getValue();
+            return true;
+        }
+    };
+
+    // class term -> member terms, and member term -> class terms
+    private volatile DrugClasses drugClasses;
+
+    static final class DrugClasses {
+
+        final Map<String, Set<String>> members = new HashMap<>();
+        final Map<String, Set<String>> classes = new HashMap<>();
+
+        /**
+         * Parses {@code class:member,member;class:member,...}.
+         */
+        static DrugClasses parse(String value) {
+            DrugClasses parsed = new DrugClasses();
+            if (StringUtils.isBlank(value)) return parsed;
+
+            for (String entry : value.split(";")) {
+                int colon = entry.indexOf(':');
+                if (colon < 0) continue;
+                String drugClass = normalize(entry.substring(0, colon));
+                if (drugClass.isEmpty()) continue;
+                for (String member : entry.substring(colon + 1).split(",")) {
+                    String term = normalize(member);
+                    if (term.isEmpty()) continue;
+                    parsed.members.computeIfAbsent(drugClass, k -> new HashSet<>()).add(term);
+                    parsed.classes.computeIfAbsent(term, k -> new HashSet<>()).add(drugClass);
+                }
+            }
+            return parsed;
+        }
+
+        /**
+         * The classes {@code term} is or belongs to, and every member of those classes.
+         */
+        void expand(String term, Set<String> into) {
+            Set<String> related = new HashSet<>(classes.getOrDefault(term, Collections.emptySet()));
+            if (members.containsKey(term)) related.add(term);
+            for (String drugClass : related) {
+                into.add(drugClass);
+                into.addAll(members.getOrDefault(drugClass, Collections.emptySet()));
+            }
+        }
+    }
+
+    /**
+     * Returns the patient's allergens that conflict with {@code drug} (or, if the drug is not in
+     * the formulary, with {@code drugName}); empty if there is no conflict.
+     */
+    public Set<String> findConflicts(Patient patient, Drug drug, String drugName) {
+        if (patient == null || patient.getPatientId() == null) return Collections.emptySet();
+
+        long start = System.nanoTime();
+        try {
+            Set<String> allergens = getAllergens(patient.getPatientId());
+            if (allergens.isEmpty()) return Collections.emptySet();
+
+            Set<String> matches = new HashSet<>();
+            for (String term : drugTerms(drug, drugName)) {
+                if (allergens.contains(term)) matches.add(term);
+            }
+            if (!matches.isEmpty()) conflicts.increment();
+            return matches;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            checks.increment();
+            checkNanos.add(elapsed);
+            maxCheckNanos.accumulate(elapsed);
+        }
+    }
+
+    public boolean hasConflict(Patient patient, Drug drug, String drugName) {
+        return !findConflicts(patient, drug, drugName).isEmpty();
+    }
+
+    /**
+     * Drops the patient's set, and re-reads the drug classes on next use.
+     */
+    public void invalidate(Integer patientId) {
+        synchronized (allergensByPatient) {
+            allergensByPatient.remove(patientId);
+            invalidatedAt.remove(patientId);
+            invalidatedAt.put(patientId, ++generation);
+        }
+        drugClasses = null;
+    }
+
+    /**
+     * Invalidates now and again once the current transaction commits, so a check running
+     * concurrently cannot re-cache the pre-commit allergies.
+     */
+    public void invalidateAfterCommit(Integer patientId) {
+        invalidate(patientId);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+
+            @Override
+            public void afterCommit() {
+                invalidate(patientId);
+            }
+        });
+    }
+
+    /**
+     * Drops every cached set and re-reads the drug classes on next use.
+     */
+    public void invalidateAll() {
+        synchronized (allergensByPatient) {
+            allergensByPatient.clear();
+            invalidatedAt.clear();
+            forgottenGeneration = ++generation;
+        }
+        drugClasses = null;
+    }
+
+    public Map<String, Object> getStats() {
+        long n = checks.sum();
+        long l = loads.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (allergensByPatient) {
+            stats.put("cachedPatients", allergensByPatient.size());
+        }
+        stats.put("checks", n);
+        stats.put("conflicts", conflicts.sum());
+        stats.put("avgCheckMicros", n == 0 ? 0.0 : TimeUnit.NANOSECONDS.toMicros(checkNanos.sum()) / (double) n);
+        stats.put("maxCheckMicros", TimeUnit.NANOSECONDS.toMicros(maxCheckNanos.get()));
+        stats.put("loads", l);
+        stats.put("avgLoadMicros", l == 0 ? 0.0 : TimeUnit.NANOSECONDS.toMicros(loadNanos.sum()) / (double) l);
+        return stats;
+    }
+
+    private Set<String> getAllergens(Integer patientId) {
+        Set<String> allergens;
+        long loadGeneration;
+        synchronized (allergensByPatient) {
+            allergens = allergensByPatient.get(patientId);
+            loadGeneration = generation;
+        }
+        if (allergens != null) return allergens;
+
+        long start = System.nanoTime();
+        Concept allergyConcept = conceptCache.getConceptByUuid(ALLERGY_CONCEPT_UUID);
+        allergens = new HashSet<>();
+        if (allergyConcept != null) {
+            allergens = allergenTerms(allergyDao.getAllergenNames(patientId, allergyConcept.getConceptId()),
+                    getDrugClasses());
+        }
+        allergens = Collections.unmodifiableSet(allergens);
+        loads.increment();
+        loadNanos.add(System.nanoTime() - start);
+
+        synchronized (allergensByPatient) {
+            // Not if the patient's allergies changed while loading: the set may predate the change
+            Long invalidated = invalidatedAt.get(patientId);
+            if (forgottenGeneration <= loadGeneration && (invalidated == null || invalidated <= loadGeneration)) {
+                allergensByPatient.put(patientId, allergens);
+            }
+        }
+        return allergens;
+    }
+
+    private Set<String> drugTerms(Drug drug, String drugName) {
+        List<String> names = new ArrayList<>();
+        names.add(drugName);
+        if (drug != null) {
+            names.add(drug.getName());
+            Concept concept = drug.getConcept();
+            if (concept != null) {
+                for (ConceptName name : concept.getNames()) {
+                    names.add(name.getName());
+                }
+            }
+        }
+        return drugTerms(names, getDrugClasses());
+    }
+
+    /**
+     * Every allergen name and its significant words, each expanded to the classes it is or belongs
+     * to and all members of those classes, so an allergy to one penicillin covers the others.
+     */
+    static Set<String> allergenTerms(Collection<String> allergenNames, DrugClasses classes) {
+        Set<String> terms = new HashSet<>();
+        for (String name : allergenNames) {
+            addNameTerms(name, terms);
+        }
+        Set<String> expanded = new HashSet<>(terms);
+        for (String term : terms) {
+            classes.expand(term, expanded);
+        }
+        return expanded;
+    }
+
+    /**
+     * The drug's names, their significant words and the classes any of them belongs to.
+     */
+    static Set<String> drugTerms(Collection<String> drugNames, DrugClasses classes) {
+        Set<String> terms = new HashSet<>();
+        for (String name : drugNames) {
+            addNameTerms(name, terms);
+        }
+        Set<String> classTerms = new HashSet<>();
+        for (String term : terms) {
+            classTerms.addAll(classes.classes.getOrDefault(term, Collections.emptySet()));
+        }
+        terms.addAll(classTerms);
+        return terms;
+    }
+
+    /**
+     * Adds the whole normalized name and its words, leaving out short words, numbers and
+     * salt or dose-form words that would match unrelated drugs.
+     */
+    private static void addNameTerms(String name, Set<String> into) {
+        String normalized = normalize(name);
+        if (normalized.isEmpty()) return;
+        into.add(normalized);
+        for (String word : normalized.split(" ")) {
+            if (word.length() >= MIN_WORD_LENGTH && !StringUtils.isNumeric(word) && !NON_SPECIFIC_WORDS.contains(word)) {
+                into.add(word);
+            }
+        }
+    }
+
+    static String normalize(String name) {
+        if (name == null) return "";
+        return name.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+    }
+
+    private DrugClasses getDrugClasses() {
+        DrugClasses current = drugClasses;
+        if (current != null) return current;
+
+        current = DrugClasses.parse(Context.getAdministrationService().getGlobalProperty(PinnacleConstants.GP_ALLERGY_DRUG_CLASSES));
+        drugClasses = current;
+        return current;
+    }
+}
@@ -0,0 +1,33 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.order.allergy;
+
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+
+/**
+ * Keeps {@link AllergyConflictChecker} consistent with allergy obs. Registered against
+ * {@link org.openmrs.api.ObsService} in config.xml.
+ */
+public class AllergyObsAdvice implements AfterReturningAdvice {
+
+    @Override
+    public void afterReturning(Object returnValue, Method method, Object[] args, Object target) {
+        String name = method.getName();
+        if (!(name.startsWith("save") || name.startsWith("void") || name.startsWith("unvoid")
+                || name.startsWith("purge"))) {
+            return;
+        }
+
+        Object subject = args != null && args.length > 0 ? args[0] : null;
+        if (!(subject instanceof Obs)) return;
+
+        Obs obs = (Obs) subject;
+        if (obs.getConcept() == null || !AllergyConflictChecker.ALLERGY_CONCEPT_UUID.equals(obs.getConcept().getUuid())) {
+            return;
+        }
+        Context.getRegisteredComponent("pinnaclecustomemrmodule.AllergyConflictChecker", AllergyConflictChecker.class)
+                .invalidateAfterCommit(obs.getPersonId());
+    }
+}
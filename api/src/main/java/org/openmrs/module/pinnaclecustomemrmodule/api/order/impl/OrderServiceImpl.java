@@ -1,49 +1,80 @@
 package org.openmrs.module.pinnaclecustomemrmodule.api.order.impl;
 
 import org.openmrs.*;
+import org.openmrs.api.APIException;
+import org.openmrs.api.ValidationException;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.pinnaclecustomemrmodule.api.audit.AuditEvent;
+import org.openmrs.module.pinnaclecustomemrmodule.api.audit.AuditLog;
+import org.openmrs.module.pinnaclecustomemrmodule.api.concept.ConceptNameCache;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.FormularyDao;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.allergy.AllergyConflictChecker;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.model.PrescriptionLine;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.model.PrescriptionLineResult;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.service.OrderService;
+import org.openmrs.order.OrderUtil;
+import org.openmrs.validator.ValidateUtil;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 @Transactional
 public class OrderServiceImpl extends BaseOpenmrsService implements OrderService {
 
+    @Autowired private ConceptNameCache conceptCache;
+    @Autowired private AllergyConflictChecker allergyChecker;
+    @Autowired private FormularyDao formularyDao;
+    @Autowired private AuditLog auditLog;
+
+    private static final int MAX_ORDER_SET_LINES = 50;
+
     @Override
     public DrugOrder prescribeMedication(Integer patientId, String drugName, Double dose, String doseUnit,
                                         String route, String frequency, Integer durationDays) {
         Patient patient = Context.getPatientService().getPatient(patientId);
         Drug drug = Context.getConceptService().getDrugByName(drugName);
 
-        if (hasAllergyConflict(patient, drugName)) {
-            throw new IllegalStateException("Patient has allergy to: " + drugName);
+        Set<String> conflicts = allergyChecker.findConflicts(patient, drug, drugName);
+        if (!conflicts.isEmpty()) {
+            throw new IllegalStateException("Patient has allergy to: " + drugName + " " + conflicts);
         }
 
         DrugOrder order = new DrugOrder();
         order.setPatient(patient);
         order.setDrug(drug);
         order.setDose(dose);
-        order.setDoseUnits(Context.getConceptService().getConceptByName(doseUnit));
-        order.setRoute(Context.getConceptService().getConceptByName(route));
+        order.setDoseUnits(conceptCache.getConceptByName(doseUnit));
+        order.setRoute(conceptCache.getConceptByName(route));
         order.setFrequency(Context.getOrderService().getOrderFrequencyByConcept(
-            Context.getConceptService().getConceptByName(frequency)));
+            conceptCache.getConceptByName(frequency)));
         order.setStartDate(new Date());
         if (durationDays != null) {
             order.setAutoExpireDate(new Date(System.currentTimeMillis() + durationDays * 24L * 60 * 60 * 1000));
         }
         order.setOrderReasonNonCoded("Prescribed in OPD");
 
-        return (DrugOrder) Context.getOrderService().saveOrder(order, Context.getAuthenticatedUser());
+        DrugOrder saved = (DrugOrder) Context.getOrderService().saveOrder(order, Context.getAuthenticatedUser());
+        auditLog.recordAfterCommit(patientId, AuditEvent.PRESCRIPTION);
+        return saved;
     }
 
     @Override
     public TestOrder orderLabTest(Integer patientId, String testName) {
         Patient patient = Context.getPatientService().getPatient(patientId);
-        Concept testConcept = Context.getConceptService().getConceptByName(testName);
+        Concept testConcept = conceptCache.getConceptByName(testName);
 
         TestOrder order = new TestOrder();
         order.setPatient(patient);
@@ -54,15 +85,196 @@ public class OrderServiceImpl extends BaseOpenmrsService implements OrderService
         return (TestOrder) Context.getOrderService().saveOrder(order, Context.getAuthenticatedUser());
     }
 
-    private boolean hasAllergyConflict(Patient patient, String drugName) {
-        String sql = """
-            SELECT COUNT(*) FROM obs o
-            JOIN concept_name cn ON o.value_coded = cn.concept_id
-            WHERE o.person_id = ? AND o.concept_id = (
-                SELECT concept_id FROM concept WHERE uuid = '1427AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA'
-            ) AND LOWER(cn.name) LIKE LOWER(?)
-            """; // Allergy concept
-        List<List<Object>> result = Context.getAdministrationService().executeSQL(sql, true, patient.getId(), "%" + drugName + "%");
-        return result.get(0).get(0).toString().equals("0") ? false : true;
+    /**
+     * Prescribes a whole order set in this one transaction. Drugs are loaded in one query; dose
+     * unit, route and frequency concepts, the order context and the orderer are resolved once per
+     * set; the patient's allergen set is loaded once and every line checked against it.
+     * Lines that fail validation, the allergy check or the core order checks are reported and
+     * skipped, unless {@code allOrNothing} is set, in which case nothing is saved. The orders are
+     * placed in {@code encounterId}, which the core order validator requires.
+     * <p>
+     * The core checks (the order validators and the one active order per drug rule) run here,
+     * before anything is saved: a line rejected by the core OrderService itself would have marked
+     * the whole transaction rollback-only, losing the lines already saved.
+     */
+    @Override
+    public List<PrescriptionLineResult> prescribeOrderSet(Integer patientId, Integer encounterId,
+                                                          List<PrescriptionLine> lines, boolean allOrNothing) {
+        if (lines == null || lines.isEmpty()) {
+            throw new IllegalArgumentException("At least one prescription line is required");
+        }
+        if (lines.size() > MAX_ORDER_SET_LINES) {
+            throw new IllegalArgumentException("An order set is limited to " + MAX_ORDER_SET_LINES + " lines");
+        }
+
+        Patient patient = Context.getPatientService().getPatient(patientId);
+        if (patient == null) throw new IllegalArgumentException("Patient not found: " + patientId);
+
+        if (encounterId == null) throw new IllegalArgumentException("encounterId is required");
+        Encounter encounter = Context.getEncounterService().getEncounter(encounterId);
+        if (encounter == null || encounter.getVoided() || !patient.equals(encounter.getPatient())) {
+            throw new IllegalArgumentException("Encounter " + encounterId + " not found for patient " + patientId);
+        }
+
+        Set<String> drugNames = new HashSet<>();
+        for (PrescriptionLine line : lines) {
+            if (line != null && line.getDrugName() != null) drugNames.add(line.getDrugName().trim().toLowerCase(Locale.ROOT));
+        }
+        Map<String, Drug> drugs = formularyDao.getDrugsByNames(drugNames);
+        Map<String, Concept> concepts = new HashMap<>();
+        Map<Concept, OrderFrequency> frequencies = new HashMap<>();
+
+        List<PrescriptionLineResult> results = new ArrayList<>(lines.size());
+        List<DrugOrder> orders = new ArrayList<>(lines.size());
+        List<PrescriptionLineResult> accepted = new ArrayList<>(lines.size());
+        Set<Drug> seen = new HashSet<>();
+        for (int i = 0; i < lines.size(); i++) {
+            PrescriptionLine line = lines.get(i);
+            PrescriptionLineResult result = new PrescriptionLineResult(i, line != null ? line.getDrugName() : null);
+            results.add(result);
+
+            String invalid = validate(line);
+            if (invalid != null) {
+                result.rejected(invalid);
+                continue;
+            }
+
+            Drug drug = drugs.get(line.getDrugName().trim().toLowerCase(Locale.ROOT));
+            if (drug == null) {
+                result.rejected("Drug not found: " + line.getDrugName());
+                continue;
+            }
+            if (!seen.add(drug)) {
+                result.rejected("Drug appears more than once in the order set: " + line.getDrugName());
+                continue;
+            }
+
+            Concept doseUnits = concepts.computeIfAbsent(line.getDoseUnit(), conceptCache::getConceptByName);
+            Concept route = concepts.computeIfAbsent(line.getRoute(), conceptCache::getConceptByName);
+            Concept frequencyConcept = concepts.computeIfAbsent(line.getFrequency(), conceptCache::getConceptByName);
+            OrderFrequency frequency = frequencyConcept == null ? null : frequencies.computeIfAbsent(frequencyConcept,
+                    c -> Context.getOrderService().getOrderFrequencyByConcept(c));
+            if (doseUnits == null || route == null || frequency == null) {
+                result.rejected("Unknown " + (doseUnits == null ? "dose unit: " + line.getDoseUnit()
+                        : route == null ? "route: " + line.getRoute() : "frequency: " + line.getFrequency()));
+                continue;
+            }
+
+            Set<String> conflicts = allergyChecker.findConflicts(patient, drug, line.getDrugName());
+            if (!conflicts.isEmpty()) {
+                result.allergyConflict(conflicts);
+                continue;
+            }
+
+            DrugOrder order = new DrugOrder();
+            order.setPatient(patient);
+            order.setEncounter(encounter);
+            order.setDrug(drug);
+            order.setConcept(drug.getConcept());
+            order.setDose(line.getDose());
+            order.setDoseUnits(doseUnits);
+            order.setRoute(route);
+            order.setFrequency(frequency);
+            order.setNumRefills(0);
+            if (line.getDurationDays() != null) {
+                order.setAutoExpireDate(new Date(System.currentTimeMillis() + line.getDurationDays() * 24L * 60 * 60 * 1000));
+                if (frequency.getFrequencyPerDay() != null) {
+                    // Outpatient drug orders need a quantity to dispense
+                    order.setQuantity(line.getDose() * frequency.getFrequencyPerDay() * line.getDurationDays());
+                    order.setQuantityUnits(doseUnits);
+                }
+            }
+            order.setOrderReasonNonCoded("Prescribed in OPD");
+            orders.add(order);
+            accepted.add(result);
+        }
+
+        if (orders.isEmpty()) return results;
+
+        OrderContext orderContext = new OrderContext();
+        orderContext.setCareSetting(Context.getOrderService().getCareSettingByName("Outpatient"));
+        orderContext.setOrderType(Context.getOrderService().getOrderTypeByName("Drug Order"));
+        Provider orderer = getOrderer();
+        List<Order> activeOrders = Context.getOrderService().getActiveOrders(patient, orderContext.getOrderType(),
+                orderContext.getCareSetting(), null);
+        Date now = new Date();
+        for (int i = orders.size() - 1; i >= 0; i--) {
+            DrugOrder order = orders.get(i);
+            order.setOrderer(orderer);
+            order.setCareSetting(orderContext.getCareSetting());
+            order.setOrderType(orderContext.getOrderType());
+            order.setDateActivated(now);
+            String failure = checkOrder(order, activeOrders);
+            if (failure != null) {
+                accepted.remove(i).rejected(failure);
+                orders.remove(i);
+            }
+        }
+
+        if (orders.isEmpty()) return results;
+        if (allOrNothing && orders.size() < lines.size()) {
+            for (PrescriptionLineResult result : accepted) {
+                result.notSaved();
+            }
+            return results;
+        }
+
+        for (int i = 0; i < orders.size(); i++) {
+            DrugOrder order = orders.get(i);
+            try {
+                Context.getOrderService().saveOrder(order, orderContext);
+            } catch (APIException e) {
+                // Not caught by checkOrder; the core service has already marked the transaction
+                // rollback-only, so none of the set can be saved
+                TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+                for (PrescriptionLineResult result : accepted) {
+                    result.notSaved();
+                }
+                accepted.get(i).rejected(e.getMessage());
+                return results;
+            }
+            accepted.get(i).ordered(order.getUuid());
+        }
+        auditLog.recordAfterCommit(patientId, AuditEvent.PRESCRIPTION);
+        return results;
+    }
+
+    /**
+     * The checks the core OrderService makes before saving {@code order}, without going through
+     * it: the order validators, and no other active order for the same drug over the same time.
+     *
+     * @return why the order cannot be saved, or null if it can
+     */
+    private String checkOrder(DrugOrder order, List<Order> activeOrders) {
+        try {
+            ValidateUtil.validate(order);
+        } catch (ValidationException e) {
+            return e.getMessage();
+        }
+        for (Order active : activeOrders) {
+            if (order.hasSameOrderableAs(active) && OrderUtil.checkScheduleOverlap(order, active)) {
+                return "Patient already has an active order for " + order.getDrug().getName();
+            }
+        }
+        return null;
+    }
+
+    private String validate(PrescriptionLine line) {
+        if (line == null) return "Prescription line is required";
+        if (line.getDrugName() == null || line.getDrugName().trim().isEmpty()) return "drugName is required";
+        if (line.getDose() == null || line.getDose() <= 0) return "Valid dose is required";
+        if (line.getDoseUnit() == null || line.getDoseUnit().trim().isEmpty()) return "doseUnit is required";
+        if (line.getRoute() == null || line.getRoute().trim().isEmpty()) return "route is required";
+        if (line.getFrequency() == null || line.getFrequency().trim().isEmpty()) return "frequency is required";
+        return null;
+    }
+
+    private Provider getOrderer() {
+        Collection<Provider> providers = Context.getProviderService()
+                .getProvidersByPerson(Context.getAuthenticatedUser().getPerson());
+        if (providers.isEmpty()) {
+            throw new IllegalStateException("The current user is not a provider and cannot place orders");
+        }
+        return providers.iterator().next();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,27 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.order.model;
+
+/**
+ * One drug of an order set.
+ */
+public class PrescriptionLine {
+
+    private String drugName;
+    private Double dose;
+    private String doseUnit;     // e.g., "mg", "tablet(s)"
+    private String route;        // e.g., "Oral", "IV"
+    private String frequency;    // e.g., "Once daily", "Twice daily"
+    private Integer durationDays;
+
+    public String getDrugName() { return drugName; }
+    public void setDrugName(String drugName) { this.drugName = drugName; }
+    public Double getDose() { return dose; }
+    public void setDose(Double dose) { this.dose = dose; }
+    public String getDoseUnit() { return doseUnit; }
+    public void setDoseUnit(String doseUnit) { this.doseUnit = doseUnit; }
+    public String getRoute() { return route; }
+    public void setRoute(String route) { this.route = route; }
+    public String getFrequency() { return frequency; }
+    public void setFrequency(String frequency) { this.frequency = frequency; }
+    public Integer getDurationDays() { return durationDays; }
+    public void setDurationDays(Integer durationDays) { this.durationDays = durationDays; }
+}
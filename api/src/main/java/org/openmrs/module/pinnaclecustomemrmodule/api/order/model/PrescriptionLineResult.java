@@ -0,0 +1,56 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.order.model;
+
+import java.util.Set;
+
+/**
+ * Outcome of one {@link PrescriptionLine}, matched to the request by {@code index}.
+ */
+public class PrescriptionLineResult {
+
+    public enum Status {
+        ORDERED,
+        ALLERGY_CONFLICT,
+        REJECTED,
+        /** Valid, but not saved because another line of an all-or-nothing set failed. */
+        NOT_SAVED
+    }
+
+    private final int index;
+    private final String drugName;
+    private Status status;
+    private String orderUuid;
+    private String error;
+    private Set<String> allergens;
+
+    public PrescriptionLineResult(int index, String drugName) {
+        this.index = index;
+        this.drugName = drugName;
+    }
+
+    public void ordered(String orderUuid) {
+        this.status = Status.ORDERED;
+        this.orderUuid = orderUuid;
+    }
+
+    public void allergyConflict(Set<String> allergens) {
+        this.status = Status.ALLERGY_CONFLICT;
+        this.allergens = allergens;
+        this.error = "Patient has allergy to: " + drugName + " " + allergens;
+    }
+
+    public void rejected(String error) {
+        this.status = Status.REJECTED;
+        this.error = error;
+    }
+
+    public void notSaved() {
+        this.status = Status.NOT_SAVED;
+    }
+
+    public int getIndex() { return index; }
+    public String getDrugName() { return drugName; }
+    public Status getStatus() { return status; }
+    public String getOrderUuid() { return orderUuid; }
+    public String getError() { return error; }
+    public Set<String> getAllergens() { return allergens; }
+}
@@ -1,9 +1,19 @@
 package org.openmrs.module.pinnaclecustomemrmodule.api.order.service;
 
+import org.openmrs.DrugOrder;
+import org.openmrs.TestOrder;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.model.PrescriptionLine;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.model.PrescriptionLineResult;
+
+import java.util.List;
+
 public interface OrderService {
     DrugOrder prescribeMedication(Integer patientId, String drugName, Double dose, String doseUnit,
                                         String route, String frequency, Integer durationDays);
     
     TestOrder orderLabTest(Integer patientId, String testName);
+
+    List<PrescriptionLineResult> prescribeOrderSet(Integer patientId, Integer encounterId, List<PrescriptionLine> lines,
+                                                   boolean allOrNothing);
     
 }
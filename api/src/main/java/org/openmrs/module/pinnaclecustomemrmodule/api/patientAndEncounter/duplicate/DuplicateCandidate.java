@@ -0,0 +1,49 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate;
+
+import java.util.Date;
+
+/**
+ * A pair of patients in the duplicate review queue. {@code patientA} is always the lower id.
+ */
+public class DuplicateCandidate {
+
+    public enum Status {
+        PENDING, MERGED, REJECTED, OBSOLETE
+    }
+
+    private Integer id;
+    private int patientA;
+    private int patientB;
+    private double score;
+    private String details;
+    private Status status = Status.PENDING;
+    private Date dateCreated;
+    private Date dateReviewed;
+
+    public DuplicateCandidate() {
+    }
+
+    public DuplicateCandidate(int patient1, int patient2, double score, String details) {
+        this.patientA = Math.min(patient1, patient2);
+        this.patientB = Math.max(patient1, patient2);
+        this.score = score;
+        this.details = details;
+    }
+
+    public Integer getId() { return id; }
+    public void setId(Integer id) { this.id = id; }
+    public int getPatientA() { return patientA; }
+    public void setPatientA(int patientA) { this.patientA = patientA; }
+    public int getPatientB() { return patientB; }
+    public void setPatientB(int patientB) { this.patientB = patientB; }
+    public double getScore() { return score; }
+    public void setScore(double score) { this.score = score; }
+    public String getDetails() { return details; }
+    public void setDetails(String details) { this.details = details; }
+    public Status getStatus() { return status; }
+    public void setStatus(Status status) { this.status = status; }
+    public Date getDateCreated() { return dateCreated; }
+    public void setDateCreated(Date dateCreated) { this.dateCreated = dateCreated; }
+    public Date getDateReviewed() { return dateReviewed; }
+    public void setDateReviewed(Date dateReviewed) { this.dateReviewed = dateReviewed; }
+}
@@ -0,0 +1,414 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.PatientDuplicateDao;
+import org.openmrs.module.pinnaclecustomemrmodule.constants.PinnacleConstants;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds likely duplicate patients and puts them in the review queue.
+ * <p>
+ * Patients are never compared with every other patient. Each gets a few blocking keys (see
+ * {@link DuplicateMatcher#blockingKeys}) stored in {@code emr_patient_block_key}, and only patients
+ * sharing a key are scored. Blocks larger than the configured maximum are skipped as too
+ * unspecific. A full scan rebuilds the keys of all patients and then scores every block; both
+ * phases are split into pages handed to a worker pool with one thread per core. An incremental
+ * scan keys the patients created since the last scan and scores each against the members of its
+ * blocks only.
+ * <p>
+ * Patients created through the MPI are also checked right after their transaction commits (see
+ * {@link #checkAfterCommit}). Those checks are dropped when the queue is full; the next
+ * incremental scan covers them.
+ */
+@Component("pinnaclecustomemrmodule.DuplicateDetectionEngine")
+public class DuplicateDetectionEngine implements DisposableBean {
+
+    private static final Log log = LogFactory.getLog(DuplicateDetectionEngine.class);
+
+    private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+    private static final int PATIENTS_PER_TASK = 2000;
+    private static final int BLOCKS_PER_TASK = 200;
+    private static final int QUEUED_CHECKS = 10000;
+    private static final int DEFAULT_MAX_BLOCK_SIZE = 500;
+    private static final int KEYS_PER_QUERY = 1000;
+
+    @Autowired private PatientDuplicateDao duplicateDao;
+    @Autowired private PlatformTransactionManager transactionManager;
+
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(daemonThreads("pinnacle-duplicate-scan-"));
+
+    private final ThreadPoolExecutor workers = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(WORKERS * 4), daemonThreads("pinnacle-duplicate-worker-"),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    private final ThreadPoolExecutor checks = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUED_CHECKS), daemonThreads("pinnacle-duplicate-check-"),
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    private volatile DuplicateScan lastScan;
+
+    /**
+     * Matcher and block size limit read from the global properties when a scan starts.
+     */
+    private static final class Settings {
+
+        final DuplicateMatcher matcher;
+        final int maxBlockSize;
+
+        Settings(DuplicateMatcher matcher, int maxBlockSize) {
+            this.matcher = matcher;
+            this.maxBlockSize = maxBlockSize;
+        }
+    }
+
+    /**
+     * Starts a scan in the background, or returns the running one.
+     *
+     * @throws IllegalArgumentException if the configured match weights are invalid
+     */
+    public synchronized DuplicateScan startScan(DuplicateScan.Mode mode) {
+        DuplicateScan running = lastScan;
+        if (running != null && running.getStatus() == DuplicateScan.Status.RUNNING) return running;
+
+        Settings settings = readSettings();
+        UserContext userContext = Context.getUserContext();
+        DuplicateScan scan = new DuplicateScan(mode);
+        lastScan = scan;
+        coordinator.execute(() -> run(scan, settings, userContext));
+        return scan;
+    }
+
+    public DuplicateScan getLastScan() {
+        return lastScan;
+    }
+
+    /**
+     * The matcher configured by the global properties.
+     */
+    public DuplicateMatcher getMatcher() {
+        return readSettings().matcher;
+    }
+
+    /**
+     * Existing patients in each of {@code blockKeys}, skipping blocks over the configured size.
+     * Used to check records that are not stored yet against the registry.
+     */
+    public Map<String, List<MatchRecord>> getBlockMembers(Collection<String> blockKeys) {
+        int maxBlockSize = readSettings().maxBlockSize;
+        Map<String, List<Integer>> members = new HashMap<>();
+        List<String> keys = new ArrayList<>(blockKeys);
+        for (int from = 0; from < keys.size(); from += KEYS_PER_QUERY) {
+            members.putAll(duplicateDao.getBlockMembers(keys.subList(from, Math.min(from + KEYS_PER_QUERY, keys.size())),
+                    maxBlockSize));
+        }
+
+        Set<Integer> patientIds = new HashSet<>();
+        for (List<Integer> ids : members.values()) {
+            patientIds.addAll(ids);
+        }
+        Map<Integer, MatchRecord> records = new HashMap<>();
+        List<Integer> distinct = new ArrayList<>(patientIds);
+        for (int from = 0; from < distinct.size(); from += KEYS_PER_QUERY) {
+            records.putAll(byId(duplicateDao.getMatchRecords(distinct.subList(from, Math.min(from + KEYS_PER_QUERY, distinct.size())))));
+        }
+
+        Map<String, List<MatchRecord>> blocks = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> block : members.entrySet()) {
+            List<MatchRecord> list = new ArrayList<>(block.getValue().size());
+            for (Integer id : block.getValue()) {
+                MatchRecord record = records.get(id);
+                if (record != null) list.add(record);
+            }
+            blocks.put(block.getKey(), list);
+        }
+        return blocks;
+    }
+
+    /**
+     * Checks {@code patientId} against the patients it shares a block with once the current
+     * transaction commits.
+     */
+    public void checkAfterCommit(Integer patientId) {
+        if (patientId == null) return;
+        UserContext userContext = Context.getUserContext();
+        afterCommit(() -> checks.execute(() -> {
+            try {
+                inSession(userContext, () -> transactionally(() -> {
+                    List<MatchRecord> records = duplicateDao.getMatchRecords(Collections.singletonList(patientId));
+                    checkPatients(records, readSettings(), null);
+                    return null;
+                }));
+            } catch (Exception e) {
+                log.warn("Duplicate check of patient " + patientId + " failed: " + e.getMessage());
+            }
+        }));
+    }
+
+    @Override
+    public void destroy() {
+        coordinator.shutdownNow();
+        workers.shutdownNow();
+        checks.shutdownNow();
+    }
+
+    private void run(DuplicateScan scan, Settings settings, UserContext userContext) {
+        try {
+            Integer after = scan.getMode() == DuplicateScan.Mode.FULL ? 0
+                    : inSession(userContext, this::readWatermark);
+            if (scan.getMode() == DuplicateScan.Mode.FULL) {
+                inSession(userContext, () -> transactionally(() -> {
+                    duplicateDao.removeVoidedPatients();
+                    return null;
+                }));
+            }
+
+            // Phase 1: (re)compute blocking keys page by page. An incremental scan scores the new
+            // patients in the same task, a full scan scores whole blocks afterwards.
+            List<Future<?>> futures = new ArrayList<>();
+            Integer last = after;
+            while (true) {
+                Integer from = last;
+                List<MatchRecord> page = inSession(userContext,
+                        () -> transactionally(() -> duplicateDao.getMatchRecords(from, PATIENTS_PER_TASK)));
+                if (page.isEmpty()) break;
+                last = page.get(page.size() - 1).getPatientId();
+
+                if (scan.getMode() == DuplicateScan.Mode.FULL) {
+                    futures.add(workers.submit(() -> inSession(userContext, () -> transactionally(() -> {
+                        duplicateDao.replaceBlockKeys(blockingKeys(page));
+                        scan.recordKeyed(page.size());
+                        return null;
+                    }))));
+                } else {
+                    futures.add(workers.submit(() -> inSession(userContext, () -> transactionally(() -> {
+                        checkPatients(page, settings, scan);
+                        scan.recordKeyed(page.size());
+                        return null;
+                    }))));
+                }
+            }
+            awaitAll(futures);
+
+            // Phase 2 (full scan): score every block of a useful size
+            if (scan.getMode() == DuplicateScan.Mode.FULL) {
+                futures.clear();
+                String afterKey = null;
+                while (true) {
+                    String from = afterKey;
+                    List<String> blocks = inSession(userContext,
+                            () -> transactionally(() -> duplicateDao.getBlocks(from, settings.maxBlockSize, BLOCKS_PER_TASK)));
+                    if (blocks.isEmpty()) break;
+                    afterKey = blocks.get(blocks.size() - 1);
+
+                    futures.add(workers.submit(() -> inSession(userContext,
+                            () -> transactionally(() -> scoreBlocks(blocks, settings, scan)))));
+                }
+                awaitAll(futures);
+            }
+
+            Integer watermark = last;
+            inSession(userContext, () -> transactionally(() -> {
+                writeWatermark(watermark);
+                return null;
+            }));
+            scan.finished();
+            log.info("Duplicate scan " + scan.getScanId() + " (" + scan.getMode() + ") compared " + scan.getPairsCompared()
+                    + " pairs and found " + scan.getCandidatesFound() + " candidates");
+        } catch (Exception e) {
+            log.error("Duplicate scan " + scan.getScanId() + " failed", e);
+            scan.aborted(e.getMessage());
+        }
+    }
+
+    /**
+     * Scores every pair within {@code blockKeys}, each pair once.
+     */
+    private Void scoreBlocks(List<String> blockKeys, Settings settings, DuplicateScan scan) {
+        Map<String, List<Integer>> members = duplicateDao.getBlockMembers(blockKeys, settings.maxBlockSize);
+        Set<Integer> patientIds = new HashSet<>();
+        for (List<Integer> ids : members.values()) {
+            patientIds.addAll(ids);
+        }
+        Map<Integer, MatchRecord> records = byId(duplicateDao.getMatchRecords(patientIds));
+
+        Set<Long> compared = new HashSet<>();
+        List<DuplicateCandidate> candidates = new ArrayList<>();
+        for (List<Integer> block : members.values()) {
+            for (int i = 0; i < block.size(); i++) {
+                for (int j = i + 1; j < block.size(); j++) {
+                    score(records.get(block.get(i)), records.get(block.get(j)), settings.matcher, compared, candidates);
+                }
+            }
+        }
+        duplicateDao.upsertCandidates(candidates);
+        scan.recordScored(members.size(), compared.size(), candidates.size());
+        return null;
+    }
+
+    /**
+     * Stores the blocking keys of {@code records} and scores each of them against the other
+     * members of its blocks.
+     */
+    private void checkPatients(List<MatchRecord> records, Settings settings, DuplicateScan scan) {
+        if (records.isEmpty()) return;
+
+        Map<Integer, Set<String>> keys = blockingKeys(records);
+        duplicateDao.replaceBlockKeys(keys);
+
+        Set<String> allKeys = new HashSet<>();
+        for (Set<String> k : keys.values()) {
+            allKeys.addAll(k);
+        }
+        Map<String, List<Integer>> members = duplicateDao.getBlockMembers(allKeys, settings.maxBlockSize);
+        Set<Integer> patientIds = new HashSet<>();
+        for (List<Integer> ids : members.values()) {
+            patientIds.addAll(ids);
+        }
+        Map<Integer, MatchRecord> others = byId(duplicateDao.getMatchRecords(patientIds));
+
+        Set<Long> compared = new HashSet<>();
+        List<DuplicateCandidate> candidates = new ArrayList<>();
+        for (MatchRecord record : records) {
+            for (String key : keys.get(record.getPatientId())) {
+                for (Integer otherId : members.getOrDefault(key, Collections.emptyList())) {
+                    if (otherId != record.getPatientId()) {
+                        score(record, others.get(otherId), settings.matcher, compared, candidates);
+                    }
+                }
+            }
+        }
+        duplicateDao.upsertCandidates(candidates);
+        if (scan != null) scan.recordScored(0, compared.size(), candidates.size());
+    }
+
+    private static void score(MatchRecord a, MatchRecord b, DuplicateMatcher matcher, Set<Long> compared,
+                              List<DuplicateCandidate> candidates) {
+        if (a == null || b == null) return;
+        int low = Math.min(a.getPatientId(), b.getPatientId());
+        int high = Math.max(a.getPatientId(), b.getPatientId());
+        if (!compared.add(((long) low << 32) | high)) return;
+
+        StringBuilder details = new StringBuilder();
+        double score = matcher.score(a, b, details);
+        if (matcher.isMatch(score)) {
+            candidates.add(new DuplicateCandidate(low, high, score, details.toString()));
+        }
+    }
+
+    private static Map<Integer, Set<String>> blockingKeys(Collection<MatchRecord> records) {
+        Map<Integer, Set<String>> keys = new LinkedHashMap<>();
+        for (MatchRecord record : records) {
+            keys.put(record.getPatientId(), DuplicateMatcher.blockingKeys(record));
+        }
+        return keys;
+    }
+
+    private static Map<Integer, MatchRecord> byId(List<MatchRecord> records) {
+        Map<Integer, MatchRecord> map = new HashMap<>();
+        for (MatchRecord record : records) {
+            map.put(record.getPatientId(), record);
+        }
+        return map;
+    }
+
+    private Settings readSettings() {
+        AdministrationService as = Context.getAdministrationService();
+        String threshold = as.getGlobalProperty(PinnacleConstants.GP_DUPLICATE_THRESHOLD);
+        String maxBlockSize = as.getGlobalProperty(PinnacleConstants.GP_DUPLICATE_MAX_BLOCK_SIZE);
+        DuplicateMatcher matcher = DuplicateMatcher.parse(as.getGlobalProperty(PinnacleConstants.GP_DUPLICATE_MATCH_WEIGHTS),
+                NumberUtils.toDouble(threshold, DuplicateMatcher.DEFAULT_THRESHOLD));
+        return new Settings(matcher, Math.max(2, NumberUtils.toInt(maxBlockSize, DEFAULT_MAX_BLOCK_SIZE)));
+    }
+
+    private Integer readWatermark() {
+        String value = Context.getAdministrationService().getGlobalProperty(PinnacleConstants.GP_DUPLICATE_LAST_SCANNED_PATIENT);
+        return NumberUtils.toInt(value, 0);
+    }
+
+    private void writeWatermark(Integer patientId) {
+        Context.getAdministrationService().setGlobalProperty(PinnacleConstants.GP_DUPLICATE_LAST_SCANNED_PATIENT,
+                String.valueOf(patientId));
+    }
+
+    private <T> T transactionally(Callable<T> work) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            try {
+                return work.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static void awaitAll(List<Future<?>> futures) throws InterruptedException, ExecutionException {
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private static <T> T inSession(UserContext userContext, Callable<T> work) throws Exception {
+        Context.openSession();
+        try {
+            Context.setUserContext(userContext);
+            return work.call();
+        } finally {
+            Context.closeSession();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,18 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.service.MPIService;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+/**
+ * Scheduled duplicate scan. Incremental by default; the task property {@code mode=full} rescans
+ * every patient.
+ */
+public class DuplicateDetectionTask extends AbstractTask {
+
+    @Override
+    public void execute() {
+        String mode = getTaskDefinition() != null ? getTaskDefinition().getProperty("mode") : null;
+        Context.getService(MPIService.class).startDuplicateScan("full".equalsIgnoreCase(mode));
+    }
+}
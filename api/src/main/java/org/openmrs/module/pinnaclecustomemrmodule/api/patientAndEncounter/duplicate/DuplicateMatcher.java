@@ -0,0 +1,228 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search.PhoneticKey;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fellegi-Sunter record matcher. Each field has an m-probability (the chance it agrees on a true
+ * duplicate) and a u-probability (the chance it agrees on two different people). A field that
+ * agrees adds {@code log2(m/u)} to the score, one that disagrees adds {@code log2((1-m)/(1-u))},
+ * a partial agreement (names that sound alike or differ by a typo, birthdates with swapped day and
+ * month or an estimated year off by one) adds half the agreement weight, and a field missing on
+ * either side adds nothing. Pairs scoring at least the threshold are duplicate candidates.
+ * <p>
+ * Weights are configured as {@code field:m:u;field:m:u}, e.g. {@code familyName:0.9:0.005}.
+ * <p>
+ * {@link #blockingKeys} gives the keys used to find candidate pairs without comparing every
+ * patient with every other: two records are only scored if they share at least one key.
+ */
+public final class DuplicateMatcher {
+
+    public enum Field {
+        givenName, familyName, gender, birthdate, cityVillage
+    }
+
+    public static final String DEFAULT_WEIGHTS = "givenName:0.9:0.01;familyName:0.9:0.005;gender:0.98:0.5;"
+            + "birthdate:0.95:0.0003;cityVillage:0.8:0.05";
+    public static final double DEFAULT_THRESHOLD = 12.0;
+
+    private static final double SIMILAR_NAME = 0.9;
+
+    private final Map<Field, double[]> weights = new EnumMap<>(Field.class);
+    private final double threshold;
+
+    private DuplicateMatcher(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Parses {@code field:m:u;...}; fields not listed take their default weights.
+     *
+     * @throws IllegalArgumentException for an unknown field or a probability outside (0, 1)
+     */
+    public static DuplicateMatcher parse(String weights, double threshold) {
+        DuplicateMatcher matcher = new DuplicateMatcher(threshold);
+        matcher.apply(DEFAULT_WEIGHTS);
+        if (StringUtils.isNotBlank(weights)) matcher.apply(weights);
+        return matcher;
+    }
+
+    public static DuplicateMatcher defaults() {
+        return parse(null, DEFAULT_THRESHOLD);
+    }
+
+    private void apply(String spec) {
+        for (String entry : spec.split(";")) {
+            if (StringUtils.isBlank(entry)) continue;
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 3) throw new IllegalArgumentException("Expected field:m:u but got '" + entry + "'");
+
+            Field field;
+            try {
+                field = Field.valueOf(parts[0].trim());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown match field '" + parts[0].trim() + "'");
+            }
+            double m = Double.parseDouble(parts[1].trim());
+            double u = Double.parseDouble(parts[2].trim());
+            if (m <= 0 || m >= 1 || u <= 0 || u >= 1) {
+                throw new IllegalArgumentException("Probabilities for " + field + " must be between 0 and 1");
+            }
+            weights.put(field, new double[] { log2(m / u), log2((1 - m) / (1 - u)) });
+        }
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public boolean isMatch(double score) {
+        return score >= threshold;
+    }
+
+    /**
+     * Scores {@code a} against {@code b}. When {@code details} is given, the weight each field
+     * contributed is appended as {@code field=weight} pairs.
+     */
+    public double score(MatchRecord a, MatchRecord b, StringBuilder details) {
+        double total = 0;
+        total += contribute(Field.givenName, compareNames(a.getGivenName(), b.getGivenName()), details);
+        total += contribute(Field.familyName, compareNames(a.getFamilyName(), b.getFamilyName()), details);
+        total += contribute(Field.gender, compareExact(a.getGender(), b.getGender()), details);
+        total += contribute(Field.birthdate, compareBirthdates(a, b), details);
+        total += contribute(Field.cityVillage, compareExact(normalize(a.getCityVillage()), normalize(b.getCityVillage())), details);
+        return total;
+    }
+
+    /**
+     * Keys that place a record into the blocks it is compared within: family name sound and birth
+     * year; given and family name sound and gender; exact birthdate and gender (catches reordered
+     * or misspelt names). Estimated birthdates do not produce the exact-birthdate key.
+     */
+    public static Set<String> blockingKeys(MatchRecord record) {
+        Set<String> keys = new LinkedHashSet<>(4);
+        String given = PhoneticKey.soundex(record.getGivenName());
+        String family = PhoneticKey.soundex(record.getFamilyName());
+        String gender = StringUtils.defaultIfBlank(record.getGender(), "U").toUpperCase(Locale.ROOT);
+        LocalDate birthdate = record.getBirthdate();
+
+        if (family != null && birthdate != null) keys.add("F:" + family + ":" + birthdate.getYear());
+        if (given != null && family != null) keys.add("N:" + given + family + ":" + gender);
+        if (birthdate != null && !record.isBirthdateEstimated()) keys.add("D:" + birthdate + ":" + gender);
+        return keys;
+    }
+
+    private enum Agreement {
+        AGREE, PARTIAL, DISAGREE, MISSING
+    }
+
+    private double contribute(Field field, Agreement agreement, StringBuilder details) {
+        double[] w = weights.get(field);
+        double weight;
+        switch (agreement) {
+            case AGREE: weight = w[0]; break;
+            case PARTIAL: weight = w[0] / 2; break;
+            case DISAGREE: weight = w[1]; break;
+            default: weight = 0;
+        }
+        if (details != null && agreement != Agreement.MISSING) {
+            if (details.length() > 0) details.append(' ');
+            details.append(field).append('=').append(Math.round(weight * 10) / 10.0);
+        }
+        return weight;
+    }
+
+    private static Agreement compareNames(String a, String b) {
+        String x = normalize(a);
+        String y = normalize(b);
+        if (x == null || y == null) return Agreement.MISSING;
+        if (x.equals(y)) return Agreement.AGREE;
+
+        String sx = PhoneticKey.soundex(x);
+        if (sx != null && sx.equals(PhoneticKey.soundex(y))) return Agreement.PARTIAL;
+        return jaroWinkler(x, y) >= SIMILAR_NAME ? Agreement.PARTIAL : Agreement.DISAGREE;
+    }
+
+    private static Agreement compareExact(String a, String b) {
+        if (StringUtils.isBlank(a) || StringUtils.isBlank(b)) return Agreement.MISSING;
+        return a.equalsIgnoreCase(b) ? Agreement.AGREE : Agreement.DISAGREE;
+    }
+
+    private static Agreement compareBirthdates(MatchRecord a, MatchRecord b) {
+        LocalDate x = a.getBirthdate();
+        LocalDate y = b.getBirthdate();
+        if (x == null || y == null) return Agreement.MISSING;
+        if (x.equals(y)) return Agreement.AGREE;
+
+        if (a.isBirthdateEstimated() || b.isBirthdateEstimated()) {
+            return Math.abs(ChronoUnit.YEARS.between(x, y)) <= 1 ? Agreement.PARTIAL : Agreement.DISAGREE;
+        }
+        if (x.getYear() == y.getYear()
+                && (x.getMonthValue() == y.getMonthValue()
+                        || (x.getMonthValue() == y.getDayOfMonth() && x.getDayOfMonth() == y.getMonthValue()))) {
+            return Agreement.PARTIAL;
+        }
+        return Agreement.DISAGREE;
+    }
+
+    static String normalize(String value) {
+        if (value == null) return null;
+        String n = value.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}]+", "");
+        return n.isEmpty() ? null : n;
+    }
+
+    /**
+     * Jaro-Winkler similarity in [0, 1], with the usual prefix scale of 0.1 over at most four
+     * characters.
+     */
+    static double jaroWinkler(String a, String b) {
+        if (a.equals(b)) return 1;
+        int window = Math.max(0, Math.max(a.length(), b.length()) / 2 - 1);
+        boolean[] matchedA = new boolean[a.length()];
+        boolean[] matchedB = new boolean[b.length()];
+
+        int matches = 0;
+        for (int i = 0; i < a.length(); i++) {
+            int from = Math.max(0, i - window);
+            int to = Math.min(b.length() - 1, i + window);
+            for (int j = from; j <= to; j++) {
+                if (!matchedB[j] && a.charAt(i) == b.charAt(j)) {
+                    matchedA[i] = true;
+                    matchedB[j] = true;
+                    matches++;
+                    break;
+                }
+            }
+        }
+        if (matches == 0) return 0;
+
+        int transpositions = 0;
+        for (int i = 0, j = 0; i < a.length(); i++) {
+            if (!matchedA[i]) continue;
+            while (!matchedB[j]) j++;
+            if (a.charAt(i) != b.charAt(j)) transpositions++;
+            j++;
+        }
+
+        double m = matches;
+        double jaro = (m / a.length() + m / b.length() + (m - transpositions / 2.0) / m) / 3;
+
+        int prefix = 0;
+        while (prefix < Math.min(4, Math.min(a.length(), b.length())) && a.charAt(prefix) == b.charAt(prefix)) {
+            prefix++;
+        }
+        return jaro + prefix * 0.1 * (1 - jaro);
+    }
+
+    private static double log2(double value) {
+        return Math.log(value) / Math.log(2);
+    }
+}
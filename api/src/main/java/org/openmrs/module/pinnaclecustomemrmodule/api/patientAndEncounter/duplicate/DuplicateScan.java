@@ -0,0 +1,78 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate;
+
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of one duplicate detection run. Counters are updated by the scoring workers and can be
+ * polled at any time.
+ */
+public class DuplicateScan {
+
+    public enum Mode {
+        FULL, INCREMENTAL
+    }
+
+    public enum Status {
+        RUNNING, COMPLETED, FAILED
+    }
+
+    private final String scanId = UUID.randomUUID().toString();
+    private final Mode mode;
+    private final Date startedOn = new Date();
+    private final AtomicInteger patientsKeyed = new AtomicInteger();
+    private final AtomicInteger blocksScored = new AtomicInteger();
+    private final AtomicLong pairsCompared = new AtomicLong();
+    private final AtomicInteger candidatesFound = new AtomicInteger();
+
+    private volatile Status status = Status.RUNNING;
+    private volatile Date finishedOn;
+    private volatile String message;
+
+    public DuplicateScan(Mode mode) {
+        this.mode = mode;
+    }
+
+    public String getScanId() { return scanId; }
+
+    public Mode getMode() { return mode; }
+
+    public Status getStatus() { return status; }
+
+    public Date getStartedOn() { return startedOn; }
+
+    public Date getFinishedOn() { return finishedOn; }
+
+    public String getMessage() { return message; }
+
+    public int getPatientsKeyed() { return patientsKeyed.get(); }
+
+    public int getBlocksScored() { return blocksScored.get(); }
+
+    public long getPairsCompared() { return pairsCompared.get(); }
+
+    public int getCandidatesFound() { return candidatesFound.get(); }
+
+    void recordKeyed(int count) {
+        patientsKeyed.addAndGet(count);
+    }
+
+    void recordScored(int blocks, long pairs, int candidates) {
+        blocksScored.addAndGet(blocks);
+        pairsCompared.addAndGet(pairs);
+        candidatesFound.addAndGet(candidates);
+    }
+
+    void finished() {
+        finishedOn = new Date();
+        status = Status.COMPLETED;
+    }
+
+    void aborted(String reason) {
+        message = reason;
+        finishedOn = new Date();
+        status = Status.FAILED;
+    }
+}
@@ -0,0 +1,43 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate;
+
+import java.time.LocalDate;
+
+/**
+ * The demographics duplicate detection compares: preferred name, gender, birthdate and the city or
+ * village of the preferred address. Read with plain SQL, never as a Patient.
+ */
+public class MatchRecord {
+
+    private final int patientId;
+    private final String givenName;
+    private final String familyName;
+    private final String gender;
+    private final LocalDate birthdate;
+    private final boolean birthdateEstimated;
+    private final String cityVillage;
+
+    public MatchRecord(int patientId, String givenName, String familyName, String gender, LocalDate birthdate,
+                       boolean birthdateEstimated, String cityVillage) {
+        this.patientId = patientId;
+        this.givenName = givenName;
+        this.familyName = familyName;
+        this.gender = gender;
+        this.birthdate = birthdate;
+        this.birthdateEstimated = birthdateEstimated;
+        this.cityVillage = cityVillage;
+    }
+
+    public int getPatientId() { return patientId; }
+
+    public String getGivenName() { return givenName; }
+
+    public String getFamilyName() { return familyName; }
+
+    public String getGender() { return gender; }
+
+    public LocalDate getBirthdate() { return birthdate; }
+
+    public boolean isBirthdateEstimated() { return birthdateEstimated; }
+
+    public String getCityVillage() { return cityVillage; }
+}
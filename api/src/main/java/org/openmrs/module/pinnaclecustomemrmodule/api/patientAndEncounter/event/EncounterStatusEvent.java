@@ -0,0 +1,41 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.event;
+
+import java.util.Date;
+
+/**
+ * A committed encounter status transition. {@code sequence} is assigned by
+ * {@link EncounterStatusEventBus} when the event is published and increases by one per event.
+ */
+public class EncounterStatusEvent {
+
+    private long sequence;
+    private final Integer encounterId;
+    private final Integer patientId;
+    private final Integer locationId;
+    private final String fromStatus;
+    private final String toStatus;
+    private final Integer changedBy;
+    private final Date changedOn;
+
+    public EncounterStatusEvent(Integer encounterId, Integer patientId, Integer locationId, String fromStatus,
+                                String toStatus, Integer changedBy, Date changedOn) {
+        this.encounterId = encounterId;
+        this.patientId = patientId;
+        this.locationId = locationId;
+        this.fromStatus = fromStatus;
+        this.toStatus = toStatus;
+        this.changedBy = changedBy;
+        this.changedOn = changedOn;
+    }
+
+    void setSequence(long sequence) { this.sequence = sequence; }
+
+    public long getSequence() { return sequence; }
+    public Integer getEncounterId() { return encounterId; }
+    public Integer getPatientId() { return patientId; }
+    public Integer getLocationId() { return locationId; }
+    public String getFromStatus() { return fromStatus; }
+    public String getToStatus() { return toStatus; }
+    public Integer getChangedBy() { return changedBy; }
+    public Date getChangedOn() { return changedOn; }
+}
@@ -0,0 +1,238 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.event;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process feed of encounter status transitions for dashboards.
+ * <p>
+ * Events are published once the transaction that changed the status commits and are kept in a
+ * fixed-size ring buffer, so a client that reconnects can replay everything after the last
+ * sequence it saw. Listeners are never called on the thread that committed the change: each
+ * subscription has a bounded queue drained by a dispatcher thread of its own, in sequence order,
+ * so a slow client only delays itself. A subscription that falls {@value #SUBSCRIBER_QUEUE_CAPACITY}
+ * events behind is dropped; its listener is told, so its client can reconnect and replay from the
+ * buffer.
+ * <p>
+ * Sequences start from the boot time in milliseconds times {@value #SEQUENCES_PER_MILLI}, so the
+ * sequences of each run are above those of every run before it. A sequence a client kept from an
+ * earlier run is therefore below {@link #getFirstSequence()} and reported as not replayable
+ * instead of silently skipping the events of this run up to the same number.
+ */
+@Component("pinnaclecustomemrmodule.EncounterStatusEventBus")
+public class EncounterStatusEventBus implements DisposableBean {
+
+    private static final Log log = LogFactory.getLog(EncounterStatusEventBus.class);
+
+    private static final int CAPACITY = 4096;
+
+    static final int SUBSCRIBER_QUEUE_CAPACITY = 256;
+
+    /** Well above any sustained event rate, and the epoch times it stays a safe JSON integer. */
+    private static final long SEQUENCES_PER_MILLI = 1000;
+
+    public interface Listener {
+
+        void onEvent(EncounterStatusEvent event);
+
+        /**
+         * Called on a dispatcher thread once the listener has fallen too far behind and been
+         * unsubscribed; no further events follow.
+         */
+        default void onDropped() {
+        }
+    }
+
+    /**
+     * A registered listener together with the retained events it missed, and the live events not
+     * yet delivered to it.
+     */
+    public class Subscription {
+
+        private final Listener listener;
+        private final List<EncounterStatusEvent> backlog;
+        private final boolean complete;
+
+        // Guarded by this
+        private final ArrayDeque<EncounterStatusEvent> pending = new ArrayDeque<>();
+        private boolean draining;
+        private boolean cancelled;
+
+        Subscription(Listener listener, List<EncounterStatusEvent> backlog, boolean complete) {
+            this.listener = listener;
+            this.backlog = backlog;
+            this.complete = complete;
+        }
+
+        /** Events after the requested sequence that were published before subscribing. */
+        public List<EncounterStatusEvent> getBacklog() { return backlog; }
+
+        /** False if some requested events have already left the buffer; the client must reload. */
+        public boolean isComplete() { return complete; }
+
+        public void cancel() {
+            subscriptions.remove(this);
+            synchronized (this) {
+                cancelled = true;
+                pending.clear();
+            }
+        }
+
+        /**
+         * Queues {@code event} and starts draining if no dispatcher thread is; returns false if the
+         * queue is full.
+         */
+        boolean offer(EncounterStatusEvent event) {
+            synchronized (this) {
+                if (cancelled) return true;
+                if (pending.size() == SUBSCRIBER_QUEUE_CAPACITY) return false;
+                pending.add(event);
+                if (draining) return true;
+                draining = true;
+            }
+            dispatch(this::drain);
+            return true;
+        }
+
+        private void drain() {
+            while (true) {
+                EncounterStatusEvent event;
+                synchronized (this) {
+                    event = cancelled ? null : pending.poll();
+                    if (event == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    listener.onEvent(event);
+                } catch (RuntimeException e) {
+                    log.debug("Dropping encounter status listener after delivery failure", e);
+                    cancel();
+                }
+            }
+        }
+
+        private void drop() {
+            cancel();
+            log.debug("Dropping encounter status listener " + SUBSCRIBER_QUEUE_CAPACITY + " events behind");
+            dispatch(listener::onDropped);
+        }
+    }
+
+    private final EncounterStatusEvent[] buffer = new EncounterStatusEvent[CAPACITY];
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicInteger dispatcherThreads = new AtomicInteger();
+    private final ExecutorService dispatcher = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "pinnacle-encounter-status-events-" + dispatcherThreads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long epoch = System.currentTimeMillis() * SEQUENCES_PER_MILLI;
+    private long lastSequence = epoch;
+
+    /**
+     * Publishes {@code event} when the current transaction commits, or immediately if there is
+     * none. Nothing is published for a rolled back transaction.
+     */
+    public void publishAfterCommit(EncounterStatusEvent event) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish(event);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+
+            @Override
+            public void afterCommit() {
+                publish(event);
+            }
+        });
+    }
+
+    public void publish(EncounterStatusEvent event) {
+        // Queued under the buffer lock so every subscription sees events in sequence order
+        synchronized (buffer) {
+            event.setSequence(++lastSequence);
+            buffer[(int) (lastSequence % CAPACITY)] = event;
+            for (Subscription subscription : subscriptions) {
+                if (!subscription.offer(event)) subscription.drop();
+            }
+        }
+    }
+
+    /**
+     * Registers {@code listener} and returns the retained events after {@code afterSequence}; a
+     * negative {@code afterSequence} subscribes from now on. Every later event is delivered to the
+     * listener, none twice and none missing.
+     */
+    public Subscription subscribe(long afterSequence, Listener listener) {
+        synchronized (buffer) {
+            List<EncounterStatusEvent> backlog = new ArrayList<>();
+            boolean complete = collectSince(afterSequence < 0 ? lastSequence : afterSequence, Integer.MAX_VALUE, backlog);
+            Subscription subscription = new Subscription(listener, backlog, complete);
+            subscriptions.add(subscription);
+            return subscription;
+        }
+    }
+
+    /**
+     * Adds up to {@code max} retained events after {@code afterSequence} to {@code into}, oldest
+     * first. Returns false if events after {@code afterSequence} were already overwritten.
+     */
+    public boolean getEventsSince(long afterSequence, int max, List<EncounterStatusEvent> into) {
+        synchronized (buffer) {
+            return collectSince(afterSequence, max, into);
+        }
+    }
+
+    public long getLastSequence() {
+        synchronized (buffer) {
+            return lastSequence;
+        }
+    }
+
+    /**
+     * The sequence of the first event published since the module started.
+     */
+    public long getFirstSequence() {
+        return epoch + 1;
+    }
+
+    @Override
+    public void destroy() {
+        dispatcher.shutdownNow();
+        subscriptions.clear();
+    }
+
+    private void dispatch(Runnable task) {
+        try {
+            dispatcher.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+
+    private boolean collectSince(long afterSequence, int max, List<EncounterStatusEvent> into) {
+        long oldest = Math.max(epoch + 1, lastSequence - CAPACITY + 1);
+        long from = Math.max(afterSequence + 1, oldest);
+        for (long seq = from; seq <= lastSequence && into.size() < max; seq++) {
+            into.add(buffer[(int) (seq % CAPACITY)]);
+        }
+        // A sequence from before a restart is below this run's epoch; one ahead of us is not ours
+        return afterSequence <= lastSequence && afterSequence + 1 >= oldest;
+    }
+}
@@ -0,0 +1,231 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.identifier;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.idgen.AutoGenerationOption;
+import org.openmrs.module.idgen.IdentifierSource;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.pinnaclecustomemrmodule.constants.PinnacleConstants;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands out patient identifiers from blocks reserved ahead of time from the idgen source of each
+ * identifier type, so registering a patient does not wait for idgen.
+ * <p>
+ * Taking an identifier is a poll on a concurrent queue. When a pool drops below its low watermark
+ * a background thread reserves the next block; only a caller that finds the pool empty reserves a
+ * block itself. Blocks are always reserved in their own transaction, so a rolled back
+ * registration cannot roll the idgen sequence back under identifiers already handed out. There is
+ * no fallback: if idgen cannot supply identifiers, {@link #take} fails.
+ * <p>
+ * Identifiers still pooled when the server stops are never issued; idgen has already logged them
+ * as generated, so they leave gaps but are never reissued.
+ */
+@Component("pinnaclecustomemrmodule.IdentifierPool")
+public class IdentifierPool implements DisposableBean {
+
+    private static final Log log = LogFactory.getLog(IdentifierPool.class);
+
+    private static final int DEFAULT_BLOCK_SIZE = 200;
+    private static final int DEFAULT_LOW_WATERMARK = 50;
+    private static final long SETTINGS_REFRESH_MILLIS = 60_000;
+    private static final String COMMENT = "Pinnacle Registration";
+
+    @Autowired private PatientService patientService;
+    @Autowired private IdentifierSourceService identifierSourceService;
+    @Autowired private PlatformTransactionManager transactionManager;
+
+    private final Map<Integer, Pool> pools = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor refiller = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(64), runnable -> {
+                Thread thread = new Thread(runnable, "pinnacle-identifier-pool");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    private volatile int blockSize = DEFAULT_BLOCK_SIZE;
+    private volatile int lowWatermark = DEFAULT_LOW_WATERMARK;
+    private volatile long settingsReadAt;
+
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder reserved = new LongAdder();
+    private final LongAdder backgroundRefills = new LongAdder();
+    private final LongAdder emptyPoolReservations = new LongAdder();
+    private final LongAdder failedReservations = new LongAdder();
+
+    private static final class Pool {
+
+        final String typeName;
+        final Queue<String> identifiers = new ConcurrentLinkedQueue<>();
+        final AtomicInteger depth = new AtomicInteger();
+        final AtomicBoolean refilling = new AtomicBoolean();
+
+        Pool(String typeName) {
+            this.typeName = typeName;
+        }
+
+        String poll() {
+            String identifier = identifiers.poll();
+            if (identifier != null) depth.decrementAndGet();
+            return identifier;
+        }
+
+        void addAll(List<String> block) {
+            identifiers.addAll(block);
+            depth.addAndGet(block.size());
+        }
+    }
+
+    /**
+     * Returns an unused identifier of {@code type}.
+     *
+     * @throws IllegalStateException if the type has no idgen source or the source fails
+     */
+    public String take(PatientIdentifierType type) {
+        return take(type, 1).get(0);
+    }
+
+    /**
+     * Returns {@code count} unused identifiers of {@code type}. A shortfall larger than a block is
+     * reserved in one call to idgen.
+     *
+     * @throws IllegalStateException if the type has no idgen source or the source fails
+     */
+    public List<String> take(PatientIdentifierType type, int count) {
+        refreshSettings();
+        Integer typeId = type.getPatientIdentifierTypeId();
+        Pool pool = pools.computeIfAbsent(typeId, id -> new Pool(type.getName()));
+
+        List<String> taken = new ArrayList<>(count);
+        while (taken.size() < count) {
+            String identifier = pool.poll();
+            if (identifier == null) {
+                // Pool exhausted: reserve on this thread; other callers may take from it too
+                emptyPoolReservations.increment();
+                pool.addAll(reserve(typeId, Math.max(blockSize, count - taken.size())));
+                continue;
+            }
+            taken.add(identifier);
+        }
+        issued.add(count);
+
+        if (pool.depth.get() < lowWatermark) {
+            refillInBackground(typeId, pool);
+        }
+        return taken;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        for (Pool pool : pools.values()) {
+            depths.put(pool.typeName, pool.depth.get());
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("depth", depths);
+        stats.put("issued", issued.sum());
+        stats.put("reserved", reserved.sum());
+        stats.put("backgroundRefills", backgroundRefills.sum());
+        stats.put("emptyPoolReservations", emptyPoolReservations.sum());
+        stats.put("failedReservations", failedReservations.sum());
+        return stats;
+    }
+
+    @Override
+    public void destroy() {
+        refiller.shutdownNow();
+    }
+
+    private void refillInBackground(Integer typeId, Pool pool) {
+        if (!pool.refilling.compareAndSet(false, true)) return;
+
+        UserContext userContext = Context.getUserContext();
+        try {
+            refiller.execute(() -> {
+                Context.openSession();
+                try {
+                    Context.setUserContext(userContext);
+                    pool.addAll(reserve(typeId, blockSize));
+                    backgroundRefills.increment();
+                } catch (RuntimeException e) {
+                    log.warn("Could not refill identifier pool for " + pool.typeName + ": " + e.getMessage());
+                } finally {
+                    pool.refilling.set(false);
+                    Context.closeSession();
+                }
+            });
+        } catch (RuntimeException e) {
+            pool.refilling.set(false);
+            throw e;
+        }
+    }
+
+    private List<String> reserve(Integer typeId, int size) {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        try {
+            List<String> block = tx.execute(status -> {
+                PatientIdentifierType type = patientService.getPatientIdentifierType(typeId);
+                IdentifierSource source = findSource(type);
+                if (source == null) {
+                    throw new IllegalStateException("No identifier source configured for " + type.getName());
+                }
+                return identifierSourceService.generateIdentifiers(source, size, COMMENT);
+            });
+            if (block == null || block.isEmpty()) {
+                throw new IllegalStateException("Identifier source returned no identifiers");
+            }
+            reserved.add(block.size());
+            return block;
+        } catch (RuntimeException e) {
+            failedReservations.increment();
+            throw e;
+        }
+    }
+
+    private IdentifierSource findSource(PatientIdentifierType type) {
+        AutoGenerationOption option = identifierSourceService.getAutoGenerationOption(type);
+        if (option != null && option.getSource() != null && !option.getSource().isRetired()) {
+            return option.getSource();
+        }
+        for (IdentifierSource source : identifierSourceService.getIdentifierSourcesByType(type)) {
+            if (!source.isRetired()) return source;
+        }
+        return null;
+    }
+
+    private void refreshSettings() {
+        long now = System.currentTimeMillis();
+        if (now - settingsReadAt < SETTINGS_REFRESH_MILLIS) return;
+        settingsReadAt = now;
+
+        String size = Context.getAdministrationService().getGlobalProperty(PinnacleConstants.GP_IDENTIFIER_POOL_BLOCK_SIZE);
+        String watermark = Context.getAdministrationService().getGlobalProperty(PinnacleConstants.GP_IDENTIFIER_POOL_LOW_WATERMARK);
+        blockSize = Math.max(1, NumberUtils.toInt(size, DEFAULT_BLOCK_SIZE));
+        lowWatermark = Math.max(0, NumberUtils.toInt(watermark, DEFAULT_LOW_WATERMARK));
+    }
+}
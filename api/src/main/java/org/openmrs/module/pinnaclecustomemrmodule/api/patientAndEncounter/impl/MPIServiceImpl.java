@@ -5,15 +5,28 @@ import org.openmrs.Encounter;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifier;
 import org.openmrs.PatientIdentifierType;
-import org.openmrs.PersonName;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.EncounterService;
 import org.openmrs.api.LocationService;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
-import org.openmrs.module.idgen.service.IdentifierSourceService;
-import org.openmrs.module.idgen.AutoGenerationOption;
+import org.openmrs.module.pinnaclecustomemrmodule.api.audit.AuditEvent;
+import org.openmrs.module.pinnaclecustomemrmodule.api.audit.AuditLog;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.PatientDuplicateDao;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.PatientProjectionDao;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate.DuplicateCandidate;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate.DuplicateDetectionEngine;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate.DuplicateScan;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.identifier.IdentifierPool;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.merge.PatientMergeEngine;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.merge.PatientMergeResult;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.projection.PatientSummary;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.registration.BulkPatientRegistrar;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.registration.BulkRegistrationReport;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.registration.PatientRegistration;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search.PatientSearchIndex;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search.PatientSearchPage;
 import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.service.MPIService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -22,7 +35,7 @@ import org.springframework.transaction.annotation.Transactional;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service("pinnaclecustomemrmodule.MPIService")
@@ -38,9 +51,27 @@ public class MPIServiceImpl extends BaseOpenmrsService implements MPIService {
    @Autowired
    private AdministrationService administrationService;
    @Autowired
-   private IdentifierSourceService identifierSourceService;
+   private IdentifierPool identifierPool;
+   @Autowired
+   private PatientSearchIndex searchIndex;
+   @Autowired
+   private AuditLog auditLog;
+   @Autowired
+   private PatientMergeEngine mergeEngine;
+   @Autowired
+   private DuplicateDetectionEngine duplicateEngine;
+   @Autowired
+   private PatientDuplicateDao duplicateDao;
+   @Autowired
+   private PatientProjectionDao projectionDao;
+   @Autowired
+   private BulkPatientRegistrar bulkRegistrar;
 
    private static final String ID_TYPE_NAME = "OpenMRS ID"; // Change if your site uses different name
+   private static final int DEFAULT_SEARCH_LIMIT = 100;
+   private static final int MAX_SEARCH_LIMIT = 500;
+
+   private volatile Integer identifierTypeId;
 
    @Override
    public Patient createPatient(Patient patient) {
@@ -48,13 +79,10 @@ public class MPIServiceImpl extends BaseOpenmrsService implements MPIService {
          throw new IllegalArgumentException("Patient cannot be null");
 
       if (patient.getIdentifiers().isEmpty()) {
-         PatientIdentifierType type = patientService.getPatientIdentifierTypeByName(ID_TYPE_NAME);
-         if (type == null) {
-            type = patientService.getAllPatientIdentifierTypes(false).get(0);
-         }
+         PatientIdentifierType type = getIdentifierType();
 
          PatientIdentifier id = new PatientIdentifier();
-         id.setIdentifier(generateUniqueId());
+         id.setIdentifier(identifierPool.take(type));
          id.setIdentifierType(type);
          id.setLocation(locationService.getDefaultLocation());
          id.setPreferred(true);
@@ -62,7 +90,19 @@ public class MPIServiceImpl extends BaseOpenmrsService implements MPIService {
          patient.addIdentifier(id);
       }
 
-      return patientService.savePatient(patient);
+      Patient saved = patientService.savePatient(patient);
+      duplicateEngine.checkAfterCommit(saved.getPatientId());
+      return saved;
+   }
+
+   /**
+    * Each chunk of the batch commits in its own transaction, so this method's transaction only
+    * covers the duplicate lookups.
+    */
+   @Override
+   public BulkRegistrationReport registerPatients(List<PatientRegistration> registrations, boolean allowDuplicates) {
+      return bulkRegistrar.register(registrations, allowDuplicates, getIdentifierType(),
+            locationService.getDefaultLocation());
    }
 
    @Override
@@ -72,54 +112,125 @@ public class MPIServiceImpl extends BaseOpenmrsService implements MPIService {
 
    @Override
    public List<Patient> searchPatients(String query) {
-      if (StringUtils.isBlank(query))
-         return Collections.emptyList();
-
-      String q = query.toLowerCase().trim();
-      return patientService.getAllPatients(true).stream()
-            .filter(p -> {
-               PersonName n = p.getPersonName();
-               boolean nameMatch = n != null && (StringUtils.containsIgnoreCase(n.getGivenName(), q) ||
-                     StringUtils.containsIgnoreCase(n.getFamilyName(), q) ||
-                     StringUtils.containsIgnoreCase(n.getFullName(), q));
-               boolean idMatch = p.getIdentifiers().stream()
-                     .anyMatch(i -> StringUtils.containsIgnoreCase(i.getIdentifier(), q));
-               return nameMatch || idMatch;
-            })
-            .limit(100)
+      return searchPatients(query, null, DEFAULT_SEARCH_LIMIT).getResults();
+   }
+
+   @Override
+   public PatientSearchPage<Patient> searchPatients(String query, Integer cursor, Integer limit) {
+      PatientSearchPage<Integer> ids = searchPatientIds(query, cursor, limit);
+
+      List<Patient> patients = new ArrayList<>(ids.getResults().size());
+      for (Integer id : ids.getResults()) {
+         Patient p = patientService.getPatient(id);
+         if (p != null && !p.getVoided())
+            patients.add(p);
+      }
+      return new PatientSearchPage<>(patients, ids.getNextCursor());
+   }
+
+   @Override
+   public PatientSearchPage<PatientSummary> searchPatientSummaries(String query, Integer cursor, Integer limit,
+                                                                   Set<PatientSummary.Field> fields) {
+      PatientSearchPage<Integer> ids = searchPatientIds(query, cursor, limit);
+      List<PatientSummary> summaries = projectionDao.getSummaries(ids.getResults(), fields).stream()
+            .filter(s -> !s.getVoided())
             .collect(Collectors.toList());
+      return new PatientSearchPage<>(summaries, ids.getNextCursor());
+   }
+
+   @Override
+   public PatientSummary getPatientSummary(String uuid, Set<PatientSummary.Field> fields) {
+      Integer patientId = StringUtils.isNotBlank(uuid) ? projectionDao.getPatientId(uuid) : null;
+      return patientId != null ? getPatientSummary(patientId, fields) : null;
+   }
+
+   @Override
+   public PatientSummary getPatientSummary(Integer patientId, Set<PatientSummary.Field> fields) {
+      if (patientId == null)
+         return null;
+      List<PatientSummary> summaries = projectionDao.getSummaries(Collections.singletonList(patientId), fields);
+      return summaries.isEmpty() ? null : summaries.get(0);
+   }
+
+   private PatientSearchPage<Integer> searchPatientIds(String query, Integer cursor, Integer limit) {
+      if (StringUtils.isBlank(query))
+         return new PatientSearchPage<>(Collections.emptyList(), null);
+
+      int pageSize = limit == null || limit <= 0 ? DEFAULT_SEARCH_LIMIT : Math.min(limit, MAX_SEARCH_LIMIT);
+
+      // Fetch one extra id to know whether another page follows
+      List<Integer> ids = searchIndex.search(query, cursor, pageSize + 1);
+      boolean hasMore = ids.size() > pageSize;
+      if (hasMore)
+         ids = ids.subList(0, pageSize);
+
+      Integer nextCursor = hasMore ? ids.get(ids.size() - 1) : null;
+      return new PatientSearchPage<>(ids, nextCursor);
    }
 
    @Override
    public Patient mergePatients(Integer sourceId, Integer targetId, String reason) {
-      Patient source = patientService.getPatient(sourceId);
-      Patient target = patientService.getPatient(targetId);
-      if (source == null || target == null || source.equals(target)) {
-         throw new IllegalArgumentException("Invalid patients");
-      }
+      mergeEngine.merge(sourceId, targetId, reason, false);
+      return patientService.getPatient(targetId);
+   }
 
-      // Transfer identifiers
-      for (PatientIdentifier id : new ArrayList<>(source.getIdentifiers())) {
-         boolean exists = target.getIdentifiers().stream()
-               .anyMatch(t -> t.getIdentifierType().equals(id.getIdentifierType()) &&
-                     t.getIdentifier().equals(id.getIdentifier()));
-         if (!exists) {
-            id.setPatient(target);
-            target.addIdentifier(id);
-         }
-      }
+   /**
+    * With {@code dryRun} nothing is changed; the result holds the rows a merge would move.
+    */
+   @Override
+   public PatientMergeResult mergePatients(Integer sourceId, Integer targetId, String reason, boolean dryRun) {
+      return mergeEngine.merge(sourceId, targetId, reason, dryRun);
+   }
+
+   @Override
+   public List<DuplicateCandidate> getDuplicateCandidates(DuplicateCandidate.Status status, Integer cursor, Integer limit) {
+      int pageSize = limit == null || limit <= 0 ? DEFAULT_SEARCH_LIMIT : Math.min(limit, MAX_SEARCH_LIMIT);
+      return duplicateDao.getCandidates(status != null ? status : DuplicateCandidate.Status.PENDING, cursor, pageSize);
+   }
+
+   /**
+    * Merges the other patient of the pair into {@code survivorPatientId}, or into the older record
+    * (lower id) when no survivor is given.
+    */
+   @Override
+   public DuplicateCandidate mergeDuplicate(Integer candidateId, Integer survivorPatientId, String reason) {
+      DuplicateCandidate candidate = getPendingCandidate(candidateId);
+      int target = survivorPatientId != null ? survivorPatientId : candidate.getPatientA();
+      if (target != candidate.getPatientA() && target != candidate.getPatientB())
+         throw new IllegalArgumentException("Survivor must be one of the two candidate patients");
+      int source = target == candidate.getPatientA() ? candidate.getPatientB() : candidate.getPatientA();
+
+      if (!duplicateDao.resolveCandidate(candidateId, DuplicateCandidate.Status.MERGED, Context.getAuthenticatedUser().getUserId()))
+         throw new IllegalStateException("Duplicate candidate " + candidateId + " was already reviewed");
+      mergeEngine.merge(source, target, StringUtils.defaultIfBlank(reason, "Duplicate candidate " + candidateId), false);
+      return duplicateDao.getCandidate(candidateId);
+   }
 
-      // Transfer encounters
-      encounterService.getEncountersByPatient(source).forEach(e -> {
-         e.setPatient(target);
-         encounterService.saveEncounter(e);
-      });
+   @Override
+   public DuplicateCandidate rejectDuplicate(Integer candidateId) {
+      getPendingCandidate(candidateId);
+      if (!duplicateDao.resolveCandidate(candidateId, DuplicateCandidate.Status.REJECTED, Context.getAuthenticatedUser().getUserId()))
+         throw new IllegalStateException("Duplicate candidate " + candidateId + " was already reviewed");
+      return duplicateDao.getCandidate(candidateId);
+   }
+
+   @Override
+   public DuplicateScan startDuplicateScan(boolean full) {
+      return duplicateEngine.startScan(full ? DuplicateScan.Mode.FULL : DuplicateScan.Mode.INCREMENTAL);
+   }
 
-      patientService.savePatient(target);
-      patientService.voidPatient(source, "Merged into " + target.getUuid() +
-            (StringUtils.isNotBlank(reason) ? ". Reason: " + reason : ""));
+   @Override
+   public DuplicateScan getDuplicateScan() {
+      return duplicateEngine.getLastScan();
+   }
 
-      return target;
+   private DuplicateCandidate getPendingCandidate(Integer candidateId) {
+      DuplicateCandidate candidate = candidateId != null ? duplicateDao.getCandidate(candidateId) : null;
+      if (candidate == null)
+         throw new IllegalArgumentException("Duplicate candidate not found: " + candidateId);
+      if (candidate.getStatus() != DuplicateCandidate.Status.PENDING)
+         throw new IllegalStateException("Duplicate candidate " + candidateId + " is " + candidate.getStatus());
+      return candidate;
    }
 
    @Override
@@ -135,11 +246,8 @@ public class MPIServiceImpl extends BaseOpenmrsService implements MPIService {
       newPatient.setNames(original.getNames());
       newPatient.setAddresses(original.getAddresses());
 
-      PatientIdentifierType type = patientService.getPatientIdentifierTypeByName(ID_TYPE_NAME);
-      if (type == null)
-         type = patientService.getAllPatientIdentifierTypes(false).get(0);
-
-      PatientIdentifier newId = new PatientIdentifier(generateUniqueId(), type, locationService.getDefaultLocation());
+      PatientIdentifierType type = getIdentifierType();
+      PatientIdentifier newId = new PatientIdentifier(identifierPool.take(type), type, locationService.getDefaultLocation());
       newId.setPreferred(true);
       newPatient.addIdentifier(newId);
 
@@ -154,29 +262,31 @@ public class MPIServiceImpl extends BaseOpenmrsService implements MPIService {
             }
          }
       }
+      auditLog.recordAfterCommit(original.getPatientId(), AuditEvent.PATIENT_SPLIT);
+      auditLog.recordAfterCommit(newPatient.getPatientId(), AuditEvent.PATIENT_SPLIT);
 
       return newPatient;
    }
 
-   private String generateUniqueId() {
-      try {
-         PatientIdentifierType idType = patientService.getPatientIdentifierTypeByName(ID_TYPE_NAME);
-         if (idType == null) {
-            idType = patientService.getAllPatientIdentifierTypes(false).stream()
-                  .filter(t -> !t.isRetired())
-                  .findFirst()
-                  .orElse(null);
-         }
-
-         if (idType != null) {
-            String id = identifierSourceService.generateIdentifier(idType, "Pinnacle Registration");
-            if (StringUtils.isNotBlank(id)) {
-               return id;
-            }
-         }
-      } catch (Exception ignored) {
+   /**
+    * The identifier type new patients get: {@link #ID_TYPE_NAME}, or the first unretired type.
+    * Resolved by name once and then loaded by id.
+    */
+   private PatientIdentifierType getIdentifierType() {
+      Integer typeId = identifierTypeId;
+      if (typeId != null) {
+         PatientIdentifierType type = patientService.getPatientIdentifierType(typeId);
+         if (type != null && !type.getRetired())
+            return type;
       }
 
-      return "P" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+      PatientIdentifierType type = patientService.getPatientIdentifierTypeByName(ID_TYPE_NAME);
+      if (type == null || type.getRetired()) {
+         type = patientService.getAllPatientIdentifierTypes(false).stream()
+               .findFirst()
+               .orElseThrow(() -> new IllegalStateException("No patient identifier type configured"));
+      }
+      identifierTypeId = type.getPatientIdentifierTypeId();
+      return type;
    }
-}
\ No newline at end of file
+}
@@ -3,14 +3,44 @@ package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.impl;
 import org.openmrs.*;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.pinnaclecustomemrmodule.api.audit.AuditEvent;
+import org.openmrs.module.pinnaclecustomemrmodule.api.audit.AuditLog;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.EncounterStatusDao;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.event.EncounterStatusEvent;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.event.EncounterStatusEventBus;
 import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.service.PatientEncounterService;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.status.StatusTransitionReport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+@Service("pinnaclecustomemrmodule.PatientEncounterService")
+@Transactional
 public class PatientEncounterServiceImpl extends BaseOpenmrsService implements PatientEncounterService {
 
+    private static final int MAX_STATUS_PAGE_SIZE = 1000;
+    private static final int MAX_BULK_TRANSITION = 1000;
+
+    @Autowired
+    private EncounterStatusDao encounterStatusDao;
+
+    @Autowired
+    private EncounterStatusEventBus eventBus;
+
+    @Autowired
+    private AuditLog auditLog;
+
     @Override
     public Encounter createEncounter(Integer patientId, String encounterTypeName,
             Integer locationId, Integer providerId) {
@@ -43,66 +73,117 @@ public class PatientEncounterServiceImpl extends BaseOpenmrsService implements P
         return encounter;
     }
 
+    /**
+     * @throws IllegalArgumentException if the encounter does not exist
+     * @throws IllegalStateException if the encounter is voided or its status does not allow the
+     *             transition
+     */
     @Override
     public Encounter changeStatus(Integer encounterId, String newStatus, Integer changedBy) {
 
         Encounter e = Context.getEncounterService().getEncounter(encounterId);
         if (e == null)
             throw new IllegalArgumentException("Encounter not found: " + encounterId);
+        if (e.getVoided())
+            throw new IllegalStateException(voidedReason(encounterId));
 
-        String current = getCurrentStatus(encounterId);
+        String current = encounterStatusDao.getCurrentStatusForUpdate(encounterId);
 
         if (!isValidTransition(current, newStatus)) {
             throw new IllegalStateException("Invalid status transition from " + current + " to " + newStatus);
         }
 
-        String sql = "INSERT INTO emr_encounter_status (encounter_id, status, changed_by, changed_on) " +
-                "VALUES (" + encounterId + ", '" + newStatus.replace("'", "''") + "', " +
-                changedBy + ", NOW())";
-
-        Context.getAdministrationService().executeSQL(sql, false);
+        Date changedOn = new Date();
+        encounterStatusDao.recordStatus(encounterId, newStatus, changedBy, changedOn);
+        eventBus.publishAfterCommit(new EncounterStatusEvent(encounterId, e.getPatient().getPatientId(),
+                e.getLocation() != null ? e.getLocation().getLocationId() : null, current, newStatus, changedBy, changedOn));
+        auditLog.recordAfterCommit(e.getPatient().getPatientId(), AuditEvent.ENCOUNTER_STATUS_CHANGE);
 
         return e;
     }
 
+    /**
+     * Moves each of {@code encounterIds} to {@code newStatus} where that is a valid transition,
+     * with one query to load the encounters, one to lock their current statuses and batched
+     * inserts, instead of a round trip per encounter. Encounters that are missing, voided or not
+     * in a status that allows the transition are reported and left unchanged.
+     */
     @Override
-    public String getCurrentStatus(Integer encounterId) {
-
-        String sql = "SELECT status FROM emr_encounter_status WHERE encounter_id = " + encounterId +
-                " ORDER BY changed_on DESC LIMIT 1";
+    public StatusTransitionReport changeStatuses(List<Integer> encounterIds, String newStatus, Integer changedBy) {
+        if (newStatus == null) throw new IllegalArgumentException("Status is required");
+        if (encounterIds == null || encounterIds.isEmpty()) {
+            return new StatusTransitionReport(newStatus, Collections.emptyList(), Collections.emptyMap());
+        }
 
-        List<List<Object>> rows = Context.getAdministrationService().executeSQL(sql, true);
+        Set<Integer> unique = new LinkedHashSet<>(encounterIds);
+        unique.remove(null);
+        if (unique.size() > MAX_BULK_TRANSITION) {
+            throw new IllegalArgumentException("At most " + MAX_BULK_TRANSITION + " encounters can be changed at once");
+        }
+        List<Integer> ids = new ArrayList<>(unique);
 
-        if (rows != null && !rows.isEmpty()) {
-            List<Object> row = rows.get(0);
-            return (String) row.get(0);
+        Map<Integer, Encounter> encounters = new HashMap<>(ids.size() * 2);
+        Set<Integer> active = new HashSet<>(ids.size() * 2);
+        for (Encounter e : encounterStatusDao.getEncounters(ids, true)) {
+            encounters.put(e.getEncounterId(), e);
+            if (!e.getVoided()) active.add(e.getEncounterId());
+        }
+        Map<Integer, String> current = encounterStatusDao.getCurrentStatusesForUpdate(active);
+
+        List<Integer> changed = new ArrayList<>(ids.size());
+        Map<Integer, String> rejected = new LinkedHashMap<>();
+        for (Integer id : ids) {
+            if (!encounters.containsKey(id)) {
+                rejected.put(id, "Encounter not found: " + id);
+            } else if (!active.contains(id)) {
+                rejected.put(id, voidedReason(id));
+            } else if (!isValidTransition(current.get(id), newStatus)) {
+                rejected.put(id, "Invalid status transition from " + current.get(id) + " to " + newStatus);
+            } else {
+                changed.add(id);
+            }
+        }
 
+        Date changedOn = new Date();
+        encounterStatusDao.recordStatuses(changed, newStatus, changedBy, changedOn);
+        for (Integer id : changed) {
+            Encounter e = encounters.get(id);
+            eventBus.publishAfterCommit(new EncounterStatusEvent(id, e.getPatient().getPatientId(),
+                    e.getLocation() != null ? e.getLocation().getLocationId() : null, current.get(id), newStatus,
+                    changedBy, changedOn));
+            auditLog.recordAfterCommit(e.getPatient().getPatientId(), AuditEvent.ENCOUNTER_STATUS_CHANGE);
         }
-        return null;
+        return new StatusTransitionReport(newStatus, changed, rejected);
     }
 
     @Override
-    public List<Encounter> findByStatus(String status) {
-
-        String sql = "SELECT encounter_id FROM emr_encounter_status s1 WHERE status = '" +
-                status.replace("'", "''") + "' AND changed_on = (" +
-                "SELECT MAX(changed_on) FROM emr_encounter_status s2 WHERE s2.encounter_id = s1.encounter_id)";
+    @Transactional(readOnly = true)
+    public String getCurrentStatus(Integer encounterId) {
+        return encounterStatusDao.getCurrentStatus(encounterId);
+    }
 
-        List<List<Object>> rows = Context.getAdministrationService().executeSQL(sql, true);
+    @Override
+    @Transactional(readOnly = true)
+    public List<Encounter> findByStatus(String status) {
+        return findByStatus(status, null, null);
+    }
 
-        List<Encounter> results = new ArrayList<>();
+    /**
+     * Encounters currently in {@code status}, ordered by id. Pass the id of the last encounter of
+     * a page as {@code afterEncounterId} to get the next one.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<Encounter> findByStatus(String status, Integer afterEncounterId, Integer limit) {
+        if (status == null) throw new IllegalArgumentException("Status is required");
 
-        if (rows != null) {
-            for (Object r : rows) {
-                Object[] row = (Object[]) r;
-                Integer encId = (Integer) row[0];
-                Encounter encounter = Context.getEncounterService().getEncounter(encId);
-                if (encounter != null)
-                    results.add(encounter);
-            }
-        }
+        List<Integer> ids = encounterStatusDao.getEncounterIdsByStatus(status, afterEncounterId,
+                limit != null ? Math.min(Math.max(limit, 1), MAX_STATUS_PAGE_SIZE) : null);
+        return encounterStatusDao.getEncounters(ids);
+    }
 
-        return results;
+    private static String voidedReason(Integer encounterId) {
+        return "Encounter is voided: " + encounterId;
     }
 
     private boolean isValidTransition(String current, String next) {
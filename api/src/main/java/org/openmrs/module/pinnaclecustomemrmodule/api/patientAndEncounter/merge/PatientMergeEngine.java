@@ -0,0 +1,87 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.merge;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.Patient;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.audit.AuditEvent;
+import org.openmrs.module.pinnaclecustomemrmodule.api.audit.AuditLog;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.PatientDuplicateDao;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.PatientMergeDao;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.allergy.AllergyConflictChecker;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search.PatientSearchDocument;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search.PatientSearchIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges one patient into another with a handful of set-based updates instead of saving every
+ * encounter through the API: every table holding the patient (visits, encounters, obs, orders
+ * and order groups, diagnoses, conditions, allergies, programs, medication dispenses, cohort
+ * memberships) and the identifiers are re-parented table by table, the source is voided, and both
+ * patients and the moved rows are evicted from the session and second-level cache. Runs in the caller's
+ * transaction, so a failure leaves nothing moved.
+ * <p>
+ * Identifiers the target already has (same type and value) stay on the source and are voided with
+ * it. The source also leaves duplicate detection: its blocking keys are dropped and its pending
+ * review pairs become obsolete. A dry run only counts the rows and takes no locks.
+ */
+@Component("pinnaclecustomemrmodule.PatientMergeEngine")
+public class PatientMergeEngine {
+
+    @Autowired private PatientService patientService;
+    @Autowired private PatientMergeDao mergeDao;
+    @Autowired private PatientDuplicateDao duplicateDao;
+    @Autowired private PatientSearchIndex searchIndex;
+    @Autowired private AllergyConflictChecker allergyChecker;
+    @Autowired private AuditLog auditLog;
+
+    public PatientMergeResult merge(Integer sourceId, Integer targetId, String reason, boolean dryRun) {
+        long started = System.nanoTime();
+        Patient source = sourceId != null ? patientService.getPatient(sourceId) : null;
+        Patient target = targetId != null ? patientService.getPatient(targetId) : null;
+        if (source == null || target == null || source.equals(target)) {
+            throw new IllegalArgumentException("Invalid patients");
+        }
+        if (source.getVoided() || target.getVoided()) {
+            throw new IllegalArgumentException("Cannot merge a voided patient");
+        }
+
+        if (dryRun) {
+            return new PatientMergeResult(sourceId, targetId, true, mergeDao.countMovable(sourceId, targetId),
+                    elapsedMillis(started));
+        }
+
+        mergeDao.lockPatients(sourceId, targetId);
+        int duplicateIdentifiers = mergeDao.countDuplicateIdentifiers(sourceId, targetId);
+
+        Context.flushSession();
+        Map<Class<?>, Set<Integer>> movedIds = new HashMap<>();
+        Map<String, Integer> counts = mergeDao.moveAll(sourceId, targetId, Context.getAuthenticatedUser().getUserId(), movedIds);
+        counts.put("duplicateIdentifiers", duplicateIdentifiers);
+        mergeDao.evict(sourceId, targetId, movedIds);
+
+        source = patientService.getPatient(sourceId);
+        target = patientService.getPatient(targetId);
+        patientService.voidPatient(source, "Merged into " + target.getUuid() +
+                (StringUtils.isNotBlank(reason) ? ". Reason: " + reason : ""));
+        duplicateDao.removePatient(sourceId);
+
+        searchIndex.removeAfterCommit(sourceId);
+        searchIndex.indexAfterCommit(PatientSearchDocument.of(target));
+        allergyChecker.invalidateAfterCommit(targetId);
+        allergyChecker.invalidateAfterCommit(sourceId);
+        auditLog.recordAfterCommit(sourceId, AuditEvent.PATIENT_MERGE);
+        auditLog.recordAfterCommit(targetId, AuditEvent.PATIENT_MERGE);
+
+        return new PatientMergeResult(sourceId, targetId, false, counts, elapsedMillis(started));
+    }
+
+    private static long elapsedMillis(long startedNanos) {
+        return (System.nanoTime() - startedNanos) / 1_000_000;
+    }
+}
@@ -0,0 +1,39 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.merge;
+
+import java.util.Map;
+
+/**
+ * Outcome of a merge, or of a dry run: how many rows of each kind were (or would be) moved from
+ * the source patient to the target.
+ */
+public class PatientMergeResult {
+
+    private final Integer sourcePatientId;
+    private final Integer targetPatientId;
+    private final boolean dryRun;
+    private final Map<String, Integer> counts;
+    private final long elapsedMillis;
+
+    public PatientMergeResult(Integer sourcePatientId, Integer targetPatientId, boolean dryRun,
+                              Map<String, Integer> counts, long elapsedMillis) {
+        this.sourcePatientId = sourcePatientId;
+        this.targetPatientId = targetPatientId;
+        this.dryRun = dryRun;
+        this.counts = counts;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public Integer getSourcePatientId() { return sourcePatientId; }
+
+    public Integer getTargetPatientId() { return targetPatientId; }
+
+    public boolean isDryRun() { return dryRun; }
+
+    /**
+     * Keyed by visits, encounters, obs, orderGroups, orders, diagnoses, conditions, allergies,
+     * programs, medicationDispenses, cohortMemberships, identifiers and duplicateIdentifiers.
+     */
+    public Map<String, Integer> getCounts() { return counts; }
+
+    public long getElapsedMillis() { return elapsedMillis; }
+}
@@ -0,0 +1,166 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.projection;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Flat, read-only view of a patient for API responses, read with a few queries per page instead
+ * of serializing the Patient entity graph. {@code patientId}, {@code uuid} and {@code voided} are
+ * always present; the other values are only filled (and only serialized) for the requested
+ * {@link Field}s.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public final class PatientSummary {
+
+    public enum Field {
+        identifier, name, gender, birthdate, address, dead;
+
+        /**
+         * Parses a comma-separated field list; blank means all fields.
+         *
+         * @throws IllegalArgumentException for an unknown field name
+         */
+        public static Set<Field> parse(String fields) {
+            if (StringUtils.isBlank(fields)) return EnumSet.allOf(Field.class);
+
+            Set<Field> parsed = EnumSet.noneOf(Field.class);
+            for (String name : fields.split(",")) {
+                if (StringUtils.isBlank(name)) continue;
+                try {
+                    parsed.add(Field.valueOf(name.trim()));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown patient field '" + name.trim() + "'");
+                }
+            }
+            return parsed;
+        }
+    }
+
+    private final Integer patientId;
+    private final String uuid;
+    private final Boolean voided;
+    private final String identifier;
+    private final String identifierType;
+    private final String givenName;
+    private final String middleName;
+    private final String familyName;
+    private final String gender;
+    private final Date birthdate;
+    private final Boolean birthdateEstimated;
+    private final String cityVillage;
+    private final String stateProvince;
+    private final String country;
+    private final Boolean dead;
+    private final Date deathDate;
+
+    private PatientSummary(Builder b) {
+        this.patientId = b.patientId;
+        this.uuid = b.uuid;
+        this.voided = b.voided;
+        this.identifier = b.identifier;
+        this.identifierType = b.identifierType;
+        this.givenName = b.givenName;
+        this.middleName = b.middleName;
+        this.familyName = b.familyName;
+        this.gender = b.gender;
+        this.birthdate = b.birthdate;
+        this.birthdateEstimated = b.birthdateEstimated;
+        this.cityVillage = b.cityVillage;
+        this.stateProvince = b.stateProvince;
+        this.country = b.country;
+        this.dead = b.dead;
+        this.deathDate = b.deathDate;
+    }
+
+    public Integer getPatientId() { return patientId; }
+    public String getUuid() { return uuid; }
+    public Boolean getVoided() { return voided; }
+    public String getIdentifier() { return identifier; }
+    public String getIdentifierType() { return identifierType; }
+    public String getGivenName() { return givenName; }
+    public String getMiddleName() { return middleName; }
+    public String getFamilyName() { return familyName; }
+    public String getGender() { return gender; }
+    public Date getBirthdate() { return birthdate; }
+    public Boolean getBirthdateEstimated() { return birthdateEstimated; }
+    public String getCityVillage() { return cityVillage; }
+    public String getStateProvince() { return stateProvince; }
+    public String getCountry() { return country; }
+    public Boolean getDead() { return dead; }
+    public Date getDeathDate() { return deathDate; }
+
+    public static Builder builder(Integer patientId, String uuid, boolean voided) {
+        return new Builder(patientId, uuid, voided);
+    }
+
+    public static final class Builder {
+
+        private final Integer patientId;
+        private final String uuid;
+        private final Boolean voided;
+        private String identifier;
+        private String identifierType;
+        private String givenName;
+        private String middleName;
+        private String familyName;
+        private String gender;
+        private Date birthdate;
+        private Boolean birthdateEstimated;
+        private String cityVillage;
+        private String stateProvince;
+        private String country;
+        private Boolean dead;
+        private Date deathDate;
+
+        private Builder(Integer patientId, String uuid, boolean voided) {
+            this.patientId = patientId;
+            this.uuid = uuid;
+            this.voided = voided;
+        }
+
+        public Builder identifier(String identifier, String identifierType) {
+            this.identifier = identifier;
+            this.identifierType = identifierType;
+            return this;
+        }
+
+        public Builder name(String givenName, String middleName, String familyName) {
+            this.givenName = givenName;
+            this.middleName = middleName;
+            this.familyName = familyName;
+            return this;
+        }
+
+        public Builder gender(String gender) {
+            this.gender = gender;
+            return this;
+        }
+
+        public Builder birthdate(Date birthdate, boolean estimated) {
+            this.birthdate = birthdate;
+            this.birthdateEstimated = estimated;
+            return this;
+        }
+
+        public Builder address(String cityVillage, String stateProvince, String country) {
+            this.cityVillage = cityVillage;
+            this.stateProvince = stateProvince;
+            this.country = country;
+            return this;
+        }
+
+        public Builder dead(boolean dead, Date deathDate) {
+            this.dead = dead;
+            this.deathDate = deathDate;
+            return this;
+        }
+
+        public PatientSummary build() {
+            return new PatientSummary(this);
+        }
+    }
+}
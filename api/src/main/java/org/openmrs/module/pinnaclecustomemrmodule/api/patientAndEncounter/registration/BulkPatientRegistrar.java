@@ -0,0 +1,384 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.registration;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Location;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.PatientDuplicateDao;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.PatientRegistrationDao;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.PatientRegistrationDao.NewPatientRow;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate.DuplicateCandidate;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate.DuplicateDetectionEngine;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate.DuplicateMatcher;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate.MatchRecord;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.identifier.IdentifierPool;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search.PatientSearchDocument;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search.PatientSearchIndex;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registers a batch of pre-captured patients.
+ * <p>
+ * Registrations are validated and scored for duplicates in parallel slices; the scoring uses the
+ * duplicate detection blocking keys, so each registration is compared with the existing patients
+ * in its blocks (loaded with a few queries for the whole batch) and with earlier registrations of
+ * the same batch. Duplicates are skipped unless the caller allows them, in which case the pairs
+ * go to the duplicate review queue. Identifiers for the remaining registrations are taken from the
+ * identifier pool in one call, and the patients are written with JDBC batches, one transaction per
+ * chunk. A chunk that fails is retried one registration at a time so one bad record does not hold
+ * back the rest.
+ */
+@Component("pinnaclecustomemrmodule.BulkPatientRegistrar")
+public class BulkPatientRegistrar implements DisposableBean {
+
+    private static final Log log = LogFactory.getLog(BulkPatientRegistrar.class);
+
+    public static final int MAX_BATCH_SIZE = 5000;
+
+    private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+    private static final int SLICE_SIZE = 250;
+    private static final int COMMIT_CHUNK_SIZE = 500;
+    private static final int MAX_NAME_LENGTH = 50;
+    private static final int MAX_AGE_YEARS = 120;
+    private static final Set<String> GENDERS = new HashSet<>(Arrays.asList("M", "F", "O", "U"));
+
+    @Autowired private PatientRegistrationDao registrationDao;
+    @Autowired private PatientDuplicateDao duplicateDao;
+    @Autowired private DuplicateDetectionEngine duplicateEngine;
+    @Autowired private IdentifierPool identifierPool;
+    @Autowired private PatientSearchIndex searchIndex;
+    @Autowired private PlatformTransactionManager transactionManager;
+
+    private final ThreadPoolExecutor workers = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(WORKERS * 4), daemonThreads("pinnacle-registration-"),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    /**
+     * A registration that passed validation, with its blocking keys and any duplicates found.
+     */
+    private static final class Pending {
+
+        final PatientRegistration registration;
+        final RegistrationResult result;
+        final MatchRecord record;
+        final Set<String> keys;
+        final Map<Integer, Match> existingMatches = new LinkedHashMap<>();
+        Match batchMatch;
+        NewPatientRow row;
+
+        Pending(PatientRegistration registration, RegistrationResult result, MatchRecord record) {
+            this.registration = registration;
+            this.result = result;
+            this.record = record;
+            this.keys = DuplicateMatcher.blockingKeys(record);
+        }
+
+        int index() {
+            return result.getIndex();
+        }
+    }
+
+    private static final class Match {
+
+        final int other;          // Existing patient id, or the index of an earlier registration
+        final double score;
+        final String details;
+
+        Match(int other, double score, String details) {
+            this.other = other;
+            this.score = score;
+            this.details = details;
+        }
+    }
+
+    private interface SliceWork {
+
+        void run(int from, int to);
+    }
+
+    /**
+     * Registers {@code registrations} and reports the outcome of each, in request order.
+     *
+     * @param allowDuplicates create registrations that look like existing patients (or earlier
+     *            registrations of the batch) and queue them for review instead of skipping them
+     * @throws IllegalArgumentException if the batch is empty or larger than {@link #MAX_BATCH_SIZE}
+     */
+    public BulkRegistrationReport register(List<PatientRegistration> registrations, boolean allowDuplicates,
+                                           PatientIdentifierType identifierType, Location location) {
+        if (registrations == null || registrations.isEmpty()) {
+            throw new IllegalArgumentException("At least one registration is required");
+        }
+        if (registrations.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " registrations per request");
+        }
+        long started = System.nanoTime();
+        int size = registrations.size();
+
+        List<RegistrationResult> results = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            PatientRegistration r = registrations.get(i);
+            results.add(new RegistrationResult(i, r != null ? r.getClientReference() : null));
+        }
+
+        // Validate
+        Pending[] validated = new Pending[size];
+        inParallel(size, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                PatientRegistration r = registrations.get(i);
+                String problem = validate(r);
+                if (problem != null) {
+                    results.get(i).invalid(problem);
+                } else {
+                    validated[i] = new Pending(r, results.get(i), toMatchRecord(i, r));
+                }
+            }
+        });
+        List<Pending> pending = new ArrayList<>();
+        for (Pending p : validated) {
+            if (p != null) pending.add(p);
+        }
+
+        // Score against the registry and earlier registrations of the batch
+        findDuplicates(pending);
+        List<Pending> toCreate = new ArrayList<>(pending.size());
+        for (Pending p : pending) {
+            List<Integer> existing = new ArrayList<>(p.existingMatches.keySet());
+            if (!existing.isEmpty() || p.batchMatch != null) {
+                p.result.duplicate(existing, p.batchMatch != null ? p.batchMatch.other : null);
+                if (!allowDuplicates) {
+                    p.result.skippedAsDuplicate();
+                    continue;
+                }
+            }
+            toCreate.add(p);
+        }
+        if (toCreate.isEmpty()) return new BulkRegistrationReport(results, elapsedMillis(started));
+
+        // Assign identifiers and write in chunks
+        List<String> identifiers = identifierPool.take(identifierType, toCreate.size());
+        for (int i = 0; i < toCreate.size(); i++) {
+            Pending p = toCreate.get(i);
+            p.row = new NewPatientRow(p.registration, identifiers.get(i));
+        }
+
+        Map<Integer, Pending> byIndex = new HashMap<>();
+        for (Pending p : pending) {
+            byIndex.put(p.index(), p);
+        }
+        int creatorId = Context.getAuthenticatedUser().getUserId();
+        Integer locationId = location != null ? location.getLocationId() : null;
+        for (int from = 0; from < toCreate.size(); from += COMMIT_CHUNK_SIZE) {
+            List<Pending> chunk = toCreate.subList(from, Math.min(from + COMMIT_CHUNK_SIZE, toCreate.size()));
+            try {
+                persist(chunk, byIndex, identifierType.getPatientIdentifierTypeId(), locationId, creatorId);
+            } catch (RuntimeException e) {
+                log.warn("Bulk registration chunk of " + chunk.size() + " failed, retrying one by one: " + e.getMessage());
+                for (Pending p : chunk) {
+                    p.row = new NewPatientRow(p.registration, p.row.getIdentifier());
+                    try {
+                        persist(Collections.singletonList(p), byIndex, identifierType.getPatientIdentifierTypeId(),
+                                locationId, creatorId);
+                    } catch (RuntimeException single) {
+                        p.result.failed(single.getMessage());
+                    }
+                }
+            }
+        }
+        return new BulkRegistrationReport(results, elapsedMillis(started));
+    }
+
+    @Override
+    public void destroy() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Inserts {@code chunk} in its own transaction, with the blocking keys of the new patients and,
+     * for allowed duplicates, their review queue entries. Results and the search index are only
+     * updated after the commit.
+     */
+    private void persist(List<Pending> chunk, Map<Integer, Pending> byIndex, int identifierTypeId, Integer locationId,
+                         int creatorId) {
+        List<NewPatientRow> rows = new ArrayList<>(chunk.size());
+        for (Pending p : chunk) {
+            rows.add(p.row);
+        }
+
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        tx.execute(status -> {
+            registrationDao.insertPatients(rows, identifierTypeId, locationId, creatorId);
+
+            Map<Integer, Set<String>> keys = new LinkedHashMap<>();
+            List<DuplicateCandidate> candidates = new ArrayList<>();
+            for (Pending p : chunk) {
+                int patientId = p.row.getPatientId();
+                keys.put(patientId, p.keys);
+                for (Match m : p.existingMatches.values()) {
+                    candidates.add(new DuplicateCandidate(patientId, m.other, m.score, m.details));
+                }
+                Pending earlier = p.batchMatch != null ? byIndex.get(p.batchMatch.other) : null;
+                if (earlier != null && earlier.row != null && earlier.row.getPatientId() != null) {
+                    candidates.add(new DuplicateCandidate(patientId, earlier.row.getPatientId(), p.batchMatch.score,
+                            p.batchMatch.details));
+                }
+            }
+            duplicateDao.replaceBlockKeys(keys);
+            duplicateDao.upsertCandidates(candidates);
+            return null;
+        });
+
+        for (Pending p : chunk) {
+            NewPatientRow row = p.row;
+            p.result.created(row.getPatientId(), row.getUuid(), row.getIdentifier());
+            PatientRegistration r = p.registration;
+            searchIndex.index(new PatientSearchDocument(row.getPatientId(),
+                    Arrays.asList(r.getGivenName(), r.getMiddleName(), r.getFamilyName()),
+                    Collections.singletonList(row.getIdentifier())));
+        }
+    }
+
+    private void findDuplicates(List<Pending> pending) {
+        if (pending.isEmpty()) return;
+
+        Set<String> allKeys = new HashSet<>();
+        Map<String, List<Pending>> batchBlocks = new HashMap<>();
+        for (Pending p : pending) {
+            allKeys.addAll(p.keys);
+            for (String key : p.keys) {
+                batchBlocks.computeIfAbsent(key, k -> new ArrayList<>()).add(p);
+            }
+        }
+        Map<String, List<MatchRecord>> registry = duplicateEngine.getBlockMembers(allKeys);
+        DuplicateMatcher matcher = duplicateEngine.getMatcher();
+
+        inParallel(pending.size(), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                Pending p = pending.get(i);
+                Set<Integer> compared = new HashSet<>();
+                for (String key : p.keys) {
+                    for (MatchRecord existing : registry.getOrDefault(key, Collections.emptyList())) {
+                        if (!compared.add(existing.getPatientId())) continue;
+                        StringBuilder details = new StringBuilder();
+                        double score = matcher.score(p.record, existing, details);
+                        if (matcher.isMatch(score)) {
+                            p.existingMatches.put(existing.getPatientId(), new Match(existing.getPatientId(), score, details.toString()));
+                        }
+                    }
+                    for (Pending earlier : batchBlocks.get(key)) {
+                        if (earlier.index() >= p.index()) break;
+                        if (p.batchMatch != null && p.batchMatch.other <= earlier.index()) continue;
+                        StringBuilder details = new StringBuilder();
+                        double score = matcher.score(p.record, earlier.record, details);
+                        if (matcher.isMatch(score)) {
+                            p.batchMatch = new Match(earlier.index(), score, details.toString());
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the reason {@code r} cannot be registered, or null if it is valid. Normalizes the
+     * gender to upper case.
+     */
+    private static String validate(PatientRegistration r) {
+        if (r == null) return "Empty registration";
+        if (StringUtils.isBlank(r.getGivenName()) || StringUtils.isBlank(r.getFamilyName())) {
+            return "givenName and familyName are required";
+        }
+        if (length(r.getGivenName()) > MAX_NAME_LENGTH || length(r.getMiddleName()) > MAX_NAME_LENGTH
+                || length(r.getFamilyName()) > MAX_NAME_LENGTH) {
+            return "Names are limited to " + MAX_NAME_LENGTH + " characters";
+        }
+        String gender = StringUtils.trimToEmpty(r.getGender()).toUpperCase(Locale.ROOT);
+        if (!GENDERS.contains(gender)) return "gender must be one of M, F, O, U";
+        r.setGender(gender);
+
+        if (r.getBirthdate() != null) {
+            LocalDate birthdate = toLocalDate(r.getBirthdate());
+            LocalDate today = LocalDate.now();
+            if (birthdate.isAfter(today)) return "birthdate is in the future";
+            if (birthdate.isBefore(today.minusYears(MAX_AGE_YEARS))) return "birthdate is more than " + MAX_AGE_YEARS + " years ago";
+        }
+        return null;
+    }
+
+    /**
+     * Registrations are not stored yet, so they get negative ids that cannot clash with patients.
+     */
+    private static MatchRecord toMatchRecord(int index, PatientRegistration r) {
+        return new MatchRecord(-(index + 1), r.getGivenName(), r.getFamilyName(), r.getGender(),
+                r.getBirthdate() != null ? toLocalDate(r.getBirthdate()) : null, r.isBirthdateEstimated(), r.getCityVillage());
+    }
+
+    private static LocalDate toLocalDate(java.util.Date date) {
+        if (date instanceof java.sql.Date) return ((java.sql.Date) date).toLocalDate();
+        return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
+    private static int length(String value) {
+        return value != null ? value.trim().length() : 0;
+    }
+
+    private void inParallel(int size, SliceWork work) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < size; from += SLICE_SIZE) {
+            int start = from;
+            int end = Math.min(from + SLICE_SIZE, size);
+            futures.add(workers.submit(() -> work.run(start, end)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing registrations", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+    }
+
+    private static long elapsedMillis(long startedNanos) {
+        return (System.nanoTime() - startedNanos) / 1_000_000;
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,33 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.registration;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: one result per registration, in request order, plus totals.
+ */
+public class BulkRegistrationReport {
+
+    private final List<RegistrationResult> results;
+    private final long elapsedMillis;
+
+    public BulkRegistrationReport(List<RegistrationResult> results, long elapsedMillis) {
+        this.results = results;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public List<RegistrationResult> getResults() { return results; }
+
+    public long getCreated() { return count(RegistrationResult.Status.CREATED); }
+
+    public long getDuplicates() { return count(RegistrationResult.Status.DUPLICATE); }
+
+    public long getInvalid() { return count(RegistrationResult.Status.INVALID); }
+
+    public long getFailed() { return count(RegistrationResult.Status.FAILED); }
+
+    public long getElapsedMillis() { return elapsedMillis; }
+
+    private long count(RegistrationResult.Status status) {
+        return results.stream().filter(r -> r.getStatus() == status).count();
+    }
+}
@@ -0,0 +1,42 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.registration;
+
+import java.util.Date;
+
+/**
+ * One pre-captured registration in a bulk import. {@code clientReference} is the capturing
+ * device's own id for the record and is echoed back in its result.
+ */
+public class PatientRegistration {
+
+    private String clientReference;
+    private String givenName;
+    private String middleName;
+    private String familyName;
+    private String gender;           // M, F, O or U
+    private Date birthdate;
+    private boolean birthdateEstimated;
+    private String cityVillage;
+    private String stateProvince;
+    private String country;
+
+    public String getClientReference() { return clientReference; }
+    public void setClientReference(String clientReference) { this.clientReference = clientReference; }
+    public String getGivenName() { return givenName; }
+    public void setGivenName(String givenName) { this.givenName = givenName; }
+    public String getMiddleName() { return middleName; }
+    public void setMiddleName(String middleName) { this.middleName = middleName; }
+    public String getFamilyName() { return familyName; }
+    public void setFamilyName(String familyName) { this.familyName = familyName; }
+    public String getGender() { return gender; }
+    public void setGender(String gender) { this.gender = gender; }
+    public Date getBirthdate() { return birthdate; }
+    public void setBirthdate(Date birthdate) { this.birthdate = birthdate; }
+    public boolean isBirthdateEstimated() { return birthdateEstimated; }
+    public void setBirthdateEstimated(boolean birthdateEstimated) { this.birthdateEstimated = birthdateEstimated; }
+    public String getCityVillage() { return cityVillage; }
+    public void setCityVillage(String cityVillage) { this.cityVillage = cityVillage; }
+    public String getStateProvince() { return stateProvince; }
+    public void setStateProvince(String stateProvince) { this.stateProvince = stateProvince; }
+    public String getCountry() { return country; }
+    public void setCountry(String country) { this.country = country; }
+}
@@ -0,0 +1,66 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.registration;
+
+import java.util.List;
+
+/**
+ * Outcome of one registration in a bulk import, in the position it had in the request.
+ */
+public class RegistrationResult {
+
+    public enum Status {
+        CREATED, INVALID, DUPLICATE, FAILED
+    }
+
+    private final int index;
+    private final String clientReference;
+    private Status status;
+    private String message;
+    private Integer patientId;
+    private String uuid;
+    private String identifier;
+    private List<Integer> possibleDuplicates;   // Existing patients this one matches
+    private Integer duplicateOfIndex;           // Earlier registration in the same batch it matches
+
+    public RegistrationResult(int index, String clientReference) {
+        this.index = index;
+        this.clientReference = clientReference;
+    }
+
+    public int getIndex() { return index; }
+    public String getClientReference() { return clientReference; }
+    public Status getStatus() { return status; }
+    public String getMessage() { return message; }
+    public Integer getPatientId() { return patientId; }
+    public String getUuid() { return uuid; }
+    public String getIdentifier() { return identifier; }
+    public List<Integer> getPossibleDuplicates() { return possibleDuplicates; }
+    public Integer getDuplicateOfIndex() { return duplicateOfIndex; }
+
+    void invalid(String message) {
+        this.status = Status.INVALID;
+        this.message = message;
+    }
+
+    void duplicate(List<Integer> possibleDuplicates, Integer duplicateOfIndex) {
+        this.possibleDuplicates = possibleDuplicates.isEmpty() ? null : possibleDuplicates;
+        this.duplicateOfIndex = duplicateOfIndex;
+    }
+
+    void skippedAsDuplicate() {
+        this.status = Status.DUPLICATE;
+        this.message = "Possible duplicate; not registered";
+    }
+
+    void created(Integer patientId, String uuid, String identifier) {
+        this.status = Status.CREATED;
+        this.patientId = patientId;
+        this.uuid = uuid;
+        this.identifier = identifier;
+        this.message = null;
+    }
+
+    void failed(String message) {
+        this.status = Status.FAILED;
+        this.message = message;
+    }
+}
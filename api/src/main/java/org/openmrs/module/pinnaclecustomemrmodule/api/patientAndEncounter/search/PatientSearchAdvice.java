@@ -0,0 +1,78 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search;
+
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.Person;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+
+/**
+ * Keeps {@link PatientSearchIndex} consistent with patients, names and identifiers changed through
+ * the core services, by other modules and the legacy UI as well as by this module. Registered
+ * against {@link org.openmrs.api.PatientService} and {@link org.openmrs.api.PersonService} in
+ * config.xml.
+ */
+public class PatientSearchAdvice implements AfterReturningAdvice {
+
+    @Override
+    public void afterReturning(Object returnValue, Method method, Object[] args, Object target) {
+        String name = method.getName();
+        if (!(name.startsWith("save") || name.startsWith("void") || name.startsWith("unvoid")
+                || name.startsWith("purge") || name.startsWith("merge"))) {
+            return;
+        }
+        if (args == null) return;
+
+        boolean purge = name.startsWith("purge");
+        for (Object arg : args) {
+            if (arg instanceof Collection) {
+                for (Object element : (Collection<?>) arg) {
+                    update(element, purge);
+                }
+            } else {
+                update(arg, purge);
+            }
+        }
+    }
+
+    private static void update(Object subject, boolean purge) {
+        if (subject instanceof Patient) {
+            Patient patient = (Patient) subject;
+            if (purge || patient.getVoided()) {
+                index().removeAfterCommit(patient.getPatientId());
+            } else {
+                index().indexAfterCommit(PatientSearchDocument.of(patient));
+            }
+        } else if (subject instanceof PatientIdentifier) {
+            PatientIdentifier identifier = (PatientIdentifier) subject;
+            reindex(identifier.getPatient(), purge ? identifier : null);
+        } else if (subject instanceof PersonName) {
+            PersonName personName = (PersonName) subject;
+            reindex(personName.getPerson(), purge ? personName : null);
+        } else if (subject instanceof Person) {
+            Person person = (Person) subject;
+            if (purge || person.getVoided()) {
+                index().removeAfterCommit(person.getPersonId());
+            } else {
+                reindex(person, null);
+            }
+        }
+    }
+
+    private static void reindex(Person person, Object purged) {
+        if (person == null || person.getPersonId() == null) return;
+
+        Patient patient = person instanceof Patient ? (Patient) person
+                : person.getIsPatient() ? Context.getPatientService().getPatient(person.getPersonId()) : null;
+        if (patient == null || patient.getVoided()) return;
+        index().indexAfterCommit(PatientSearchDocument.of(patient, purged));
+    }
+
+    private static PatientSearchIndex index() {
+        return Context.getRegisteredComponent("pinnaclecustomemrmodule.PatientSearchIndex", PatientSearchIndex.class);
+    }
+}
@@ -0,0 +1,56 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search;
+
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PersonName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The searchable text of one patient: every non-voided name part and identifier.
+ */
+public class PatientSearchDocument {
+
+    private final Integer patientId;
+    private final List<String> names;
+    private final List<String> identifiers;
+
+    public PatientSearchDocument(Integer patientId, List<String> names, List<String> identifiers) {
+        this.patientId = patientId;
+        this.names = names != null ? names : Collections.emptyList();
+        this.identifiers = identifiers != null ? identifiers : Collections.emptyList();
+    }
+
+    public static PatientSearchDocument of(Patient patient) {
+        return of(patient, null);
+    }
+
+    /**
+     * Like {@link #of(Patient)}, leaving out {@code excluded}: a name or identifier being purged,
+     * which the patient's collections may still hold.
+     */
+    public static PatientSearchDocument of(Patient patient, Object excluded) {
+        List<String> names = new ArrayList<>();
+        for (PersonName name : patient.getNames()) {
+            if (name.getVoided() || name == excluded) continue;
+            names.add(name.getGivenName());
+            names.add(name.getMiddleName());
+            names.add(name.getFamilyName());
+        }
+
+        List<String> identifiers = new ArrayList<>();
+        for (PatientIdentifier identifier : patient.getIdentifiers()) {
+            if (!identifier.getVoided() && identifier != excluded) identifiers.add(identifier.getIdentifier());
+        }
+
+        return new PatientSearchDocument(patient.getPatientId(), names, identifiers);
+    }
+
+    public Integer getPatientId() { return patientId; }
+
+    public List<String> getNames() { return names; }
+
+    public List<String> getIdentifiers() { return identifiers; }
+}
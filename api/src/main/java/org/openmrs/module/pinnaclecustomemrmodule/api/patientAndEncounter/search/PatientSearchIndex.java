@@ -0,0 +1,380 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.PatientSearchDao;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory inverted index over patient names and identifiers.
+ * <p>
+ * Name tokens and identifiers are kept in sorted maps so a prefix lookup is a range scan
+ * proportional to the number of matches, not to the size of the registry. Names are also indexed
+ * by their Soundex key.
+ * <p>
+ * The index is built from the database on a background thread when the module starts, and kept
+ * current by {@link #indexAfterCommit(PatientSearchDocument)} / {@link #removeAfterCommit(Integer)},
+ * which {@link PatientSearchAdvice} calls for every change made through the core patient and
+ * person services. Changes arriving while the index is being built win over the rows the build
+ * reads. Until the build finishes, searches go to the database by prefix.
+ * <p>
+ * Patients written around the services, e.g. by SQL, make the index stale. That is noticed when a
+ * first page has no match and the database holds a patient id above the highest one the index has
+ * seen; the index is then rebuilt and searches go to the database until it is done. Any other miss
+ * is answered from the index alone.
+ */
+@Component("pinnaclecustomemrmodule.PatientSearchIndex")
+public class PatientSearchIndex implements InitializingBean, DisposableBean {
+
+    private static final Log log = LogFactory.getLog(PatientSearchIndex.class);
+
+    private static final int LOAD_BATCH_SIZE = 5000;
+
+    private static final int MIN_PHONETIC_LENGTH = 3;
+
+    @Autowired
+    private PatientSearchDao patientSearchDao;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final NavigableMap<String, Set<Integer>> nameTokens = new ConcurrentSkipListMap<>();
+    private final Map<String, Set<Integer>> phoneticKeys = new ConcurrentHashMap<>();
+    private final NavigableMap<String, Set<Integer>> identifiers = new ConcurrentSkipListMap<>();
+    private final Map<Integer, PatientSearchDocument> documents = new ConcurrentHashMap<>();
+
+    private ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pinnacle-patient-search-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean loading = new AtomicBoolean();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final Set<Integer> updatedWhileLoading = ConcurrentHashMap.newKeySet();
+    private final LongAdder databaseSearches = new LongAdder();
+    private volatile boolean loaded;
+    private volatile int highestPatientId;
+
+    @Override
+    public void afterPropertiesSet() {
+        load();
+    }
+
+    @Override
+    public void destroy() {
+        loader.shutdownNow();
+    }
+
+    /**
+     * Returns up to {@code limit} matching patient ids greater than {@code afterPatientId}, in
+     * ascending order. Every whitespace-separated query token must match a name token (by prefix
+     * or Soundex) or an identifier (by prefix).
+     */
+    public List<Integer> search(String query, Integer afterPatientId, int limit) {
+        String[] tokens = tokenize(query);
+        if (tokens.length == 0 || limit <= 0) return Collections.emptyList();
+
+        if (!loaded) {
+            load();
+            databaseSearches.increment();
+            return patientSearchDao.searchPatientIds(tokens, afterPatientId, limit);
+        }
+
+        List<Integer> result = searchIndex(query, tokens, afterPatientId, limit);
+        if (result.isEmpty() && afterPatientId == null && isStale()) {
+            log.info("Patients were added around the patient search index; rebuilding it");
+            invalidate();
+            databaseSearches.increment();
+            return patientSearchDao.searchPatientIds(tokens, null, limit);
+        }
+        return result;
+    }
+
+    /**
+     * Whether the database holds a patient the index has never seen. Patient ids only grow, so
+     * comparing the highest one is a single index lookup.
+     */
+    private boolean isStale() {
+        Integer max = patientSearchDao.getMaxPatientId();
+        return max != null && max > highestPatientId;
+    }
+
+    private List<Integer> searchIndex(String query, String[] tokens, Integer afterPatientId, int limit) {
+        TreeSet<Integer> matches = null;
+        for (String token : tokens) {
+            TreeSet<Integer> tokenMatches = new TreeSet<>();
+            collectPrefix(nameTokens, token, tokenMatches);
+            collectPrefix(identifiers, token, tokenMatches);
+            String phonetic = token.length() >= MIN_PHONETIC_LENGTH ? PhoneticKey.soundex(token) : null;
+            if (phonetic != null) {
+                tokenMatches.addAll(phoneticKeys.getOrDefault(phonetic, Collections.emptySet()));
+            }
+
+            if (matches == null) {
+                matches = tokenMatches;
+            } else {
+                matches.retainAll(tokenMatches);
+            }
+            if (matches.isEmpty()) return Collections.emptyList();
+        }
+        if (matches == null) return Collections.emptyList();
+
+        // A whole identifier may itself contain spaces
+        if (tokens.length > 1) {
+            collectPrefix(identifiers, normalize(query), matches);
+        }
+
+        Set<Integer> page = afterPatientId != null ? matches.tailSet(afterPatientId, false) : matches;
+        List<Integer> result = new ArrayList<>(Math.min(limit, page.size()));
+        for (Integer id : page) {
+            if (result.size() == limit) break;
+            result.add(id);
+        }
+        return result;
+    }
+
+    /**
+     * Replaces whatever is indexed for the document's patient.
+     */
+    public synchronized void index(PatientSearchDocument document) {
+        Integer patientId = document.getPatientId();
+        if (patientId == null) return;
+
+        if (!loaded) updatedWhileLoading.add(patientId);
+        if (patientId > highestPatientId) highestPatientId = patientId;
+        put(document);
+    }
+
+    public synchronized void remove(Integer patientId) {
+        if (!loaded) updatedWhileLoading.add(patientId);
+        delete(patientId);
+    }
+
+    private void put(PatientSearchDocument document) {
+        Integer patientId = document.getPatientId();
+        delete(patientId);
+        for (String name : document.getNames()) {
+            for (String token : nameTokensOf(name)) {
+                add(nameTokens, token, patientId);
+                String phonetic = PhoneticKey.soundex(token);
+                if (phonetic != null) add(phoneticKeys, phonetic, patientId);
+            }
+        }
+        for (String identifier : document.getIdentifiers()) {
+            if (StringUtils.isNotBlank(identifier)) add(identifiers, normalize(identifier), patientId);
+        }
+        documents.put(patientId, document);
+    }
+
+    private void delete(Integer patientId) {
+        PatientSearchDocument previous = documents.remove(patientId);
+        if (previous == null) return;
+
+        for (String name : previous.getNames()) {
+            for (String token : nameTokensOf(name)) {
+                delete(nameTokens, token, patientId);
+                String phonetic = PhoneticKey.soundex(token);
+                if (phonetic != null) delete(phoneticKeys, phonetic, patientId);
+            }
+        }
+        for (String identifier : previous.getIdentifiers()) {
+            if (StringUtils.isNotBlank(identifier)) delete(identifiers, normalize(identifier), patientId);
+        }
+    }
+
+    /**
+     * Indexes the document once the current transaction commits, so a rolled back registration
+     * never becomes searchable. Applied immediately when no transaction is active.
+     */
+    public void indexAfterCommit(PatientSearchDocument document) {
+        afterCommit(() -> index(document));
+    }
+
+    public void removeAfterCommit(Integer patientId) {
+        afterCommit(() -> remove(patientId));
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Searches answered by the database because the index was not built yet or was stale.
+     */
+    public long getDatabaseSearches() {
+        return databaseSearches.sum();
+    }
+
+    /**
+     * Drops the index and starts rebuilding it from the database in the background.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            generation.incrementAndGet();
+            loaded = false;
+            highestPatientId = 0;
+            updatedWhileLoading.clear();
+            nameTokens.clear();
+            phoneticKeys.clear();
+            identifiers.clear();
+            documents.clear();
+        }
+        load();
+    }
+
+    /**
+     * Starts building the index on the loader thread unless it is built or being built.
+     */
+    private void load() {
+        if (loaded || !loading.compareAndSet(false, true)) return;
+
+        try {
+            loader.execute(() -> {
+                int building = generation.get();
+                try {
+                    Context.openSession();
+                    try {
+                        build(building);
+                    } finally {
+                        Context.closeSession();
+                    }
+                } catch (RuntimeException e) {
+                    log.error("Could not build the patient search index; searches use the database", e);
+                } finally {
+                    loading.set(false);
+                    // Invalidated while building: start over
+                    if (generation.get() != building) load();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loading.set(false);
+        }
+    }
+
+    /**
+     * Builds the index on the calling thread, which must have a session.
+     */
+    void build() {
+        build(generation.get());
+    }
+
+    private void build(int building) {
+        long start = System.currentTimeMillis();
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+
+        // Read first: a patient added while building is either read below or makes the index stale
+        Integer highest = readOnly.execute(status -> patientSearchDao.getMaxPatientId());
+        Integer after = 0;
+        List<PatientSearchDocument> batch;
+        do {
+            Integer from = after;
+            batch = readOnly.execute(status -> patientSearchDao.getSearchDocuments(from, LOAD_BATCH_SIZE));
+            synchronized (this) {
+                if (generation.get() != building) return;
+                for (PatientSearchDocument document : batch) {
+                    // A change committed since the build started is newer than this row
+                    if (!updatedWhileLoading.contains(document.getPatientId())) put(document);
+                    after = document.getPatientId();
+                }
+            }
+        } while (batch.size() == LOAD_BATCH_SIZE);
+
+        synchronized (this) {
+            if (generation.get() != building) return;
+            if (highest != null && highest > highestPatientId) highestPatientId = highest;
+            loaded = true;
+            updatedWhileLoading.clear();
+        }
+        log.info("Patient search index built with " + documents.size() + " patients in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private static void collectPrefix(NavigableMap<String, Set<Integer>> map, String prefix, Set<Integer> into) {
+        for (Set<Integer> ids : map.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+            into.addAll(ids);
+        }
+    }
+
+    private static void add(Map<String, Set<Integer>> map, String key, Integer patientId) {
+        map.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(patientId);
+    }
+
+    private static void delete(Map<String, Set<Integer>> map, String key, Integer patientId) {
+        map.computeIfPresent(key, (k, ids) -> {
+            ids.remove(patientId);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private static String[] tokenize(String text) {
+        if (StringUtils.isBlank(text)) return new String[0];
+        return Arrays.stream(normalize(text).split("[\\s,]+")).filter(t -> !t.isEmpty()).toArray(String[]::new);
+    }
+
+    /**
+     * Whitespace tokens of a name plus the parts of hyphenated or apostrophised tokens, so that
+     * "Mary-Jane O'Brien" is found by "jane" and "brien" as well as by "mary-jane".
+     */
+    private static Set<String> nameTokensOf(String name) {
+        Set<String> tokens = new TreeSet<>();
+        for (String token : tokenize(name)) {
+            if (token.isEmpty()) continue;
+            tokens.add(token);
+            for (String part : token.split("[.'-]+")) {
+                if (!part.isEmpty()) tokens.add(part);
+            }
+        }
+        return tokens;
+    }
+
+    private static String normalize(String text) {
+        return StringUtils.stripAccents(text.trim()).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,22 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search;
+
+import java.util.List;
+
+/**
+ * One page of patient search results. Pass {@link #getNextCursor()} back to fetch the following
+ * page; it is {@code null} on the last page.
+ */
+public class PatientSearchPage<T> {
+
+    private final List<T> results;
+    private final Integer nextCursor;
+
+    public PatientSearchPage(List<T> results, Integer nextCursor) {
+        this.results = results;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getResults() { return results; }
+
+    public Integer getNextCursor() { return nextCursor; }
+}
@@ -0,0 +1,46 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search;
+
+/**
+ * American Soundex encoding used to match names that sound alike ("Mohammed" / "Muhamad").
+ * Returns {@code null} for input that contains no letters.
+ */
+public final class PhoneticKey {
+
+    //                                     ABCDEFGHIJKLMNOPQRSTUVWXYZ
+    private static final char[] CODES = "01230120022455012623010202".toCharArray();
+
+    private PhoneticKey() {
+    }
+
+    public static String soundex(String value) {
+        if (value == null) return null;
+
+        char[] key = new char[4];
+        int length = 0;
+        char last = 0;
+
+        for (int i = 0; i < value.length() && length < 4; i++) {
+            char c = Character.toUpperCase(value.charAt(i));
+            if (c < 'A' || c > 'Z') continue;
+
+            char code = CODES[c - 'A'];
+            if (length == 0) {
+                key[length++] = c;
+                last = code;
+                continue;
+            }
+            // H and W do not separate letters with the same code, vowels do
+            if (c == 'H' || c == 'W') continue;
+            if (code != '0' && code != last) {
+                key[length++] = code;
+            }
+            last = code;
+        }
+
+        if (length == 0) return null;
+        while (length < 4) {
+            key[length++] = '0';
+        }
+        return new String(key);
+    }
+}
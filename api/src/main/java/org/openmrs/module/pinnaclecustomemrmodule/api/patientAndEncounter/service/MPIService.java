@@ -1,20 +1,51 @@
 package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.service;
 
 import org.openmrs.Patient;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate.DuplicateCandidate;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate.DuplicateScan;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.merge.PatientMergeResult;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.projection.PatientSummary;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.registration.BulkRegistrationReport;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.registration.PatientRegistration;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search.PatientSearchPage;
+
 import java.util.List;
+import java.util.Set;
 
 public interface MPIService {
 
     Patient createPatient(Patient patient);
 
+    BulkRegistrationReport registerPatients(List<PatientRegistration> registrations, boolean allowDuplicates);
+
     Patient getPatientById(String uuid);
 
     List<Patient> searchPatients(String query);
 
+    PatientSearchPage<Patient> searchPatients(String query, Integer cursor, Integer limit);
+
+    PatientSearchPage<PatientSummary> searchPatientSummaries(String query, Integer cursor, Integer limit, Set<PatientSummary.Field> fields);
+
+    PatientSummary getPatientSummary(String uuid, Set<PatientSummary.Field> fields);
+
+    PatientSummary getPatientSummary(Integer patientId, Set<PatientSummary.Field> fields);
+
     Patient mergePatients(Integer sourcePatientId, Integer targetPatientId, String reason);
 
+    PatientMergeResult mergePatients(Integer sourcePatientId, Integer targetPatientId, String reason, boolean dryRun);
+
     Patient splitPatient(Integer mergedPatientId, Integer[] encounterIdsToMove, String reason);
 
+    List<DuplicateCandidate> getDuplicateCandidates(DuplicateCandidate.Status status, Integer cursor, Integer limit);
+
+    DuplicateCandidate mergeDuplicate(Integer candidateId, Integer survivorPatientId, String reason);
+
+    DuplicateCandidate rejectDuplicate(Integer candidateId);
+
+    DuplicateScan startDuplicateScan(boolean full);
+
+    DuplicateScan getDuplicateScan();
+
     // Temporarily commented out — Allergy API module not available
     // Allergy recordAllergy(Patient patient, String allergenName, String reaction, String severity);
     // List<Allergy> getAllergies(Patient patient);
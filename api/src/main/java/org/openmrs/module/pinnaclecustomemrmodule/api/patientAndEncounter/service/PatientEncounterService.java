@@ -2,6 +2,7 @@ package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.servi
 
 import java.util.List;
 import org.openmrs.Encounter;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.status.StatusTransitionReport;
 
 public interface PatientEncounterService {
 
@@ -10,7 +11,11 @@ public interface PatientEncounterService {
 
     Encounter changeStatus(Integer encounterId, String newStatus, Integer changedBy);
 
+    StatusTransitionReport changeStatuses(List<Integer> encounterIds, String newStatus, Integer changedBy);
+
     String getCurrentStatus(Integer encounterId);
 
     List<Encounter> findByStatus(String status);
+
+    List<Encounter> findByStatus(String status, Integer afterEncounterId, Integer limit);
 }
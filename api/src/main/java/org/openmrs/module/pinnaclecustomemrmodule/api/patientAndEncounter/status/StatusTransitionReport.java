@@ -0,0 +1,30 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.status;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a bulk status change: the encounters moved to the new status, in request order,
+ * and the reason each of the others was left alone.
+ */
+public class StatusTransitionReport {
+
+    private final String status;
+    private final List<Integer> changed;
+    private final Map<Integer, String> rejected;
+
+    public StatusTransitionReport(String status, List<Integer> changed, Map<Integer, String> rejected) {
+        this.status = status;
+        this.changed = changed;
+        this.rejected = rejected;
+    }
+
+    public String getStatus() { return status; }
+
+    public List<Integer> getChanged() { return changed; }
+
+    /**
+     * Encounter id to the reason it was not changed.
+     */
+    public Map<Integer, String> getRejected() { return rejected; }
+}
@@ -0,0 +1,10 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.searchAndExport.batch;
+
+/**
+ * Output container of a batch export: one PDF per patient inside a ZIP, or all records merged
+ * into a single PDF.
+ */
+public enum BatchExportFormat {
+    ZIP,
+    MERGED_PDF
+}
@@ -0,0 +1,120 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.searchAndExport.batch;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress and outcome of one batch export. Counters are updated by the worker threads and can
+ * be polled at any time.
+ */
+public class BatchExportJob {
+
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    private final String jobId = UUID.randomUUID().toString();
+    private final List<Integer> patientIds;
+    private final String watermark;
+    private final BatchExportFormat format;
+    private final Date createdOn = new Date();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final Map<Integer, String> errors = new ConcurrentHashMap<>();
+
+    private volatile Integer ownerId;
+    private volatile Status status = Status.QUEUED;
+    private volatile Date finishedOn;
+    private volatile File outputFile;
+    private volatile String message;
+
+    public BatchExportJob(List<Integer> patientIds, String watermark, BatchExportFormat format) {
+        this.patientIds = Collections.unmodifiableList(patientIds);
+        this.watermark = watermark;
+        this.format = format;
+    }
+
+    public String getJobId() { return jobId; }
+
+    public BatchExportFormat getFormat() { return format; }
+
+    public Status getStatus() { return status; }
+
+    public int getTotal() { return patientIds.size(); }
+
+    public int getCompleted() { return completed.get(); }
+
+    public int getFailed() { return failed.get(); }
+
+    public int getPercentComplete() {
+        return patientIds.isEmpty() ? 100 : (completed.get() + failed.get()) * 100 / patientIds.size();
+    }
+
+    public Map<Integer, String> getErrors() { return errors; }
+
+    public Date getCreatedOn() { return createdOn; }
+
+    public Date getFinishedOn() { return finishedOn; }
+
+    public String getMessage() { return message; }
+
+    public boolean isDownloadable() {
+        return status == Status.COMPLETED && outputFile != null && outputFile.exists();
+    }
+
+    /**
+     * Whether the given user submitted this job.
+     */
+    public boolean isOwnedBy(Integer userId) {
+        return ownerId != null && ownerId.equals(userId);
+    }
+
+    /**
+     * Whether the job finished more than {@code ttlMillis} ago.
+     */
+    boolean isExpired(long now, long ttlMillis) {
+        Date finished = finishedOn;
+        return finished != null && now - finished.getTime() > ttlMillis;
+    }
+
+    List<Integer> getPatientIds() { return patientIds; }
+
+    String getWatermark() { return watermark; }
+
+    public File outputFile() { return outputFile; }
+
+    void submittedBy(Integer userId) {
+        ownerId = userId;
+    }
+
+    void started() {
+        status = Status.RUNNING;
+    }
+
+    void recordSuccess() {
+        completed.incrementAndGet();
+    }
+
+    void recordFailure(Integer patientId, String error) {
+        failed.incrementAndGet();
+        errors.put(patientId, error != null ? error : "Unknown error");
+    }
+
+    void finished(File output) {
+        outputFile = output;
+        finishedOn = new Date();
+        status = Status.COMPLETED;
+    }
+
+    void aborted(String reason) {
+        message = reason;
+        finishedOn = new Date();
+        status = Status.FAILED;
+    }
+}
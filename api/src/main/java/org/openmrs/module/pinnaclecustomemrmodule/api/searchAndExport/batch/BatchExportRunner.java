@@ -0,0 +1,303 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.searchAndExport.batch;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.openmrs.Patient;
+import org.openmrs.User;
+import org.openmrs.api.context.Authenticated;
+import org.openmrs.api.context.AuthenticationScheme;
+import org.openmrs.api.context.BasicAuthenticated;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.ContextAuthenticationException;
+import org.openmrs.api.context.Credentials;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.pinnaclecustomemrmodule.api.audit.AuditEvent;
+import org.openmrs.module.pinnaclecustomemrmodule.api.audit.AuditLog;
+import org.openmrs.module.pinnaclecustomemrmodule.api.searchAndExport.pdf.PatientRecordRenderer;
+import org.openmrs.module.pinnaclecustomemrmodule.api.searchAndExport.pdf.PatientRecordRenderer.RecordConcepts;
+import org.openmrs.util.OpenmrsUtil;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Runs batch exports in the background. Each job is coordinated on its own thread while the
+ * individual records are rendered on a bounded worker pool; when the pool's queue is full the
+ * coordinator renders the record itself, which throttles submission instead of queueing the
+ * whole cohort in memory.
+ * <p>
+ * Every record is rendered to a temp file in its own OpenMRS session, so a worker's Hibernate
+ * session never holds more than one patient. Each of those sessions gets its own
+ * {@link UserContext} authenticated as the submitting user; the submitter's context belongs to
+ * the request thread and is not shared. The finished ZIP or merged PDF is written to
+ * {@code pinnacle/exports} in the application data directory, and is deleted again if the job
+ * fails or once the finished job has been kept for {@link #JOB_TTL_MILLIS}.
+ */
+@Component("pinnaclecustomemrmodule.BatchExportRunner")
+public class BatchExportRunner implements DisposableBean {
+
+    private static final Log log = LogFactory.getLog(BatchExportRunner.class);
+
+    private static final String EXPORT_DIRECTORY = "pinnacle/exports";
+    private static final int WORKERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int CONCURRENT_JOBS = 2;
+    private static final int RETAINED_JOBS = 50;
+    private static final long JOB_TTL_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    @Autowired
+    private PatientRecordRenderer renderer;
+
+    @Autowired
+    private AuditLog auditLog;
+
+    private final Map<String, BatchExportJob> jobs = new ConcurrentHashMap<>();
+
+    private final ExecutorService coordinators = Executors.newFixedThreadPool(CONCURRENT_JOBS,
+            daemonThreads("pinnacle-export-job-"));
+
+    private final ThreadPoolExecutor workers = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(WORKERS * 4), daemonThreads("pinnacle-export-worker-"),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    public BatchExportJob submit(BatchExportJob job) {
+        Submitter submitter = new Submitter(Context.getAuthenticatedUser().getUserId(), Context.getLocale());
+        job.submittedBy(submitter.userId);
+        evictOldJobs();
+        jobs.put(job.getJobId(), job);
+        coordinators.execute(() -> run(job, submitter));
+        return job;
+    }
+
+    public BatchExportJob getJob(String jobId) {
+        evictOldJobs();
+        return jobs.get(jobId);
+    }
+
+    @Override
+    public void destroy() {
+        coordinators.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private void run(BatchExportJob job, Submitter submitter) {
+        job.started();
+        List<File> rendered = new ArrayList<>();
+        List<Future<File>> futures = new ArrayList<>(job.getTotal());
+        File output = null;
+        try {
+            File directory = OpenmrsUtil.getDirectoryInApplicationDataDirectory(EXPORT_DIRECTORY);
+            RecordConcepts concepts = inSession(submitter, renderer::resolveConcepts);
+
+            for (Integer patientId : job.getPatientIds()) {
+                futures.add(workers.submit(() -> inSession(submitter,
+                        () -> renderRecord(patientId, job.getWatermark(), concepts, directory))));
+            }
+
+            List<Integer> exported = new ArrayList<>(job.getTotal());
+            if (job.getFormat() == BatchExportFormat.MERGED_PDF) {
+                output = new File(directory, "Batch_" + job.getJobId() + ".pdf");
+                PDFMergerUtility merger = new PDFMergerUtility();
+                merger.setDestinationFileName(output.getAbsolutePath());
+                for (int i = 0; i < futures.size(); i++) {
+                    File file = await(job, job.getPatientIds().get(i), futures.get(i));
+                    if (file == null) continue;
+                    rendered.add(file);
+                    merger.addSource(file);
+                    exported.add(job.getPatientIds().get(i));
+                }
+                if (!rendered.isEmpty()) merger.mergeDocuments(MemoryUsageSetting.setupTempFileOnly());
+            } else {
+                output = new File(directory, "Batch_" + job.getJobId() + ".zip");
+                try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+                    for (int i = 0; i < futures.size(); i++) {
+                        Integer patientId = job.getPatientIds().get(i);
+                        File file = await(job, patientId, futures.get(i));
+                        if (file == null) continue;
+                        try {
+                            zip.putNextEntry(new ZipEntry("Patient_Record_" + patientId + ".pdf"));
+                            Files.copy(file.toPath(), zip);
+                            zip.closeEntry();
+                        } finally {
+                            Files.deleteIfExists(file.toPath());
+                        }
+                        exported.add(patientId);
+                    }
+                }
+            }
+
+            inSession(submitter, () -> {
+                auditLog.recordAll(exported, AuditEvent.PDF_EXPORT_BATCH);
+                return null;
+            });
+            job.finished(output);
+        } catch (Exception e) {
+            log.error("Batch export " + job.getJobId() + " failed", e);
+            if (output != null) output.delete();
+            job.aborted(e.getMessage());
+        } finally {
+            for (File file : rendered) {
+                file.delete();
+            }
+            discardUnconsumed(futures);
+        }
+    }
+
+    /**
+     * Deletes the temp files of records still rendering or never collected because the job
+     * aborted; records not started yet are cancelled.
+     */
+    private static void discardUnconsumed(List<Future<File>> futures) {
+        for (Future<File> future : futures) {
+            if (future.cancel(false)) continue;
+            try {
+                File file = future.get();
+                if (file != null) file.delete();
+            } catch (ExecutionException | CancellationException e) {
+                // Failed records delete their own file
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private File renderRecord(Integer patientId, String watermark, RecordConcepts concepts, File directory) throws IOException {
+        Patient patient = Context.getPatientService().getPatient(patientId);
+        if (patient == null) throw new IllegalArgumentException("Patient not found: " + patientId);
+
+        File file = File.createTempFile("record-" + patientId + "-", ".pdf", directory);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            renderer.render(patient, watermark, concepts, out);
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            throw e;
+        }
+        return file;
+    }
+
+    private File await(BatchExportJob job, Integer patientId, Future<File> future) throws InterruptedException {
+        try {
+            File file = future.get();
+            job.recordSuccess();
+            return file;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            log.warn("Could not export record of patient " + patientId + ": " + cause.getMessage());
+            job.recordFailure(patientId, cause.getMessage());
+            return null;
+        }
+    }
+
+    private static <T> T inSession(Submitter submitter, Callable<T> work) throws Exception {
+        Context.openSession();
+        try {
+            UserContext userContext = new UserContext(submitter);
+            Context.setUserContext(userContext);
+            userContext.authenticate(submitter);
+            userContext.setLocale(submitter.locale);
+            return work.call();
+        } finally {
+            Context.closeSession();
+        }
+    }
+
+    private void evictOldJobs() {
+        long now = System.currentTimeMillis();
+        for (BatchExportJob old : jobs.values()) {
+            if (old.isExpired(now, JOB_TTL_MILLIS) && jobs.remove(old.getJobId(), old)) {
+                if (old.outputFile() != null) old.outputFile().delete();
+            }
+        }
+        if (jobs.size() < RETAINED_JOBS) return;
+
+        Iterator<BatchExportJob> it = jobs.values().stream()
+                .filter(j -> j.getFinishedOn() != null)
+                .sorted((a, b) -> a.getFinishedOn().compareTo(b.getFinishedOn()))
+                .iterator();
+        while (jobs.size() >= RETAINED_JOBS && it.hasNext()) {
+            BatchExportJob old = it.next();
+            jobs.remove(old.getJobId());
+            if (old.outputFile() != null) old.outputFile().delete();
+        }
+    }
+
+    /**
+     * Authenticates a background session as the user who submitted the job, reloading the user in
+     * that session so its roles are not read through the request thread's Hibernate session.
+     */
+    private static final class Submitter implements Credentials, AuthenticationScheme {
+
+        private static final String SCHEME = "pinnacle-batch-export";
+
+        private final Integer userId;
+        private final Locale locale;
+
+        Submitter(Integer userId, Locale locale) {
+            this.userId = userId;
+            this.locale = locale;
+        }
+
+        @Override
+        public String getAuthenticationScheme() {
+            return SCHEME;
+        }
+
+        @Override
+        public String getClientName() {
+            return "user " + userId;
+        }
+
+        @Override
+        public Authenticated authenticate(Credentials credentials) throws ContextAuthenticationException {
+            User user;
+            Context.addProxyPrivilege(PrivilegeConstants.GET_USERS);
+            try {
+                user = Context.getUserService().getUser(userId);
+            } finally {
+                Context.removeProxyPrivilege(PrivilegeConstants.GET_USERS);
+            }
+            if (user == null || user.getRetired()) {
+                throw new ContextAuthenticationException("Export submitter is no longer an active user: " + userId);
+            }
+            return new BasicAuthenticated(user, SCHEME);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
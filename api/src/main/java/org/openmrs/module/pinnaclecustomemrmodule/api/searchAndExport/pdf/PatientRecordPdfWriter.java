@@ -0,0 +1,217 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.searchAndExport.pdf;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lays out one patient record PDF. An instance holds all layout state (current page, content
+ * stream, vertical position) for a single export, so it must not be shared between requests.
+ * <p>
+ * The document is built in full before anything is written: page content goes to a temp scratch
+ * file rather than the heap, so a long record costs disk rather than memory, and
+ * {@link #writeTo(OutputStream)} then saves the whole document to the caller's stream in one go.
+ * Only the page objects themselves stay on the heap. Each page gets the watermark and footer when
+ * it is closed.
+ */
+public class PatientRecordPdfWriter implements Closeable {
+
+    private static final PDFont BOLD = PDType1Font.HELVETICA_BOLD;
+    private static final PDFont REGULAR = PDType1Font.HELVETICA;
+    private static final float MARGIN = 50;
+    private static final float TOP = 750;
+    private static final float BOTTOM = 60;
+    private static final float LINE_HEIGHT = 15;
+    private static final float BODY_SIZE = 11;
+    private static final float WATERMARK_GRAY = 230 / 255f;
+
+    private final PDDocument document;
+    private final String watermark;
+    private final String footer;
+
+    private PDPageContentStream content;
+    private float yPosition;
+    private int pageCount;
+
+    public PatientRecordPdfWriter(String watermark, String footer) {
+        this.document = new PDDocument(MemoryUsageSetting.setupTempFileOnly());
+        this.watermark = watermark;
+        this.footer = footer;
+    }
+
+    public void title(String text) throws IOException {
+        writeLine(text, MARGIN, BOLD, 18);
+        yPosition -= 30;
+    }
+
+    public void heading(String text) throws IOException {
+        writeLine(text, MARGIN, BOLD, 14);
+    }
+
+    public void sectionHeader(String title) throws IOException {
+        yPosition -= 20;
+        writeLine(title.toUpperCase(), MARGIN, BOLD, 12);
+        yPosition -= 5;
+    }
+
+    public void line(String text, float indent) throws IOException {
+        writeLine(text, indent, REGULAR, BODY_SIZE);
+    }
+
+    public void gap(float points) {
+        yPosition -= points;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Closes the last page and writes the complete document to {@code out}. The stream is not
+     * closed.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (content == null) startPage();
+        finishPage();
+
+        // PDDocument.save closes the stream it is given; the caller owns this one
+        document.save(new FilterOutputStream(out) {
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (content != null) {
+            content.close();
+            content = null;
+        }
+        document.close();
+    }
+
+    private void writeLine(String text, float x, PDFont font, float size) throws IOException {
+        float maxWidth = PDRectangle.LETTER.getWidth() - MARGIN - x;
+        for (String wrapped : wrap(sanitize(text, font), font, size, maxWidth)) {
+            if (content == null || yPosition < BOTTOM) {
+                finishPage();
+                startPage();
+            }
+            content.beginText();
+            content.setFont(font, size);
+            content.newLineAtOffset(x, yPosition);
+            content.showText(wrapped);
+            content.endText();
+            yPosition -= LINE_HEIGHT;
+        }
+    }
+
+    private void startPage() throws IOException {
+        PDPage page = new PDPage(PDRectangle.LETTER);
+        document.addPage(page);
+        content = new PDPageContentStream(document, page);
+        yPosition = TOP;
+        pageCount++;
+    }
+
+    private void finishPage() throws IOException {
+        if (content == null) return;
+
+        if (watermark != null) {
+            content.beginText();
+            content.setFont(BOLD, 80);
+            content.setNonStrokingColor(WATERMARK_GRAY, WATERMARK_GRAY, WATERMARK_GRAY);
+            content.newLineAtOffset(100, 400);
+            content.showText(sanitize(watermark, BOLD));
+            content.endText();
+            content.setNonStrokingColor(0f, 0f, 0f);
+        }
+
+        content.beginText();
+        content.setFont(REGULAR, 9);
+        content.newLineAtOffset(MARGIN, 30);
+        content.showText(sanitize(footer + " | Page " + pageCount, REGULAR));
+        content.endText();
+
+        content.close();
+        content = null;
+    }
+
+    private static List<String> wrap(String text, PDFont font, float size, float maxWidth) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String current = "";
+        for (String word : text.split(" ")) {
+            String candidate = current.isEmpty() ? word : current + " " + word;
+            if (!current.isEmpty() && width(candidate, font, size) > maxWidth) {
+                lines.add(current);
+                candidate = word;
+            }
+            // A single word wider than the line (a URL, a long accession number) is broken
+            // where it overflows instead of running off the page
+            while (candidate.length() > 1 && width(candidate, font, size) > maxWidth) {
+                int fit = fittingLength(candidate, font, size, maxWidth);
+                lines.add(candidate.substring(0, fit));
+                candidate = candidate.substring(fit);
+            }
+            current = candidate;
+        }
+        lines.add(current);
+        return lines;
+    }
+
+    /**
+     * Length of the longest prefix of {@code text} that fits in {@code maxWidth}; at least one
+     * character, so wrapping always makes progress.
+     */
+    private static int fittingLength(String text, PDFont font, float size, float maxWidth) throws IOException {
+        float width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            width += width(String.valueOf(text.charAt(i)), font, size);
+            if (width > maxWidth) return Math.max(1, i);
+        }
+        return text.length();
+    }
+
+    private static float width(String text, PDFont font, float size) throws IOException {
+        return font.getStringWidth(text) / 1000 * size;
+    }
+
+    /**
+     * Standard 14 fonts only cover WinAnsi; replace line breaks and anything else they cannot
+     * encode so one odd character in free text does not abort the whole export.
+     */
+    private static String sanitize(String text, PDFont font) {
+        if (text == null) return "";
+        String flat = text.replaceAll("[\\r\\n\\t]+", " ");
+        StringBuilder out = new StringBuilder(flat.length());
+        for (int i = 0; i < flat.length(); i++) {
+            char c = flat.charAt(i);
+            try {
+                font.encode(String.valueOf(c));
+                out.append(c);
+            } catch (IllegalArgumentException | IOException e) {
+                out.append('?');
+            }
+        }
+        return out.toString();
+    }
+}
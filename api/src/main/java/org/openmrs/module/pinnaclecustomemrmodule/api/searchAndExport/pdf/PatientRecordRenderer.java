@@ -0,0 +1,170 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.searchAndExport.pdf;
+
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.openmrs.Concept;
+import org.openmrs.DrugOrder;
+import org.openmrs.Obs;
+import org.openmrs.Order;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.concept.ConceptNameCache;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.RecordExportDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Renders the sections of a patient record into a {@link PatientRecordPdfWriter}. Stateless; the
+ * concepts a record needs are resolved once into {@link RecordConcepts} so batch exports can reuse
+ * them for every patient. Only their ids are kept, so a batch can share them across the sessions
+ * of its workers without touching detached entities.
+ */
+@Component("pinnaclecustomemrmodule.PatientRecordRenderer")
+public class PatientRecordRenderer {
+
+    private static final FastDateFormat SDF = FastDateFormat.getInstance("dd-MMM-yyyy");
+    private static final String ALLERGY_CONCEPT_UUID = "1427AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+    private static final float INDENT = 70;
+
+    @Autowired private ConceptNameCache conceptCache;
+    @Autowired private RecordExportDao recordExportDao;
+
+    /**
+     * Ids of the concepts referenced by a record, looked up once per export or batch; null for a
+     * concept the dictionary does not have.
+     */
+    public static class RecordConcepts {
+
+        final Integer allergy;
+        final Integer diagnosis;
+        final Integer labResult;
+        final Integer temperature;
+        final Integer pulse;
+        final Integer systolic;
+        final Integer diastolic;
+
+        RecordConcepts(Integer allergy, Integer diagnosis, Integer labResult, Integer temperature,
+                       Integer pulse, Integer systolic, Integer diastolic) {
+            this.allergy = allergy;
+            this.diagnosis = diagnosis;
+            this.labResult = labResult;
+            this.temperature = temperature;
+            this.pulse = pulse;
+            this.systolic = systolic;
+            this.diastolic = diastolic;
+        }
+    }
+
+    public RecordConcepts resolveConcepts() {
+        return new RecordConcepts(
+                idOf(conceptCache.getConceptByUuid(ALLERGY_CONCEPT_UUID)),
+                idOf(conceptCache.getConceptByName("Diagnosis")),
+                idOf(conceptCache.getConceptByName("Laboratory Test Result")),
+                idOf(conceptCache.getConceptByName("Temperature")),
+                idOf(conceptCache.getConceptByName("Pulse")),
+                idOf(conceptCache.getConceptByName("Systolic blood pressure")),
+                idOf(conceptCache.getConceptByName("Diastolic blood pressure")));
+    }
+
+    private static Integer idOf(Concept concept) {
+        return concept != null ? concept.getConceptId() : null;
+    }
+
+    /**
+     * Renders the full record of {@code patient} and writes the PDF to {@code out}.
+     */
+    public void render(Patient patient, String watermark, RecordConcepts concepts, OutputStream out) throws IOException {
+        try (PatientRecordPdfWriter pdf = new PatientRecordPdfWriter(watermark, footerText())) {
+            renderRecord(patient, concepts, pdf);
+            pdf.writeTo(out);
+        }
+    }
+
+    private void renderRecord(Patient patient, RecordConcepts concepts, PatientRecordPdfWriter pdf) throws IOException {
+        pdf.title("PINNACLE CUSTOM EMR - PATIENT RECORD");
+
+        // Header
+        pdf.heading("Patient Information");
+        pdf.line("Name: " + patient.getPersonName().getFullName(), INDENT);
+        pdf.line("ID: " + patient.getPatientIdentifier().getIdentifier(), INDENT);
+        pdf.line("DOB: " + formatDate(patient.getBirthdate()) +
+                " | Age: " + patient.getAge() + " | Gender: " + patient.getGender(), INDENT);
+        pdf.gap(10);
+
+        // Allergies
+        pdf.sectionHeader("Allergies");
+        int allergies = writeObs(patient, concepts.allergy, pdf,
+                obs -> "• " + obs.getValueCoded().getName().getName());
+        if (allergies == 0) pdf.line("No known allergies", INDENT);
+
+        // Diagnoses
+        pdf.sectionHeader("Diagnoses");
+        int diagnoses = writeObs(patient, concepts.diagnosis, pdf,
+                d -> "• " + d.getValueCoded().getName().getName() + " (" + formatDate(d.getObsDatetime()) + ")");
+        if (diagnoses == 0) pdf.line("No active diagnoses", INDENT);
+
+        // Latest Vitals
+        pdf.sectionHeader("Latest Vital Signs");
+        Obs latestTemp = recordExportDao.getLatestObs(patient, concepts.temperature);
+        Obs latestPulse = recordExportDao.getLatestObs(patient, concepts.pulse);
+        Obs latestSystolic = recordExportDao.getLatestObs(patient, concepts.systolic);
+        Obs latestDiastolic = recordExportDao.getLatestObs(patient, concepts.diastolic);
+        if (latestTemp != null || latestPulse != null) {
+            pdf.line("Temp: " + (latestTemp != null ? latestTemp.getValueNumeric() + "°C" : "—"), INDENT);
+            pdf.line("Pulse: " + (latestPulse != null ? latestPulse.getValueNumeric() + " bpm" : "—"), INDENT);
+            pdf.line("BP: " + (latestSystolic != null ? latestSystolic.getValueNumeric() : "—") + "/" +
+                    (latestDiastolic != null ? latestDiastolic.getValueNumeric() : "—") + " mmHg", INDENT);
+        } else {
+            pdf.line("No vital signs recorded", INDENT);
+        }
+
+        // Active Medications
+        pdf.sectionHeader("Active Medications");
+        List<Order> activeOrders = Context.getOrderService().getActiveOrders(patient, null, null, null);
+        boolean anyDrug = false;
+        for (Order o : activeOrders) {
+            if (o instanceof DrugOrder) {
+                DrugOrder doo = (DrugOrder) o;
+                pdf.line("• " + doo.getDrug().getName() +
+                        " " + doo.getDose() + " " + doo.getDoseUnits().getName().getName() +
+                        " | " + doo.getRoute().getName().getName() +
+                        " | " + doo.getFrequency().getName(), INDENT);
+                anyDrug = true;
+            }
+        }
+        if (!anyDrug) pdf.line("No active medications", INDENT);
+
+        // Recent Labs
+        pdf.sectionHeader("Recent Laboratory Results");
+        int labs = writeObs(patient, concepts.labResult, pdf,
+                lab -> "• " + lab.getConcept().getName().getName() + ": " + lab.getValueAsString(Context.getLocale()));
+        if (labs == 0) pdf.line("No lab results", INDENT);
+    }
+
+    private interface ObsLine {
+
+        String format(Obs obs);
+    }
+
+    private int writeObs(Patient patient, Integer conceptId, PatientRecordPdfWriter pdf, ObsLine line) throws IOException {
+        int[] count = { 0 };
+        recordExportDao.forEachObs(patient, conceptId, obs -> {
+            pdf.line(line.format(obs), INDENT);
+            count[0]++;
+        });
+        return count[0];
+    }
+
+    private String footerText() {
+        return "Printed on: " + SDF.format(new Date()) +
+                " | By: " + Context.getAuthenticatedUser().getPersonName().getFullName();
+    }
+
+    private String formatDate(Date date) {
+        return date != null ? SDF.format(date) : "—";
+    }
+}
@@ -1,8 +1,19 @@
 package org.openmrs.module.pinnaclecustomemrmodule.api.searchAndExport.service;
 
+import org.openmrs.module.pinnaclecustomemrmodule.api.searchAndExport.batch.BatchExportFormat;
+import org.openmrs.module.pinnaclecustomemrmodule.api.searchAndExport.batch.BatchExportJob;
+
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
 
 public interface ExportAndSearchService {
+    void writePatientRecordPdf(Integer patientId, String watermark, OutputStream out) throws IOException;
+    void writePatientSummaryPdf(Integer patientId, OutputStream out) throws IOException;
     byte[] exportPatientRecordAsPdf(Integer patientId, String watermark) throws IOException;
     byte[] exportPatientSummaryAsPdf(Integer patientId) throws IOException;
-}
\ No newline at end of file
+
+    BatchExportJob startBatchExport(List<Integer> patientIds, String watermark, BatchExportFormat format);
+    BatchExportJob startCohortExport(String cohortUuid, String watermark, BatchExportFormat format);
+    BatchExportJob getBatchExportJob(String jobId);
+}
@@ -0,0 +1,114 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.synthetic;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Scale and shape of a synthetic dataset. Counts per patient or encounter are means of Poisson
+ * distributions; rates are probabilities between 0 and 1. Every date is derived from
+ * {@code referenceDate} (yyyy-MM-dd, today unless set), the last day of the generated history.
+ * The same seed, reference date and settings always produce the same records (row ids depend on
+ * what the database already holds).
+ */
+public class SyntheticDataConfig {
+
+    private long seed = 42;
+    private String referenceDate = LocalDate.now().toString();
+    private int patients = 10000;
+    private String identifierPrefix = "SYN";
+    private int historyDays = 730;
+    private int maxAgeYears = 90;
+    private double femaleRate = 0.52;
+
+    private double encountersPerPatient = 4.0;
+    private double closedEncounterRate = 0.85;
+    private double vitalsRate = 0.9;
+    private double soapNoteRate = 0.6;
+    private double diagnosesPerEncounter = 1.2;
+    private double drugOrdersPerEncounter = 1.5;
+    private double labOrdersPerEncounter = 1.0;
+    private double labResultRate = 0.7;
+    private double allergyRate = 0.1;
+
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int patientsPerTask = 500;
+
+    /**
+     * @throws IllegalArgumentException if a setting is out of range
+     */
+    public void validate() {
+        if (patients < 1 || patients > 10_000_000) throw new IllegalArgumentException("patients must be between 1 and 10000000");
+        if (identifierPrefix == null || identifierPrefix.trim().isEmpty() || identifierPrefix.length() > 20) {
+            throw new IllegalArgumentException("identifierPrefix must be 1 to 20 characters");
+        }
+        if (referenceDate == null) throw new IllegalArgumentException("referenceDate must be a date as yyyy-MM-dd");
+        try {
+            referenceDate();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("referenceDate must be a date as yyyy-MM-dd");
+        }
+        if (historyDays < 1) throw new IllegalArgumentException("historyDays must be positive");
+        if (maxAgeYears < 1 || maxAgeYears > 120) throw new IllegalArgumentException("maxAgeYears must be between 1 and 120");
+        if (workers < 1 || workers > 64) throw new IllegalArgumentException("workers must be between 1 and 64");
+        if (patientsPerTask < 1 || patientsPerTask > 10000) throw new IllegalArgumentException("patientsPerTask must be between 1 and 10000");
+        requireMean("encountersPerPatient", encountersPerPatient);
+        requireMean("diagnosesPerEncounter", diagnosesPerEncounter);
+        requireMean("drugOrdersPerEncounter", drugOrdersPerEncounter);
+        requireMean("labOrdersPerEncounter", labOrdersPerEncounter);
+        requireRate("femaleRate", femaleRate);
+        requireRate("closedEncounterRate", closedEncounterRate);
+        requireRate("vitalsRate", vitalsRate);
+        requireRate("soapNoteRate", soapNoteRate);
+        requireRate("labResultRate", labResultRate);
+        requireRate("allergyRate", allergyRate);
+    }
+
+    private static void requireMean(String name, double value) {
+        if (!(value >= 0 && value <= 50)) throw new IllegalArgumentException(name + " must be between 0 and 50");
+    }
+
+    private static void requireRate(String name, double value) {
+        if (!(value >= 0 && value <= 1)) throw new IllegalArgumentException(name + " must be between 0 and 1");
+    }
+
+    LocalDate referenceDate() {
+        return LocalDate.parse(referenceDate);
+    }
+
+    public long getSeed() { return seed; }
+    public void setSeed(long seed) { this.seed = seed; }
+    public String getReferenceDate() { return referenceDate; }
+    public void setReferenceDate(String referenceDate) { this.referenceDate = referenceDate; }
+    public int getPatients() { return patients; }
+    public void setPatients(int patients) { this.patients = patients; }
+    public String getIdentifierPrefix() { return identifierPrefix; }
+    public void setIdentifierPrefix(String identifierPrefix) { this.identifierPrefix = identifierPrefix; }
+    public int getHistoryDays() { return historyDays; }
+    public void setHistoryDays(int historyDays) { this.historyDays = historyDays; }
+    public int getMaxAgeYears() { return maxAgeYears; }
+    public void setMaxAgeYears(int maxAgeYears) { this.maxAgeYears = maxAgeYears; }
+    public double getFemaleRate() { return femaleRate; }
+    public void setFemaleRate(double femaleRate) { this.femaleRate = femaleRate; }
+    public double getEncountersPerPatient() { return encountersPerPatient; }
+    public void setEncountersPerPatient(double encountersPerPatient) { this.encountersPerPatient = encountersPerPatient; }
+    public double getClosedEncounterRate() { return closedEncounterRate; }
+    public void setClosedEncounterRate(double closedEncounterRate) { this.closedEncounterRate = closedEncounterRate; }
+    public double getVitalsRate() { return vitalsRate; }
+    public void setVitalsRate(double vitalsRate) { this.vitalsRate = vitalsRate; }
+    public double getSoapNoteRate() { return soapNoteRate; }
+    public void setSoapNoteRate(double soapNoteRate) { this.soapNoteRate = soapNoteRate; }
+    public double getDiagnosesPerEncounter() { return diagnosesPerEncounter; }
+    public void setDiagnosesPerEncounter(double diagnosesPerEncounter) { this.diagnosesPerEncounter = diagnosesPerEncounter; }
+    public double getDrugOrdersPerEncounter() { return drugOrdersPerEncounter; }
+    public void setDrugOrdersPerEncounter(double drugOrdersPerEncounter) { this.drugOrdersPerEncounter = drugOrdersPerEncounter; }
+    public double getLabOrdersPerEncounter() { return labOrdersPerEncounter; }
+    public void setLabOrdersPerEncounter(double labOrdersPerEncounter) { this.labOrdersPerEncounter = labOrdersPerEncounter; }
+    public double getLabResultRate() { return labResultRate; }
+    public void setLabResultRate(double labResultRate) { this.labResultRate = labResultRate; }
+    public double getAllergyRate() { return allergyRate; }
+    public void setAllergyRate(double allergyRate) { this.allergyRate = allergyRate; }
+    public int getWorkers() { return workers; }
+    public void setWorkers(int workers) { this.workers = workers; }
+    public int getPatientsPerTask() { return patientsPerTask; }
+    public void setPatientsPerTask(int patientsPerTask) { this.patientsPerTask = patientsPerTask; }
+}
@@ -0,0 +1,575 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.synthetic;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.CareSetting;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.Drug;
+import org.openmrs.EncounterType;
+import org.openmrs.Location;
+import org.openmrs.OrderType;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.Provider;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.pinnaclecustomemrmodule.api.concept.ConceptProvisioner;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.PatientRegistrationDao;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.PatientRegistrationDao.NewPatientRow;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.SyntheticDataDao;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.SyntheticDataDao.EncounterRow;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.SyntheticDataDao.ObsRow;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.SyntheticDataDao.OrderRow;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.SyntheticDataDao.ReferenceData;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.registration.PatientRegistration;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search.PatientSearchIndex;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates a synthetic clinical dataset for load and scale testing: patients with names and
+ * identifiers, and per patient a Poisson-distributed number of encounters, each with an
+ * {@code emr_encounter_status} history, a vitals group shaped like
+ * {@code ClinicalService.saveVitals} output, a SOAP note, coded diagnoses, drug and test orders,
+ * lab order obs and, for resulted tests, lab result groups like {@code receiveLabResult} saves.
+ * <p>
+ * The patients are split into tasks of {@link SyntheticDataConfig#getPatientsPerTask()}; each task
+ * draws from its own generator seeded by the run seed and the task number, so the data does not
+ * depend on how tasks are scheduled over the workers. A task writes its rows with JDBC batches in
+ * one transaction. The inserts bypass the Hibernate save handlers: the patient search index is
+ * dropped at the end so it is rebuilt, and duplicate detection only sees the new patients after a
+ * full scan.
+ * <p>
+ * Patients get identifiers {@code <prefix><seed>-<n>} of a dedicated
+ * {@value #IDENTIFIER_TYPE} type without a check-digit validator. A seed and prefix that have
+ * already been generated are refused, since the same identifiers and order numbers would be
+ * written again.
+ */
+@Component("pinnaclecustomemrmodule.SyntheticDataGenerator")
+public class SyntheticDataGenerator implements DisposableBean {
+
+    private static final Log log = LogFactory.getLog(SyntheticDataGenerator.class);
+
+    public static final List<String> FEMALE_GIVEN_NAMES = Collections.unmodifiableList(Arrays.asList("Amina", "Beatrice",
+            "Catherine", "Esther", "Faith", "Grace", "Irene", "Joyce", "Lucy", "Mercy", "Naomi", "Rose", "Sarah", "Tabitha",
+            "Wanjiru", "Zawadi"));
+    public static final List<String> MALE_GIVEN_NAMES = Collections.unmodifiableList(Arrays.asList("Brian", "Collins",
+            "David", "Francis", "Hassan", "James", "Kevin", "Moses", "Otieno", "Peter", "Samuel", "Tom", "Victor", "Yusuf"));
+    public static final List<String> FAMILY_NAMES = Collections.unmodifiableList(Arrays.asList("Achieng", "Barasa",
+            "Chebet", "Kamau", "Kariuki", "Kiprono", "Korir", "Mutua", "Mwangi", "Njoroge", "Ochieng", "Odhiambo", "Omondi",
+            "Onyango", "Otieno", "Wafula", "Wambui", "Wanjala", "Wekesa"));
+
+    private static final String[] SYLLABLES = { "ka", "ri", "mo", "ta", "ne", "lu", "si", "wa", "ro", "ji", "be", "do" };
+    private static final String[] TOWNS = { "Nairobi", "Mombasa", "Kisumu", "Nakuru", "Eldoret", "Thika", "Machakos" };
+
+    public static final String IDENTIFIER_TYPE = "Pinnacle Synthetic ID";
+
+    private static final String VITALS_GROUP = "Vital Signs";
+    private static final String SOAP_GROUP = "SOAP Note";
+    private static final String DIAGNOSIS = "Diagnosis";
+    private static final String LAB_TEST_ORDER = "Laboratory Test";
+    private static final String LAB_RESULT_GROUP = "Laboratory Test Result";
+    private static final String ALLERGY_CONCEPT_UUID = "1427AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+    // Name, mean, standard deviation, decimals; drawn from a normal distribution
+    private static final Object[][] VITALS = {
+            { "Temperature", 36.8, 0.6, 1 }, { "Pulse", 82.0, 14.0, 0 }, { "Systolic blood pressure", 124.0, 18.0, 0 },
+            { "Diastolic blood pressure", 79.0, 11.0, 0 }, { "Respiratory rate", 18.0, 3.0, 0 },
+            { "Oxygen saturation", 97.0, 2.0, 0 } };
+    private static final Object[][] ANTHROPOMETRICS = { { "Height (cm)", 165.0, 10.0, 0 }, { "Weight (kg)", 68.0, 14.0, 1 } };
+    private static final double ANTHROPOMETRICS_RATE = 0.3;
+
+    // Name, mean, standard deviation, decimals, reference range
+    private static final Object[][] LAB_TESTS = {
+            { "Hemoglobin", 13.2, 1.8, 1, "12.0-17.5" }, { "Serum creatinine", 0.95, 0.3, 2, "0.6-1.2" },
+            { "Blood glucose", 108.0, 32.0, 0, "70-140" }, { "White blood cell count", 7.4, 2.2, 1, "4.0-11.0" },
+            { "Platelet count", 260.0, 70.0, 0, "150-400" }, { "Serum potassium", 4.2, 0.5, 1, "3.5-5.1" } };
+    private static final String[] DEFAULT_DIAGNOSES = { "Malaria", "Hypertension", "Type 2 diabetes mellitus", "Pneumonia",
+            "Urinary tract infection", "Upper respiratory tract infection", "Gastroenteritis", "Asthma" };
+    private static final String[] ALLERGENS = { "Penicillin", "Sulfonamide", "Aspirin", "Ibuprofen" };
+    private static final String[] DOSING = { "1 tablet twice daily for 5 days", "1 tablet three times daily for 7 days",
+            "2 tablets once daily for 30 days", "10 ml three times daily for 5 days", "1 tablet at night for 14 days" };
+    private static final String[] SUBJECTIVE = { "Fever and headache for three days", "Cough for one week",
+            "Follow-up visit, no new complaints", "Abdominal pain since yesterday", "Dizziness on standing" };
+    private static final String[] OBJECTIVE = { "Alert, mildly febrile", "Chest clear, no distress", "Abdomen soft, mild tenderness",
+            "Stable vital signs", "Mild pallor" };
+    private static final String[] ASSESSMENT = { "Likely viral illness", "Condition controlled", "Suspected infection",
+            "Stable chronic disease", "Needs further investigation" };
+    private static final String[] PLAN = { "Symptomatic treatment, review in one week", "Continue current medication",
+            "Labs ordered, review results", "Start antibiotics", "Refer to specialist clinic" };
+    private static final String[] STATUS_PATH = { "REGISTERED", "IN_PROGRESS", "DISCHARGED", "CLOSED" };
+    private static final int MAX_DIAGNOSIS_CONCEPTS = 200;
+
+    @Autowired private PatientRegistrationDao registrationDao;
+    @Autowired private SyntheticDataDao syntheticDao;
+    @Autowired private ConceptProvisioner conceptProvisioner;
+    @Autowired private PatientSearchIndex searchIndex;
+    @Autowired private PlatformTransactionManager transactionManager;
+
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(daemonThreads("pinnacle-synthetic-data-"));
+
+    private volatile SyntheticDataRun lastRun;
+
+    /**
+     * Concept, drug and reference ids resolved once per run.
+     */
+    private static final class Vocabulary {
+
+        ReferenceData reference;
+        int identifierTypeId;
+        Integer locationId;
+        int vitalsGroup;
+        int[] vitals;
+        int[] anthropometrics;
+        int soapGroup;
+        int[] soapParts;
+        int diagnosis;
+        int[] diagnoses;
+        int labTestOrder;
+        int labResultGroup;
+        int[] labTests;
+        Integer allergy;
+        int[] allergens;
+        int[][] drugs;          // {drugId, conceptId}
+    }
+
+    /**
+     * Starts generating in the background, or returns the run in progress.
+     *
+     * @throws IllegalArgumentException if the configuration is invalid or its seed and prefix have
+     *             already been generated
+     */
+    public synchronized SyntheticDataRun start(SyntheticDataConfig config) {
+        config.validate();
+        SyntheticDataRun running = lastRun;
+        if (running != null && running.getStatus() == SyntheticDataRun.Status.RUNNING) return running;
+        transactionally(() -> {
+            requireNewSeed(config);
+            return null;
+        });
+
+        UserContext userContext = Context.getUserContext();
+        SyntheticDataRun run = new SyntheticDataRun(config);
+        lastRun = run;
+        coordinator.execute(() -> run(run, userContext));
+        return run;
+    }
+
+    /**
+     * Generates as the calling user and returns once every task has committed (or the run has
+     * failed; see {@link SyntheticDataRun#getStatus()}). Waits for a background run in progress
+     * to finish first.
+     */
+    public SyntheticDataRun generate(SyntheticDataConfig config) throws InterruptedException {
+        config.validate();
+        UserContext userContext = Context.getUserContext();
+        SyntheticDataRun run = new SyntheticDataRun(config);
+        try {
+            coordinator.submit(() -> {
+                lastRun = run;
+                run(run, userContext);
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return run;
+    }
+
+    public SyntheticDataRun getLastRun() {
+        return lastRun;
+    }
+
+    @Override
+    public void destroy() {
+        coordinator.shutdownNow();
+    }
+
+    private void run(SyntheticDataRun run, UserContext userContext) {
+        SyntheticDataConfig config = run.getConfig();
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(config.getWorkers(), config.getWorkers(), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(config.getWorkers() * 2), daemonThreads("pinnacle-synthetic-worker-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            Vocabulary vocabulary = inSession(userContext, () -> transactionally(() -> resolveVocabulary(config)));
+
+            int tasks = (config.getPatients() + config.getPatientsPerTask() - 1) / config.getPatientsPerTask();
+            List<Future<?>> futures = new ArrayList<>(tasks);
+            for (int task = 0; task < tasks; task++) {
+                int t = task;
+                futures.add(workers.submit(() -> inSession(userContext,
+                        () -> transactionally(() -> generateTask(config, vocabulary, t, run)))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            searchIndex.invalidate();
+            run.finished();
+            log.info("Synthetic data run " + run.getRunId() + " wrote " + run.getPatients() + " patients, "
+                    + run.getEncounters() + " encounters, " + run.getObs() + " obs and " + run.getOrders() + " orders ("
+                    + run.getRowsPerSecond() + " rows/s)");
+        } catch (Exception e) {
+            log.error("Synthetic data run " + run.getRunId() + " failed", e);
+            run.aborted(e.getMessage());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private Void generateTask(SyntheticDataConfig config, Vocabulary v, int task, SyntheticDataRun run) {
+        // Task-local generator: the data depends on the seed and task number only
+        Random random = new Random(config.getSeed() * 1_000_003L + task);
+        int first = task * config.getPatientsPerTask();
+        int count = Math.min(config.getPatientsPerTask(), config.getPatients() - first);
+        LocalDate reference = config.referenceDate();
+        LocalDateTime end = reference.atTime(17, 0);
+
+        List<NewPatientRow> patients = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            patients.add(new NewPatientRow(newRegistration(config, reference, random),
+                    identifierStem(config) + (first + i)));
+        }
+        registrationDao.insertPatients(patients, v.identifierTypeId, v.locationId, Context.getAuthenticatedUser().getUserId());
+
+        List<EncounterRow> encounters = new ArrayList<>();
+        List<OrderRow> orders = new ArrayList<>();
+        List<ObsRow> obs = new ArrayList<>();
+        long statusChanges = 0;
+        int orderSequence = 0;
+        for (NewPatientRow patient : patients) {
+            int visits = poisson(random, config.getEncountersPerPatient());
+            List<LocalDateTime> times = new ArrayList<>(visits);
+            for (int i = 0; i < visits; i++) {
+                times.add(end.minusDays(random.nextInt(config.getHistoryDays()))
+                        .withHour(8 + random.nextInt(9)).withMinute(random.nextInt(60)));
+            }
+            Collections.sort(times);
+
+            for (int i = 0; i < visits; i++) {
+                Date at = toDate(times.get(i));
+                EncounterRow encounter = new EncounterRow(patient.getPatientId(), at);
+                addStatusHistory(encounter, times.get(i), config, random);
+                statusChanges += encounter.getStatusCount();
+                encounters.add(encounter);
+
+                if (random.nextDouble() < config.getVitalsRate()) {
+                    obs.add(newVitals(encounter, v, random));
+                }
+                if (random.nextDouble() < config.getSoapNoteRate()) {
+                    ObsRow soap = new ObsRow(encounter, v.soapGroup, at);
+                    soap.addMember(v.soapParts[0]).text(pick(SUBJECTIVE, random));
+                    soap.addMember(v.soapParts[1]).text(pick(OBJECTIVE, random));
+                    soap.addMember(v.soapParts[2]).text(pick(ASSESSMENT, random));
+                    soap.addMember(v.soapParts[3]).text(pick(PLAN, random));
+                    obs.add(soap);
+                }
+                for (int d = poisson(random, config.getDiagnosesPerEncounter()); d > 0; d--) {
+                    obs.add(new ObsRow(encounter, v.diagnosis, at).coded(pick(v.diagnoses, random)).comment("ICD-10 Diagnosis"));
+                }
+                if (v.reference.canOrder() && v.drugs.length > 0) {
+                    for (int d = poisson(random, config.getDrugOrdersPerEncounter()); d > 0; d--) {
+                        int[] drug = v.drugs[random.nextInt(v.drugs.length)];
+                        orders.add(new OrderRow(encounter, drug[1], drug[0], orderNumber(config, task, ++orderSequence),
+                                pick(DOSING, random)));
+                    }
+                }
+                for (int l = poisson(random, config.getLabOrdersPerEncounter()); l > 0; l--) {
+                    addLabTest(encounter, times.get(i), config, v, task, ++orderSequence, random, orders, obs);
+                }
+                if (i == 0 && v.allergy != null && random.nextDouble() < config.getAllergyRate()) {
+                    obs.add(new ObsRow(encounter, v.allergy, at).coded(pick(v.allergens, random)));
+                }
+            }
+        }
+
+        syntheticDao.insert(encounters, orders, obs, v.reference);
+
+        long obsRows = obs.size();
+        for (ObsRow o : obs) {
+            obsRows += o.getMembers().size();
+        }
+        run.recordTask(count, encounters.size(), statusChanges, obsRows, orders.size());
+        return null;
+    }
+
+    private PatientRegistration newRegistration(SyntheticDataConfig config, LocalDate reference, Random random) {
+        boolean female = random.nextDouble() < config.getFemaleRate();
+        PatientRegistration r = new PatientRegistration();
+        r.setGivenName(pick(female ? FEMALE_GIVEN_NAMES : MALE_GIVEN_NAMES, random));
+        // Generated middle names keep any one name from matching a fixed share of the registry
+        r.setMiddleName(capitalize(pick(SYLLABLES, random) + pick(SYLLABLES, random) + pick(SYLLABLES, random)));
+        r.setFamilyName(pick(FAMILY_NAMES, random));
+        r.setGender(female ? "F" : "M");
+        r.setBirthdate(toDate(reference.minusDays(random.nextInt(config.getMaxAgeYears() * 365)).atStartOfDay()));
+        r.setBirthdateEstimated(random.nextDouble() < 0.1);
+        r.setCityVillage(pick(TOWNS, random));
+        r.setCountry("Kenya");
+        return r;
+    }
+
+    /**
+     * Walks the encounter through the status workflow a few minutes at a time. Closed encounters
+     * go through IN_PROGRESS and, half of the time, DISCHARGED; the others stop at REGISTERED or
+     * IN_PROGRESS.
+     */
+    private static void addStatusHistory(EncounterRow encounter, LocalDateTime start, SyntheticDataConfig config,
+                                         Random random) {
+        int last;
+        if (random.nextDouble() < config.getClosedEncounterRate()) {
+            last = 3;
+        } else {
+            last = random.nextBoolean() ? 0 : 1;
+        }
+        LocalDateTime at = start;
+        for (int s = 0; s <= last; s++) {
+            if (s == 2 && last == 3 && random.nextBoolean()) continue;
+            encounter.addStatus(STATUS_PATH[s], toDate(at));
+            at = at.plusMinutes(5 + random.nextInt(55));
+        }
+    }
+
+    private static ObsRow newVitals(EncounterRow encounter, Vocabulary v, Random random) {
+        ObsRow group = new ObsRow(encounter, v.vitalsGroup, encounter.getDatetime());
+        for (int i = 0; i < VITALS.length; i++) {
+            group.addMember(v.vitals[i]).numeric(normal(VITALS[i], random));
+        }
+        if (random.nextDouble() < ANTHROPOMETRICS_RATE) {
+            for (int i = 0; i < ANTHROPOMETRICS.length; i++) {
+                group.addMember(v.anthropometrics[i]).numeric(normal(ANTHROPOMETRICS[i], random));
+            }
+        }
+        return group;
+    }
+
+    /**
+     * Adds a test order with its lab order obs and, for resulted tests, a result group a few
+     * hours later with the order number as accession number.
+     */
+    private static void addLabTest(EncounterRow encounter, LocalDateTime orderedAt, SyntheticDataConfig config, Vocabulary v,
+                                   int task, int sequence, Random random, List<OrderRow> orders, List<ObsRow> obs) {
+        int test = random.nextInt(LAB_TESTS.length);
+        String orderNumber = orderNumber(config, task, sequence);
+        OrderRow order = null;
+        if (v.reference.canOrder()) {
+            order = new OrderRow(encounter, v.labTests[test], null, orderNumber, null);
+            orders.add(order);
+        }
+        obs.add(new ObsRow(encounter, v.labTestOrder, toDate(orderedAt)).coded(v.labTests[test]).order(order));
+
+        if (random.nextDouble() < config.getLabResultRate()) {
+            ObsRow result = new ObsRow(encounter, v.labResultGroup, toDate(orderedAt.plusHours(2 + random.nextInt(46))))
+                    .accessionNumber(orderNumber)
+                    .comment("Status: FINAL | Ref: " + LAB_TESTS[test][4]);
+            result.addMember(v.labTests[test]).numeric(normal(LAB_TESTS[test], random)).accessionNumber(orderNumber);
+            obs.add(result);
+        }
+    }
+
+    private Vocabulary resolveVocabulary(SyntheticDataConfig config) {
+        ConceptService conceptService = Context.getConceptService();
+        PatientService patientService = Context.getPatientService();
+        Vocabulary v = new Vocabulary();
+
+        requireNewSeed(config);
+
+        // Generated identifiers carry no check digit, so they get a type without a validator
+        PatientIdentifierType identifierType = patientService.getPatientIdentifierTypeByName(IDENTIFIER_TYPE);
+        if (identifierType == null) {
+            identifierType = new PatientIdentifierType();
+            identifierType.setName(IDENTIFIER_TYPE);
+            identifierType.setDescription("Identifiers of generated test patients");
+            identifierType = patientService.savePatientIdentifierType(identifierType);
+        } else if (identifierType.getRetired()) {
+            throw new IllegalStateException("Patient identifier type '" + IDENTIFIER_TYPE + "' is retired");
+        }
+        v.identifierTypeId = identifierType.getPatientIdentifierTypeId();
+        Location location = Context.getLocationService().getDefaultLocation();
+        v.locationId = location != null ? location.getLocationId() : null;
+
+        List<EncounterType> encounterTypes = Context.getEncounterService().getAllEncounterTypes(false);
+        if (encounterTypes.isEmpty()) throw new IllegalStateException("No encounter type configured");
+        List<Provider> providers = Context.getProviderService().getAllProviders(false);
+        CareSetting outpatient = Context.getOrderService().getCareSettingByName("Outpatient");
+        OrderType drugOrder = Context.getOrderService().getOrderTypeByUuid(OrderType.DRUG_ORDER_TYPE_UUID);
+        OrderType testOrder = Context.getOrderService().getOrderTypeByUuid(OrderType.TEST_ORDER_TYPE_UUID);
+        v.reference = new ReferenceData(Context.getAuthenticatedUser().getUserId(), encounterTypes.get(0).getEncounterTypeId(),
+                v.locationId, providers.isEmpty() ? null : providers.get(0).getProviderId(),
+                outpatient != null ? outpatient.getCareSettingId() : null,
+                drugOrder != null ? drugOrder.getOrderTypeId() : null, testOrder != null ? testOrder.getOrderTypeId() : null);
+        if (!v.reference.canOrder()) {
+            log.warn("No provider, outpatient care setting or drug/test order type; generating no orders");
+        }
+
+        v.vitalsGroup = concept(VITALS_GROUP, "N/A");
+        v.vitals = concepts(VITALS, "Numeric");
+        v.anthropometrics = concepts(ANTHROPOMETRICS, "Numeric");
+        v.soapGroup = concept(SOAP_GROUP, "N/A");
+        v.soapParts = new int[] { concept("Subjective", "Text"), concept("Objective", "Text"), concept("Assessment", "Text"),
+                concept("Plan", "Text") };
+        v.diagnosis = concept(DIAGNOSIS, "Coded");
+        v.labTestOrder = concept(LAB_TEST_ORDER, "Coded");
+        v.labResultGroup = concept(LAB_RESULT_GROUP, "N/A");
+        v.labTests = new int[LAB_TESTS.length];
+        for (int i = 0; i < LAB_TESTS.length; i++) {
+            v.labTests[i] = conceptProvisioner.getOrCreate((String) LAB_TESTS[i][0], "Numeric", "Test").getConceptId();
+        }
+
+        List<Integer> diagnoses = new ArrayList<>();
+        ConceptClass diagnosisClass = conceptService.getConceptClassByName("Diagnosis");
+        if (diagnosisClass != null) {
+            for (Concept c : conceptService.getConceptsByClass(diagnosisClass)) {
+                if (c.getRetired()) continue;
+                diagnoses.add(c.getConceptId());
+                if (diagnoses.size() == MAX_DIAGNOSIS_CONCEPTS) break;
+            }
+        }
+        if (diagnoses.isEmpty()) {
+            for (String name : DEFAULT_DIAGNOSES) {
+                diagnoses.add(conceptProvisioner.getOrCreate(name, "N/A", diagnosisClass != null ? "Diagnosis" : "Misc").getConceptId());
+            }
+        }
+        v.diagnoses = diagnoses.stream().mapToInt(Integer::intValue).toArray();
+
+        Concept allergy = conceptService.getConceptByUuid(ALLERGY_CONCEPT_UUID);
+        v.allergy = allergy != null ? allergy.getConceptId() : null;
+        v.allergens = new int[ALLERGENS.length];
+        for (int i = 0; i < ALLERGENS.length; i++) {
+            v.allergens[i] = concept(ALLERGENS[i], "N/A");
+        }
+
+        List<int[]> drugs = new ArrayList<>();
+        for (Drug drug : conceptService.getAllDrugs(false)) {
+            if (drug.getConcept() != null) drugs.add(new int[] { drug.getDrugId(), drug.getConcept().getConceptId() });
+        }
+        v.drugs = drugs.toArray(new int[0][]);
+        return v;
+    }
+
+    private int concept(String name, String datatype) {
+        return conceptProvisioner.getOrCreate(name, datatype, "Misc").getConceptId();
+    }
+
+    private int[] concepts(Object[][] table, String datatype) {
+        int[] ids = new int[table.length];
+        for (int i = 0; i < table.length; i++) {
+            ids[i] = concept((String) table[i][0], datatype);
+        }
+        return ids;
+    }
+
+    private void requireNewSeed(SyntheticDataConfig config) {
+        if (syntheticDao.hasIdentifiersStartingWith(identifierStem(config))) {
+            throw new IllegalArgumentException("Seed " + config.getSeed() + " with identifier prefix "
+                    + config.getIdentifierPrefix() + " has already been generated; choose another seed or prefix");
+        }
+    }
+
+    private static String identifierStem(SyntheticDataConfig config) {
+        return config.getIdentifierPrefix() + config.getSeed() + "-";
+    }
+
+    private static String orderNumber(SyntheticDataConfig config, int task, int sequence) {
+        return identifierStem(config) + task + "-" + sequence;
+    }
+
+    /**
+     * A draw from a normal distribution described by {@code {name, mean, sd, decimals, ...}},
+     * rounded and never negative.
+     */
+    private static double normal(Object[] spec, Random random) {
+        double value = (Double) spec[1] + random.nextGaussian() * (Double) spec[2];
+        double scale = Math.pow(10, (Integer) spec[3]);
+        return Math.max(0, Math.round(value * scale) / scale);
+    }
+
+    /**
+     * Knuth's method; means here are small.
+     */
+    private static int poisson(Random random, double mean) {
+        if (mean <= 0) return 0;
+        double limit = Math.exp(-mean);
+        double product = random.nextDouble();
+        int count = 0;
+        while (product > limit) {
+            count++;
+            product *= random.nextDouble();
+        }
+        return count;
+    }
+
+    private static String pick(String[] values, Random random) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String pick(List<String> values, Random random) {
+        return values.get(random.nextInt(values.size()));
+    }
+
+    private static int pick(int[] values, Random random) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String capitalize(String value) {
+        return Character.toUpperCase(value.charAt(0)) + value.substring(1);
+    }
+
+    private static Date toDate(LocalDateTime dateTime) {
+        return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    private <T> T transactionally(Callable<T> work) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            try {
+                return work.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private static <T> T inSession(UserContext userContext, Callable<T> work) throws Exception {
+        Context.openSession();
+        try {
+            Context.setUserContext(userContext);
+            return work.call();
+        } finally {
+            Context.closeSession();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,86 @@
+package org.openmrs.module.pinnaclecustomemrmodule.api.synthetic;
+
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of one synthetic data generation. Counters are updated by the workers as each task
+ * commits and can be polled at any time.
+ */
+public class SyntheticDataRun {
+
+    public enum Status {
+        RUNNING, COMPLETED, FAILED
+    }
+
+    private final String runId = UUID.randomUUID().toString();
+    private final SyntheticDataConfig config;
+    private final Date startedOn = new Date();
+    private final AtomicInteger patients = new AtomicInteger();
+    private final AtomicLong encounters = new AtomicLong();
+    private final AtomicLong statusChanges = new AtomicLong();
+    private final AtomicLong obs = new AtomicLong();
+    private final AtomicLong orders = new AtomicLong();
+
+    private volatile Status status = Status.RUNNING;
+    private volatile Date finishedOn;
+    private volatile String message;
+
+    public SyntheticDataRun(SyntheticDataConfig config) {
+        this.config = config;
+    }
+
+    public String getRunId() { return runId; }
+
+    public SyntheticDataConfig getConfig() { return config; }
+
+    public Status getStatus() { return status; }
+
+    public Date getStartedOn() { return startedOn; }
+
+    public Date getFinishedOn() { return finishedOn; }
+
+    public String getMessage() { return message; }
+
+    public int getPatients() { return patients.get(); }
+
+    public long getEncounters() { return encounters.get(); }
+
+    public long getStatusChanges() { return statusChanges.get(); }
+
+    public long getObs() { return obs.get(); }
+
+    public long getOrders() { return orders.get(); }
+
+    /**
+     * Rows written per second so far, across all tables.
+     */
+    public long getRowsPerSecond() {
+        long end = finishedOn != null ? finishedOn.getTime() : System.currentTimeMillis();
+        long millis = Math.max(1, end - startedOn.getTime());
+        // Each patient is a person, patient, name, identifier and address row
+        long rows = 5L * patients.get() + encounters.get() + statusChanges.get() + obs.get() + orders.get();
+        return rows * 1000 / millis;
+    }
+
+    void recordTask(int patients, long encounters, long statusChanges, long obs, long orders) {
+        this.patients.addAndGet(patients);
+        this.encounters.addAndGet(encounters);
+        this.statusChanges.addAndGet(statusChanges);
+        this.obs.addAndGet(obs);
+        this.orders.addAndGet(orders);
+    }
+
+    void finished() {
+        finishedOn = new Date();
+        status = Status.COMPLETED;
+    }
+
+    void aborted(String reason) {
+        message = reason;
+        finishedOn = new Date();
+        status = Status.FAILED;
+    }
+}
@@ -9,4 +9,22 @@ public class PinnacleConstants {
 
     // Add this line — this is what EmrCoreConstants was probably holding
     public static final String EMR_CORE_MODULE_ID = "pinnaclecustomemrmodule";
-}
\ No newline at end of file
+
+    // Global properties (declared in config.xml)
+    public static final String GP_CONCEPT_CACHE_MAX_SIZE = MODULE_ID + ".conceptCache.maxSize";
+    public static final String GP_CONCEPT_CACHE_TTL_SECONDS = MODULE_ID + ".conceptCache.ttlSeconds";
+    public static final String GP_ALLERGY_DRUG_CLASSES = MODULE_ID + ".allergy.drugClasses";
+    public static final String GP_AUDIT_FLUSH_INTERVAL_MILLIS = MODULE_ID + ".audit.flushIntervalMillis";
+    public static final String GP_DUPLICATE_MATCH_WEIGHTS = MODULE_ID + ".duplicates.matchWeights";
+    public static final String GP_DUPLICATE_THRESHOLD = MODULE_ID + ".duplicates.threshold";
+    public static final String GP_DUPLICATE_MAX_BLOCK_SIZE = MODULE_ID + ".duplicates.maxBlockSize";
+    public static final String GP_DUPLICATE_LAST_SCANNED_PATIENT = MODULE_ID + ".duplicates.lastScannedPatientId";
+    public static final String GP_IDENTIFIER_POOL_BLOCK_SIZE = MODULE_ID + ".identifierPool.blockSize";
+    public static final String GP_IDENTIFIER_POOL_LOW_WATERMARK = MODULE_ID + ".identifierPool.lowWatermark";
+    public static final String GP_SYNTHETIC_DATA_ENABLED = MODULE_ID + ".syntheticData.enabled";
+    public static final String GP_QUERY_PROFILER_REPEAT_THRESHOLD = MODULE_ID + ".queryProfiler.repeatThreshold";
+    public static final String GP_QUERY_PROFILER_SLOW_REQUEST_MILLIS = MODULE_ID + ".queryProfiler.slowRequestMillis";
+
+    // Privileges (declared in config.xml)
+    public static final String PRIV_MANAGE_BATCH_EXPORTS = "Manage Pinnacle Batch Exports";
+}
@@ -0,0 +1,121 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pinnaclecustomemrmodule.api.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.LabDao.ResultGroupRow;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.LabDao.StoredResult;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for how the lab ingestion pipeline reconciles incoming results with those already
+ * stored under the same accession number.
+ */
+public class LabDaoTest {
+
+	private static final int PATIENT = 7;
+
+	private static final int HEMOGLOBIN = 21;
+
+	private static final int WBC = 22;
+
+	private final Map<String, List<StoredResult>> stored = new HashMap<>();
+
+	private final Set<Integer> replaced = new HashSet<>();
+
+	private final Set<Integer> cancelled = new HashSet<>();
+
+	private void store(int obsId, int conceptId, String obsStatus) {
+		stored.computeIfAbsent(LabDao.resultKey(PATIENT, "ACC-1", conceptId), k -> new ArrayList<>())
+		        .add(new StoredResult(obsId, obsStatus));
+	}
+
+	private static ResultGroupRow group(int conceptId, Double value, String status) {
+		ResultGroupRow group = new ResultGroupRow(PATIENT, "ACC-1", new Date(), null);
+		group.addMember(conceptId, value, null, null, status);
+		return group;
+	}
+
+	private List<ResultGroupRow> reconcile(ResultGroupRow... groups) {
+		return LabDao.reconcile(Arrays.asList(groups), stored, replaced, cancelled);
+	}
+
+	@Test
+	public void reconcile_shouldInsertResultsNotStoredYet() {
+		store(100, HEMOGLOBIN, "FINAL");
+
+		List<ResultGroupRow> remaining = reconcile(group(WBC, 7.1, LabDao.FINAL));
+
+		assertThat(remaining, hasSize(1));
+		assertThat(replaced, empty());
+		assertThat(cancelled, empty());
+	}
+
+	@Test
+	public void reconcile_shouldSkipAResendOfAStoredResult() {
+		store(100, HEMOGLOBIN, "FINAL");
+
+		assertThat(reconcile(group(HEMOGLOBIN, 12.5, LabDao.FINAL)), empty());
+		assertThat(reconcile(group(HEMOGLOBIN, 12.5, LabDao.PRELIMINARY)), empty());
+		assertThat(replaced, empty());
+	}
+
+	@Test
+	public void reconcile_shouldVoidTheStoredResultAndInsertACorrection() {
+		store(100, HEMOGLOBIN, "FINAL");
+
+		List<ResultGroupRow> remaining = reconcile(group(HEMOGLOBIN, 13.1, LabDao.CORRECTED));
+
+		assertThat(remaining, hasSize(1));
+		assertThat(remaining.get(0).members.get(0).valueNumeric, is(13.1));
+		assertThat(remaining.get(0).members.get(0).obsStatus(), is("AMENDED"));
+		assertThat(replaced, contains(100));
+	}
+
+	@Test
+	public void reconcile_shouldReplaceAPreliminaryResultWithTheFinalOne() {
+		store(100, HEMOGLOBIN, "PRELIMINARY");
+
+		assertThat(reconcile(group(HEMOGLOBIN, 12.7, LabDao.FINAL)), hasSize(1));
+		assertThat(replaced, contains(100));
+	}
+
+	@Test
+	public void reconcile_shouldVoidTheStoredResultOfACancellationAndStoreNoValue() {
+		store(100, HEMOGLOBIN, "FINAL");
+		ResultGroupRow group = group(HEMOGLOBIN, null, LabDao.CANCELLED);
+		group.addMember(WBC, 7.1, null, null, LabDao.FINAL);
+
+		List<ResultGroupRow> remaining = reconcile(group);
+
+		assertThat(remaining, hasSize(1));
+		assertThat(remaining.get(0).members, hasSize(1));
+		assertThat(remaining.get(0).members.get(0).conceptId, is(WBC));
+		assertThat(cancelled, contains(100));
+		assertThat(replaced, empty());
+	}
+
+	@Test
+	public void reconcile_shouldDropACancellationOfAResultNeverStored() {
+		assertThat(reconcile(group(HEMOGLOBIN, null, LabDao.CANCELLED)), empty());
+		assertThat(cancelled, is(Collections.<Integer> emptySet()));
+	}
+}
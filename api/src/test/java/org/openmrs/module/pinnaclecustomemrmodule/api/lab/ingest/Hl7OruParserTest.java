@@ -0,0 +1,85 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pinnaclecustomemrmodule.api.lab.ingest;
+
+import java.util.List;
+
+import org.junit.Test;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the HL7 ORU^R01 reader used by lab result ingestion.
+ */
+public class Hl7OruParserTest {
+
+	private static final String TWO_MESSAGES = "MSH|^~\\&|ANALYZER|LAB|EMR|PINNACLE|20251212083000||ORU^R01|1|P|2.5\r"
+	        + "PID|1||MRN-100^^^PINNACLE||Doe^Jane\r"
+	        + "OBR|1||ACC-1|CBC^Complete blood count\r"
+	        + "OBX|1|NM|HGB^Hemoglobin||12.5|g/dL^^UCUM|12-16||||F|||20251212081500\r"
+	        + "OBX|2|NM|WBC^White blood cells||7.1|10*3/uL|4-11||||P\r"
+	        + "MSH|^~\\&|ANALYZER|LAB|EMR|PINNACLE|20251212083100||ORU^R01|2|P|2.5\n"
+	        + "PID|1||MRN-200\n"
+	        + "OBR|1|PLACER-9\n"
+	        + "OBX|1|ST|^Malaria smear||Negative||||||C\n";
+
+	@Test
+	public void parse_shouldReadEveryObxWithItsPatientAndAccession() {
+		List<LabResultMessage> results = new Hl7OruParser().parse(TWO_MESSAGES);
+
+		assertThat(results, hasSize(3));
+
+		LabResultMessage hemoglobin = results.get(0);
+		assertThat(hemoglobin.getPatientIdentifier(), is("MRN-100"));
+		assertThat(hemoglobin.getAccessionNumber(), is("ACC-1"));
+		assertThat(hemoglobin.getTestName(), is("Hemoglobin"));
+		assertThat(hemoglobin.getResultValue(), is("12.5"));
+		assertThat(hemoglobin.getUnits(), is("g/dL"));
+		assertThat(hemoglobin.getReferenceRange(), is("12-16"));
+		assertThat(hemoglobin.getStatus(), is("FINAL"));
+		assertThat(hemoglobin.getResultDatetime(), is(Hl7OruParser.parseTimestamp("20251212081500")));
+
+		assertThat(results.get(1).getStatus(), is("PRELIMINARY"));
+		assertThat(results.get(1).getResultDatetime(), nullValue());
+	}
+
+	@Test
+	public void parse_shouldStartANewPatientAtEachMsh() {
+		LabResultMessage malaria = new Hl7OruParser().parse(TWO_MESSAGES).get(2);
+
+		assertThat(malaria.getPatientIdentifier(), is("MRN-200"));
+		assertThat(malaria.getAccessionNumber(), is("PLACER-9"));
+		assertThat(malaria.getTestName(), is("Malaria smear"));
+		assertThat(malaria.getStatus(), is("CORRECTED"));
+	}
+
+	@Test
+	public void parse_shouldReadCorrectedAndCancelledResults() {
+		List<LabResultMessage> results = new Hl7OruParser().parse(
+		    "MSH|^~\\&|ANALYZER|LAB|EMR|PINNACLE|20251212090000||ORU^R01|3|P|2.5\r"
+		            + "PID|1||MRN-100\r"
+		            + "OBR|1||ACC-1\r"
+		            + "OBX|1|NM|HGB^Hemoglobin||13.1|g/dL|12-16||||C\r"
+		            + "OBX|2|NM|WBC^White blood cells||||||||X\r");
+
+		assertThat(results, hasSize(2));
+		assertThat(results.get(0).getStatus(), is("CORRECTED"));
+		assertThat(results.get(0).getResultValue(), is("13.1"));
+		assertThat(results.get(1).getStatus(), is("CANCELLED"));
+		assertThat(results.get(1).getTestName(), is("White blood cells"));
+		assertThat(results.get(1).getResultValue(), nullValue());
+	}
+
+	@Test
+	public void parse_shouldReturnNothingForEmptyContent() {
+		assertThat(new Hl7OruParser().parse(""), empty());
+		assertThat(new Hl7OruParser().parse(null), empty());
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pinnaclecustomemrmodule.api.metrics;
+
+import org.junit.Test;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the bucket layout and quantiles of the service latency histogram.
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void index_shouldGiveEveryValueBelow32MicrosItsOwnBucket() {
+		for (int micros = 0; micros < 32; micros++) {
+			assertThat(LatencyHistogram.index(micros), is(micros));
+			assertThat(LatencyHistogram.upperBound(micros), is(micros + 1L));
+		}
+	}
+
+	@Test
+	public void index_shouldPutBucketBoundariesInAdjacentBuckets() {
+		for (int i = 32; i < LatencyHistogram.BUCKETS; i++) {
+			long lower = LatencyHistogram.upperBound(i - 1);
+			long upper = LatencyHistogram.upperBound(i);
+
+			assertThat("lower bound of bucket " + i, LatencyHistogram.index(lower), is(i));
+			assertThat("last value of bucket " + i, LatencyHistogram.index(upper - 1), is(i));
+		}
+		assertThat(LatencyHistogram.index(32), is(32));
+		assertThat(LatencyHistogram.index(33), is(32));
+		assertThat(LatencyHistogram.index(34), is(33));
+		assertThat(LatencyHistogram.index(64), is(48));
+	}
+
+	@Test
+	public void upperBound_shouldKeepBucketsWithin6Percent() {
+		for (int i = 32; i < LatencyHistogram.BUCKETS; i++) {
+			long lower = LatencyHistogram.upperBound(i - 1);
+			long width = LatencyHistogram.upperBound(i) - lower;
+
+			assertThat("width of bucket " + i, width * 16, lessThanOrEqualTo(lower));
+		}
+	}
+
+	@Test
+	public void index_shouldCountValuesBeyondTheRangeInTheLastBucket() {
+		int last = LatencyHistogram.BUCKETS - 1;
+
+		assertThat(LatencyHistogram.index(LatencyHistogram.upperBound(last)), is(last));
+		assertThat(LatencyHistogram.index(Long.MAX_VALUE / 1000), is(last));
+	}
+
+	@Test
+	public void record_shouldCountNegativeDurationsAsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertThat(snapshot.countBelow(1), is(1L));
+		assertThat(snapshot.getMaxNanos(), is(0L));
+	}
+
+	@Test
+	public void countBelow_shouldOnlyCountBucketsEntirelyBelowTheBound() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(10_000);
+		histogram.record(100_000);
+		histogram.record(1_000_000);
+
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertThat(snapshot.countBelow(10), is(0L));
+		assertThat(snapshot.countBelow(11), is(1L));
+		// 1000us falls in [992, 1024)
+		assertThat(snapshot.countBelow(1000), is(2L));
+		assertThat(snapshot.countBelow(1024), is(3L));
+	}
+
+	@Test
+	public void quantileNanos_shouldReturnTheUpperBoundOfTheBucketHoldingTheRank() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 99; i++) {
+			histogram.record(1_000_000);
+		}
+		histogram.record(50_000_000);
+
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertThat(snapshot.getCount(), is(100L));
+		assertThat(snapshot.getTotalNanos(), is(149_000_000L));
+		assertThat(snapshot.quantileNanos(0.5), is(1_024_000L));
+		assertThat(snapshot.quantileNanos(0.99), is(1_024_000L));
+		// The rank falls in [49152, 51200)us; capped at the largest value recorded
+		assertThat(snapshot.quantileNanos(0.999), is(50_000_000L));
+		assertThat(snapshot.quantileNanos(1), is(50_000_000L));
+	}
+
+	@Test
+	public void quantileNanos_shouldReturnZeroWhenNothingWasRecorded() {
+		assertThat(new LatencyHistogram().snapshot().quantileNanos(0.5), is(0L));
+	}
+}
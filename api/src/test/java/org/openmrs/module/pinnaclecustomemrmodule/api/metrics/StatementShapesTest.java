@@ -0,0 +1,55 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pinnaclecustomemrmodule.api.metrics;
+
+import org.junit.Test;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the statement shapes the query profiler groups by.
+ */
+public class StatementShapesTest {
+
+	@Test
+	public void normalize_shouldReplaceLiteralsWithPlaceholders() {
+		String a = StatementShapes.normalize("select * from obs where person_id = 12 and value_text = 'O''Brien'");
+		String b = StatementShapes.normalize("select * from obs where person_id = 7031 and value_text = 'x'");
+
+		assertThat(a, is("select * from obs where person_id = ? and value_text = ?"));
+		assertThat(b, is(a));
+	}
+
+	@Test
+	public void normalize_shouldKeepDigitsInIdentifiers() {
+		assertThat(StatementShapes.normalize("select patient0_.patient_id from patient patient0_ where patient0_.voided=0"),
+		    is("select patient0_.patient_id from patient patient0_ where patient0_.voided=?"));
+	}
+
+	@Test
+	public void normalize_shouldCollapseInListsAndWhitespace() {
+		String a = StatementShapes.normalize("select *\n  from orders where order_id in (?, ?, ?)");
+		String b = StatementShapes.normalize("select * from orders where order_id in (1,2)");
+
+		assertThat(a, is("select * from orders where order_id in (?...)"));
+		assertThat(b, is(a));
+	}
+
+	@Test
+	public void normalize_shouldTruncateLongStatements() {
+		StringBuilder sql = new StringBuilder("select a from b where c in (");
+		for (int i = 0; i < 1000; i++) {
+			sql.append("x").append(i).append(", ");
+		}
+		sql.append("y)");
+
+		assertThat(StatementShapes.normalize(sql.toString()).length(), lessThanOrEqualTo(StatementShapes.MAX_LENGTH));
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pinnaclecustomemrmodule.api.order.allergy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the allergen and drug terms the allergy check intersects.
+ */
+public class AllergyConflictCheckerTest {
+
+	private final AllergyConflictChecker.DrugClasses classes = AllergyConflictChecker.DrugClasses.parse(
+	    "penicillins:penicillin,penicillin v,amoxicillin,ampicillin;nsaids:ibuprofen,diclofenac");
+
+	private boolean conflicts(String allergen, String drug) {
+		Set<String> allergens = AllergyConflictChecker.allergenTerms(Collections.singletonList(allergen), classes);
+		Set<String> common = new HashSet<>(AllergyConflictChecker.drugTerms(Arrays.asList(drug), classes));
+		common.retainAll(allergens);
+		return !common.isEmpty();
+	}
+
+	@Test
+	public void conflicts_shouldMatchOtherMembersOfTheAllergensClass() {
+		assertTrue(conflicts("Amoxicillin", "Ampicillin"));
+		assertTrue(conflicts("Penicillins", "Amoxicillin 500mg"));
+		assertTrue(conflicts("Ibuprofen", "Diclofenac sodium"));
+	}
+
+	@Test
+	public void conflicts_shouldMatchWordsOfMultiWordAllergenNames() {
+		assertTrue(conflicts("Penicillin G benzathine", "penicillin"));
+		assertTrue(conflicts("Penicillin G benzathine", "Ampicillin"));
+	}
+
+	@Test
+	public void conflicts_shouldNotMatchUnrelatedDrugs() {
+		assertFalse(conflicts("Amoxicillin", "Ibuprofen"));
+		assertFalse(conflicts("Sodium valproate", "Sodium chloride"));
+		assertFalse(conflicts("Penicillin G benzathine", "Vitamin B12 injection"));
+	}
+
+	@Test
+	public void allergenTerms_shouldSkipShortAndNumericWords() {
+		Set<String> terms = AllergyConflictChecker.allergenTerms(Collections.singletonList("Penicillin G 1.2 MU"), classes);
+
+		assertThat(terms, hasItems("penicillin g 1 2 mu", "penicillin", "penicillins", "amoxicillin"));
+		assertThat(terms, not(hasItems("g")));
+		assertThat(terms, not(hasItems("1")));
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pinnaclecustomemrmodule.api.order.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.CareSetting;
+import org.openmrs.Concept;
+import org.openmrs.Drug;
+import org.openmrs.DrugOrder;
+import org.openmrs.Encounter;
+import org.openmrs.Order;
+import org.openmrs.OrderFrequency;
+import org.openmrs.OrderType;
+import org.openmrs.Patient;
+import org.openmrs.Provider;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.model.PrescriptionLine;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.model.PrescriptionLineResult;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.model.PrescriptionLineResult.Status;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.service.OrderService;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Integration test for prescribing order sets against the standard test dataset, in particular
+ * that a line the core order checks reject does not take the other lines down with it.
+ */
+public class OrderServiceImplTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private OrderService orderService;
+
+	@Autowired
+	@Qualifier("transactionManager")
+	private PlatformTransactionManager transactionManager;
+
+	private Patient patient;
+
+	private Encounter encounter;
+
+	private CareSetting outpatient;
+
+	private OrderType drugOrderType;
+
+	private final List<Drug> drugs = new ArrayList<>();
+
+	private String doseUnit;
+
+	private String route;
+
+	private String frequency;
+
+	@Before
+	public void setUp() {
+		org.openmrs.api.OrderService coreOrderService = Context.getOrderService();
+		patient = Context.getPatientService().getPatient(7);
+		for (Encounter candidate : Context.getEncounterService().getEncountersByPatient(patient)) {
+			if (!candidate.getVoided()) {
+				encounter = candidate;
+				break;
+			}
+		}
+		assertNotNull("a non-voided encounter for patient 7", encounter);
+
+		outpatient = coreOrderService.getCareSettingByName("Outpatient");
+		drugOrderType = coreOrderService.getOrderTypeByName("Drug Order");
+		doseUnit = nameOf(coreOrderService.getDrugDosingUnits().get(0));
+		route = nameOf(coreOrderService.getDrugRoutes().get(0));
+		for (OrderFrequency candidate : coreOrderService.getOrderFrequencies(false)) {
+			if (candidate.getFrequencyPerDay() != null) {
+				frequency = nameOf(candidate.getConcept());
+				break;
+			}
+		}
+		assertNotNull("an order frequency with a frequency per day", frequency);
+
+		Set<Concept> ordered = new HashSet<>();
+		for (Order active : coreOrderService.getActiveOrders(patient, drugOrderType, outpatient, null)) {
+			ordered.add(active.getConcept());
+		}
+		Set<Concept> picked = new HashSet<>();
+		for (Drug drug : Context.getConceptService().getAllDrugs(false)) {
+			if (drugs.size() < 3 && drug.getConcept() != null && !ordered.contains(drug.getConcept())
+			        && picked.add(drug.getConcept())) {
+				drugs.add(drug);
+			}
+		}
+		assertThat(drugs, hasSize(3));
+
+		if (Context.getProviderService().getProvidersByPerson(Context.getAuthenticatedUser().getPerson()).isEmpty()) {
+			Provider provider = new Provider();
+			provider.setPerson(Context.getAuthenticatedUser().getPerson());
+			provider.setIdentifier("pinnacle-test");
+			Context.getProviderService().saveProvider(provider);
+		}
+	}
+
+	@Test
+	public void prescribeOrderSet_shouldSaveTheOtherLinesWhenTheCoreChecksRejectOne() {
+		List<PrescriptionLineResult> first = orderService.prescribeOrderSet(patient.getPatientId(),
+		    encounter.getEncounterId(), Arrays.asList(line(drugs.get(2))), false);
+		assertThat(first.get(0).getError(), first.get(0).getStatus(), is(Status.ORDERED));
+
+		// The third drug is already on an active order, which the core OrderService refuses
+		List<PrescriptionLineResult> results = orderService.prescribeOrderSet(patient.getPatientId(),
+		    encounter.getEncounterId(), Arrays.asList(line(drugs.get(0)), line(drugs.get(2)), line(drugs.get(1))), false);
+
+		assertThat(results.get(0).getError(), results.get(0).getStatus(), is(Status.ORDERED));
+		assertThat(results.get(1).getStatus(), is(Status.REJECTED));
+		assertThat(results.get(2).getError(), results.get(2).getStatus(), is(Status.ORDERED));
+		assertFalse("the transaction must still be able to commit", isRollbackOnly());
+
+		Context.flushSession();
+		Context.clearSession();
+
+		Set<Integer> activeDrugs = new HashSet<>();
+		for (Order active : Context.getOrderService().getActiveOrders(patient, drugOrderType, outpatient, null)) {
+			assertThat(active, instanceOf(DrugOrder.class));
+			activeDrugs.add(((DrugOrder) active).getDrug().getDrugId());
+		}
+		assertThat(activeDrugs, hasItems(drugs.get(0).getDrugId(), drugs.get(1).getDrugId(), drugs.get(2).getDrugId()));
+		assertNotNull(Context.getOrderService().getOrderByUuid(results.get(0).getOrderUuid()));
+		assertNotNull(Context.getOrderService().getOrderByUuid(results.get(2).getOrderUuid()));
+	}
+
+	@Test
+	public void prescribeOrderSet_shouldSaveNothingWhenAllOrNothingAndTheCoreChecksRejectALine() {
+		orderService.prescribeOrderSet(patient.getPatientId(), encounter.getEncounterId(),
+		    Arrays.asList(line(drugs.get(2))), false);
+
+		List<PrescriptionLineResult> results = orderService.prescribeOrderSet(patient.getPatientId(),
+		    encounter.getEncounterId(), Arrays.asList(line(drugs.get(0)), line(drugs.get(2))), true);
+
+		assertThat(results.get(0).getStatus(), is(Status.NOT_SAVED));
+		assertThat(results.get(1).getStatus(), is(Status.REJECTED));
+		assertFalse(isRollbackOnly());
+	}
+
+	private PrescriptionLine line(Drug drug) {
+		PrescriptionLine line = new PrescriptionLine();
+		line.setDrugName(drug.getName());
+		line.setDose(1.0);
+		line.setDoseUnit(doseUnit);
+		line.setRoute(route);
+		line.setFrequency(frequency);
+		line.setDurationDays(5);
+		return line;
+	}
+
+	private boolean isRollbackOnly() {
+		// Joins the test's transaction, whose rollback-only flag a failed core save would have set
+		TransactionStatus status = transactionManager.getTransaction(new DefaultTransactionDefinition());
+		boolean rollbackOnly = status.isRollbackOnly();
+		transactionManager.commit(status);
+		return rollbackOnly;
+	}
+
+	private static String nameOf(Concept concept) {
+		return concept.getName().getName();
+	}
+}
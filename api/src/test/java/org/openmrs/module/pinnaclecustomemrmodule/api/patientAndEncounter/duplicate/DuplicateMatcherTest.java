@@ -0,0 +1,111 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate;
+
+import java.time.LocalDate;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the probabilistic duplicate matcher and its blocking keys.
+ */
+public class DuplicateMatcherTest {
+
+	private final DuplicateMatcher matcher = DuplicateMatcher.defaults();
+
+	private static MatchRecord record(int id, String given, String family, String gender, String birthdate, String city) {
+		return new MatchRecord(id, given, family, gender, birthdate != null ? LocalDate.parse(birthdate) : null, false, city);
+	}
+
+	@Test
+	public void score_shouldMatchSpellingVariantsWithSameBirthdate() {
+		MatchRecord a = record(1, "Mohammed", "Okello", "M", "1990-04-12", "Gulu");
+		MatchRecord b = record(2, "Muhamad", "Okelo", "M", "1990-04-12", "Gulu");
+
+		assertTrue(matcher.isMatch(matcher.score(a, b, null)));
+	}
+
+	@Test
+	public void score_shouldNotMatchSameNameWithDifferentBirthdateAndPlace() {
+		MatchRecord a = record(1, "John", "Okello", "M", "1990-04-12", "Gulu");
+		MatchRecord b = record(2, "John", "Okello", "M", "1975-09-30", "Mbarara");
+
+		assertFalse(matcher.isMatch(matcher.score(a, b, null)));
+	}
+
+	@Test
+	public void score_shouldGivePartialWeightToSwappedDayAndMonth() {
+		MatchRecord a = record(1, "Grace", "Akello", "F", "1988-03-07", null);
+		MatchRecord exact = record(2, "Grace", "Akello", "F", "1988-03-07", null);
+		MatchRecord swapped = record(3, "Grace", "Akello", "F", "1988-07-03", null);
+		MatchRecord different = record(4, "Grace", "Akello", "F", "1961-11-20", null);
+
+		double exactScore = matcher.score(a, exact, null);
+		double swappedScore = matcher.score(a, swapped, null);
+		assertThat(swappedScore, lessThan(exactScore));
+		assertThat(swappedScore, greaterThan(matcher.score(a, different, null)));
+	}
+
+	@Test
+	public void score_shouldIgnoreMissingFields() {
+		MatchRecord a = record(1, "Grace", "Akello", "F", "1988-03-07", null);
+		MatchRecord b = record(2, "Grace", "Akello", "F", "1988-03-07", "Lira");
+
+		assertEquals(matcher.score(a, a, null), matcher.score(a, b, null), 0.0001);
+	}
+
+	@Test
+	public void score_shouldDescribeFieldWeights() {
+		StringBuilder details = new StringBuilder();
+		matcher.score(record(1, "Grace", "Akello", "F", null, null), record(2, "Grace", "Akello", "M", null, null), details);
+
+		assertThat(details.toString(), containsString("givenName="));
+		assertThat(details.toString(), containsString("gender=-"));
+		assertThat(details.toString(), not(containsString("birthdate")));
+	}
+
+	@Test
+	public void parse_shouldOverrideDefaultWeights() {
+		DuplicateMatcher strict = DuplicateMatcher.parse("birthdate:0.5:0.4", DuplicateMatcher.DEFAULT_THRESHOLD);
+		MatchRecord a = record(1, "Grace", "Akello", "F", "1988-03-07", null);
+
+		assertThat(strict.score(a, a, null), lessThan(matcher.score(a, a, null)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parse_shouldRejectUnknownField() {
+		DuplicateMatcher.parse("shoeSize:0.9:0.1", 10);
+	}
+
+	@Test
+	public void blockingKeys_shouldShareKeyForSoundAlikeNames() {
+		Set<String> a = DuplicateMatcher.blockingKeys(record(1, "Mohammed", "Okello", "M", "1990-04-12", null));
+		Set<String> b = DuplicateMatcher.blockingKeys(record(2, "Muhamad", "Okelo", "M", "1991-01-01", null));
+
+		a.retainAll(b);
+		assertThat(a, contains("N:M530O240:M"));
+	}
+
+	@Test
+	public void blockingKeys_shouldSkipExactBirthdateKeyWhenEstimated() {
+		MatchRecord estimated = new MatchRecord(1, "Grace", "Akello", "F", LocalDate.parse("1980-01-01"), true, null);
+
+		assertThat(DuplicateMatcher.blockingKeys(estimated), not(hasItem(startsWith("D:"))));
+	}
+
+	@Test
+	public void jaroWinkler_shouldScoreTypoHigherThanDifferentName() {
+		assertThat(DuplicateMatcher.jaroWinkler("martha", "marhta"), greaterThan(0.95));
+		assertThat(DuplicateMatcher.jaroWinkler("martha", "grace"), lessThan(0.6));
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.event;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the delivery of encounter status events to slow and fast listeners.
+ */
+public class EncounterStatusEventBusTest {
+
+	private final EncounterStatusEventBus bus = new EncounterStatusEventBus();
+
+	private final CountDownLatch unblock = new CountDownLatch(1);
+
+	@After
+	public void tearDown() {
+		unblock.countDown();
+		bus.destroy();
+	}
+
+	@Test
+	public void publish_shouldDeliverToOtherListenersWhileOneIsStuck() throws Exception {
+		bus.subscribe(-1, event -> awaitUnblock());
+		CountingListener fast = new CountingListener(3);
+		bus.subscribe(-1, fast);
+
+		for (int i = 0; i < 3; i++) {
+			bus.publish(newEvent());
+		}
+
+		long first = bus.getFirstSequence();
+		assertTrue(fast.delivered.await(5, TimeUnit.SECONDS));
+		assertThat(fast.sequences, contains(first, first + 1, first + 2));
+	}
+
+	@Test
+	public void publish_shouldDropAListenerThatFallsTooFarBehind() throws Exception {
+		CountDownLatch dropped = new CountDownLatch(1);
+		bus.subscribe(-1, new EncounterStatusEventBus.Listener() {
+
+			@Override
+			public void onEvent(EncounterStatusEvent event) {
+				awaitUnblock();
+			}
+
+			@Override
+			public void onDropped() {
+				dropped.countDown();
+			}
+		});
+		int published = EncounterStatusEventBus.SUBSCRIBER_QUEUE_CAPACITY + 10;
+		CountingListener fast = new CountingListener(published);
+		bus.subscribe(-1, fast);
+
+		for (int i = 0; i < published; i++) {
+			bus.publish(newEvent());
+		}
+
+		assertTrue(dropped.await(5, TimeUnit.SECONDS));
+		assertTrue(fast.delivered.await(5, TimeUnit.SECONDS));
+		for (int i = 1; i < fast.sequences.size(); i++) {
+			assertThat(fast.sequences.get(i), is(fast.sequences.get(i - 1) + 1));
+		}
+	}
+
+	@Test
+	public void subscribe_shouldReturnTheRetainedEventsAfterTheSequence() {
+		for (int i = 0; i < 5; i++) {
+			bus.publish(newEvent());
+		}
+
+		long third = bus.getFirstSequence() + 2;
+		EncounterStatusEventBus.Subscription subscription = bus.subscribe(third, event -> {});
+
+		assertTrue(subscription.isComplete());
+		assertThat(subscription.getBacklog().size(), is(2));
+		assertThat(subscription.getBacklog().get(0).getSequence(), is(third + 1));
+	}
+
+	@Test
+	public void subscribe_shouldNotReplayASequenceFromBeforeARestart() throws Exception {
+		EncounterStatusEventBus previousRun = new EncounterStatusEventBus();
+		for (int i = 0; i < 5; i++) {
+			previousRun.publish(newEvent());
+		}
+		long lastSeen = previousRun.getFirstSequence() + 2;
+		previousRun.destroy();
+		Thread.sleep(2);
+
+		EncounterStatusEventBus restarted = new EncounterStatusEventBus();
+		try {
+			for (int i = 0; i < 5; i++) {
+				restarted.publish(newEvent());
+			}
+
+			assertThat(restarted.getFirstSequence(), greaterThan(previousRun.getLastSequence()));
+			EncounterStatusEventBus.Subscription subscription = restarted.subscribe(lastSeen, event -> {});
+			assertFalse(subscription.isComplete());
+			assertThat(subscription.getBacklog().size(), is(5));
+			assertFalse(restarted.getEventsSince(lastSeen, 10, new ArrayList<>()));
+		}
+		finally {
+			restarted.destroy();
+		}
+	}
+
+	private void awaitUnblock() {
+		try {
+			unblock.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static EncounterStatusEvent newEvent() {
+		return new EncounterStatusEvent(1, 1, 1, "REGISTERED", "IN_PROGRESS", 1, null);
+	}
+
+	private static class CountingListener implements EncounterStatusEventBus.Listener {
+
+		final List<Long> sequences = Collections.synchronizedList(new ArrayList<>());
+
+		final CountDownLatch delivered;
+
+		CountingListener(int expected) {
+			delivered = new CountDownLatch(expected);
+		}
+
+		@Override
+		public void onEvent(EncounterStatusEvent event) {
+			sequences.add(event.getSequence());
+			delivered.countDown();
+		}
+	}
+}
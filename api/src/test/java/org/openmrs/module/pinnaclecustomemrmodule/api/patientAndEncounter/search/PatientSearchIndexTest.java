@@ -0,0 +1,156 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.openmrs.module.pinnaclecustomemrmodule.api.dao.PatientSearchDao;
+import org.springframework.transaction.PlatformTransactionManager;
+import static org.mockito.Mockito.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the in-memory patient search index. The DAO is mocked to return an empty registry,
+ * so only documents indexed by the test are searchable. The background loader is mocked too and
+ * never runs, so the index is only built when the test calls {@code build()} on its own thread.
+ */
+public class PatientSearchIndexTest {
+
+	@InjectMocks
+	PatientSearchIndex index;
+
+	@Mock
+	PatientSearchDao dao;
+
+	@Mock
+	PlatformTransactionManager transactionManager;
+
+	@Mock
+	ExecutorService loader;
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		when(dao.getSearchDocuments(anyInt(), anyInt())).thenReturn(Collections.emptyList());
+		when(dao.searchPatientIds(any(String[].class), any(), anyInt())).thenReturn(Collections.emptyList());
+		index.build();
+
+		index.index(new PatientSearchDocument(1, Arrays.asList("Mohammed", null, "Okafor"), Arrays.asList("10001-4")));
+		index.index(new PatientSearchDocument(2, Arrays.asList("Mary-Jane", null, "O'Brien"), Arrays.asList("10002-2")));
+		index.index(new PatientSearchDocument(3, Arrays.asList("Muhamad", null, "Okoro"), Arrays.asList("20003-9")));
+	}
+
+	@Test
+	public void search_shouldMatchNamePrefixes() {
+		assertThat(index.search("oka", null, 10), contains(1));
+		assertThat(index.search("jane", null, 10), contains(2));
+	}
+
+	@Test
+	public void search_shouldMatchSoundAlikeNames() {
+		assertThat(index.search("mohamed", null, 10), contains(1, 3));
+	}
+
+	@Test
+	public void search_shouldRequireEveryToken() {
+		assertThat(index.search("muhamad okoro", null, 10), contains(3));
+	}
+
+	@Test
+	public void search_shouldMatchIdentifierPrefixes() {
+		assertThat(index.search("1000", null, 10), contains(1, 2));
+		assertThat(index.search("10001-4", null, 10), contains(1));
+	}
+
+	@Test
+	public void search_shouldPageFromCursor() {
+		assertThat(index.search("mohamed", null, 1), contains(1));
+		assertThat(index.search("mohamed", 1, 1), contains(3));
+		assertThat(index.search("mohamed", 3, 1), is(empty()));
+	}
+
+	@Test
+	public void index_shouldReplacePreviousEntries() {
+		index.index(new PatientSearchDocument(1, Arrays.asList("Ngozi", null, "Eze"), Collections.emptyList()));
+
+		assertThat(index.search("okafor", null, 10), is(empty()));
+		assertThat(index.search("10001", null, 10), is(empty()));
+		assertThat(index.search("ngozi", null, 10), contains(1));
+	}
+
+	@Test
+	public void remove_shouldMakePatientUnsearchable() {
+		index.remove(2);
+
+		assertThat(index.search("jane", null, 10), is(empty()));
+		assertThat(index.size(), is(2));
+	}
+
+	@Test
+	public void search_shouldAnswerAMissFromTheIndexWhenItIsCurrent() {
+		when(dao.getMaxPatientId()).thenReturn(3);
+
+		assertThat(index.search("chidi", null, 10), is(empty()));
+		verify(dao, never()).searchPatientIds(any(String[].class), any(), anyInt());
+		assertThat(index.getDatabaseSearches(), is(0L));
+		assertThat(index.isLoaded(), is(true));
+	}
+
+	@Test
+	public void search_shouldUseTheDatabaseAndRebuildWhenPatientsWereAddedAroundTheIndex() {
+		when(dao.getMaxPatientId()).thenReturn(7);
+		when(dao.searchPatientIds(any(String[].class), isNull(), anyInt())).thenReturn(Arrays.asList(7));
+
+		assertThat(index.search("chidi", null, 10), contains(7));
+		assertThat(index.getDatabaseSearches(), is(1L));
+		assertThat(index.isLoaded(), is(false));
+		verify(loader).execute(any(Runnable.class));
+	}
+
+	@Test
+	public void search_shouldNotConsultTheDatabaseForALaterPage() {
+		when(dao.getMaxPatientId()).thenReturn(7);
+
+		assertThat(index.search("chidi", 3, 10), is(empty()));
+		verify(dao, never()).searchPatientIds(any(String[].class), any(), anyInt());
+	}
+
+	@Test
+	public void search_shouldUseTheDatabaseUntilBuilt() {
+		index.invalidate();
+		when(dao.searchPatientIds(any(String[].class), isNull(), anyInt())).thenReturn(Arrays.asList(1));
+
+		assertThat(index.isLoaded(), is(false));
+		assertThat(index.search("okafor", null, 10), contains(1));
+		verify(loader).execute(any(Runnable.class));
+	}
+
+	@Test
+	public void build_shouldKeepChangesMadeWhileBuilding() {
+		index.invalidate();
+		when(dao.getSearchDocuments(anyInt(), anyInt())).thenReturn(Arrays.asList(
+		    new PatientSearchDocument(1, Arrays.asList("Old", null, "Name"), Collections.emptyList())));
+
+		index.index(new PatientSearchDocument(1, Arrays.asList("New", null, "Name"), Collections.emptyList()));
+		index.build();
+
+		assertThat(index.isLoaded(), is(true));
+		assertThat(index.search("new", null, 10), contains(1));
+		assertThat(index.search("old", null, 10), is(empty()));
+	}
+}
@@ -0,0 +1,121 @@
+package org.openmrs.module.pinnaclecustomemrmodule.benchmarks;
+
+import liquibase.Contexts;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.dataset.ReplacementDataSet;
+import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
+import org.dbunit.ext.h2.H2DataTypeFactory;
+import org.dbunit.operation.DatabaseOperation;
+import org.openmrs.api.context.Context;
+import org.openmrs.util.OpenmrsConstants;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * The OpenMRS application context used by the benchmarks, on an in-memory H2 database in MySQL
+ * mode. Started once per JVM (JMH forks a JVM per benchmark run) the same way the OpenMRS
+ * context-sensitive tests start it: core tables from the Hibernate mappings, the standard test
+ * datasets, then the module's liquibase changelog.
+ */
+public final class BenchmarkDatabase {
+
+    static final String URL = "jdbc:h2:mem:pinnacle-benchmarks;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000;MODE=MySQL;"
+            + "DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE;NON_KEYWORDS=VALUE,USER";
+    static final String USERNAME = "sa";
+    static final String PASSWORD = "";
+
+    private static final String[] DATASETS = {
+            "org/openmrs/include/initialInMemoryTestDataSet.xml",
+            "org/openmrs/include/standardTestDataset.xml"
+    };
+    private static final String ADMIN_USERNAME = "admin";
+    private static final String ADMIN_PASSWORD = "test";
+
+    private static ClassPathXmlApplicationContext applicationContext;
+
+    private BenchmarkDatabase() {
+    }
+
+    public static synchronized ClassPathXmlApplicationContext start() throws Exception {
+        if (applicationContext != null) return applicationContext;
+
+        Path applicationData = Files.createTempDirectory("pinnacle-benchmarks");
+        Properties props = new Properties();
+        props.setProperty("connection.url", URL);
+        props.setProperty("connection.username", USERNAME);
+        props.setProperty("connection.password", PASSWORD);
+        props.setProperty("hibernate.connection.url", URL);
+        props.setProperty("hibernate.connection.username", USERNAME);
+        props.setProperty("hibernate.connection.password", PASSWORD);
+        props.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        props.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        props.setProperty("hibernate.hbm2ddl.auto", "create-drop");
+        props.setProperty("hibernate.jdbc.batch_size", "500");
+        props.setProperty("hibernate.cache.use_second_level_cache", "false");
+        props.setProperty(OpenmrsConstants.APPLICATION_DATA_DIRECTORY_RUNTIME_PROPERTY, applicationData.toString());
+        Context.setRuntimeProperties(props);
+
+        ClassPathXmlApplicationContext ctx = new ClassPathXmlApplicationContext(
+                "classpath:applicationContext-service.xml",
+                "classpath*:moduleApplicationContext.xml",
+                "classpath*:TestingApplicationContext.xml");
+
+        try (Connection connection = connect()) {
+            loadDatasets(connection);
+            updateModuleSchema(connection);
+        }
+
+        Context.openSession();
+        Context.authenticate(ADMIN_USERNAME, ADMIN_PASSWORD);
+        Context.closeSession();
+
+        applicationContext = ctx;
+        return ctx;
+    }
+
+    /**
+     * Opens a session for the calling thread as the admin user. Each benchmark thread calls this
+     * once and {@link Context#closeSession()} when it is done.
+     */
+    public static void openSession() {
+        Context.openSession();
+        Context.authenticate(ADMIN_USERNAME, ADMIN_PASSWORD);
+    }
+
+    static Connection connect() throws SQLException {
+        return DriverManager.getConnection(URL, USERNAME, PASSWORD);
+    }
+
+    private static void loadDatasets(Connection connection) throws Exception {
+        DatabaseConnection dbunit = new DatabaseConnection(connection);
+        dbunit.getConfig().setProperty(DatabaseConfig.PROPERTY_DATATYPE_FACTORY, new H2DataTypeFactory());
+        for (String dataset : DATASETS) {
+            try (InputStream in = BenchmarkDatabase.class.getClassLoader().getResourceAsStream(dataset)) {
+                if (in == null) throw new IllegalStateException("Dataset not on the classpath: " + dataset);
+                ReplacementDataSet data = new ReplacementDataSet(new FlatXmlDataSetBuilder()
+                        .setColumnSensing(true).build(in));
+                data.addReplacementObject("[NULL]", null);
+                DatabaseOperation.REFRESH.execute(dbunit, data);
+            }
+        }
+        connection.commit();
+    }
+
+    private static void updateModuleSchema(Connection connection) throws Exception {
+        Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+        new Liquibase("liquibase.xml", new ClassLoaderResourceAccessor(), database).update(new Contexts());
+    }
+}
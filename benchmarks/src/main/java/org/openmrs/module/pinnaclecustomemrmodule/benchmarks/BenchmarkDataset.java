@@ -0,0 +1,122 @@
+package org.openmrs.module.pinnaclecustomemrmodule.benchmarks;
+
+import org.openmrs.Concept;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptNameType;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.synthetic.SyntheticDataConfig;
+import org.openmrs.module.pinnaclecustomemrmodule.api.synthetic.SyntheticDataGenerator;
+import org.openmrs.module.pinnaclecustomemrmodule.api.synthetic.SyntheticDataRun;
+import org.springframework.context.ApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Seeds the benchmark database with {@link SyntheticDataGenerator} and collects the ids the
+ * benchmarks draw their inputs from. The same seed always produces the same data, so runs at the
+ * same scale are comparable.
+ */
+public class BenchmarkDataset {
+
+    static final String IDENTIFIER_PREFIX = "BM";
+
+    private static final String ALLERGY_CONCEPT_UUID = "1427AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+    private final ApplicationContext applicationContext;
+    private final long seed;
+
+    private final List<Integer> patientIds = new ArrayList<>();
+    private final List<Integer> clinicalPatientIds = new ArrayList<>();
+    private final List<Integer> encounterIds = new ArrayList<>();
+
+    public BenchmarkDataset(ApplicationContext applicationContext, long seed) {
+        this.applicationContext = applicationContext;
+        this.seed = seed;
+    }
+
+    public void seed(int patients, double encountersPerPatient) throws Exception {
+        // The standard test dataset has no allergy concept; without it no allergies are generated
+        createAllergyConcept();
+
+        SyntheticDataConfig config = new SyntheticDataConfig();
+        config.setSeed(seed);
+        config.setPatients(patients);
+        config.setIdentifierPrefix(IDENTIFIER_PREFIX);
+        config.setEncountersPerPatient(encountersPerPatient);
+        config.setAllergyRate(0.5);
+        SyntheticDataRun run = applicationContext.getBean(SyntheticDataGenerator.class).generate(config);
+        if (run.getStatus() != SyntheticDataRun.Status.COMPLETED) {
+            throw new IllegalStateException("Seeding the benchmark database failed: " + run.getMessage());
+        }
+        loadIds();
+    }
+
+    public List<Integer> getPatientIds() { return patientIds; }
+
+    /** Patients with at least one encounter. */
+    public List<Integer> getClinicalPatientIds() { return clinicalPatientIds; }
+
+    public List<Integer> getEncounterIds() { return encounterIds; }
+
+    static Map<String, Object> newVitals(Random random) {
+        Map<String, Object> vitals = new HashMap<>();
+        vitals.put("temperature", 36 + random.nextInt(30) / 10.0);
+        vitals.put("pulse", 55 + random.nextInt(60));
+        vitals.put("bp_systolic", 100 + random.nextInt(60));
+        vitals.put("bp_diastolic", 60 + random.nextInt(35));
+        vitals.put("respiratory_rate", 12 + random.nextInt(12));
+        vitals.put("spo2", 90 + random.nextInt(11));
+        return vitals;
+    }
+
+    private void createAllergyConcept() {
+        new TransactionTemplate(applicationContext.getBean(PlatformTransactionManager.class)).execute(status -> {
+            ConceptService conceptService = Context.getConceptService();
+            if (conceptService.getConceptByUuid(ALLERGY_CONCEPT_UUID) == null) {
+                Concept allergy = new Concept();
+                allergy.setUuid(ALLERGY_CONCEPT_UUID);
+                allergy.setDatatype(conceptService.getConceptDatatypeByName("Coded"));
+                allergy.setConceptClass(conceptService.getConceptClassByName("Misc"));
+                ConceptName name = new ConceptName("Allergy", Context.getLocale());
+                name.setConceptNameType(ConceptNameType.FULLY_SPECIFIED);
+                allergy.addName(name);
+                conceptService.saveConcept(allergy);
+            }
+            return null;
+        });
+    }
+
+    private void loadIds() throws SQLException {
+        String prefix = IDENTIFIER_PREFIX + seed + "-%";
+        try (Connection connection = BenchmarkDatabase.connect()) {
+            query(connection, "SELECT patient_id FROM patient_identifier WHERE identifier LIKE ? ORDER BY patient_id",
+                    prefix, patientIds);
+            query(connection, "SELECT DISTINCT e.patient_id FROM encounter e JOIN patient_identifier pi "
+                    + "ON pi.patient_id = e.patient_id WHERE pi.identifier LIKE ? ORDER BY e.patient_id", prefix, clinicalPatientIds);
+            query(connection, "SELECT e.encounter_id FROM encounter e JOIN patient_identifier pi "
+                    + "ON pi.patient_id = e.patient_id WHERE pi.identifier LIKE ? ORDER BY e.encounter_id", prefix, encounterIds);
+        }
+    }
+
+    private static void query(Connection connection, String sql, String parameter, List<Integer> into) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, parameter);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    into.add(rs.getInt(1));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.openmrs.module.pinnaclecustomemrmodule.benchmarks;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search.PatientSearchIndex;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * The seeded database shared by every thread of a benchmark run. The scale is a JMH parameter,
+ * e.g. {@code -p patients=10000,100000,1000000}.
+ */
+@State(Scope.Benchmark)
+public class PinnacleState {
+
+    private static final long INDEX_BUILD_TIMEOUT_MILLIS = 10 * 60 * 1000L;
+
+    @Param("10000")
+    public int patients;
+
+    /** Mean encounters per patient, each with vitals, notes, diagnoses, orders and lab results. */
+    @Param("2")
+    public double encountersPerPatient;
+
+    @Param("42")
+    public long seed;
+
+    ApplicationContext applicationContext;
+    BenchmarkDataset dataset;
+    int[] patientIds;
+    int[] clinicalPatientIds;
+    int[] encounterIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        applicationContext = BenchmarkDatabase.start();
+        BenchmarkDatabase.openSession();
+        try {
+            dataset = new BenchmarkDataset(applicationContext, seed);
+            dataset.seed(patients, encountersPerPatient);
+        } finally {
+            Context.closeSession();
+        }
+        patientIds = dataset.getPatientIds().stream().mapToInt(Integer::intValue).toArray();
+        clinicalPatientIds = dataset.getClinicalPatientIds().stream().mapToInt(Integer::intValue).toArray();
+        encounterIds = dataset.getEncounterIds().stream().mapToInt(Integer::intValue).toArray();
+        awaitSearchIndex();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        // The database lives as long as the forked JVM
+        dataset = null;
+    }
+
+    /**
+     * The search index is rebuilt in the background after seeding; until then searches go to the
+     * database, which is not the path being measured.
+     */
+    private void awaitSearchIndex() throws InterruptedException {
+        PatientSearchIndex index = getBean(PatientSearchIndex.class);
+        long deadline = System.currentTimeMillis() + INDEX_BUILD_TIMEOUT_MILLIS;
+        while (!index.isLoaded()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Patient search index not built within " + INDEX_BUILD_TIMEOUT_MILLIS + " ms");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    <T> T getBean(Class<T> type) {
+        return applicationContext.getBean(type);
+    }
+}
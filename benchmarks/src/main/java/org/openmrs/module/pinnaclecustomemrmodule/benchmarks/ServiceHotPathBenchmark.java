@@ -0,0 +1,104 @@
+package org.openmrs.module.pinnaclecustomemrmodule.benchmarks;
+
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.clinical.service.ClinicalService;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.service.LaboratoryService;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.allergy.AllergyConflictChecker;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.projection.PatientSummary;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.service.MPIService;
+import org.openmrs.module.pinnaclecustomemrmodule.api.searchAndExport.service.ExportAndSearchService;
+import org.openmrs.module.pinnaclecustomemrmodule.api.synthetic.SyntheticDataGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The module's request-path service calls, each through its Spring proxy so transactions and
+ * AOP advice are included. {@link Mode#SampleTime} reports the latency percentiles; run with
+ * {@code -prof gc} (the default in {@link BenchmarkMain}) for the allocation rate.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServiceHotPathBenchmark {
+
+    private static final int SEARCH_PAGE_SIZE = 100;
+    private static final Set<PatientSummary.Field> ALL_FIELDS = PatientSummary.Field.parse(null);
+
+    private static final String[] DRUG_NAMES = { "Amoxicillin", "Penicillin V", "Paracetamol", "Metformin" };
+
+    private MPIService mpiService;
+    private ClinicalService clinicalService;
+    private LaboratoryService laboratoryService;
+    private AllergyConflictChecker allergyChecker;
+    private ExportAndSearchService exportService;
+    private String[] searchTerms;
+
+    @Setup(Level.Trial)
+    public void setUp(PinnacleState pinnacle) {
+        mpiService = pinnacle.getBean(MPIService.class);
+        clinicalService = pinnacle.getBean(ClinicalService.class);
+        laboratoryService = pinnacle.getBean(LaboratoryService.class);
+        allergyChecker = pinnacle.getBean(AllergyConflictChecker.class);
+        exportService = pinnacle.getBean(ExportAndSearchService.class);
+
+        // Full family names and given-name prefixes, as typed at registration desks
+        List<String> terms = new ArrayList<>(SyntheticDataGenerator.FAMILY_NAMES);
+        for (String name : SyntheticDataGenerator.FEMALE_GIVEN_NAMES) {
+            terms.add(name.substring(0, 3));
+        }
+        for (String name : SyntheticDataGenerator.MALE_GIVEN_NAMES) {
+            terms.add(name.substring(0, 3));
+        }
+        searchTerms = terms.toArray(new String[0]);
+    }
+
+    /**
+     * The first page of GET /patients/search, as the REST endpoint requests it.
+     */
+    @Benchmark
+    public Object searchPatients(SessionState session) {
+        return mpiService.searchPatientSummaries(session.pick(searchTerms), null, SEARCH_PAGE_SIZE, ALL_FIELDS);
+    }
+
+    @Benchmark
+    public Object saveVitals(PinnacleState pinnacle, VitalsState vitals, SessionState session) {
+        return clinicalService.saveVitals(session.pick(pinnacle.encounterIds), BenchmarkDataset.newVitals(session.random));
+    }
+
+    @Benchmark
+    public boolean hasAllergyConflict(PinnacleState pinnacle, SessionState session) {
+        Patient patient = Context.getPatientService().getPatient(session.pick(pinnacle.clinicalPatientIds));
+        return allergyChecker.hasConflict(patient, null, session.pick(DRUG_NAMES));
+    }
+
+    @Benchmark
+    public Object getPendingLabTests(PinnacleState pinnacle, SessionState session) {
+        return laboratoryService.getPendingLabTests(session.pick(pinnacle.clinicalPatientIds));
+    }
+
+    @Benchmark
+    public void exportPatientRecordAsPdf(PinnacleState pinnacle, SessionState session, Blackhole blackhole)
+            throws IOException {
+        blackhole.consume(exportService.exportPatientRecordAsPdf(session.pick(pinnacle.clinicalPatientIds), "BENCHMARK"));
+    }
+}
@@ -0,0 +1,48 @@
+package org.openmrs.module.pinnaclecustomemrmodule.benchmarks;
+
+import org.openmrs.api.context.Context;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+
+/**
+ * Per-thread OpenMRS session and random source. Each benchmark thread authenticates once, the way
+ * a request thread would, and draws its inputs from its own generator so threads do not contend
+ * on one.
+ */
+@State(Scope.Thread)
+public class SessionState {
+
+    Random random;
+
+    @Setup(Level.Trial)
+    public void open(PinnacleState pinnacle) {
+        BenchmarkDatabase.openSession();
+        random = new Random(pinnacle.seed + Thread.currentThread().getId());
+    }
+
+    /**
+     * Drops what the previous iteration loaded or saved into this thread's Hibernate session.
+     */
+    @Setup(Level.Iteration)
+    public void clear() {
+        Context.clearSession();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        Context.closeSession();
+    }
+
+    int pick(int[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
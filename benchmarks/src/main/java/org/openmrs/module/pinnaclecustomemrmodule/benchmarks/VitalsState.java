@@ -0,0 +1,48 @@
+package org.openmrs.module.pinnaclecustomemrmodule.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Removes the obs {@code saveVitals} wrote in the previous iteration, so every iteration saves into
+ * the seeded dataset rather than one that has grown by all the earlier iterations' vitals.
+ */
+@State(Scope.Benchmark)
+public class VitalsState {
+
+    private long seededMaxObsId;
+
+    @Setup(Level.Trial)
+    public void recordSeededObs(PinnacleState pinnacle) throws SQLException {
+        try (Connection connection = BenchmarkDatabase.connect();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(obs_id), 0) FROM obs")) {
+            rs.next();
+            seededMaxObsId = rs.getLong(1);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void deleteSavedVitals() throws SQLException {
+        try (Connection connection = BenchmarkDatabase.connect()) {
+            // Group members first; they reference their group
+            delete(connection, "DELETE FROM obs WHERE obs_id > ? AND obs_group_id IS NOT NULL");
+            delete(connection, "DELETE FROM obs WHERE obs_id > ?");
+        }
+    }
+
+    private void delete(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, seededMaxObsId);
+            statement.executeUpdate();
+        }
+    }
+}
@@ -44,6 +44,7 @@ public class AdminList extends AdministrationSectionExt {
 		Map<String, String> map = new HashMap<String, String>();
 		
 		map.put("module/pinnaclecustomemrmodule/pinnaclecustomemrmodule.form", "pinnaclecustomemrmodule.title");
+		map.put("module/pinnaclecustomemrmodule/queryProfiles.form", "pinnaclecustomemrmodule.queryProfiles.title");
 		
 		return map;
 	}
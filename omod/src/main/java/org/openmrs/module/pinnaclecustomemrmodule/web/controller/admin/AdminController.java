@@ -0,0 +1,186 @@
+package org.openmrs.module.pinnaclecustomemrmodule.web.controller.admin;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.audit.AuditLog;
+import org.openmrs.module.pinnaclecustomemrmodule.api.concept.ConceptNameCache;
+import org.openmrs.module.pinnaclecustomemrmodule.api.concept.ConceptProvisioner;
+import org.openmrs.module.pinnaclecustomemrmodule.api.metrics.QueryProfiler;
+import org.openmrs.module.pinnaclecustomemrmodule.api.metrics.ServiceMetrics;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.allergy.AllergyConflictChecker;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.identifier.IdentifierPool;
+import org.openmrs.module.pinnaclecustomemrmodule.api.synthetic.SyntheticDataConfig;
+import org.openmrs.module.pinnaclecustomemrmodule.api.synthetic.SyntheticDataGenerator;
+import org.openmrs.module.pinnaclecustomemrmodule.constants.PinnacleConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/pinnacle/api/v1/admin")
+public class AdminController {
+
+    @Autowired
+    private ConceptNameCache conceptCache;
+
+    @Autowired
+    private ConceptProvisioner conceptProvisioner;
+
+    @Autowired
+    private AllergyConflictChecker allergyChecker;
+
+    @Autowired
+    private AuditLog auditLog;
+
+    @Autowired
+    private IdentifierPool identifierPool;
+
+    @Autowired
+    private SyntheticDataGenerator syntheticDataGenerator;
+
+    @Autowired
+    private ServiceMetrics serviceMetrics;
+
+    @Autowired
+    private QueryProfiler queryProfiler;
+
+    /**
+     * Hit ratio, size and eviction counters of the concept lookup cache
+     * GET /pinnacle/api/v1/admin/concept-cache
+     */
+    @GetMapping("/concept-cache")
+    public ResponseEntity<Map<String, Object>> getConceptCacheStats() {
+        return ResponseEntity.ok(buildSuccessResponse("Concept cache statistics", conceptCache.getStats()));
+    }
+
+    /**
+     * Drop every cached concept lookup, e.g. after a bulk dictionary import done outside the API
+     * DELETE /pinnacle/api/v1/admin/concept-cache
+     */
+    @DeleteMapping("/concept-cache")
+    public ResponseEntity<Map<String, Object>> flushConceptCache() {
+        conceptCache.invalidateAll();
+        conceptProvisioner.invalidateAll();
+        return ResponseEntity.ok(buildSuccessResponse("Concept cache flushed", conceptCache.getStats()));
+    }
+
+    /**
+     * Allergy check latency and per-patient allergen cache counters
+     * GET /pinnacle/api/v1/admin/allergy-checks
+     */
+    @GetMapping("/allergy-checks")
+    public ResponseEntity<Map<String, Object>> getAllergyCheckStats() {
+        return ResponseEntity.ok(buildSuccessResponse("Allergy check statistics", allergyChecker.getStats()));
+    }
+
+    /**
+     * Drop cached allergen sets, e.g. after changing the drug class global property
+     * DELETE /pinnacle/api/v1/admin/allergy-checks
+     */
+    @DeleteMapping("/allergy-checks")
+    public ResponseEntity<Map<String, Object>> flushAllergyCache() {
+        allergyChecker.invalidateAll();
+        return ResponseEntity.ok(buildSuccessResponse("Allergy cache flushed", allergyChecker.getStats()));
+    }
+
+    /**
+     * Buffered, written and spilled counts of the asynchronous audit writer
+     * GET /pinnacle/api/v1/admin/audit
+     */
+    @GetMapping("/audit")
+    public ResponseEntity<Map<String, Object>> getAuditStats() {
+        return ResponseEntity.ok(buildSuccessResponse("Audit writer statistics", auditLog.getStats()));
+    }
+
+    /**
+     * Pooled identifiers per type and how often a registration had to reserve a block itself
+     * GET /pinnacle/api/v1/admin/identifier-pool
+     */
+    @GetMapping("/identifier-pool")
+    public ResponseEntity<Map<String, Object>> getIdentifierPoolStats() {
+        return ResponseEntity.ok(buildSuccessResponse("Identifier pool statistics", identifierPool.getStats()));
+    }
+
+    /**
+     * Start generating a synthetic dataset in the background; only when the
+     * syntheticData.enabled global property is true
+     * POST /pinnacle/api/v1/admin/synthetic-data
+     */
+    @PostMapping("/synthetic-data")
+    public ResponseEntity<Map<String, Object>> startSyntheticData(@RequestBody SyntheticDataConfig config) {
+        String enabled = Context.getAdministrationService().getGlobalProperty(PinnacleConstants.GP_SYNTHETIC_DATA_ENABLED);
+        if (!Boolean.parseBoolean(enabled)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(buildErrorResponse("Synthetic data generation is disabled (" + PinnacleConstants.GP_SYNTHETIC_DATA_ENABLED + ")"));
+        }
+        try {
+            return ResponseEntity.accepted().body(buildSuccessResponse("Synthetic data run started",
+                    syntheticDataGenerator.start(config)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(buildErrorResponse(e.getMessage()));
+        }
+    }
+
+    /**
+     * Progress of the last synthetic data run
+     * GET /pinnacle/api/v1/admin/synthetic-data
+     */
+    @GetMapping("/synthetic-data")
+    public ResponseEntity<Map<String, Object>> getSyntheticDataRun() {
+        return ResponseEntity.ok(buildSuccessResponse("Synthetic data run", syntheticDataGenerator.getLastRun()));
+    }
+
+    /**
+     * Per-method service latency histograms, call, error and SQL statement counts, in the
+     * Prometheus text format
+     * GET /pinnacle/api/v1/admin/metrics
+     */
+    @GetMapping(value = "/metrics", produces = ServiceMetrics.CONTENT_TYPE)
+    public ResponseEntity<String> getServiceMetrics() {
+        return ResponseEntity.ok(serviceMetrics.toPrometheusText());
+    }
+
+    /**
+     * Start service metrics from zero, e.g. before a load test
+     * DELETE /pinnacle/api/v1/admin/metrics
+     */
+    @DeleteMapping("/metrics")
+    public ResponseEntity<Map<String, Object>> resetServiceMetrics() {
+        serviceMetrics.reset();
+        return ResponseEntity.ok(buildSuccessResponse("Service metrics reset", null));
+    }
+
+    /**
+     * Recent REST requests with suspected N+1 queries or slow responses, most statements first
+     * GET /pinnacle/api/v1/admin/query-profiles
+     */
+    @GetMapping("/query-profiles")
+    public ResponseEntity<Map<String, Object>> getQueryProfiles() {
+        Map<String, Object> data = new HashMap<>(queryProfiler.getStats());
+        data.put("requests", queryProfiler.getWorstRequests());
+        return ResponseEntity.ok(buildSuccessResponse("Query profiles", data));
+    }
+
+    // ==================== Response Helpers ====================
+
+    private Map<String, Object> buildSuccessResponse(String message, Object data) {
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("success", true);
+        resp.put("message", message);
+        resp.put("timestamp", new Date());
+        if (data != null) resp.put("data", data);
+        return resp;
+    }
+
+    private Map<String, Object> buildErrorResponse(String error) {
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("success", false);
+        resp.put("error", error);
+        resp.put("timestamp", new Date());
+        return resp;
+    }
+}
@@ -0,0 +1,41 @@
+package org.openmrs.module.pinnaclecustomemrmodule.web.controller.admin;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.metrics.QueryProfiler;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.ModelMap;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * Admin page listing the recent REST requests with suspected N+1 queries or slow responses;
+ * linked from {@link org.openmrs.module.pinnaclecustomemrmodule.extension.html.AdminList}.
+ */
+@Controller("pinnaclecustomemrmodule.QueryProfileController")
+@RequestMapping("/module/pinnaclecustomemrmodule/queryProfiles.form")
+public class QueryProfileController {
+
+    private static final String VIEW = "/module/pinnaclecustomemrmodule/queryProfiles";
+
+    @Autowired
+    private QueryProfiler queryProfiler;
+
+    @RequestMapping(method = RequestMethod.GET)
+    public String onGet(ModelMap model) {
+        model.addAttribute("stats", queryProfiler.getStats());
+        model.addAttribute("requests", queryProfiler.getWorstRequests());
+        return VIEW;
+    }
+
+    /**
+     * Empties the list, e.g. after fixing a query
+     */
+    @RequestMapping(method = RequestMethod.POST)
+    public String onClear() {
+        Context.requirePrivilege(PrivilegeConstants.VIEW_ADMIN_FUNCTIONS);
+        queryProfiler.clear();
+        return "redirect:queryProfiles.form";
+    }
+}
@@ -5,9 +5,13 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.clinical.model.VitalReading;
+import org.openmrs.module.pinnaclecustomemrmodule.api.clinical.model.VitalReadingResult;
+import org.openmrs.module.pinnaclecustomemrmodule.api.clinical.model.VitalsPage;
 import org.openmrs.module.pinnaclecustomemrmodule.api.clinical.service.ClinicalService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -84,29 +88,47 @@ public class ClinicalController {
         return ResponseEntity.ok(buildSuccessResponse("Vital recorded", obs.getUuid()));
     }
 
+    /**
+     * Bulk ingestion for bedside monitors: readings may span patients and encounters
+     * POST /pinnacle/api/v1/vitals/batch
+     */
+    @PostMapping("/vitals/batch")
+    public ResponseEntity<Map<String, Object>> saveVitalsBatch(@RequestBody List<VitalReading> readings) {
+        List<VitalReadingResult> results = clinicalService.saveVitalsBatch(readings);
+
+        long saved = results.stream().filter(r -> r.getStatus() == VitalReadingResult.Status.SAVED).count();
+        Map<String, Object> response = buildSuccessResponse(saved + " of " + results.size() + " readings saved", results);
+        response.put("saved", saved);
+        response.put("rejected", results.size() - saved);
+        return ResponseEntity.ok(response);
+    }
+
     
+    /**
+     * Newest-first vitals, paged with the opaque {@code nextCursor} from the previous response
+     * GET /pinnacle/api/v1/patients/{patientId}/vitals?vital=pulse&from=2025-01-01&cursor=...
+     * <p>
+     * Returns {@code {results: [...], nextCursor}} rather than the former bare array, and each
+     * result carries its {@code obsId}. The former {@code offset} parameter is rejected with 400
+     * so that an old client does not page through the first page forever.
+     */
     @GetMapping("/patients/{patientId}/vitals")
-    public ResponseEntity<List<Map<String, Object>>> getPatientVitals(
+    public ResponseEntity<VitalsPage> getPatientVitals(
             @PathVariable Integer patientId,
-            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(required = false) String vital,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer offset,
             @RequestParam(defaultValue = "100") int limit) {
 
+        if (offset != null) {
+            throw new IllegalArgumentException("offset is no longer supported; pass the nextCursor of the previous page as cursor");
+        }
         Patient patient = Context.getPatientService().getPatient(patientId);
         if (patient == null) return ResponseEntity.notFound().build();
 
-        List<Obs> vitals = clinicalService.getVitals(patient);
-        vitals = vitals.stream().skip(offset).limit(limit).collect(Collectors.toList());
-
-        List<Map<String, Object>> result = vitals.stream()
-                .map(obs -> Map.of(
-                        "concept", obs.getConcept().getName().getName(),
-                        "value", obs.getValueNumeric() != null ? obs.getValueNumeric() : obs.getValueText(),
-                        "date", obs.getObsDatetime(),
-                        "uuid", obs.getUuid()
-                ))
-                .collect(Collectors.toList());
-
-        return ResponseEntity.ok(result);
+        return ResponseEntity.ok(clinicalService.getVitalsPage(patient, vital, from, to, cursor, limit));
     }
 
     // ==================== Diagnoses ====================
@@ -3,16 +3,28 @@ package org.openmrs.module.pinnaclecustomemrmodule.web.controller.lab;
 import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.imaging.ImagingReportStore.StoredReport;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.ingest.LabIngestionBatch;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.ingest.LabResultMessage;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.model.LabDeadLetter;
+import org.openmrs.module.pinnaclecustomemrmodule.api.lab.model.PendingLabTest;
 import org.openmrs.module.pinnaclecustomemrmodule.api.lab.service.LaboratoryService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 @RestController
@@ -57,6 +69,79 @@ public class LaboratoryController {
                 .body(buildSuccessResponse("Lab result received and saved successfully", data));
     }
 
+    /**
+     * Queue a batch of analyzer results for background ingestion
+     * POST /pinnacle/api/v1/lab/results/batch
+     */
+    @PostMapping("/lab/results/batch")
+    public ResponseEntity<Map<String, Object>> submitLabResults(@RequestBody LabResultBatchRequest request) {
+        LabIngestionBatch batch = laboratoryService.submitLabResults(request.getResults(), request.getSource());
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(buildSuccessResponse(batch.getTotal() + " lab results queued", batch));
+    }
+
+    /**
+     * Queue the OBX results of one or more HL7 ORU^R01 messages, sent as the request body
+     * POST /pinnacle/api/v1/lab/results/hl7
+     */
+    @PostMapping(value = "/lab/results/hl7", consumes = { MediaType.TEXT_PLAIN_VALUE, "application/hl7-v2", "x-application/hl7-v2+er7" })
+    public ResponseEntity<Map<String, Object>> submitHl7Results(
+            @RequestBody String content,
+            @RequestParam(required = false) String source) {
+
+        LabIngestionBatch batch = laboratoryService.submitHl7Results(content, source != null ? source : "hl7");
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(buildSuccessResponse(batch.getTotal() + " lab results queued", batch));
+    }
+
+    /**
+     * Same as above for an uploaded analyzer export file
+     * POST /pinnacle/api/v1/lab/results/hl7 (multipart, field "file")
+     */
+    @PostMapping(value = "/lab/results/hl7", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<Map<String, Object>> uploadHl7Results(@RequestParam("file") MultipartFile file) throws IOException {
+        LabIngestionBatch batch = laboratoryService.submitHl7Results(
+                new String(file.getBytes(), StandardCharsets.UTF_8), file.getOriginalFilename());
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(buildSuccessResponse(batch.getTotal() + " lab results queued", batch));
+    }
+
+    @GetMapping("/lab/ingest/batches/{batchId}")
+    public ResponseEntity<Map<String, Object>> getIngestionBatch(@PathVariable String batchId) {
+        LabIngestionBatch batch = laboratoryService.getIngestionBatch(batchId);
+        if (batch == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(buildErrorResponse("Ingestion batch not found: " + batchId));
+        }
+        return ResponseEntity.ok(buildSuccessResponse("Ingestion batch " + batch.getStatus(), batch));
+    }
+
+    /**
+     * Results the pipeline could not store, oldest first
+     * GET /pinnacle/api/v1/lab/ingest/dead-letters?afterId=120&limit=100
+     */
+    @GetMapping("/lab/ingest/dead-letters")
+    public ResponseEntity<Map<String, Object>> getDeadLetters(
+            @RequestParam(required = false) Integer afterId,
+            @RequestParam(defaultValue = "100") int limit) {
+
+        List<LabDeadLetter> deadLetters = laboratoryService.getDeadLetters(afterId, limit);
+
+        Map<String, Object> response = buildSuccessResponse(deadLetters.size() + " dead letters", deadLetters);
+        response.put("nextAfterId", deadLetters.isEmpty() ? null : deadLetters.get(deadLetters.size() - 1).getId());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Resubmit dead letters once the missing test or patient exists
+     * POST /pinnacle/api/v1/lab/ingest/dead-letters/retry
+     */
+    @PostMapping("/lab/ingest/dead-letters/retry")
+    public ResponseEntity<Map<String, Object>> retryDeadLetters(@RequestBody DeadLetterRetryRequest request) {
+        LabIngestionBatch batch = laboratoryService.retryDeadLetters(request.getIds());
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(buildSuccessResponse(batch.getTotal() + " dead letters resubmitted", batch));
+    }
+
     /**
      * Get all pending (ordered but not resulted) lab tests for a patient
      * GET /pinnacle/api/v1/patients/{patientId}/lab/pending
@@ -85,6 +170,23 @@ public class LaboratoryController {
         return ResponseEntity.ok(result);
     }
 
+    /**
+     * Lab-wide worklist of ordered but not resulted tests, oldest first
+     * GET /pinnacle/api/v1/lab/pending?afterObsId=1234&limit=100
+     */
+    @GetMapping("/lab/pending")
+    public ResponseEntity<Map<String, Object>> getLabWorklist(
+            @RequestParam(required = false) Integer afterObsId,
+            @RequestParam(defaultValue = "100") int limit) {
+
+        List<PendingLabTest> worklist = laboratoryService.getPendingLabWorklist(afterObsId, limit);
+
+        Map<String, Object> response = buildSuccessResponse(worklist.size() + " pending tests", worklist);
+        // Pass back as afterObsId; an empty page means the worklist is exhausted
+        response.put("nextAfterObsId", worklist.isEmpty() ? null : worklist.get(worklist.size() - 1).getOrderObsId());
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * Attach imaging report (X-ray, CT, MRI, Ultrasound) with PACS link
      * POST /pinnacle/api/v1/encounters/{encounterId}/imaging
@@ -110,12 +212,55 @@ public class LaboratoryController {
         data.put("obsUuid", reportObs.getUuid());
         data.put("studyType", request.getStudyType());
         data.put("pacsUrl", request.getPacsUrl());
+        data.put("reportRef", reportObs.getValueComplex());
         data.put("attachedAt", new Date());
 
         return ResponseEntity.status(HttpStatus.CREATED)
                 .body(buildSuccessResponse("Imaging report attached successfully", data));
     }
 
+    /**
+     * Stream the narrative of an imaging report as plain text
+     * GET /pinnacle/api/v1/imaging/{obsUuid}/report
+     */
+    @GetMapping("/imaging/{obsUuid}/report")
+    public void streamImagingReport(
+            @PathVariable String obsUuid,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            HttpServletResponse response) throws IOException {
+
+        Obs reportObs = Context.getObsService().getObsByUuid(obsUuid);
+        if (reportObs == null || reportObs.getVoided() || !laboratoryService.isImagingReport(reportObs)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Imaging report not found: " + obsUuid);
+            return;
+        }
+
+        StoredReport report;
+        try {
+            report = laboratoryService.getImagingReport(reportObs);
+        } catch (IllegalStateException e) {
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+            return;
+        }
+        if (report == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Imaging report has no narrative: " + obsUuid);
+            return;
+        }
+
+        // Content-addressed, so the reference is a strong validator and never changes
+        String etag = "\"" + report.getReference() + "\"";
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable");
+        if (etag.equals(ifNoneMatch)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType("text/plain;charset=UTF-8");
+        response.setContentLengthLong(report.getSize());
+        report.writeTo(response.getOutputStream());
+        response.flushBuffer();
+    }
+
     // ==================== Request DTOs ====================
 
     public static class LabResultRequest {
@@ -144,6 +289,23 @@ public class LaboratoryController {
         public void setAccessionNumber(String accessionNumber) { this.accessionNumber = accessionNumber; }
     }
 
+    public static class LabResultBatchRequest {
+        private String source;                    // Optional, e.g. the analyzer name
+        private List<LabResultMessage> results;
+
+        public String getSource() { return source; }
+        public void setSource(String source) { this.source = source; }
+        public List<LabResultMessage> getResults() { return results; }
+        public void setResults(List<LabResultMessage> results) { this.results = results; }
+    }
+
+    public static class DeadLetterRetryRequest {
+        private List<Integer> ids;
+
+        public List<Integer> getIds() { return ids; }
+        public void setIds(List<Integer> ids) { this.ids = ids; }
+    }
+
     public static class ImagingReportRequest {
         private String studyType;        // e.g., "Chest X-ray", "CT Brain"
         private String pacsUrl;          // e.g., "http://pacs.example.com/viewer?study=12345"
@@ -192,6 +354,13 @@ public class LaboratoryController {
         return ResponseEntity.badRequest().body(buildErrorResponse(ex.getMessage()));
     }
 
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<Map<String, Object>> handleBackpressure(RejectedExecutionException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "30")
+                .body(buildErrorResponse("Lab ingestion queue is full, retry later"));
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Map<String, Object>> handleServerError(Exception ex) {
         return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -4,6 +4,8 @@ import org.openmrs.DrugOrder;
 import org.openmrs.Patient;
 import org.openmrs.TestOrder;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.model.PrescriptionLine;
+import org.openmrs.module.pinnaclecustomemrmodule.api.order.model.PrescriptionLineResult;
 import org.openmrs.module.pinnaclecustomemrmodule.api.order.service.OrderService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -12,6 +14,7 @@ import org.springframework.web.bind.annotation.*;
 
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -71,6 +74,31 @@ public class OrderController {
         }
     }
 
+    /**
+     * Prescribe a whole order set (e.g. discharge medication) in one transaction, with one outcome per line
+     * POST /pinnacle/api/v1/patients/{patientId}/order-sets
+     */
+    @PostMapping("/patients/{patientId}/order-sets")
+    public ResponseEntity<Map<String, Object>> prescribeOrderSet(
+            @PathVariable Integer patientId,
+            @RequestBody OrderSetRequest request) {
+
+        try {
+            List<PrescriptionLineResult> results = orderService.prescribeOrderSet(
+                    patientId, request.getEncounterId(), request.getLines(), request.isAllOrNothing());
+
+            long ordered = results.stream().filter(r -> r.getStatus() == PrescriptionLineResult.Status.ORDERED).count();
+            Map<String, Object> response = buildSuccessResponse(ordered + " of " + results.size() + " drugs prescribed", results);
+            response.put("ordered", ordered);
+            response.put("failed", results.size() - ordered);
+            return ResponseEntity.status(ordered > 0 ? HttpStatus.CREATED : HttpStatus.OK).body(response);
+
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(buildErrorResponse("Failed to prescribe order set: " + e.getMessage()));
+        }
+    }
+
     /**
      * Order a lab test
      * POST /pinnacle/api/v1/patients/{patientId}/lab-orders
@@ -136,6 +164,19 @@ public class OrderController {
         public void setDurationDays(Integer durationDays) { this.durationDays = durationDays; }
     }
 
+    public static class OrderSetRequest {
+        private Integer encounterId;          // Required; orders are placed in this encounter
+        private boolean allOrNothing;         // Save nothing if any line fails
+        private List<PrescriptionLine> lines;
+
+        public Integer getEncounterId() { return encounterId; }
+        public void setEncounterId(Integer encounterId) { this.encounterId = encounterId; }
+        public boolean isAllOrNothing() { return allOrNothing; }
+        public void setAllOrNothing(boolean allOrNothing) { this.allOrNothing = allOrNothing; }
+        public List<PrescriptionLine> getLines() { return lines; }
+        public void setLines(List<PrescriptionLine> lines) { this.lines = lines; }
+    }
+
     public static class LabOrderRequest {
         private String testName;  // Must match concept name in dictionary
 
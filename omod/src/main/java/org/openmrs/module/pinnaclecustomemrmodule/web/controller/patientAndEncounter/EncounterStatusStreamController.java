@@ -0,0 +1,219 @@
+package org.openmrs.module.pinnaclecustomemrmodule.web.controller.patientAndEncounter;
+
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.event.EncounterStatusEvent;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.event.EncounterStatusEventBus;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Encounter status transitions for triage boards, pushed as they commit instead of polled with
+ * findByStatus.
+ */
+@RestController
+@RequestMapping("/pinnacle/api/v1")
+public class EncounterStatusStreamController implements DisposableBean {
+
+    private static final long STREAM_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final long HEARTBEAT_SECONDS = 20;
+    private static final int MAX_POLL_EVENTS = 1000;
+
+    @Autowired
+    private EncounterStatusEventBus eventBus;
+
+    private final Set<StreamClient> clients = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pinnacle-encounter-status-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public EncounterStatusStreamController() {
+        heartbeat.scheduleAtFixedRate(this::sendHeartbeats, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Server-Sent Events stream of status transitions. Each event's id is its sequence; browsers
+     * send it back as Last-Event-ID on reconnect and the missed events are replayed first. A
+     * "reset" event means the gap could not be replayed, e.g. because the id is from before a
+     * server restart, and the board should reload.
+     * GET /pinnacle/api/v1/encounters/status-events/stream?locationId=1&status=REGISTERED&status=IN_PROGRESS
+     */
+    @GetMapping(value = "/encounters/status-events/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamStatusEvents(
+            @RequestParam(required = false) Integer locationId,
+            @RequestParam(required = false) List<String> status,
+            @RequestParam(required = false) Long since,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MILLIS);
+        StreamClient client = new StreamClient(emitter, locationId, status);
+        long after = lastEventId != null ? lastEventId : since != null ? since : -1;
+
+        client.sending.lock();
+        try {
+            client.subscription = eventBus.subscribe(after, client);
+            clients.add(client);
+            emitter.onCompletion(client::close);
+            emitter.onTimeout(client::close);
+            emitter.onError(e -> client.close());
+            try {
+                if (!client.subscription.isComplete()) {
+                    emitter.send(SseEmitter.event().name("reset").data(eventBus.getLastSequence()));
+                }
+                for (EncounterStatusEvent event : client.subscription.getBacklog()) {
+                    client.send(event);
+                }
+            } catch (IOException e) {
+                client.close();
+                emitter.completeWithError(e);
+            }
+        } finally {
+            client.sending.unlock();
+        }
+        return emitter;
+    }
+
+    /**
+     * Polling fallback for clients that cannot hold a stream open: returns the retained events
+     * after {@code since}. Pass the returned lastSequence as {@code since} on the next call.
+     * GET /pinnacle/api/v1/encounters/status-events?since=120
+     */
+    @GetMapping("/encounters/status-events")
+    public ResponseEntity<Map<String, Object>> getStatusEvents(
+            @RequestParam(defaultValue = "-1") long since,
+            @RequestParam(required = false) Integer locationId,
+            @RequestParam(required = false) List<String> status,
+            @RequestParam(defaultValue = "500") int limit) {
+
+        List<EncounterStatusEvent> events = new ArrayList<>();
+        long after = since < 0 ? eventBus.getLastSequence() : since;
+        boolean complete = eventBus.getEventsSince(after, Math.min(Math.max(limit, 1), MAX_POLL_EVENTS), events);
+
+        // The position to resume from is the last event scanned, whether or not it matched the filters
+        long lastSequence = !events.isEmpty() ? events.get(events.size() - 1).getSequence()
+                : complete ? after : eventBus.getLastSequence();
+        events.removeIf(e -> !matches(e, locationId, status));
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("events", events);
+        data.put("lastSequence", lastSequence);
+        data.put("complete", complete);
+        return ResponseEntity.ok(buildSuccessResponse(events.size() + " status events", data));
+    }
+
+    @Override
+    public void destroy() {
+        heartbeat.shutdownNow();
+        for (StreamClient client : clients) {
+            client.close();
+            client.emitter.complete();
+        }
+    }
+
+    /**
+     * Skips clients with a send in progress: they need no keep-alive, and waiting for one stuck
+     * on a slow connection would hold up the heartbeats of everyone else.
+     */
+    private void sendHeartbeats() {
+        for (StreamClient client : clients) {
+            if (!client.sending.tryLock()) continue;
+            try {
+                client.emitter.send(SseEmitter.event().comment("keep-alive"));
+            } catch (IOException | IllegalStateException e) {
+                client.close();
+            } finally {
+                client.sending.unlock();
+            }
+        }
+    }
+
+    private static boolean matches(EncounterStatusEvent event, Integer locationId, List<String> statuses) {
+        if (locationId != null && !locationId.equals(event.getLocationId())) return false;
+        return statuses == null || statuses.isEmpty() || statuses.contains(event.getToStatus());
+    }
+
+    /**
+     * One open stream. Sends hold {@link #sending} so the replayed backlog always goes out before
+     * live events.
+     */
+    private class StreamClient implements EncounterStatusEventBus.Listener {
+
+        final SseEmitter emitter;
+        final Integer locationId;
+        final List<String> statuses;
+        final ReentrantLock sending = new ReentrantLock();
+        volatile EncounterStatusEventBus.Subscription subscription;
+
+        StreamClient(SseEmitter emitter, Integer locationId, List<String> statuses) {
+            this.emitter = emitter;
+            this.locationId = locationId;
+            this.statuses = statuses;
+        }
+
+        @Override
+        public void onEvent(EncounterStatusEvent event) {
+            sending.lock();
+            try {
+                send(event);
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            } finally {
+                sending.unlock();
+            }
+        }
+
+        /**
+         * Too slow to keep up: end the stream, and the browser reconnects with Last-Event-ID and
+         * replays what it missed, or gets a reset.
+         */
+        @Override
+        public void onDropped() {
+            close();
+            emitter.complete();
+        }
+
+        void send(EncounterStatusEvent event) throws IOException {
+            if (!matches(event, locationId, statuses)) return;
+            emitter.send(SseEmitter.event()
+                    .id(String.valueOf(event.getSequence()))
+                    .name("status")
+                    .data(event, MediaType.APPLICATION_JSON));
+        }
+
+        void close() {
+            clients.remove(this);
+            if (subscription != null) subscription.cancel();
+        }
+    }
+
+    // ==================== Response Helpers ====================
+
+    private Map<String, Object> buildSuccessResponse(String message, Object data) {
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("success", true);
+        resp.put("message", message);
+        resp.put("timestamp", new Date());
+        if (data != null) resp.put("data", data);
+        return resp;
+    }
+}
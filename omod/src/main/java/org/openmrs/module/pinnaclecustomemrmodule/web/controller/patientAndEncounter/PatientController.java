@@ -3,11 +3,24 @@ package org.openmrs.module.pinnaclecustomemrmodule.web.controller.patientAndEnco
 import org.openmrs.Allergy;
 import org.openmrs.Patient;
 // import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.service.AllergyService;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate.DuplicateCandidate;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.duplicate.DuplicateScan;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.merge.PatientMergeResult;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.projection.PatientSummary;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.registration.BulkRegistrationReport;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.registration.PatientRegistration;
+import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.search.PatientSearchPage;
 import org.openmrs.module.pinnaclecustomemrmodule.api.patientAndEncounter.service.MPIService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/pinnacle/api/v1")
@@ -16,34 +29,120 @@ public class PatientController {
     @Autowired private MPIService mpiService;
     // @Autowired private AllergyService allergyService;
 
+    /**
+     * Patient summaries; {@code fields} selects the optional values to include, e.g.
+     * {@code fields=name,identifier} (all by default).
+     */
     @GetMapping("/patients/search")
-    public List<Patient> searchPatients(@RequestParam("q") String q) {
-        return mpiService.searchPatients(q);
+    public PatientSearchPage<PatientSummary> searchPatients(@RequestParam("q") String q,
+                                                            @RequestParam(required = false) Integer cursor,
+                                                            @RequestParam(defaultValue = "100") Integer limit,
+                                                            @RequestParam(required = false) String fields) {
+        return mpiService.searchPatientSummaries(q, cursor, limit, PatientSummary.Field.parse(fields));
     }
 
     @GetMapping("/patients/{uuid}")
-    public Patient getPatient(@PathVariable String uuid) {
-        return mpiService.getPatientById(uuid);
+    public ResponseEntity<PatientSummary> getPatient(@PathVariable String uuid,
+                                                     @RequestParam(required = false) String fields) {
+        PatientSummary summary = mpiService.getPatientSummary(uuid, PatientSummary.Field.parse(fields));
+        return summary != null ? ResponseEntity.ok(summary) : ResponseEntity.notFound().build();
     }
 
     @PostMapping("/patients")
-    public Patient createPatient(@RequestBody Patient patient) {
-        return mpiService.createPatient(patient);
+    public PatientSummary createPatient(@RequestBody Patient patient) {
+        Patient saved = mpiService.createPatient(patient);
+        return mpiService.getPatientSummary(saved.getPatientId(), PatientSummary.Field.parse(null));
+    }
+
+    /**
+     * Registers up to 5000 patients. Registrations that look like existing patients are skipped
+     * unless {@code allowDuplicates=true}, which creates them and queues them for duplicate review.
+     */
+    @PostMapping("/patients/bulk")
+    public BulkRegistrationReport registerPatients(@RequestBody List<PatientRegistration> registrations,
+                                                   @RequestParam(defaultValue = "false") boolean allowDuplicates) {
+        return mpiService.registerPatients(registrations, allowDuplicates);
     }
 
     @PostMapping("/patients/merge")
-    public Patient mergePatients(@RequestParam Integer sourceId,
-                                 @RequestParam Integer targetId,
-                                 @RequestParam(required = false) String reason) {
-        return mpiService.mergePatients(sourceId, targetId, reason);
+    public PatientSummary mergePatients(@RequestParam Integer sourceId,
+                                        @RequestParam Integer targetId,
+                                        @RequestParam(required = false) String reason,
+                                        @RequestParam(required = false) String fields) {
+        // Parsed first: a bad fields value must fail before the merge, not after it commits
+        Set<PatientSummary.Field> selected = PatientSummary.Field.parse(fields);
+        Patient target = mpiService.mergePatients(sourceId, targetId, reason);
+        return mpiService.getPatientSummary(target.getPatientId(), selected);
+    }
+
+    /**
+     * Row counts a merge would move, without changing anything.
+     */
+    @GetMapping("/patients/merge/preview")
+    public PatientMergeResult previewMerge(@RequestParam Integer sourceId,
+                                           @RequestParam Integer targetId) {
+        return mpiService.mergePatients(sourceId, targetId, null, true);
+    }
+
+    /**
+     * Duplicate review queue, highest score first. The cursor is the id of the last candidate seen.
+     */
+    @GetMapping("/patients/duplicates")
+    public List<DuplicateCandidate> getDuplicateCandidates(@RequestParam(required = false) DuplicateCandidate.Status status,
+                                                           @RequestParam(required = false) Integer cursor,
+                                                           @RequestParam(defaultValue = "100") Integer limit) {
+        return mpiService.getDuplicateCandidates(status, cursor, limit);
+    }
+
+    /**
+     * 409 Conflict if the candidate was already reviewed.
+     */
+    @PostMapping("/patients/duplicates/{id}/merge")
+    public ResponseEntity<?> mergeDuplicate(@PathVariable Integer id,
+                                            @RequestParam(required = false) Integer survivorId,
+                                            @RequestParam(required = false) String reason) {
+        try {
+            return ResponseEntity.ok(mpiService.mergeDuplicate(id, survivorId, reason));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(buildErrorResponse(e.getMessage()));
+        }
+    }
+
+    /**
+     * 409 Conflict if the candidate was already reviewed.
+     */
+    @PostMapping("/patients/duplicates/{id}/reject")
+    public ResponseEntity<?> rejectDuplicate(@PathVariable Integer id) {
+        try {
+            return ResponseEntity.ok(mpiService.rejectDuplicate(id));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(buildErrorResponse(e.getMessage()));
+        }
+    }
+
+    /**
+     * Starts a duplicate scan of the patients added since the last one, or of all patients with
+     * {@code full=true}.
+     */
+    @PostMapping("/patients/duplicates/scan")
+    public DuplicateScan startDuplicateScan(@RequestParam(defaultValue = "false") boolean full) {
+        return mpiService.startDuplicateScan(full);
+    }
+
+    @GetMapping("/patients/duplicates/scan")
+    public DuplicateScan getDuplicateScan() {
+        return mpiService.getDuplicateScan();
     }
 
     @PostMapping("/patients/split")
-    public Patient splitPatient(@RequestParam Integer mergedPatientId,
-                                @RequestParam(value = "encounterIds", required = false) List<Integer> encounterIds,
-                                @RequestParam(required = false) String reason) {
+    public PatientSummary splitPatient(@RequestParam Integer mergedPatientId,
+                                       @RequestParam(value = "encounterIds", required = false) List<Integer> encounterIds,
+                                       @RequestParam(required = false) String reason,
+                                       @RequestParam(required = false) String fields) {
+        Set<PatientSummary.Field> selected = PatientSummary.Field.parse(fields);
         Integer[] ids = encounterIds != null ? encounterIds.toArray(new Integer[0]) : null;
-        return mpiService.splitPatient(mergedPatientId, ids, reason);
+        Patient created = mpiService.splitPatient(mergedPatientId, ids, reason);
+        return mpiService.getPatientSummary(created.getPatientId(), selected);
     }
 
     // @PostMapping("/patients/{uuid}/allergies")
@@ -61,4 +160,17 @@ public class PatientController {
     //     Patient patient = mpiService.getPatientById(uuid);
     //     return allergyService.getAllergies(patient);
     // }
-}
\ No newline at end of file
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, Object>> handleValidation(IllegalArgumentException ex) {
+        return ResponseEntity.badRequest().body(buildErrorResponse(ex.getMessage()));
+    }
+
+    private Map<String, Object> buildErrorResponse(String message) {
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("success", false);
+        resp.put("error", message);
+        resp.put("timestamp", new Date());
+        return resp;
+    }
+}
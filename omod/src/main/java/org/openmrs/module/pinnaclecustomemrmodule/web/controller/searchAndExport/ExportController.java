@@ -1,16 +1,26 @@
 package org.openmrs.module.pinnaclecustomemrmodule.web.controller.searchAndExport;
 
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.searchAndExport.batch.BatchExportFormat;
+import org.openmrs.module.pinnaclecustomemrmodule.api.searchAndExport.batch.BatchExportJob;
 import org.openmrs.module.pinnaclecustomemrmodule.api.searchAndExport.service.ExportAndSearchService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/pinnacle/api/v1")
@@ -19,28 +29,122 @@ public class ExportController {
     @Autowired
     private ExportAndSearchService exportService;
 
+    /**
+     * The whole record is laid out first, with page content in a temp file rather than on the
+     * heap, and the finished PDF is then saved into the response stream; it is never held as a
+     * byte[]. The client receives nothing until the last page is laid out.
+     */
     @GetMapping("/patients/{patientId}/record.pdf")
-    public ResponseEntity<byte[]> exportFullRecord(
+    public void exportFullRecord(
             @PathVariable Integer patientId,
-            @RequestParam(defaultValue = "CONFIDENTIAL") String watermark) throws IOException {
+            @RequestParam(defaultValue = "CONFIDENTIAL") String watermark,
+            HttpServletResponse response) throws IOException {
 
-        byte[] pdf = exportService.exportPatientRecordAsPdf(patientId, watermark);
+        if (Context.getPatientService().getPatient(patientId) == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Patient not found: " + patientId);
+            return;
+        }
 
         String filename = "Patient_Record_" + patientId + "_" + new Date().getTime() + ".pdf";
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + URLEncoder.encode(filename, StandardCharsets.UTF_8))
-                .contentType(MediaType.APPLICATION_PDF)
-                .body(pdf);
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=UTF-8''" + URLEncoder.encode(filename, StandardCharsets.UTF_8));
+        exportService.writePatientRecordPdf(patientId, watermark, response.getOutputStream());
+        response.flushBuffer();
     }
 
     @GetMapping("/patients/{patientId}/summary.pdf")
-    public ResponseEntity<byte[]> exportSummary(@PathVariable Integer patientId) throws IOException {
-        byte[] pdf = exportService.exportPatientSummaryAsPdf(patientId);
+    public void exportSummary(@PathVariable Integer patientId, HttpServletResponse response) throws IOException {
+        if (Context.getPatientService().getPatient(patientId) == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Patient not found: " + patientId);
+            return;
+        }
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=Summary_" + patientId + ".pdf")
-                .contentType(MediaType.APPLICATION_PDF)
-                .body(pdf);
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=Summary_" + patientId + ".pdf");
+        exportService.writePatientSummaryPdf(patientId, response.getOutputStream());
+        response.flushBuffer();
     }
-}
\ No newline at end of file
+
+    /**
+     * Start a background export for a list of patients or a cohort
+     * POST /pinnacle/api/v1/exports/batch
+     */
+    @PostMapping("/exports/batch")
+    public ResponseEntity<Map<String, Object>> startBatchExport(@RequestBody BatchExportRequest request) {
+        BatchExportJob job;
+        if (request.getCohortUuid() != null) {
+            job = exportService.startCohortExport(request.getCohortUuid(), request.getWatermark(), request.getFormat());
+        } else {
+            job = exportService.startBatchExport(request.getPatientIds(), request.getWatermark(), request.getFormat());
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(buildSuccessResponse("Batch export started", job));
+    }
+
+    @GetMapping("/exports/batch/{jobId}")
+    public ResponseEntity<Map<String, Object>> getBatchExport(@PathVariable String jobId) {
+        BatchExportJob job = exportService.getBatchExportJob(jobId);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(buildErrorResponse("Export job not found: " + jobId));
+        }
+        return ResponseEntity.ok(buildSuccessResponse("Export job " + job.getStatus(), job));
+    }
+
+    @GetMapping("/exports/batch/{jobId}/download")
+    public void downloadBatchExport(@PathVariable String jobId, HttpServletResponse response) throws IOException {
+        BatchExportJob job = exportService.getBatchExportJob(jobId);
+        if (job == null || !job.isDownloadable()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Export job not found or not finished: " + jobId);
+            return;
+        }
+
+        File file = job.outputFile();
+        response.setContentType(job.getFormat() == BatchExportFormat.MERGED_PDF ? MediaType.APPLICATION_PDF_VALUE : "application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + file.getName());
+        response.setContentLengthLong(file.length());
+        Files.copy(file.toPath(), response.getOutputStream());
+        response.flushBuffer();
+    }
+
+    // ==================== Request DTOs ====================
+
+    public static class BatchExportRequest {
+        private List<Integer> patientIds;
+        private String cohortUuid;       // Alternative to patientIds
+        private String watermark = "CONFIDENTIAL";
+        private BatchExportFormat format = BatchExportFormat.ZIP;
+
+        public List<Integer> getPatientIds() { return patientIds; }
+        public void setPatientIds(List<Integer> patientIds) { this.patientIds = patientIds; }
+        public String getCohortUuid() { return cohortUuid; }
+        public void setCohortUuid(String cohortUuid) { this.cohortUuid = cohortUuid; }
+        public String getWatermark() { return watermark; }
+        public void setWatermark(String watermark) { this.watermark = watermark; }
+        public BatchExportFormat getFormat() { return format; }
+        public void setFormat(BatchExportFormat format) { this.format = format; }
+    }
+
+    // ==================== Response Helpers ====================
+
+    private Map<String, Object> buildSuccessResponse(String message, Object data) {
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("success", true);
+        resp.put("message", message);
+        resp.put("timestamp", new Date());
+        if (data != null) resp.put("data", data);
+        return resp;
+    }
+
+    private Map<String, Object> buildErrorResponse(String message) {
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("success", false);
+        resp.put("error", message);
+        resp.put("timestamp", new Date());
+        return resp;
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, Object>> handleValidation(IllegalArgumentException ex) {
+        return ResponseEntity.badRequest().body(buildErrorResponse(ex.getMessage()));
+    }
+}
@@ -0,0 +1,60 @@
+package org.openmrs.module.pinnaclecustomemrmodule.web.filter;
+
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pinnaclecustomemrmodule.api.metrics.QueryProfiler;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * Profiles the SQL of every {@code /pinnacle/api/v1} request, response rendering included, so
+ * lazy loads during serialization are counted too. Mapped in config.xml.
+ */
+public class QueryProfilerFilter implements Filter {
+
+    private volatile QueryProfiler profiler;
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        QueryProfiler profiler = profiler();
+        if (profiler == null || !(request instanceof HttpServletRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        HttpServletRequest http = (HttpServletRequest) request;
+        boolean profiling = profiler.begin(http.getMethod(), http.getRequestURI());
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (profiling) profiler.end();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private QueryProfiler profiler() {
+        if (profiler == null) {
+            try {
+                profiler = Context.getRegisteredComponent("pinnaclecustomemrmodule.QueryProfiler", QueryProfiler.class);
+            } catch (APIException e) {
+                // Module context not refreshed yet
+            }
+        }
+        return profiler;
+    }
+}
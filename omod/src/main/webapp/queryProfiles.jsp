@@ -0,0 +1,57 @@
+<%@ include file="/WEB-INF/template/include.jsp"%>
+
+<openmrs:require privilege="View Administration Functions" otherwise="/login.htm"
+                 redirect="/module/pinnaclecustomemrmodule/queryProfiles.form" />
+
+<%@ include file="/WEB-INF/template/header.jsp"%>
+
+<h2><spring:message code="pinnaclecustomemrmodule.queryProfiles.title" /></h2>
+
+<p>
+  <spring:message code="pinnaclecustomemrmodule.queryProfiles.description" arguments="${stats.repeatThreshold},${stats.slowRequestMillis}" />
+</p>
+<p>
+  <spring:message code="pinnaclecustomemrmodule.queryProfiles.counts"
+                  arguments="${stats.profiledRequests},${stats.suspectedNPlusOne},${stats.slowRequests}" />
+</p>
+
+<form method="post">
+  <input type="submit" value="<spring:message code="pinnaclecustomemrmodule.queryProfiles.clear" />" />
+</form>
+<br/>
+
+<c:if test="${empty requests}">
+  <p><spring:message code="pinnaclecustomemrmodule.queryProfiles.none" /></p>
+</c:if>
+
+<c:forEach var="profile" items="${requests}">
+  <div class="box">
+    <b><c:out value="${profile.method} ${profile.path}" /></b>
+    &mdash; <openmrs:formatDate date="${profile.startedAt}" type="long" />
+    <br/>
+    ${profile.durationMillis} ms,
+    ${profile.statements} <spring:message code="pinnaclecustomemrmodule.queryProfiles.statements" />
+    (${profile.distinctStatements} <spring:message code="pinnaclecustomemrmodule.queryProfiles.shapes" />)<c:if test="${profile.timed}">,
+    ${profile.sqlMillis} ms SQL</c:if>
+    <table>
+      <tr>
+        <th><spring:message code="pinnaclecustomemrmodule.queryProfiles.count" /></th>
+        <th>ms</th>
+        <th><spring:message code="pinnaclecustomemrmodule.queryProfiles.statement" /></th>
+      </tr>
+      <c:forEach var="statement" items="${profile.topStatements}">
+        <tr>
+          <td>${statement.count}</td>
+          <td>${statement.millis}</td>
+          <td><code><c:out value="${statement.sql}" /></code></td>
+        </tr>
+      </c:forEach>
+    </table>
+    <c:if test="${profile.suspectedNPlusOne}">
+      <span class="error"><spring:message code="pinnaclecustomemrmodule.queryProfiles.suspected" /></span>
+    </c:if>
+  </div>
+  <br/>
+</c:forEach>
+
+<%@ include file="/WEB-INF/template/footer.jsp"%>
@@ -35,6 +35,17 @@ public class AdminListExtensionTest {
 		assertThat(links.size(), is(not(0)));
 	}
 	
+	/**
+	 * The query profile page is reachable from the admin list
+	 */
+	@Test
+	public void testLinksIncludeQueryProfiles() {
+		AdminList ext = new AdminList();
+		
+		assertThat(ext.getLinks(), hasEntry("module/pinnaclecustomemrmodule/queryProfiles.form",
+		    "pinnaclecustomemrmodule.queryProfiles.title"));
+	}
+	
 	/**
 	 * Check the media type of this extension class
 	 */